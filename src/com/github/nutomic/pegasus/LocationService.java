@@ -16,23 +16,46 @@
 
 package com.github.nutomic.pegasus;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import android.app.AlarmManager;
 import android.app.Notification;
+import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.content.ContentValues;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.media.AudioManager;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
 import android.net.wifi.WifiManager;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.PowerManager;
 import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.telephony.CellLocation;
+import android.telephony.NeighboringCellInfo;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.telephony.cdma.CdmaCellLocation;
@@ -41,14 +64,38 @@ import android.util.Log;
 
 import com.github.nutomic.pegasus.activities.AreaList;
 import com.github.nutomic.pegasus.content.AreaColumns;
-import com.github.nutomic.pegasus.content.CellColumns;
-import com.github.nutomic.pegasus.content.CellLogColumns;
+import com.github.nutomic.pegasus.content.AreaShapes;
+import com.github.nutomic.pegasus.content.CellTowerImporter;
 import com.github.nutomic.pegasus.content.Database;
-import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.DatabaseBenchmark;
+import com.github.nutomic.pegasus.content.DatabaseCellStore;
+import com.github.nutomic.pegasus.content.DatabaseMaintenance;
+import com.github.nutomic.pegasus.content.FingerprintColumns;
+import com.github.nutomic.pegasus.content.WriteExecutor;
+import com.github.nutomic.pegasus.location.Action;
+import com.github.nutomic.pegasus.location.ActionPipeline;
+import com.github.nutomic.pegasus.location.AreaProfile;
+import com.github.nutomic.pegasus.location.AreaShape;
+import com.github.nutomic.pegasus.location.CellObservation;
+import com.github.nutomic.pegasus.location.CellSource;
+import com.github.nutomic.pegasus.location.CellSourceMerger;
+import com.github.nutomic.pegasus.location.Clock;
+import com.github.nutomic.pegasus.location.DeviceActuator;
+import com.github.nutomic.pegasus.location.EventLog;
+import com.github.nutomic.pegasus.location.FingerprintMatcher;
+import com.github.nutomic.pegasus.location.LocationEngine;
+import com.github.nutomic.pegasus.location.NeighbourhoodIndex;
+import com.github.nutomic.pegasus.location.PipelineStats;
+import com.github.nutomic.pegasus.location.RadioController;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
+import com.github.nutomic.pegasus.location.TraceRecorder;
 
 /**
  * Changes the sound profile when a different network cell is entered.
  * 
+ * The decision logic is in LocationEngine, this class connects it to 
+ * the telephony service, the database and the audio/radio settings.
+ * 
  * @author Felix Ableitner
  * 
  */
@@ -66,249 +113,546 @@ public class LocationService extends Service {
 	 */
 	public static final String MESSAGE_LEARN_AREA = "learn_area";
 	
+	/**
+	 * Learn an area for cells that were logged after the passed timestamp
+	 * and the most recently logged cell. Must also set MESSAGE_LEARN_AREA.
+	 */
+	public static final String MESSAGE_LEARN_SINCE = "learn_since";
+	
 	/** Areas or profiles updated, reapply current profile. */
 	public static final String MESSAGE_UPDATE = "update";
+	
+	/** 
+	 * Settings or parent of a single profile changed (value is the profile 
+	 * ID), reapply only if the current profile is affected. 
+	 */
+	public static final String MESSAGE_PROFILE_CHANGED = "profile_changed";
+	
+	/** 
+	 * Start (true) or stop (false) recording the engine input to 
+	 * TRACE_FILE for TraceReplayer.
+	 */
+	public static final String MESSAGE_RECORD_TRACE = "record_trace";
+	
+	/**
+	 * Generate a synthetic data set in a scratch database and log query 
+	 * timings. Pass the data set size in percent of the full size.
+	 */
+	public static final String MESSAGE_BENCHMARK_DATABASE = "benchmark_database";
+	
+	/** Number of times each query is timed by MESSAGE_BENCHMARK_DATABASE. */
+	private static final int BENCHMARK_ITERATIONS = 50;
+	
+	/** Log stage latencies and counters. */
+	public static final String MESSAGE_LOG_STATS = "log_stats";
+	
+	/** 
+	 * Reset stage latencies, counters, SQL and action statistics, after 
+	 * logging them if requested. 
+	 */
+	public static final String MESSAGE_RESET_STATS = "reset_stats";
+	
+	/** Write the diagnostic event log to EVENTS_FILE. */
+	public static final String MESSAGE_EXPORT_EVENTS = "export_events";
+	
+	/** Name of the exported event log in the private files directory. */
+	public static final String EVENTS_FILE = "events.bin";
+	
+	/** 
+	 * Import cell towers from the OpenCellID CSV file at the given path or
+	 * Uri (file or content). May also set MESSAGE_IMPORT_BOUNDS.
+	 */
+	public static final String MESSAGE_IMPORT_CELLS = "import_cells";
+	
+	/** 
+	 * Only import towers inside these bounds, as a double array of 
+	 * minimum latitude, minimum longitude, maximum latitude and maximum 
+	 * longitude. 
+	 */
+	public static final String MESSAGE_IMPORT_BOUNDS = "import_bounds";
+	
+	/** 
+	 * Set the shape of an area as text (see AreaShape.parse()), or remove 
+	 * it if the text is empty. Must also set MESSAGE_SHAPE_AREA.
+	 */
+	public static final String MESSAGE_SET_SHAPE = "set_shape";
+	
+	/** ID of the area whose shape is set by MESSAGE_SET_SHAPE. */
+	public static final String MESSAGE_SHAPE_AREA = "shape_area";
+	
+	/** Sent by the alarm when a schedule may change the profile. */
+	private static final String MESSAGE_SCHEDULE = "schedule";
+	
+	/** Sent by the alarm to run database maintenance if it is due. */
+	private static final String MESSAGE_MAINTENANCE = "maintenance";
+	
+	/** Minimum time between two database maintenance runs. */
+	private static final long MAINTENANCE_INTERVAL = AlarmManager.INTERVAL_DAY;
+	
+	/** Preference key for the wall clock time of the last maintenance. */
+	private static final String PREF_LAST_MAINTENANCE = "last_maintenance";
+	
+	/** Number of events kept in the event log. */
+	private static final int EVENT_LOG_SIZE = 4096;
+	
+	/** Number of events printed by dump(). */
+	private static final int EVENT_DUMP_COUNT = 32;
+	
+	/** Name of the trace file in the private files directory. */
+	public static final String TRACE_FILE = "trace.bin";
 
 	private static final int NOTIFICATION_ID = 1;
+	
+	/** ID of the notification showing cell import progress. */
+	private static final int IMPORT_NOTIFICATION_ID = 2;
 
 	private static final String TAG = "LocationService";
 	
 	private static final int CELL_NO_SIGNAL = -1;
 	
-	/** Database ID of the current area. */
-	private volatile long mCurrentArea = Database.ROW_NONE;
-	
-	private volatile int mCurrentCell = CELL_NO_SIGNAL;
-	
-	/** The database ID of the area to assign new cells to. */
-	private volatile long mLearnArea = Database.ROW_NONE;
-	
-	/** Time limit after which to stop learning mLearnArea. */
-	private volatile long mLearnUntil = 0;
+	/** 
+	 * Cell sources for CellSourceMerger, GSM includes UMTS and LTE 
+	 * locations. 
+	 */
+	private static final int SOURCE_GSM = 1;
+	private static final int SOURCE_CDMA = 2;
 
 	private Notification mNotification = null;
 	
 	private CellListener mCellListener;
+	
+	private LocationEngine mEngine;
+	
+	private AreaShapes mAreaShapes;
+	
+	private final DeviceStateReceiver mDeviceStateReceiver = new DeviceStateReceiver();
+	
+	private final RadioStateReceiver mRadioStateReceiver = new RadioStateReceiver();
+	
+	private RadioController mWifi;
+	
+	/** Null if the device has no bluetooth. */
+	private RadioController mBluetooth;
+	
+	/** Runs deferred radio checks on the main thread. */
+	private final RadioController.Scheduler mRadioScheduler = 
+			new RadioController.Scheduler() {
+		
+		private final Handler mHandler = new Handler();
+		
+		@Override
+		public void schedule(Runnable task, long delay) {
+			mHandler.postDelayed(task, delay);
+		}
+	};
+	
+	/** Runs the actions that apply profiles. */
+	private final ActionPipeline mActions = new ActionPipeline();
+	
+	private final ActionPipeline.Listener mActionListener = new ActionPipeline.Listener() {
+		
+		@Override
+		public void onComplete(Action action, long nanos, Throwable error) {
+			if (error != null) {
+				Log.w(TAG, "Failed to apply " + action.getName(), error);
+			}
+		}
+	};
+	
+	private final Clock mClock = new Clock() {
+		
+		@Override
+		public long elapsedRealtime() {
+			return SystemClock.elapsedRealtime();
+		}
+		
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+	
+	/** Merges the cell changes of all radios for the engine. */
+	private final CellSourceMerger mCellSources = new CellSourceMerger(mClock);
+	
+	/** Diagnostic events, instead of log messages. */
+	private final EventLog mEvents = new EventLog(EVENT_LOG_SIZE, mClock);
+	
+	/** Records engine input if not null. */
+	private volatile TraceRecorder mRecorder = null;
+	
+	/** True while database maintenance is running. */
+	private final AtomicBoolean mMaintaining = new AtomicBoolean();
+	
+	private volatile String mMaintenanceReport = null;
 
-	private class CellListener extends PhoneStateListener {
+	/**
+	 * Reports cell changes of the phone radio.
+	 */
+	private class CellListener extends PhoneStateListener implements CellSource {
+		
+		private final TelephonyManager mTelephonyManager;
+		
+		/** Source of the last location, used when signal is lost. */
+		private volatile int mSource;
 		
+		private volatile Listener mListener;
+		
+		/** Number of cell changes that were received but not processed yet. */
+		private final AtomicInteger mPending = new AtomicInteger();
+		
+		/** Processes cell changes one by one, in the order they arrived. */
+		private volatile ExecutorService mExecutor;
+
 		/**
-		 *  Network type as TelephonyManager.PHONE_TYPE_CDMA or 
-		 *  TelephonyManager.PHONE_TYPE_GSM.
+		 * The network type of each location is taken from its class, as 
+		 * devices with multiple radios may report locations of a 
+		 * different type than TelephonyManager.getPhoneType().
 		 */
-		private final int mNetworkType;
+		CellListener(TelephonyManager tm) {
+			mTelephonyManager = tm;
+			mSource = (tm.getPhoneType() == TelephonyManager.PHONE_TYPE_CDMA) 
+					? SOURCE_CDMA 
+					: SOURCE_GSM;
+		}
 
+		@Override
+		public void start(Listener listener) {
+			mListener = listener;
+			mExecutor = Executors.newSingleThreadExecutor();
+			mTelephonyManager.listen(this, PhoneStateListener.LISTEN_CELL_LOCATION);
+			// Force update.
+			onCellLocationChanged(mTelephonyManager.getCellLocation());
+		}
+
+		@Override
+		public void stop() {
+			mTelephonyManager.listen(this, PhoneStateListener.LISTEN_NONE);
+			mExecutor.shutdown();
+		}
+		
+		int getPending() {
+			return mPending.get();
+		}
+		
 		/**
-		 * Set the network type on start as callback is only called on changes.
+		 * Runs task on the executor thread, after the cell changes that 
+		 * are already queued. Dropped if stopped.
 		 */
-		CellListener(int networkType) {
-			mNetworkType = networkType;
+		void execute(Runnable task) {
+			try {
+				mExecutor.execute(task);
+			}
+			catch (RejectedExecutionException e) {
+				// Stopped, the engine is not used any more.
+			}
 		}
 		
 		/**
-		 * Read the cell id, add it to the database if it is entered 
-		 * for the first time, log it, apply the associated sound profile.
+		 * Process the cell change on the executor thread.
 		 */
 		@Override
 		public void onCellLocationChanged(final CellLocation location) {
 			super.onCellLocationChanged(location);
+			final long received = System.nanoTime();
+			mPending.incrementAndGet();
 
-			new Thread(new Runnable() {
-				
-				@Override
-				public void run() {
-					int cell = CELL_NO_SIGNAL;
-
-					if (mNetworkType == TelephonyManager.PHONE_TYPE_CDMA) {
-						CdmaCellLocation l = (CdmaCellLocation) location;
-						cell = l.getBaseStationId();
-					} else if (mNetworkType == TelephonyManager.PHONE_TYPE_GSM) {
-						GsmCellLocation l = (GsmCellLocation) location;
-						cell = l.getCid();
-					}
-					
-					// Ignore no signal.
-					if (cell == CELL_NO_SIGNAL) {
-						Log.i(TAG, "Lost signal, igoring");
-						return;
-					}
+			try {
+				mExecutor.execute(new Runnable() {
 					
-					Log.i(TAG, "Switch to cell " + Integer.toString(cell));
-					
-					final Database db = Database.getInstance(LocationService.this);
-
-					// Get cell ID if cell exists.
-					Cursor c = db.getReadableDatabase().query(
-							CellColumns.TABLE_NAME + " as c, " + AreaColumns.TABLE_NAME + " as a", 
-							new String[] { "c." + CellColumns._ID + " as cell_id", 
-									"a." + AreaColumns._ID + " as area_id" }, 
-							"a." + AreaColumns._ID + " = c." + CellColumns.AREA_ID + " " +
-							"AND " + CellColumns.CELL_ID + " = ? " +
-							"AND " + CellColumns.CELL_TYPE + " = ?", 
-							new String[] { Long.toString(cell),
-									Integer.toString(mNetworkType) }, 
-							null, null, null);
-					long cellRow = Database.ROW_NONE;
-					long newArea = Database.ROW_NONE;
-					
-					// If cell is in database, select and update if necessary.
-					if (c.moveToFirst()) {	
-						// Get the values.
-						cellRow = c.getLong(c.getColumnIndex("cell_id"));
-						newArea = c.getLong(c.getColumnIndex("area_id"));
-						// Update the cell if we are learning an area.
-						if (SystemClock.elapsedRealtime() <= mLearnUntil) {
-							ContentValues cv = new ContentValues();
-							cv.put(CellColumns.AREA_ID, mLearnArea);
-							db.getWritableDatabase().update(CellColumns.TABLE_NAME, 
-									cv, 
-									CellColumns._ID + " = ?", 
-									new String[] { Long.toString(cellRow) });
-							newArea = mLearnArea;
+					@Override
+					public void run() {
+						try {
+							process(location, received);
+						}
+						finally {
+							mPending.decrementAndGet();
 						}
 					}
-					// Create cell if it does not exist.
-					else {
-						// Check if we are still learning, if not use default area.
-						newArea = (SystemClock.elapsedRealtime() <= mLearnUntil)
-							? mLearnArea
-							: AreaColumns.AREA_DEFAULT;
-						
-						ContentValues cv = new ContentValues();
-						cv.put(CellColumns.AREA_ID, newArea);
-						cv.put(CellColumns.CELL_ID, cell);
-						cv.put(CellColumns.CELL_TYPE, mNetworkType);					
-						cellRow = db.getWritableDatabase()
-								.insert(CellColumns.TABLE_NAME, null, cv);
-					}
-					
-					// Only apply profile if we weren't in the same area before.
-					if (mCurrentArea != newArea) {
-						mCurrentArea = newArea;
-						applyProfile(cell);
+				});
+			}
+			catch (RejectedExecutionException e) {
+				// Stopped, callbacks that were already queued are dropped.
+				mPending.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Read the cell id and visible neighbour cells and pass them on.
+		 */
+		private void process(CellLocation location, long received) {
+			long parsing = System.nanoTime();
+			PipelineStats stats = mEngine.getStats();
+			stats.record(PipelineStats.STAGE_RECEIVED, parsing - received);
+			int cell = CELL_NO_SIGNAL;
+			int lac = NeighbourhoodIndex.LAC_UNKNOWN;
+			int type = TelephonyManager.PHONE_TYPE_NONE;
+			int previous = mSource;
+
+			if (location instanceof CdmaCellLocation) {
+				CdmaCellLocation l = (CdmaCellLocation) location;
+				cell = l.getBaseStationId();
+				lac = l.getNetworkId();
+				type = TelephonyManager.PHONE_TYPE_CDMA;
+				mSource = SOURCE_CDMA;
+			} else if (location instanceof GsmCellLocation) {
+				GsmCellLocation l = (GsmCellLocation) location;
+				cell = l.getCid();
+				lac = l.getLac();
+				type = TelephonyManager.PHONE_TYPE_GSM;
+				mSource = SOURCE_GSM;
+			}
+		
+			// Report no signal, another source may still have one.
+			if (cell == CELL_NO_SIGNAL) {
+				mListener.onSignalLost(mSource);
+				return;
+			}
+		
+			// Collect the serving cell and all visible neighbours.
+			List<NeighboringCellInfo> neighbours = 
+					mTelephonyManager.getNeighboringCellInfo();
+			int count = 1 + ((neighbours != null) ? neighbours.size() : 0);
+			int[] cells = new int[count];
+			int[] signals = new int[count];
+			cells[0] = cell;
+			signals[0] = FingerprintColumns.SIGNAL_SERVING;
+			count = 1;
+			if (neighbours != null) {
+				for (NeighboringCellInfo n : neighbours) {
+					if (n.getCid() != NeighboringCellInfo.UNKNOWN_CID && 
+							n.getCid() != cell) {
+						cells[count] = n.getCid();
+						signals[count] = getAsu(n);
+						count++;
 					}
-					
-					// Log cell.
-					ContentValues cv = new ContentValues();
-					cv.put(CellLogColumns.CELL_ID, cellRow);
-					cv.put(CellLogColumns.TIMESTAMP, System.currentTimeMillis());
-					db.getWritableDatabase().insert(CellLogColumns.TABLE_NAME, null, cv);
-					
-					mCurrentCell = cell;
 				}
-			}).start();
+			}
+			if (count < cells.length) {
+				int[] c = new int[count];
+				int[] s = new int[count];
+				System.arraycopy(cells, 0, c, 0, count);
+				System.arraycopy(signals, 0, s, 0, count);
+				cells = c;
+				signals = s;
+			}
+		
+			CellObservation observation = 
+					new CellObservation(mSource, type, lac, cells, signals);
+			stats.record(PipelineStats.STAGE_PARSED, System.nanoTime() - parsing);
+			mListener.onCellObserved(observation);
+			
+			// The radio switched networks, so the old observation is gone. 
+			// This is reported after the new one to avoid a false signal loss.
+			if (previous != mSource) {
+				mListener.onSignalLost(previous);
+			}
 		}
 		
 		/**
-		 * Applies the profile for the current area.
+		 * Returns the signal level of a neighbour cell in ASU. UMTS cells 
+		 * report it in dBm instead.
+		 */
+		private int getAsu(NeighboringCellInfo n) {
+			int rssi = n.getRssi();
+			if (rssi == NeighboringCellInfo.UNKNOWN_RSSI)
+				return FingerprintColumns.SIGNAL_UNKNOWN;
+			
+			switch (n.getNetworkType()) {
+			case TelephonyManager.NETWORK_TYPE_UMTS:
+			case TelephonyManager.NETWORK_TYPE_HSDPA:
+			case TelephonyManager.NETWORK_TYPE_HSUPA:
+			case TelephonyManager.NETWORK_TYPE_HSPA:
+				return FingerprintMatcher.asuFromDbm(rssi);
+			default:
+				return rssi;
+			}
+		}
+	}
+	
+	/**
+	 * Passes charging and headset state changes to the engine for rules, 
+	 * and tracks the screen state for maintenance.
+	 */
+	private class DeviceStateReceiver extends BroadcastReceiver {
+		
+		private volatile boolean mCharging = false;
+		
+		private volatile boolean mHeadset = false;
+		
+		private volatile boolean mScreenOn = true;
+		
+		/**
+		 * Registers for battery, headset and screen broadcasts. The current 
+		 * battery and headset state is received immediately as both are 
+		 * sticky, the screen state is read directly.
 		 */
-		private void applyProfile(final int cell) {	
-			new Thread(new Runnable() {
+		public void register() {
+			// PowerManager.isScreenOn() was added in API 7, before that the 
+			// screen is assumed to be on until it is turned off.
+			if (Build.VERSION.SDK_INT >= 7) {
+				PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+				mScreenOn = pm.isScreenOn();
+			}
+			IntentFilter filter = new IntentFilter();
+			filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+			filter.addAction(Intent.ACTION_HEADSET_PLUG);
+			filter.addAction(Intent.ACTION_SCREEN_ON);
+			filter.addAction(Intent.ACTION_SCREEN_OFF);
+			registerReceiver(this, filter);
+		}
+
+		/**
+		 * Battery broadcasts are frequent, the engine is only called if 
+		 * the charging state changed.
+		 */
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			boolean charging = mCharging;
+			boolean headset = mHeadset;
+			if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+				charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+			}
+			else if (Intent.ACTION_HEADSET_PLUG.equals(intent.getAction())) {
+				headset = intent.getIntExtra("state", 0) == 1;
+			}
+			else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+				mScreenOn = true;
+			}
+			else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+				mScreenOn = false;
+			}
+			if (charging == mCharging && headset == mHeadset)
+				return;
+			
+			mCharging = charging;
+			mHeadset = headset;
+			// Queued with the cell changes, so the engine sees events in order.
+			mCellListener.execute(new Runnable() {
 				
 				@Override
 				public void run() {
-					final Database db = Database.getInstance(LocationService.this);
-					
-					// Get area name and ID of the associated profile.
-					Cursor c = db.getReadableDatabase().query(
-							AreaColumns.TABLE_NAME + " as a, " + CellColumns.TABLE_NAME + " as c",
-							new String[] { "a." + AreaColumns.PROFILE_ID, "a." + AreaColumns.NAME,
-									"a." + AreaColumns.WIFI_ENABLED, "a." + AreaColumns.BLUETOOTH_ENABLED},
-							"a." + AreaColumns._ID + " = c." + CellColumns.AREA_ID + " AND " +
-									"c." + CellColumns.CELL_ID + " = ? AND " +
-									"c." + CellColumns.CELL_TYPE + " = ?",
-							new String[] { Integer.toString(cell),
-									Integer.toString(mNetworkType) }, 
-							null, null, null);
-
-					long profileId = Database.ROW_NONE;
-					String areaName;
-					
-					if (c.moveToFirst()) {
-						profileId = c.getLong(c.getColumnIndex(AreaColumns.PROFILE_ID));
-						areaName = c.getString(c.getColumnIndex(AreaColumns.NAME));
-						
-						WifiManager wm = (WifiManager) LocationService.this
-								.getSystemService(Context.WIFI_SERVICE);
-						wm.setWifiEnabled((c.getInt(c.getColumnIndex(AreaColumns.WIFI_ENABLED))  == 1)
-								? true : false);
-						
-						BluetoothAdapter bt = BluetoothAdapter.getDefaultAdapter();
-						if (bt != null) {
-							if ((c.getInt(c.getColumnIndex(AreaColumns.BLUETOOTH_ENABLED)) == 1)) {
-								bt.enable();
-							}
-							else {
-								bt.disable();
-							}
-						}
-					}
-					else {
-						areaName = getResources().getString(
-								R.string.locationservice_area_unknown);
-					}
-
-					c = db.getReadableDatabase().query(
-							ProfileColumns.TABLE_NAME,
-							new String[] { ProfileColumns.NAME,
-									ProfileColumns.RINGTONE_VOLUME, 
-									ProfileColumns.NOTIFICATION_VOLUME,
-									ProfileColumns.MEDIA_VOLUME, 
-									ProfileColumns.ALARM_VOLUME, 
-									ProfileColumns.RINGER_MODE }, 
-							"_id = ?",
-							new String[] { Long.toString(profileId) }, 
-							null, null, null);
-					
-					// Apply profile if there is one and set the name for the notification.
-					String profileName;
-					if (c.moveToFirst()) {
-						AudioManager am = (AudioManager) LocationService.this
-								.getSystemService(Context.AUDIO_SERVICE);
-
-						// Value smaller zero means the volume should not change.
-						if (c.getInt(c.getColumnIndex(ProfileColumns.RINGTONE_VOLUME)) >= 0) {
-							am.setStreamVolume(AudioManager.STREAM_RING, 
-									c.getInt(c.getColumnIndex(ProfileColumns.RINGTONE_VOLUME)),
-									AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
-						}
+					mEngine.setDeviceState(mCharging, mHeadset);
+				}
+			});
+		}
+		
+		public boolean isCharging() {
+			return mCharging;
+		}
+		
+		public boolean isScreenOn() {
+			return mScreenOn;
+		}
+		
+	}
 
-						if (c.getInt(c.getColumnIndex(ProfileColumns.NOTIFICATION_VOLUME)) >= 0) {
-							am.setStreamVolume(AudioManager.STREAM_NOTIFICATION, 
-									c.getInt(c.getColumnIndex(ProfileColumns.NOTIFICATION_VOLUME)), 
-									AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
-						}
+	/**
+	 * Passes wifi and bluetooth state changes to the radio controllers.
+	 */
+	private class RadioStateReceiver extends BroadcastReceiver {
+		
+		/**
+		 * Registers for radio state broadcasts. The wifi broadcast is sticky,
+		 * the bluetooth state is read directly.
+		 */
+		public void register() {
+			IntentFilter filter = new IntentFilter();
+			filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+			filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+			registerReceiver(this, filter);
+			BluetoothAdapter bt = BluetoothAdapter.getDefaultAdapter();
+			if (mBluetooth != null && bt != null) {
+				mBluetooth.onState(getBluetoothState(bt.getState()));
+			}
+		}
 
-						if (c.getInt(c.getColumnIndex(ProfileColumns.MEDIA_VOLUME)) >= 0) {
-							am.setStreamVolume(AudioManager.STREAM_MUSIC, 
-									c.getInt(c.getColumnIndex(ProfileColumns.MEDIA_VOLUME)),
-									AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
-						}
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(intent.getAction())) {
+				mWifi.onState(getWifiState(intent.getIntExtra(
+						WifiManager.EXTRA_WIFI_STATE, WifiManager.WIFI_STATE_UNKNOWN)));
+			}
+			else if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(intent.getAction()) && 
+					mBluetooth != null) {
+				mBluetooth.onState(getBluetoothState(intent.getIntExtra(
+						BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR)));
+			}
+		}
+		
+		private int getWifiState(int state) {
+			switch (state) {
+			case WifiManager.WIFI_STATE_DISABLED:
+				return RadioController.STATE_OFF;
+			case WifiManager.WIFI_STATE_ENABLING:
+				return RadioController.STATE_TURNING_ON;
+			case WifiManager.WIFI_STATE_ENABLED:
+				return RadioController.STATE_ON;
+			case WifiManager.WIFI_STATE_DISABLING:
+				return RadioController.STATE_TURNING_OFF;
+			default:
+				return RadioController.STATE_UNKNOWN;
+			}
+		}
+		
+		private int getBluetoothState(int state) {
+			switch (state) {
+			case BluetoothAdapter.STATE_OFF:
+				return RadioController.STATE_OFF;
+			case BluetoothAdapter.STATE_TURNING_ON:
+				return RadioController.STATE_TURNING_ON;
+			case BluetoothAdapter.STATE_ON:
+				return RadioController.STATE_ON;
+			case BluetoothAdapter.STATE_TURNING_OFF:
+				return RadioController.STATE_TURNING_OFF;
+			default:
+				return RadioController.STATE_UNKNOWN;
+			}
+		}
+		
+	}
 
-						if (c.getInt(c.getColumnIndex(ProfileColumns.ALARM_VOLUME)) >= 0) {
-							am.setStreamVolume(AudioManager.STREAM_ALARM, 
-									c.getInt(c.getColumnIndex(ProfileColumns.ALARM_VOLUME)),
-									AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
-						}
+	/**
+	 * Applies profiles to audio and radio settings and shows them in the 
+	 * notification.
+	 */
+	private class Actuator implements DeviceActuator {
 
-						if (c.getInt(c.getColumnIndex(ProfileColumns.RINGER_MODE)) != 
-								ProfileColumns.RINGER_MODE_KEEP) {
-							am.setRingerMode(c.getInt(c.getColumnIndex(ProfileColumns.RINGER_MODE)));
-						}
-						
-						profileName = c.getString(c.getColumnIndex(ProfileColumns.NAME));
-					}
-					else {
-						profileName = getResources().getString(
-								R.string.arealist_profile_none);			
-					}
+		/**
+		 * Builds the notification in advance.
+		 */
+		@Override
+		public void prepare(AreaProfile profile) {
+			profile.prepared = buildNotification(profile.areaName, profile.profileName);
+		}
 
-					Log.i(TAG, "Apply profile " + profileName + 
-							" (in area " + areaName + ")");
-					showNotification(areaName, profileName);
+		/**
+		 * Queues the actions for profile and shows the notification, 
+		 * without waiting for the actions to finish.
+		 */
+		@Override
+		public void apply(AreaProfile profile) {
+			long start = System.nanoTime();
+			for (Action action : ProfileActions.create(LocationService.this, profile)) {
+				mActions.submit(action, mActionListener);
+			}
+			if (profile.hasArea) {
+				mWifi.request(profile.wifiEnabled);
+				if (mBluetooth != null) {
+					mBluetooth.request(profile.bluetoothEnabled);
 				}
-			}).start();
+			}
+
+			scheduleAlarm(profile.nextChange);
+			mEvents.add(EventLog.EVENT_APPLY, profile.area, profile.ringerMode);
+			long applied = System.nanoTime();
+			mNotification = (Notification) profile.prepared;
+			startForeground(NOTIFICATION_ID, mNotification);
+			PipelineStats stats = mEngine.getStats();
+			stats.record(PipelineStats.STAGE_APPLIED, applied - start);
+			stats.record(PipelineStats.STAGE_NOTIFIED, System.nanoTime() - applied);
 		}
+		
 	}
 
 	/**
@@ -325,26 +669,356 @@ public class LocationService extends Service {
 	}
 
 	/**
-	 * Register CellListener and show Notification.
+	 * Convenience method for sending an Intent with 
+	 * MESSAGE_PROFILE_CHANGED to the service.
+	 * 
+	 * @param context Application context.
+	 * @param profile ID of the changed profile.
+	 */
+	public static void sendProfileChangedIntent(Context context, long profile) {
+		Intent i = new Intent(context, LocationService.class);
+		i.putExtra(MESSAGE_PROFILE_CHANGED, profile);
+		context.startService(i);		
+	}
+
+	/**
+	 * Convenience method for sending an Intent with MESSAGE_SET_SHAPE 
+	 * to the service.
+	 * 
+	 * @param context Application context.
+	 * @param area ID of the area.
+	 * @param shape Shape as text (see AreaShape.parse()), or an empty 
+	 *              string to remove it.
+	 */
+	public static void sendSetShapeIntent(Context context, long area, String shape) {
+		Intent i = new Intent(context, LocationService.class);
+		i.putExtra(MESSAGE_SET_SHAPE, shape);
+		i.putExtra(MESSAGE_SHAPE_AREA, area);
+		context.startService(i);		
+	}
+
+	/**
+	 * Create LocationEngine and radio controllers, register CellListener 
+	 * and broadcast receivers.
 	 */
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		final WifiManager wm = (WifiManager) getSystemService(Context.WIFI_SERVICE);
+		mWifi = new RadioController("Wifi", new RadioController.Switch() {
+			
+			@Override
+			public void setEnabled(boolean enabled) {
+				mActions.submit(new ProfileActions.WifiAction(wm, enabled), mActionListener);
+			}
+		}, mRadioScheduler, mClock);
+		final BluetoothAdapter bt = BluetoothAdapter.getDefaultAdapter();
+		if (bt != null) {
+			mBluetooth = new RadioController("Bluetooth", new RadioController.Switch() {
+				
+				@Override
+				public void setEnabled(boolean enabled) {
+					mActions.submit(new ProfileActions.BluetoothAction(bt, enabled), 
+							mActionListener);
+				}
+			}, mRadioScheduler, mClock);
+		}
+		mRadioStateReceiver.register();
+		mEngine = new LocationEngine(new DatabaseCellStore(this), new Actuator(), mClock, 
+				AreaColumns.AREA_DEFAULT);
+		mAreaShapes = new AreaShapes(Database.getInstance(this));
+		// Votes and fingerprints written by a background migration are 
+		// only loaded on update.
+		Database.getInstance(this).getMigrations().setOnCopied(new Runnable() {
+			
+			@Override
+			public void run() {
+				mEngine.update();
+			}
+		});
 		TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-		mCellListener = new CellListener(tm.getPhoneType());
-		tm.listen(mCellListener, PhoneStateListener.LISTEN_CELL_LOCATION);
-		// Force update.
-		mCellListener.onCellLocationChanged(tm.getCellLocation());
+		mCellListener = new CellListener(tm);
+		// Further sources (like other subscriptions) can be added here, 
+		// which needs API levels above the target of this app.
+		mCellSources.add(mCellListener);
+		mCellSources.start(new CellSource.Listener() {
+			
+			@Override
+			public void onCellObserved(CellObservation observation) {
+				mEvents.add(EventLog.EVENT_CELL, observation.cell, observation.lac);
+				TraceRecorder recorder = mRecorder;
+				if (recorder != null) {
+					try {
+						recorder.cell(observation);
+					}
+					catch (IOException e) {
+						traceFailed(e);
+					}
+				}
+				mEngine.onCell(observation);
+			}
+			
+			@Override
+			public void onSignalLost(int source) {
+				mEvents.add(EventLog.EVENT_NO_SIGNAL, 0, 0);
+			}
+		});
+		mDeviceStateReceiver.register();
+		scheduleMaintenance(true);
+	}
+	
+	/**
+	 * Unregister CellListener and broadcast receivers.
+	 */
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		mCellSources.stop();
+		unregisterReceiver(mDeviceStateReceiver);
+		unregisterReceiver(mRadioStateReceiver);
+		stopTrace();
+		scheduleAlarm(ScheduleIndex.CHANGE_NONE);
+		scheduleMaintenance(false);
+	}
+	
+	/**
+	 * Wake up the service with MESSAGE_SCHEDULE at time, replacing any 
+	 * previous alarm.
+	 * 
+	 * @param time Wall clock time, or ScheduleIndex.CHANGE_NONE to only 
+	 *             cancel the alarm.
+	 */
+	private void scheduleAlarm(long time) {
+		AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+		PendingIntent pi = PendingIntent.getService(this, 0, 
+				new Intent(this, LocationService.class).putExtra(MESSAGE_SCHEDULE, true), 
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		if (time != ScheduleIndex.CHANGE_NONE) {
+			am.set(AlarmManager.RTC_WAKEUP, time, pi);
+		}
+		else {
+			am.cancel(pi);
+		}
+	}
+	
+	/**
+	 * Wake up the service with MESSAGE_MAINTENANCE about every hour, the 
+	 * maintenance itself only runs if it is due and the device is idle.
+	 * 
+	 * @param enabled False to cancel the alarm.
+	 */
+	private void scheduleMaintenance(boolean enabled) {
+		AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+		// Different request code than scheduleAlarm(), as extras do not 
+		// make intents different.
+		PendingIntent pi = PendingIntent.getService(this, 1, 
+				new Intent(this, LocationService.class).putExtra(MESSAGE_MAINTENANCE, true), 
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		if (enabled) {
+			am.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, 
+					SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR, 
+					AlarmManager.INTERVAL_HOUR, pi);
+		}
+		else {
+			am.cancel(pi);
+		}
+	}
+	
+	/**
+	 * True if the device is charging and the screen is off.
+	 */
+	private boolean isIdle() {
+		return mDeviceStateReceiver.isCharging() && !mDeviceStateReceiver.isScreenOn();
+	}
+	
+	/**
+	 * Runs database maintenance in the background if the last run was at 
+	 * least MAINTENANCE_INTERVAL ago and the device is idle. Stops early 
+	 * if the device is used or unplugged.
+	 */
+	private void runMaintenance() {
+		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		if (System.currentTimeMillis() - prefs.getLong(PREF_LAST_MAINTENANCE, 0) < 
+				MAINTENANCE_INTERVAL || !isIdle() || !mMaintaining.compareAndSet(false, true))
+			return;
+		
+		PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+		final PowerManager.WakeLock wakeLock = 
+				pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+		wakeLock.acquire();
+		new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					mMaintenanceReport = DatabaseMaintenance.run(LocationService.this, 
+							Database.getInstance(LocationService.this), 
+							new DatabaseMaintenance.Condition() {
+						
+						@Override
+						public boolean canContinue() {
+							return isIdle();
+						}
+					});
+					// Continue an interrupted run next time.
+					if (isIdle()) {
+						prefs.edit()
+								.putLong(PREF_LAST_MAINTENANCE, System.currentTimeMillis())
+								.commit();
+					}
+				}
+				catch (RuntimeException e) {
+					Log.w(TAG, "Database maintenance failed", e);
+				}
+				finally {
+					mMaintaining.set(false);
+					wakeLock.release();
+				}
+			}
+		}).start();
+	}
+	
+	/**
+	 * Start recording a new trace, replacing any previous one.
+	 */
+	private synchronized void startTrace() {
+		stopTrace();
+		File file = new File(getFilesDir(), TRACE_FILE);
+		try {
+			mRecorder = new TraceRecorder(new FileOutputStream(file), mClock);
+			Log.i(TAG, "Recording trace to " + file);
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Failed to start trace", e);
+		}
+	}
+	
+	/**
+	 * Stop recording and close the trace file.
+	 */
+	private synchronized void stopTrace() {
+		TraceRecorder recorder = mRecorder;
+		if (recorder == null)
+			return;
+		
+		mRecorder = null;
+		try {
+			recorder.close();
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Failed to close trace", e);
+		}
+	}
+	
+	/**
+	 * Write the event log to EVENTS_FILE.
+	 */
+	private void exportEvents() {
+		File file = new File(getFilesDir(), EVENTS_FILE);
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				mEvents.export(out);
+			}
+			finally {
+				out.close();
+			}
+			Log.i(TAG, "Exported events to " + file);
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Failed to export events", e);
+		}
+	}
+	
+	/**
+	 * Import cell towers inside bounds from the file or content Uri, 
+	 * assign the new cells to area shapes and reapply the profile. 
+	 * Progress and result are shown in a notification.
+	 */
+	private void importCells(Uri uri, double[] bounds) {
+		CellTowerImporter importer = new CellTowerImporter(
+				Database.getInstance(this), bounds[0], bounds[1], bounds[2], bounds[3]);
+		showImportNotification(getString(R.string.locationservice_import_started), true);
+		try {
+			InputStream in;
+			long size;
+			if (uri.getScheme() == null || "file".equals(uri.getScheme())) {
+				File file = new File(uri.getPath());
+				in = new FileInputStream(file);
+				size = file.length();
+			}
+			else {
+				AssetFileDescriptor fd = getContentResolver().openAssetFileDescriptor(uri, "r");
+				in = fd.createInputStream();
+				size = fd.getLength();
+			}
+			long cells = importer.importStream(in, size, new CellTowerImporter.ProgressListener() {
+				
+				private long mPercent = -1;
+				
+				@Override
+				public void onProgress(long bytesRead, long bytesTotal, long cells) {
+					if (bytesTotal <= 0) {
+						showImportNotification(getString(
+								R.string.locationservice_import_cells, cells), true);
+						return;
+					}
+					
+					long percent = 100 * bytesRead / bytesTotal;
+					if (percent != mPercent) {
+						mPercent = percent;
+						showImportNotification(getString(
+								R.string.locationservice_import_progress, percent, cells), true);
+					}
+				}
+			});
+			Log.i(TAG, "Imported " + cells + " cells from " + uri);
+			showImportNotification(getString(R.string.locationservice_import_done, cells), false);
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Failed to import cells from " + uri, e);
+			showImportNotification(getString(R.string.locationservice_import_failed, 
+					e.getMessage()), false);
+			return;
+		}
+		WriteExecutor.await(mAreaShapes.reload());
+		mEngine.update();
+	}
+	
+	/**
+	 * Shows the progress or result of a cell import.
+	 * 
+	 * @param ongoing True while the import is running.
+	 */
+	private void showImportNotification(String text, boolean ongoing) {
+		NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+		nm.notify(IMPORT_NOTIFICATION_ID, new NotificationCompat.Builder(this)
+				.setContentTitle(getString(R.string.locationservice_import_title))
+				.setContentText(text)
+				.setSmallIcon(R.drawable.ic_launcher)
+				.setAutoCancel(!ongoing)
+				.setOngoing(ongoing)
+				.setContentIntent(PendingIntent.getActivity(this, 0, 
+						new Intent(this, AreaList.class), 0))
+				.build());
+	}
+	
+	/**
+	 * Stops recording, as an incomplete trace would not replay correctly.
+	 */
+	private void traceFailed(IOException e) {
+		Log.w(TAG, "Failed to write trace", e);
+		stopTrace();
 	}
 
 	/**
-	 * Show Notification displaying area and profile.
+	 * Build Notification displaying area and profile.
 	 * 
 	 * @param area Currently active area.
 	 * @param profile Currently active profile.
 	 */
-	private void showNotification(String area, String profile) {
-		mNotification  = new NotificationCompat.Builder(this)
+	private Notification buildNotification(String area, String profile) {
+		return new NotificationCompat.Builder(this)
 		        .setContentTitle(area)
 		        .setContentText(profile)
 		        .setSmallIcon(R.drawable.ic_launcher)
@@ -353,8 +1027,6 @@ public class LocationService extends Service {
 		        .setContentIntent(PendingIntent.getActivity(this, 0, 
 		        		new Intent(this, AreaList.class), 0))
 		        .build();
-
-		startForeground(NOTIFICATION_ID, mNotification);
 	}
 
 	/**
@@ -367,21 +1039,199 @@ public class LocationService extends Service {
 			Bundle extras = intent.getExtras();
 			if (extras != null) {
 				Set<String> keys = extras.keySet();
+				if (keys.contains(MESSAGE_RECORD_TRACE)) {
+					if (extras.getBoolean(MESSAGE_RECORD_TRACE)) {
+						startTrace();
+					}
+					else {
+						stopTrace();
+					}
+				}
+				if (keys.contains(MESSAGE_BENCHMARK_DATABASE)) {
+					final int percent = extras.getInt(MESSAGE_BENCHMARK_DATABASE);
+					new Thread(new Runnable() {
+						
+						@Override
+						public void run() {
+							DatabaseBenchmark.run(LocationService.this, percent, 
+									BENCHMARK_ITERATIONS);
+						}
+					}).start();
+				}
+				if (keys.contains(MESSAGE_LOG_STATS)) {
+					Log.i(TAG, "Pipeline stats:\n" + mEngine.getStats());
+				}
+				if (keys.contains(MESSAGE_RESET_STATS)) {
+					mEngine.getStats().reset();
+					Database.getInstance(this).getProfiler().reset();
+					mActions.reset();
+				}
+				if (keys.contains(MESSAGE_EXPORT_EVENTS)) {
+					new Thread(new Runnable() {
+						
+						@Override
+						public void run() {
+							exportEvents();
+						}
+					}).start();
+				}
+				if (keys.contains(MESSAGE_IMPORT_CELLS)) {
+					final Uri uri = Uri.parse(extras.getString(MESSAGE_IMPORT_CELLS));
+					double[] bounds = extras.getDoubleArray(MESSAGE_IMPORT_BOUNDS);
+					if (bounds == null) {
+						bounds = new double[] { -90, -180, 90, 180 };
+					}
+					final double[] b = bounds;
+					new Thread(new Runnable() {
+						
+						@Override
+						public void run() {
+							importCells(uri, b);
+						}
+					}).start();
+				}
+				if (keys.contains(MESSAGE_SCHEDULE)) {
+					new Thread(new Runnable() {
+						
+						@Override
+						public void run() {
+							scheduleAlarm(mEngine.onTime());
+						}
+					}).start();
+				}
+				if (keys.contains(MESSAGE_MAINTENANCE)) {
+					runMaintenance();
+				}
+				if (keys.contains(MESSAGE_SET_SHAPE)) {
+					String text = extras.getString(MESSAGE_SET_SHAPE);
+					final long area = extras.getLong(MESSAGE_SHAPE_AREA);
+					try {
+						final AreaShape shape = (text == null || text.length() == 0)
+								? null
+								: AreaShape.parse(text);
+						new Thread(new Runnable() {
+							
+							@Override
+							public void run() {
+								WriteExecutor.await(mAreaShapes.setShape(area, shape));
+								mEngine.update();
+							}
+						}).start();
+					}
+					catch (IllegalArgumentException e) {
+						Log.w(TAG, "Invalid shape for area " + area, e);
+					}
+				}
+				TraceRecorder recorder = mRecorder;
 				if (keys.contains(MESSAGE_LEARN_AREA)) {
 					// Set the area to learn now and the learn duration.
-					mLearnUntil =  SystemClock.elapsedRealtime() +
-							extras.getLong(MESSAGE_LEARN_INTERVAL);
-					mLearnArea = extras.getLong(MESSAGE_LEARN_AREA);
+					final long area = extras.getLong(MESSAGE_LEARN_AREA);
+					long interval = extras.getLong(MESSAGE_LEARN_INTERVAL);
+					mEvents.add(EventLog.EVENT_LEARN, area, interval);
+					if (recorder != null) {
+						try {
+							recorder.learn(area, interval);
+						}
+						catch (IOException e) {
+							traceFailed(e);
+						}
+					}
+					mEngine.learn(area, interval);
+					if (keys.contains(MESSAGE_LEARN_SINCE)) {
+						final long since = extras.getLong(MESSAGE_LEARN_SINCE);
+						if (recorder != null) {
+							try {
+								recorder.learnLogged(area, since);
+							}
+							catch (IOException e) {
+								traceFailed(e);
+							}
+						}
+						new Thread(new Runnable() {
+							
+							@Override
+							public void run() {
+								mEngine.learnLogged(area, since);
+							}
+						}).start();
+					}
+				}
+				if (keys.contains(MESSAGE_PROFILE_CHANGED)) {
+					final long profile = extras.getLong(MESSAGE_PROFILE_CHANGED);
+					mEvents.add(EventLog.EVENT_UPDATE, 0, 0);
+					if (recorder != null) {
+						// Replaying a full update has the same result.
+						try {
+							recorder.update();
+						}
+						catch (IOException e) {
+							traceFailed(e);
+						}
+					}
+					new Thread(new Runnable() {
+						
+						@Override
+						public void run() {
+							// The store waits for queued changes.
+							mEngine.onProfileChanged(profile);
+						}
+					}).start();
 				}
 				if (keys.contains(MESSAGE_UPDATE)) {
 					// Profile/area mappings have changed, reapply profile.
-					mCellListener.applyProfile(mCurrentCell);
+					mEvents.add(EventLog.EVENT_UPDATE, 0, 0);
+					if (recorder != null) {
+						try {
+							recorder.update();
+						}
+						catch (IOException e) {
+							traceFailed(e);
+						}
+					}
+					new Thread(new Runnable() {
+						
+						@Override
+						public void run() {
+							// Changes may still be queued.
+							Database.getInstance(LocationService.this).getWriter().flush();
+							mEngine.update();
+						}
+					}).start();
 				}
 			}
 		}
 		return START_STICKY;
 	}
 
+	/**
+	 * Print the engine state for dumpsys, without waiting for events 
+	 * being processed.
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+		pw.println("Pending cell changes: " + mCellListener.getPending());
+		mCellSources.dump(pw);
+		pw.println("Recording trace: " + (mRecorder != null));
+		mEngine.dump(pw);
+		mActions.dump(pw);
+		mWifi.dump(pw);
+		if (mBluetooth != null) {
+			mBluetooth.dump(pw);
+		}
+		WriteExecutor writer = Database.getInstance(this).getWriter();
+		pw.println("Database writer: queued=" + writer.getQueueSize() + 
+				", transactions=" + writer.getTransactionCount() + 
+				", writes=" + writer.getWriteCount());
+		Database.getInstance(this).getProfiler().dump(pw);
+		Database.getInstance(this).getMigrations().dump(pw);
+		String maintenance = mMaintenanceReport;
+		if (maintenance != null) {
+			pw.println(maintenance);
+		}
+		pw.println("Recent events (" + mEvents.getCount() + " total):");
+		mEvents.dump(pw, EVENT_DUMP_COUNT);
+	}
+
 	/**
 	 * Cannot bind.
 	 */
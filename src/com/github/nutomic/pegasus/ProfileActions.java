@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.media.AudioManager;
+import android.net.wifi.WifiManager;
+
+import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.location.Action;
+import com.github.nutomic.pegasus.location.AreaProfile;
+
+/**
+ * Actions that apply an AreaProfile to the device.
+ * 
+ * Audio changes share one lane so the ringer mode is set after the 
+ * volumes (which may change it), each radio has its own lane as 
+ * toggling can take seconds.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ProfileActions {
+	
+	private static final String LANE_AUDIO = "audio";
+	private static final String LANE_WIFI = "wifi";
+	private static final String LANE_BLUETOOTH = "bluetooth";
+	
+	private static final long AUDIO_TIMEOUT = 1000;
+	private static final long RADIO_TIMEOUT = 10000;
+	
+	/**
+	 * Sets the volume of an audio stream.
+	 */
+	public static class VolumeAction implements Action {
+		
+		private final AudioManager mAudioManager;
+		private final int mStream;
+		private final int mVolume;
+		private final String mName;
+		
+		public VolumeAction(AudioManager am, int stream, int volume, String name) {
+			mAudioManager = am;
+			mStream = stream;
+			mVolume = volume;
+			mName = name;
+		}
+
+		@Override
+		public String getName() {
+			return mName;
+		}
+
+		@Override
+		public String getLane() {
+			return LANE_AUDIO;
+		}
+
+		@Override
+		public long getTimeout() {
+			return AUDIO_TIMEOUT;
+		}
+
+		@Override
+		public void run() {
+			mAudioManager.setStreamVolume(mStream, mVolume, 
+					AudioManager.FLAG_REMOVE_SOUND_AND_VIBRATE);
+		}
+		
+	}
+	
+	/**
+	 * Sets the ringer mode.
+	 */
+	public static class RingerModeAction implements Action {
+		
+		private final AudioManager mAudioManager;
+		private final int mMode;
+		
+		public RingerModeAction(AudioManager am, int mode) {
+			mAudioManager = am;
+			mMode = mode;
+		}
+
+		@Override
+		public String getName() {
+			return "ringer_mode";
+		}
+
+		@Override
+		public String getLane() {
+			return LANE_AUDIO;
+		}
+
+		@Override
+		public long getTimeout() {
+			return AUDIO_TIMEOUT;
+		}
+
+		@Override
+		public void run() {
+			mAudioManager.setRingerMode(mMode);
+		}
+		
+	}
+	
+	/**
+	 * Enables or disables wifi.
+	 */
+	public static class WifiAction implements Action {
+		
+		private final WifiManager mWifiManager;
+		private final boolean mEnabled;
+		
+		public WifiAction(WifiManager wm, boolean enabled) {
+			mWifiManager = wm;
+			mEnabled = enabled;
+		}
+
+		@Override
+		public String getName() {
+			return "wifi";
+		}
+
+		@Override
+		public String getLane() {
+			return LANE_WIFI;
+		}
+
+		@Override
+		public long getTimeout() {
+			return RADIO_TIMEOUT;
+		}
+
+		@Override
+		public void run() {
+			mWifiManager.setWifiEnabled(mEnabled);
+		}
+		
+	}
+	
+	/**
+	 * Enables or disables bluetooth.
+	 */
+	public static class BluetoothAction implements Action {
+		
+		private final BluetoothAdapter mAdapter;
+		private final boolean mEnabled;
+		
+		public BluetoothAction(BluetoothAdapter adapter, boolean enabled) {
+			mAdapter = adapter;
+			mEnabled = enabled;
+		}
+
+		@Override
+		public String getName() {
+			return "bluetooth";
+		}
+
+		@Override
+		public String getLane() {
+			return LANE_BLUETOOTH;
+		}
+
+		@Override
+		public long getTimeout() {
+			return RADIO_TIMEOUT;
+		}
+
+		@Override
+		public void run() {
+			if (mEnabled) {
+				mAdapter.enable();
+			}
+			else {
+				mAdapter.disable();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Returns the audio actions needed to apply profile. Radios are 
+	 * switched by RadioController, which submits WifiAction and 
+	 * BluetoothAction itself.
+	 */
+	public static List<Action> create(Context context, AreaProfile profile) {
+		List<Action> actions = new ArrayList<Action>();
+		if (profile.hasProfile) {
+			AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+			// Value smaller zero means the volume should not change.
+			if (profile.ringtoneVolume >= 0) {
+				actions.add(new VolumeAction(am, AudioManager.STREAM_RING, 
+						profile.ringtoneVolume, "ringtone_volume"));
+			}
+			if (profile.notificationVolume >= 0) {
+				actions.add(new VolumeAction(am, AudioManager.STREAM_NOTIFICATION, 
+						profile.notificationVolume, "notification_volume"));
+			}
+			if (profile.mediaVolume >= 0) {
+				actions.add(new VolumeAction(am, AudioManager.STREAM_MUSIC, 
+						profile.mediaVolume, "media_volume"));
+			}
+			if (profile.alarmVolume >= 0) {
+				actions.add(new VolumeAction(am, AudioManager.STREAM_ALARM, 
+						profile.alarmVolume, "alarm_volume"));
+			}
+			if (profile.ringerMode != ProfileColumns.RINGER_MODE_KEEP) {
+				actions.add(new RingerModeAction(am, profile.ringerMode));
+			}
+		}
+		return actions;
+	}
+	
+}
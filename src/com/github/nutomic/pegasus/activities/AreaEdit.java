@@ -16,6 +16,8 @@
 
 package com.github.nutomic.pegasus.activities;
 
+import java.util.concurrent.Future;
+
 import android.app.AlertDialog;
 import android.content.ContentValues;
 import android.content.DialogInterface;
@@ -27,13 +29,22 @@ import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
+import android.preference.PreferenceCategory;
 import android.util.Pair;
+import android.view.WindowManager;
+import android.widget.EditText;
+import android.widget.Toast;
 
 import com.github.nutomic.pegasus.LocationService;
 import com.github.nutomic.pegasus.R;
 import com.github.nutomic.pegasus.content.AreaColumns;
+import com.github.nutomic.pegasus.content.AreaShapeColumns;
 import com.github.nutomic.pegasus.content.Database;
 import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.ScheduleColumns;
+import com.github.nutomic.pegasus.content.WriteExecutor;
+import com.github.nutomic.pegasus.location.AreaShape;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
 
 /**
  * Allows editing an area, uses Database values (or defaults) to
@@ -55,6 +66,17 @@ public class AreaEdit extends PreferenceActivity implements
 	private Preference mProfile;
 	private CheckBoxPreference mWifi;
 	private CheckBoxPreference mBluetooth;
+	private Preference mShape;
+	private String mShapeText;
+	private PreferenceCategory mSchedules;
+	private Preference mAddSchedule;
+	
+	/**
+	 * Called with the profile the user picked in pickProfile().
+	 */
+	private interface OnProfilePickedListener {
+		void onProfilePicked(long profile);
+	}
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -63,18 +85,23 @@ public class AreaEdit extends PreferenceActivity implements
 		mArea = getIntent().getExtras().getLong(AREA_ID);
 
 		addPreferencesFromResource(R.xml.area_edit);
+		mSchedules = (PreferenceCategory) findPreference("schedules");
+		mAddSchedule = findPreference("add_schedule");
+		mAddSchedule.setOnPreferenceClickListener(this);
 		
 		new AsyncTask<Void, Void, Cursor>() {
 
 			@Override
 			protected Cursor doInBackground(Void... params) {
-				return Database.getInstance(AreaEdit.this).getReadableDatabase()
-						.query(AreaColumns.TABLE_NAME, 
-								new String[] { AreaColumns.WIFI_ENABLED, 
-								AreaColumns.BLUETOOTH_ENABLED }, 
-								AreaColumns._ID + " = ?", 
-								new String[] { Long.toString(mArea) }, 
-								null, null, null);
+				return Database.getInstance(AreaEdit.this).getReadable().rawQuery(
+						"SELECT a." + AreaColumns.WIFI_ENABLED + 
+						", a." + AreaColumns.BLUETOOTH_ENABLED + 
+						", s." + AreaShapeColumns.SHAPE + 
+						" FROM " + AreaColumns.TABLE_NAME + " a" + 
+						" LEFT JOIN " + AreaShapeColumns.TABLE_NAME + " s" + 
+						" ON a." + AreaColumns._ID + " = s." + AreaShapeColumns.AREA_ID + 
+						" WHERE a." + AreaColumns._ID + " = ?", 
+						new String[] { Long.toString(mArea) });
 			}
 			
 			@Override
@@ -92,8 +119,14 @@ public class AreaEdit extends PreferenceActivity implements
 				mBluetooth.setChecked((c.getInt(c.getColumnIndex(AreaColumns.BLUETOOTH_ENABLED)) == 1) 
 						? true : false);
 				mBluetooth.setOnPreferenceChangeListener(AreaEdit.this);
+				
+				mShape = findPreference("shape");
+				setShapeSummary(c.getString(c.getColumnIndex(AreaShapeColumns.SHAPE)));
+				mShape.setOnPreferenceClickListener(AreaEdit.this);
+				c.close();
 			}
 		}.execute((Void) null);
+		showSchedules(null);
 	}
 	
 	@Override
@@ -109,59 +142,251 @@ public class AreaEdit extends PreferenceActivity implements
 			cv.put(AreaColumns.BLUETOOTH_ENABLED, (Boolean) newValue);
 		}
 		
-		final ContentValues values = cv;
-		new Thread(new Runnable() {
-			
-			@Override
-			public void run() {
-				Database.getInstance(AreaEdit.this).getWritableDatabase()
-						.update(AreaColumns.TABLE_NAME, 
-								values,
-								AreaColumns._ID + "= ?", 
-								new String[] { Long.toString(mArea) });
-				
-				LocationService.sendUpdateIntent(AreaEdit.this);
-			}
-		}).start();
+		// The service waits for queued writes before updating.
+		Database.getInstance(this).update(AreaColumns.TABLE_NAME, 
+				cv,
+				AreaColumns._ID + "= ?", 
+				new String[] { Long.toString(mArea) });
+		LocationService.sendUpdateIntent(this);
 		return true;
 	}
 
 	/**
 	 * Show a "pick sound profile" dialog for an area, the selected profile is
-	 * then set to be launched when entering the area.
+	 * then set to be launched when entering the area. May also add a 
+	 * schedule or edit the shape.
 	 */
 	@Override
 	public boolean onPreferenceClick(Preference preference) {
-		final Database db = Database.getInstance(this);
-		
-		// Get a pair of all area names and all area IDs.
-		Cursor c = db.getReadableDatabase().query(
-				ProfileColumns.TABLE_NAME,
-				new String[] { ProfileColumns._ID, 
-						ProfileColumns.NAME }, 
-				null, null, null, null, null);
-		String[] names = new String[c.getCount()];
-		Long[] ids = new Long[c.getCount()];
-		while (c.moveToNext()) {
-			ids[c.getPosition()] = c.getLong(c.getColumnIndex(ProfileColumns._ID));
-			names[c.getPosition()] = c.getString(c.getColumnIndex(ProfileColumns.NAME));
+		if (preference.equals(mAddSchedule)) {
+			editSchedule(-1, ScheduleIndex.EVERY_DAY, 8 * 60, 17 * 60);
+			return true;
+		}
+		if (preference.equals(mShape)) {
+			editShape();
+			return true;
 		}
-		final Pair<String[], Long[]> p = Pair.create(names, ids);
 		
-		new AlertDialog.Builder(this).setTitle(R.string.areaedit_profile)
-				.setItems(p.first, new DialogInterface.OnClickListener() {
-
-					public void onClick(DialogInterface dialog, final int which) {
-						new AsyncTask<Void, Void, Void>() {
-							
-							@Override
-							protected Void doInBackground(Void... params) {
-								onPreferenceChange(mProfile, p.second[which]);
-								return null;
+		pickProfile(R.string.areaedit_profile, new OnProfilePickedListener() {
+			
+			public void onProfilePicked(final long profile) {
+				new AsyncTask<Void, Void, Void>() {
+					
+					@Override
+					protected Void doInBackground(Void... params) {
+						onPreferenceChange(mProfile, profile);
+						return null;
+					}
+				}.execute((Void) null);
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Shows the shape text, or that the area has no shape.
+	 */
+	private void setShapeSummary(String shape) {
+		mShapeText = shape;
+		mShape.setSummary((shape != null)
+				? shape
+				: getString(R.string.areaedit_shape_none));
+	}
+	
+	/**
+	 * Show a dialog to enter the shape as text, or to remove it.
+	 */
+	private void editShape() {
+		final EditText input = new EditText(this);
+		input.setText((mShapeText != null) 
+				? mShapeText 
+				: "circle:");
+		input.setHint(R.string.areaedit_shape_hint);
+		AlertDialog alert = new AlertDialog.Builder(this)
+				.setTitle(R.string.areaedit_shape)
+				.setMessage(R.string.areaedit_shape_message)
+				.setView(input)
+				.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+					
+					public void onClick(DialogInterface dialog, int which) {
+						String text = input.getText().toString().trim();
+						try {
+							AreaShape.parse(text);
+						}
+						catch (IllegalArgumentException e) {
+							Toast.makeText(AreaEdit.this, R.string.areaedit_shape_invalid, 
+									Toast.LENGTH_LONG).show();
+							return;
+						}
+						setShapeSummary(text);
+						LocationService.sendSetShapeIntent(AreaEdit.this, mArea, text);
+					}
+				})
+				.setNeutralButton(R.string.areaedit_shape_remove, 
+						new DialogInterface.OnClickListener() {
+					
+					public void onClick(DialogInterface dialog, int which) {
+						setShapeSummary(null);
+						LocationService.sendSetShapeIntent(AreaEdit.this, mArea, "");
+					}
+				})
+				.setNegativeButton(android.R.string.cancel, null)
+				.create();
+		alert.getWindow().setSoftInputMode(
+				WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_VISIBLE);
+		alert.show();
+	}
+	
+	/**
+	 * Loads all profiles in the background and lets the user choose one 
+	 * of them.
+	 */
+	private void pickProfile(final int title, final OnProfilePickedListener listener) {
+		new AsyncTask<Void, Void, Pair<String[], Long[]>>() {
+			
+			@Override
+			protected Pair<String[], Long[]> doInBackground(Void... params) {
+				// Get a pair of all profile names and all profile IDs.
+				Cursor c = Database.getInstance(AreaEdit.this).getReadable().query(
+						ProfileColumns.TABLE_NAME,
+						new String[] { ProfileColumns._ID, 
+								ProfileColumns.NAME }, 
+						null, null, null, null, null);
+				String[] names = new String[c.getCount()];
+				Long[] ids = new Long[c.getCount()];
+				while (c.moveToNext()) {
+					ids[c.getPosition()] = c.getLong(c.getColumnIndex(ProfileColumns._ID));
+					names[c.getPosition()] = c.getString(c.getColumnIndex(ProfileColumns.NAME));
+				}
+				c.close();
+				return Pair.create(names, ids);
+			}
+			
+			@Override
+			protected void onPostExecute(final Pair<String[], Long[]> p) {
+				new AlertDialog.Builder(AreaEdit.this).setTitle(title)
+						.setItems(p.first, new DialogInterface.OnClickListener() {
+		
+							public void onClick(DialogInterface dialog, int which) {
+								listener.onProfilePicked(p.second[which]);
 							}
-						}.execute((Void) null);
+						}).show();
+			}
+		}.execute((Void) null);
+	}
+	
+	/**
+	 * Lets the user choose time window and profile of a schedule, then 
+	 * saves it.
+	 * 
+	 * @param id Row ID of the schedule, or -1 to add a new one.
+	 */
+	private void editSchedule(final long id, int days, int start, int end) {
+		TimeWindowPicker.show(this, days, start, end, 
+				new TimeWindowPicker.OnTimeWindowSetListener() {
+			
+			public void onTimeWindowSet(final int days, final int start, final int end) {
+				pickProfile(R.string.areaedit_schedule_profile, new OnProfilePickedListener() {
+					
+					public void onProfilePicked(long profile) {
+						ContentValues cv = new ContentValues();
+						cv.put(ScheduleColumns.AREA_ID, mArea);
+						cv.put(ScheduleColumns.DAYS, days);
+						cv.put(ScheduleColumns.START, start);
+						cv.put(ScheduleColumns.END, end);
+						cv.put(ScheduleColumns.PROFILE_ID, profile);
+						Database db = Database.getInstance(AreaEdit.this);
+						showSchedules((id == -1)
+								? db.insert(ScheduleColumns.TABLE_NAME, cv)
+								: db.update(ScheduleColumns.TABLE_NAME, cv, 
+										ScheduleColumns._ID + " = ?", 
+										new String[] { Long.toString(id) }));
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Waits for a schedule write, then shows the schedules of this area 
+	 * and lets the service apply them.
+	 * 
+	 * @param write Pending write, or null to only show the schedules.
+	 */
+	private void showSchedules(final Future<?> write) {
+		new AsyncTask<Void, Void, Cursor>() {
+
+			@Override
+			protected Cursor doInBackground(Void... params) {
+				if (write != null) {
+					WriteExecutor.await(write);
+				}
+				return Database.getInstance(AreaEdit.this).getReadable().rawQuery(
+						"SELECT s." + ScheduleColumns._ID + 
+						", s." + ScheduleColumns.DAYS + 
+						", s." + ScheduleColumns.START + 
+						", s." + ScheduleColumns.END + 
+						", p." + ProfileColumns.NAME + 
+						" FROM " + ScheduleColumns.TABLE_NAME + " s" +
+						" LEFT JOIN " + ProfileColumns.TABLE_NAME + " p" + 
+						" ON s." + ScheduleColumns.PROFILE_ID + " = p." + ProfileColumns._ID + 
+						" WHERE s." + ScheduleColumns.AREA_ID + " = ?" + 
+						" ORDER BY s." + ScheduleColumns.START, 
+						new String[] { Long.toString(mArea) });
+			}
+			
+			@Override
+			protected void onPostExecute(Cursor c) {
+				mSchedules.removeAll();
+				mSchedules.addPreference(mAddSchedule);
+				while (c.moveToNext()) {
+					final long id = c.getLong(0);
+					final int days = c.getInt(1);
+					final int start = c.getInt(2);
+					final int end = c.getInt(3);
+					Preference schedule = new Preference(AreaEdit.this);
+					schedule.setPersistent(false);
+					schedule.setTitle(TimeWindowPicker.format(AreaEdit.this, days, start, end));
+					schedule.setSummary((c.isNull(4))
+							? getString(R.string.arealist_profile_none)
+							: c.getString(4));
+					schedule.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+						
+						public boolean onPreferenceClick(Preference preference) {
+							showScheduleMenu(id, days, start, end);
+							return true;
+						}
+					});
+					mSchedules.addPreference(schedule);
+				}
+				c.close();
+				if (write != null) {
+					LocationService.sendUpdateIntent(AreaEdit.this);
+				}
+			}
+		}.execute((Void) null);
+	}
+	
+	/**
+	 * Lets the user edit or delete a schedule.
+	 */
+	private void showScheduleMenu(final long id, final int days, final int start, 
+			final int end) {
+		new AlertDialog.Builder(this)
+				.setItems(R.array.areaedit_schedule_actions, 
+						new DialogInterface.OnClickListener() {
+			
+					public void onClick(DialogInterface dialog, int which) {
+						if (which == 0) {
+							editSchedule(id, days, start, end);
+						}
+						else {
+							showSchedules(Database.getInstance(AreaEdit.this).delete(
+									ScheduleColumns.TABLE_NAME, 
+									ScheduleColumns._ID + " = ?", 
+									new String[] { Long.toString(id) }));
+						}
 					}
 				}).show();
-		return true;
 	}
 }
@@ -16,18 +16,28 @@
 
 package com.github.nutomic.pegasus.activities;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
 import android.app.AlertDialog;
 import android.app.ListActivity;
+import android.content.ActivityNotFoundException;
 import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
+import android.content.DialogInterface.OnMultiChoiceClickListener;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.content.pm.ApplicationInfo;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.view.Menu;
@@ -38,14 +48,20 @@ import android.view.WindowManager;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
 
 import com.github.nutomic.pegasus.LocationService;
 import com.github.nutomic.pegasus.R;
 import com.github.nutomic.pegasus.content.AreaColumns;
+import com.github.nutomic.pegasus.content.CellAreaColumns;
 import com.github.nutomic.pegasus.content.CellColumns;
 import com.github.nutomic.pegasus.content.CellLogColumns;
 import com.github.nutomic.pegasus.content.Database;
-import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.ProfiledDatabase;
+import com.github.nutomic.pegasus.content.Statements;
+import com.github.nutomic.pegasus.content.WriteExecutor;
+import com.github.nutomic.pegasus.location.AreaVotes;
+import com.github.nutomic.pegasus.location.CellClusterer;
 
 /**
  * Displays a list of areas.
@@ -55,13 +71,40 @@ import com.github.nutomic.pegasus.content.ProfileColumns;
  */
 public class AreaList extends ListActivity {
 
-	public static final String AREANAME = "areaname";
-	public static final String PROFILENAME = "profilename";
+	public static final String AREANAME = Statements.AREA_LIST_AREA;
+	public static final String PROFILENAME = Statements.AREA_LIST_PROFILE;
 	
 	private static final String FIRST_RUN = "first_run";
 	
+	/** 
+	 * Maximum number of cell IDs bound in one statement, SQLite allows at 
+	 * most 999 variables.
+	 */
+	private static final int MAX_BOUND_IDS = 900;
+	
+	/** Number of cell log rows read at once when suggesting areas. */
+	private static final int LOG_PAGE_SIZE = 10000;
+	
+	/** Request code for choosing the file to import cells from. */
+	private static final int REQUEST_IMPORT_CELLS = 1;
+	
 	SimpleCursorAdapter mAdapter;
 	
+	/**
+	 * Cells that should be assigned to an area, as proposed by 
+	 * CellClusterer.
+	 */
+	private static class Suggestion {
+		
+		/** Area to assign cells to, Database.ROW_NONE to create a new one. */
+		long area;
+		
+		String name;
+		
+		long[] cells;
+		
+	}
+	
 	/**
 	 * AsyncTask that refreshes the ListView and LocationService after finishing.
 	 * 
@@ -137,14 +180,7 @@ public class AreaList extends ListActivity {
 		// Default string if noe profile is set.
 		String noProfile = getResources().getString(R.string.arealist_profile_none);
 		mAdapter.changeCursor(Database.getInstance(this)
-				.getReadableDatabase().rawQuery(
-						"SELECT a._id, a.name as " + AREANAME + ", " +
-						"ifnull(p.name, '" + noProfile + "') as " + PROFILENAME + " " +
-						"FROM " + AreaColumns.TABLE_NAME + " as a " +
-						"LEFT JOIN " + ProfileColumns.TABLE_NAME + " as p " +
-						"ON a.profile_id = p._id " + 
-						"ORDER BY a." + AreaColumns._ID + " ASC",
-						null));		
+				.queryAreaList(noProfile));
 	}
 	
 	/**
@@ -209,40 +245,20 @@ public class AreaList extends ListActivity {
 													R.array.arealist_learn_area_values);
 									long interval = millisecondValues.getInt(which, 0);
 
+									Intent i = new Intent(AreaList.this, LocationService.class);
+									i.putExtra(LocationService.MESSAGE_LEARN_AREA, info.id);
 									if (interval > 0) {
-										// Add future cells during interval.
-										Intent i = new Intent(AreaList.this, LocationService.class);
-										i.putExtra(LocationService.MESSAGE_LEARN_AREA, info.id);
+										// Add future cells during interval, and the current cell.
 										i.putExtra(LocationService.MESSAGE_LEARN_INTERVAL, interval);
-										startService(i);
-										// Add only the current cell from database.
-										interval = 0;
+										i.putExtra(LocationService.MESSAGE_LEARN_SINCE, 
+												System.currentTimeMillis());
 									} else {
-										// Do not pass the negativity to Database.
-										interval = -interval;
+										// Add any cell that was visited during interval.
+										i.putExtra(LocationService.MESSAGE_LEARN_INTERVAL, 0L);
+										i.putExtra(LocationService.MESSAGE_LEARN_SINCE, 
+												System.currentTimeMillis() + interval);
 									}
-									
-									final long selectionStartTime = System.currentTimeMillis() - interval;
-									new UpdateTask() {
-										
-										@Override
-										protected Long doInBackground(Void... params) {
-											ContentValues cv = new ContentValues();
-											cv.put(CellColumns.AREA_ID, info.id);
-											// Set current area in current cell and in any cell that was visited during interval.
-											db.getWritableDatabase().update(CellColumns.TABLE_NAME,
-													cv, 
-													CellColumns._ID + " = (SELECT " + CellLogColumns.CELL_ID + " FROM " +
-															CellLogColumns.TABLE_NAME + " ORDER BY " + 
-															CellLogColumns.TIMESTAMP + " DESC Limit 1) OR " +
-															CellColumns._ID + " IN (SELECT " + 
-															CellLogColumns.CELL_ID + " FROM " +
-															CellLogColumns.TABLE_NAME + " WHERE " + 
-															CellLogColumns.TIMESTAMP + " > ?)", 
-													new String[] { Long.toString(selectionStartTime) });
-											return null;
-										}
-									}.execute((Void) null);
+									startService(i);
 								}
 							})
 					.show();
@@ -261,16 +277,7 @@ public class AreaList extends ListActivity {
 								protected Long doInBackground(Void... params) {
 									// Don't delete default area.
 									if (info.id != AreaColumns.AREA_DEFAULT) {
-										db.getWritableDatabase().delete(AreaColumns.TABLE_NAME,
-												AreaColumns._ID + " = ?",
-												new String[] { Long.toString(info.id) });
-										// Reset cells to default area.
-										ContentValues cv = new ContentValues();
-										cv.put(CellColumns.AREA_ID, AreaColumns.AREA_DEFAULT);
-										db.getWritableDatabase().update(CellColumns.TABLE_NAME, 
-												cv, 
-												CellColumns.AREA_ID + " = ?", 
-												new String[] { Long.toString(info.id) });
+										WriteExecutor.await(db.deleteArea(info.id));
 									}
 									return null;
 								}
@@ -312,10 +319,10 @@ public class AreaList extends ListActivity {
 											ContentValues cv = new ContentValues();
 											cv.put(AreaColumns.NAME, input.getText().toString());
 
-											db.getWritableDatabase().update(AreaColumns.TABLE_NAME, 
+											WriteExecutor.await(db.update(AreaColumns.TABLE_NAME, 
 													cv, 
 													AreaColumns._ID + " = ?",
-													new String[] { Long.toString(id) });
+													new String[] { Long.toString(id) }));
 										}
 										return null;
 									}
@@ -336,6 +343,8 @@ public class AreaList extends ListActivity {
 	public boolean onCreateOptionsMenu(Menu menu) {
 		MenuInflater inflater = getMenuInflater();
 		inflater.inflate(R.menu.area_list, menu);
+		menu.setGroupVisible(R.id.debug, 
+				(getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
 		return true;
 	}
 
@@ -348,6 +357,53 @@ public class AreaList extends ListActivity {
 		case R.id.profiles:
 			startActivity(new Intent(this, ProfileList.class));
 			return true;
+		case R.id.rules:
+			startActivity(new Intent(this, RuleList.class));
+			return true;
+		case R.id.suggest_areas:
+			suggestAreas();
+			return true;
+		case R.id.import_cells:
+			chooseCellFile();
+			return true;
+		case R.id.start_trace:
+		case R.id.stop_trace:
+			startService(new Intent(this, LocationService.class)
+					.putExtra(LocationService.MESSAGE_RECORD_TRACE, 
+							item.getItemId() == R.id.start_trace));
+			Toast.makeText(this, R.string.arealist_debug_sent, Toast.LENGTH_SHORT).show();
+			return true;
+		case R.id.benchmark_database:
+			new AlertDialog.Builder(this)
+					.setTitle(R.string.arealist_debug_benchmark_size)
+					.setItems(R.array.arealist_debug_benchmark_strings, new OnClickListener() {
+						
+						public void onClick(DialogInterface dialog, int which) {
+							int percent = getResources().getIntArray(
+									R.array.arealist_debug_benchmark_values)[which];
+							startService(new Intent(AreaList.this, LocationService.class)
+									.putExtra(LocationService.MESSAGE_BENCHMARK_DATABASE, percent));
+							Toast.makeText(AreaList.this, R.string.arealist_debug_sent, 
+									Toast.LENGTH_SHORT).show();
+						}
+					})
+					.show();
+			return true;
+		case R.id.log_stats:
+		case R.id.reset_stats:
+			// Value is unused.
+			startService(new Intent(this, LocationService.class)
+					.putExtra((item.getItemId() == R.id.log_stats)
+							? LocationService.MESSAGE_LOG_STATS
+							: LocationService.MESSAGE_RESET_STATS, 0));
+			Toast.makeText(this, R.string.arealist_debug_sent, Toast.LENGTH_SHORT).show();
+			return true;
+		case R.id.export_events:
+			// Value is unused.
+			startService(new Intent(this, LocationService.class)
+					.putExtra(LocationService.MESSAGE_EXPORT_EVENTS, 0));
+			Toast.makeText(this, R.string.arealist_debug_sent, Toast.LENGTH_SHORT).show();
+			return true;
 		case R.id.new_area:
 			new UpdateTask() {
 				
@@ -359,8 +415,8 @@ public class AreaList extends ListActivity {
 					cv.put(AreaColumns.PROFILE_ID, Database.ROW_NONE);
 					cv.put(AreaColumns.WIFI_ENABLED, true);
 					cv.put(AreaColumns.BLUETOOTH_ENABLED, false);
-					return Database.getInstance(AreaList.this).getWritableDatabase()
-							.insert(AreaColumns.TABLE_NAME, null, cv);
+					return WriteExecutor.await(Database.getInstance(AreaList.this)
+							.insert(AreaColumns.TABLE_NAME, cv));
 				}
 				
 				@Override
@@ -375,4 +431,297 @@ public class AreaList extends ListActivity {
 		}
 	}
 
+	/**
+	 * Let the user choose an OpenCellID CSV file with a file manager, or 
+	 * enter its path if no file manager is installed.
+	 */
+	private void chooseCellFile() {
+		Intent i = new Intent(Intent.ACTION_GET_CONTENT)
+				.setType("*/*")
+				.addCategory(Intent.CATEGORY_OPENABLE);
+		try {
+			startActivityForResult(i, REQUEST_IMPORT_CELLS);
+		}
+		catch (ActivityNotFoundException e) {
+			final EditText input = new EditText(this);
+			input.setText(new File(Environment.getExternalStorageDirectory(), 
+					"cell_towers.csv").getPath());
+			input.setSingleLine();
+			new AlertDialog.Builder(this)
+					.setTitle(R.string.arealist_import_path)
+					.setView(input)
+					.setPositiveButton(android.R.string.ok, new OnClickListener() {
+						
+						public void onClick(DialogInterface dialog, int which) {
+							importCells(Uri.fromFile(new File(input.getText().toString())));
+						}
+					})
+					.setNegativeButton(android.R.string.cancel, null)
+					.show();
+		}
+	}
+	
+	/**
+	 * Receive the file chosen in chooseCellFile().
+	 */
+	@Override
+	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+		if (requestCode == REQUEST_IMPORT_CELLS && resultCode == RESULT_OK && 
+				data != null && data.getData() != null) {
+			importCells(data.getData());
+		}
+		else {
+			super.onActivityResult(requestCode, resultCode, data);
+		}
+	}
+	
+	/**
+	 * Let the service import cells from uri, it shows the progress in a 
+	 * notification.
+	 */
+	private void importCells(Uri uri) {
+		startService(new Intent(this, LocationService.class)
+				.putExtra(LocationService.MESSAGE_IMPORT_CELLS, uri.toString()));
+		Toast.makeText(this, R.string.arealist_import_started, Toast.LENGTH_SHORT).show();
+	}
+
+	/**
+	 * Cluster the cell log in the background and offer the resulting 
+	 * suggestions in a dialog.
+	 */
+	private void suggestAreas() {
+		new AsyncTask<Void, Void, List<Suggestion>>() {
+
+			@Override
+			protected List<Suggestion> doInBackground(Void... params) {
+				ProfiledDatabase db = Database.getInstance(AreaList.this)
+						.getReadable();
+				
+				// Read the log page by page, ordered by time and then row 
+				// ID, so that only cells and edges are kept in memory.
+				CellClusterer clusterer = new CellClusterer();
+				long lastTime = Long.MIN_VALUE;
+				long lastRow = Long.MIN_VALUE;
+				int rows;
+				do {
+					Cursor c = db.query(false, CellLogColumns.TABLE_NAME, 
+							new String[] { CellLogColumns.CELL_ID, CellLogColumns.TIMESTAMP, 
+									CellLogColumns._ID }, 
+							CellLogColumns.TIMESTAMP + " >= ? AND (" + 
+									CellLogColumns.TIMESTAMP + " > ? OR " + 
+									CellLogColumns._ID + " > ?)", 
+							new String[] { Long.toString(lastTime), Long.toString(lastTime), 
+									Long.toString(lastRow) }, 
+							null, null, 
+							CellLogColumns.TIMESTAMP + " ASC, " + CellLogColumns._ID + " ASC", 
+							Integer.toString(LOG_PAGE_SIZE));
+					rows = c.getCount();
+					while (c.moveToNext()) {
+						clusterer.add(c.getLong(0), c.getLong(1));
+						lastTime = c.getLong(1);
+						lastRow = c.getLong(2);
+					}
+					c.close();
+				} while (rows == LOG_PAGE_SIZE);
+				List<long[]> clusters = clusterer.getClusters();
+				
+				HashMap<Long, Long> cellAreas = new HashMap<Long, Long>();
+				Cursor c = db.query(CellColumns.TABLE_NAME, 
+						new String[] { CellColumns._ID, CellColumns.AREA_ID }, 
+						null, null, null, null, null);
+				while (c.moveToNext()) {
+					cellAreas.put(c.getLong(0), c.getLong(1));
+				}
+				c.close();
+				HashMap<Long, String> areaNames = new HashMap<Long, String>();
+				c = db.query(AreaColumns.TABLE_NAME, 
+						new String[] { AreaColumns._ID, AreaColumns.NAME }, 
+						null, null, null, null, null);
+				while (c.moveToNext()) {
+					areaNames.put(c.getLong(0), c.getString(1));
+				}
+				c.close();
+				
+				List<Suggestion> suggestions = new ArrayList<Suggestion>();
+				int number = 0;
+				for (long[] cluster : clusters) {
+					// Find the area most cells in the cluster already belong to.
+					HashMap<Long, Integer> votes = new HashMap<Long, Integer>();
+					long dominant = Database.ROW_NONE;
+					int unassigned = 0;
+					for (long cell : cluster) {
+						Long area = cellAreas.get(cell);
+						if (area == null || area == AreaColumns.AREA_DEFAULT || 
+								!areaNames.containsKey(area)) {
+							unassigned++;
+							continue;
+						}
+						Integer v = votes.get(area);
+						v = (v == null) ? 1 : v + 1;
+						votes.put(area, v);
+						if (dominant == Database.ROW_NONE || v > votes.get(dominant)) {
+							dominant = area;
+						}
+					}
+					if (unassigned == 0)
+						continue;
+					
+					// Only propose cells that are not in any area yet.
+					Suggestion s = new Suggestion();
+					s.area = dominant;
+					if (dominant != Database.ROW_NONE) {
+						s.name = areaNames.get(dominant);
+					}
+					else {
+						// Number new areas, skipping names that are taken.
+						do {
+							number++;
+							s.name = getResources().getString(
+									R.string.arealist_suggest_new, number);
+						} while (areaNames.containsValue(s.name));
+					}
+					s.cells = new long[unassigned];
+					for (long cell : cluster) {
+						Long area = cellAreas.get(cell);
+						if (area == null || area == AreaColumns.AREA_DEFAULT || 
+								!areaNames.containsKey(area)) {
+							s.cells[--unassigned] = cell;
+						}
+					}
+					suggestions.add(s);
+				}
+				return suggestions;
+			}
+			
+			@Override
+			protected void onPostExecute(final List<Suggestion> suggestions) {
+				if (suggestions.size() == 0) {
+					new AlertDialog.Builder(AreaList.this)
+							.setTitle(R.string.arealist_suggest)
+							.setMessage(R.string.arealist_suggest_none)
+							.setPositiveButton(android.R.string.ok, null)
+							.show();
+					return;
+				}
+				
+				String[] items = new String[suggestions.size()];
+				final boolean[] checked = new boolean[suggestions.size()];
+				for (int i = 0; i < items.length; i++) {
+					items[i] = getResources().getString(R.string.arealist_suggest_item, 
+							suggestions.get(i).name, suggestions.get(i).cells.length);
+					checked[i] = true;
+				}
+				new AlertDialog.Builder(AreaList.this)
+						.setTitle(R.string.arealist_suggest)
+						.setMultiChoiceItems(items, checked, new OnMultiChoiceClickListener() {
+							
+							@Override
+							public void onClick(DialogInterface dialog, int which, 
+									boolean isChecked) {
+								checked[which] = isChecked;
+							}
+						})
+						.setPositiveButton(android.R.string.ok, new OnClickListener() {
+							
+							@Override
+							public void onClick(DialogInterface dialog, int which) {
+								new UpdateTask() {
+									
+									@Override
+									protected Long doInBackground(Void... params) {
+										acceptSuggestions(suggestions, checked);
+										return null;
+									}
+								}.execute((Void) null);
+							}
+						})
+						.setNegativeButton(android.R.string.cancel, null)
+						.show();
+			}
+		}.execute((Void) null);
+	}
+	
+	/**
+	 * Assign the cells of all checked suggestions to their area in a single 
+	 * write, creating new areas where necessary. Each cell gets a learn 
+	 * vote for its area, and is moved to it if that makes it the area with 
+	 * the most votes.
+	 */
+	private void acceptSuggestions(final List<Suggestion> suggestions, 
+			final boolean[] checked) {
+		final Database database = Database.getInstance(this);
+		WriteExecutor.await(database.getWriter().submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				ProfiledDatabase db = database.getWritable();
+				long now = System.currentTimeMillis();
+				for (int i = 0; i < suggestions.size(); i++) {
+					if (!checked[i])
+						continue;
+				
+					Suggestion s = suggestions.get(i);
+					long area = s.area;
+					if (area == Database.ROW_NONE) {
+						ContentValues cv = new ContentValues();
+						cv.put(AreaColumns.NAME, s.name);
+						cv.put(AreaColumns.PROFILE_ID, Database.ROW_NONE);
+						cv.put(AreaColumns.WIFI_ENABLED, true);
+						cv.put(AreaColumns.BLUETOOTH_ENABLED, false);
+						area = db.insert(AreaColumns.TABLE_NAME, null, cv);
+					}
+					
+					for (int start = 0; start < s.cells.length; start += MAX_BOUND_IDS) {
+						int end = Math.min(start + MAX_BOUND_IDS, s.cells.length);
+						assignCells(db, s.cells, start, end, area, now);
+					}
+				}
+			}
+		}));
+	}
+	
+	/**
+	 * Adds a learn vote for area to cells from start to end (exclusive), 
+	 * and moves the cells whose top area changes.
+	 */
+	private static void assignCells(ProfiledDatabase db, long[] cells, int start, 
+			int end, long area, long now) {
+		StringBuilder placeholders = new StringBuilder();
+		String[] ids = new String[end - start];
+		for (int i = start; i < end; i++) {
+			placeholders.append((i > start) ? ", ?" : "?");
+			ids[i - start] = Long.toString(cells[i]);
+		}
+		
+		AreaVotes votes = new AreaVotes();
+		Cursor c = db.query(CellAreaColumns.TABLE_NAME, 
+				new String[] { CellAreaColumns.CELL_ID, CellAreaColumns.AREA_ID, 
+						CellAreaColumns.SCORE, CellAreaColumns.LAST_SEEN }, 
+				CellAreaColumns.CELL_ID + " IN (" + placeholders + ")", ids, 
+				null, null, null);
+		while (c.moveToNext()) {
+			votes.put(c.getLong(0), c.getLong(1), c.getDouble(2), c.getLong(3), now);
+		}
+		c.close();
+		
+		for (int i = start; i < end; i++) {
+			long previousTop = votes.top(cells[i]);
+			ContentValues cv = new ContentValues();
+			cv.put(CellAreaColumns.CELL_ID, cells[i]);
+			cv.put(CellAreaColumns.AREA_ID, area);
+			cv.put(CellAreaColumns.SCORE, 
+					votes.vote(cells[i], area, AreaVotes.VOTE_LEARN, now));
+			cv.put(CellAreaColumns.LAST_SEEN, now);
+			db.replace(CellAreaColumns.TABLE_NAME, null, cv);
+			
+			long top = votes.top(cells[i]);
+			if (top != previousTop) {
+				cv = new ContentValues();
+				cv.put(CellColumns.AREA_ID, top);
+				db.update(CellColumns.TABLE_NAME, cv, CellColumns._ID + " = ?", 
+						new String[] { Long.toString(cells[i]) });
+			}
+		}
+	}
+
 }
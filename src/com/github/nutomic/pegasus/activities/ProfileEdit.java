@@ -16,15 +16,19 @@
 
 package com.github.nutomic.pegasus.activities;
 
+import java.util.ArrayList;
+
+import android.app.AlertDialog;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
+import android.content.DialogInterface;
 import android.media.AudioManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
+import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 
 import com.github.nutomic.pegasus.LocationService;
@@ -32,11 +36,17 @@ import com.github.nutomic.pegasus.R;
 import com.github.nutomic.pegasus.VolumePreference;
 import com.github.nutomic.pegasus.content.Database;
 import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.ProfileLoader;
+import com.github.nutomic.pegasus.content.WriteExecutor;
+import com.github.nutomic.pegasus.location.ProfileTree;
 
 /**
  * Allows editing a profile, uses Database values (or defaults) to
  * initialize, saves to Database.
  * 
+ * Shows the effective settings, including those inherited from the 
+ * parent profile. Changing a setting overrides it for this profile.
+ * 
  * Using deprecated methods because v4 support library does not have 
  * PreferenceFragment implementation.
  * 
@@ -44,12 +54,14 @@ import com.github.nutomic.pegasus.content.ProfileColumns;
  * 
  */
 public class ProfileEdit extends PreferenceActivity implements 
-		OnPreferenceChangeListener {
+		OnPreferenceChangeListener, OnPreferenceClickListener {
 	
 	/** Key for the Intent extra to store the profile edited here. */
 	public static final String PROFILE_ID = "profile_id";
 
 	private volatile long mProfile;
+	private ProfileTree mProfiles;
+	private Preference mParent;
 	private VolumePreference mRingtoneVolume;
 	private VolumePreference mNotificationVolume;
 	private VolumePreference mMediaVolume;
@@ -67,59 +79,80 @@ public class ProfileEdit extends PreferenceActivity implements
 		mProfile = getIntent().getExtras().getLong(PROFILE_ID);
 
 		addPreferencesFromResource(R.xml.profile_edit);
-
-		new AsyncTask<Void, Void, Cursor>() {
+		load();
+	}
+	
+	/**
+	 * Read all profiles and show the effective settings of this one.
+	 */
+	private void load() {
+		new AsyncTask<Void, Void, ProfileTree>() {
 
 			@Override
-			protected Cursor doInBackground(Void... params) {
-				Cursor c = Database.getInstance(ProfileEdit.this).getReadableDatabase().query(
-						ProfileColumns.TABLE_NAME,
-						new String[] { ProfileColumns.NAME,
-								ProfileColumns.RINGTONE_VOLUME, 
-								ProfileColumns.NOTIFICATION_VOLUME,
-								ProfileColumns.MEDIA_VOLUME, 
-								ProfileColumns.ALARM_VOLUME, 
-								ProfileColumns.RINGER_MODE }, 
-						"_id = ?",
-						new String[] { Long.toString(mProfile) }, 
-						null, null, null);
-				c.moveToFirst();
-				return c;
+			protected ProfileTree doInBackground(Void... params) {
+				ProfileTree profiles = new ProfileTree();
+				ProfileLoader.loadAll(Database.getInstance(ProfileEdit.this)
+						.getReadable(), profiles);
+				return profiles;
 			}
 			
-			protected void onPostExecute(Cursor c) {
-				setTitle(c.getString(c.getColumnIndex(ProfileColumns.NAME)));
+			protected void onPostExecute(ProfileTree profiles) {
+				mProfiles = profiles;
+				ProfileTree.Profile p = profiles.get(mProfile);
+				if (p == null) {
+					finish();
+					return;
+				}
+				setTitle(p.name);
 
 				final AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
+				mParent = findPreference("parent");
+				ProfileTree.Profile parent = profiles.get(profiles.getParent(mProfile));
+				mParent.setSummary((parent != null) 
+						? parent.name 
+						: getString(R.string.profileedit_parent_summary));
+				mParent.setOnPreferenceClickListener(ProfileEdit.this);
+
 				mRingtoneVolume = (VolumePreference) findPreference("ringtone_volume");
 				mRingtoneVolume.setMaxValue(am.getStreamMaxVolume(AudioManager.STREAM_RING));
-				mRingtoneVolume.setDefaultValue(c.getInt(c.getColumnIndex(ProfileColumns.RINGTONE_VOLUME)));
+				mRingtoneVolume.setDefaultValue(getVolume(p, ProfileTree.FIELD_RINGTONE_VOLUME));
 				mRingtoneVolume.setOnPreferenceChangeListener(ProfileEdit.this);
 
 				mNotificationVolume = (VolumePreference) findPreference("notification_volume");
 				mNotificationVolume.setMaxValue(am.getStreamMaxVolume(AudioManager.STREAM_NOTIFICATION));
-				mNotificationVolume.setDefaultValue(c.getInt(c.getColumnIndex(ProfileColumns.NOTIFICATION_VOLUME)));
+				mNotificationVolume.setDefaultValue(getVolume(p, ProfileTree.FIELD_NOTIFICATION_VOLUME));
 				mNotificationVolume.setOnPreferenceChangeListener(ProfileEdit.this);
 
 				mMediaVolume = (VolumePreference) findPreference("media_volume");
 				mMediaVolume.setMaxValue(am.getStreamMaxVolume(AudioManager.STREAM_MUSIC));
-				mMediaVolume.setDefaultValue(c.getInt(c.getColumnIndex(ProfileColumns.MEDIA_VOLUME)));
+				mMediaVolume.setDefaultValue(getVolume(p, ProfileTree.FIELD_MEDIA_VOLUME));
 				mMediaVolume.setOnPreferenceChangeListener(ProfileEdit.this);
 
 				mAlarmVolume = (VolumePreference) findPreference("alarm_volume");
 				mAlarmVolume.setMaxValue(am.getStreamMaxVolume(AudioManager.STREAM_ALARM));
-				mAlarmVolume.setDefaultValue(c.getInt(c.getColumnIndex(ProfileColumns.ALARM_VOLUME)));
+				mAlarmVolume.setDefaultValue(getVolume(p, ProfileTree.FIELD_ALARM_VOLUME));
 				mAlarmVolume.setOnPreferenceChangeListener(ProfileEdit.this);
 
 				mRingerMode = (ListPreference) findPreference("ringer_mode");
-				mRingerMode.setValue(Integer.toString(c.getInt(c.getColumnIndex(ProfileColumns.RINGER_MODE))));
+				mRingerMode.setValue(Integer.toString(p.get(ProfileTree.FIELD_RINGER_MODE)));
 				mRingerMode.setOnPreferenceChangeListener(ProfileEdit.this);
 				
 			};
 			
 		}.execute((Void) null);
 	}
+	
+	/**
+	 * Returns the volume to show for a field, volumes that no profile 
+	 * sets are shown as not applied.
+	 */
+	private static int getVolume(ProfileTree.Profile p, int field) {
+		int volume = p.get(field);
+		return (volume == ProfileTree.VALUE_UNCHANGED) 
+				? -ProfileColumns.VOLUME_APPLY_FALSE 
+				: volume;
+	}
 
 	/**
 	 * Write changed preference to database.
@@ -142,23 +175,79 @@ public class ProfileEdit extends PreferenceActivity implements
 			cv.put(ProfileColumns.RINGER_MODE, Integer.parseInt((String) newValue));
 		}
 		
-		final ContentValues values = cv;
-		new Thread(new Runnable() {
+		// The service waits for queued writes before updating.
+		Database.getInstance(this).update(ProfileColumns.TABLE_NAME, 
+				cv, 
+				ProfileColumns._ID + " = ?",
+				new String[] { Long.toString(mProfile) });
+		LocationService.sendProfileChangedIntent(this, mProfile);
+
+		return true;
+	}
+
+	/**
+	 * Show a "pick parent profile" dialog, profiles inheriting from this 
+	 * one are not offered. Uses the profiles read by load().
+	 */
+	@Override
+	public boolean onPreferenceClick(Preference preference) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		ArrayList<String> names = new ArrayList<String>();
+		ids.add(Database.ROW_NONE);
+		names.add(getString(R.string.arealist_profile_none));
+		for (long id : mProfiles.getIds()) {
+			if (!mProfiles.inheritsFrom(id, mProfile)) {
+				ids.add(id);
+				names.add(mProfiles.get(id).name);
+			}
+		}
+		
+		new AlertDialog.Builder(this).setTitle(R.string.profileedit_parent)
+				.setItems(names.toArray(new String[names.size()]), 
+						new DialogInterface.OnClickListener() {
+
+					public void onClick(DialogInterface dialog, int which) {
+						setParent(ids.get(which));
+					}
+				}).show();
+		return true;
+	}
+	
+	/**
+	 * Sets the parent profile. With a parent, all settings are inherited 
+	 * until they are changed again. Without parent, the profile keeps its 
+	 * current effective settings.
+	 */
+	private void setParent(final long parent) {
+		final ContentValues cv = new ContentValues();
+		cv.put(ProfileColumns.PARENT_ID, parent);
+		ProfileTree.Profile p = mProfiles.get(mProfile);
+		for (int i = 0; i < ProfileTree.FIELD_COUNT; i++) {
+			if (parent != Database.ROW_NONE) {
+				cv.putNull(ProfileLoader.getColumn(i));
+			}
+			else {
+				cv.put(ProfileLoader.getColumn(i), p.get(i));
+			}
+		}
+		new AsyncTask<Void, Void, Void>() {
 			
 			@Override
-			public void run() {
+			protected Void doInBackground(Void... params) {
+				WriteExecutor.await(Database.getInstance(ProfileEdit.this)
+						.update(ProfileColumns.TABLE_NAME, 
+								cv, 
+								ProfileColumns._ID + " = ?",
+								new String[] { Long.toString(mProfile) }));
+				return null;
+			}
 			
-				Database.getInstance(ProfileEdit.this)
-						.getWritableDatabase().update(ProfileColumns.TABLE_NAME, 
-							values, 
-							ProfileColumns._ID + " = ?",
-							new String[] { Long.toString(mProfile) });
-				
-				LocationService.sendUpdateIntent(ProfileEdit.this);
+			@Override
+			protected void onPostExecute(Void result) {
+				LocationService.sendProfileChangedIntent(ProfileEdit.this, mProfile);
+				load();
 			}
-		}).start();
-
-		return true;
+		}.execute((Void) null);
 	}
 
 }
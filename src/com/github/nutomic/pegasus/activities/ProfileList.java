@@ -41,6 +41,7 @@ import com.github.nutomic.pegasus.LocationService;
 import com.github.nutomic.pegasus.R;
 import com.github.nutomic.pegasus.content.Database;
 import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.WriteExecutor;
 
 /**
  * Displays a list of profiles.
@@ -108,7 +109,7 @@ public class ProfileList extends ListActivity {
 	 */
 	private void updateCursor() {
 		mAdapter.changeCursor(Database.getInstance(this)
-				.getReadableDatabase().query(ProfileColumns.TABLE_NAME,
+				.getReadable().query(ProfileColumns.TABLE_NAME,
 						new String[]{ ProfileColumns._ID, ProfileColumns.NAME },
 						null,
 						new String[]{},
@@ -174,9 +175,10 @@ public class ProfileList extends ListActivity {
 										
 										@Override
 										protected Long doInBackground(Void... arg0) {
-											db.getWritableDatabase().delete(ProfileColumns.TABLE_NAME, 
+											reparentChildren(db, info.id);
+											WriteExecutor.await(db.delete(ProfileColumns.TABLE_NAME, 
 													ProfileColumns._ID + " = ?",
-													new String[] { Long.toString(info.id) });
+													new String[] { Long.toString(info.id) }));
 											return null;
 										}
 									}.execute((Void) null);
@@ -189,6 +191,28 @@ public class ProfileList extends ListActivity {
 		}
 	}
 
+	/**
+	 * Let profiles inheriting from a profile that is deleted inherit from 
+	 * its parent instead.
+	 */
+	private void reparentChildren(Database db, long profile) {
+		Cursor c = db.getReadable().query(ProfileColumns.TABLE_NAME, 
+				new String[] { ProfileColumns.PARENT_ID }, 
+				ProfileColumns._ID + " = ?",
+				new String[] { Long.toString(profile) }, 
+				null, null, null);
+		long parent = (c.moveToFirst() && !c.isNull(0)) 
+				? c.getLong(0) 
+				: Database.ROW_NONE;
+		c.close();
+		ContentValues cv = new ContentValues();
+		cv.put(ProfileColumns.PARENT_ID, parent);
+		db.update(ProfileColumns.TABLE_NAME, 
+				cv, 
+				ProfileColumns.PARENT_ID + " = ?",
+				new String[] { Long.toString(profile) });
+	}
+
 	/**
 	 * Show an AlertDialog to edit the name of a profile.
 	 * 
@@ -212,12 +236,11 @@ public class ProfileList extends ListActivity {
 									protected Long doInBackground(Void... params) {
 										ContentValues cv = new ContentValues();
 										cv.put(ProfileColumns.NAME, input.getText().toString());
-										Database.getInstance(ProfileList.this)
-												.getWritableDatabase().update(
-														ProfileColumns.TABLE_NAME, 
+										WriteExecutor.await(Database.getInstance(ProfileList.this)
+												.update(ProfileColumns.TABLE_NAME, 
 														cv, 
 														ProfileColumns._ID + " = ?",
-														new String[] { Long.toString(profile) });
+														new String[] { Long.toString(profile) }));
 										return null;
 									}
 								}.execute((Void) null);
@@ -262,8 +285,8 @@ public class ProfileList extends ListActivity {
 					cv.put(ProfileColumns.ALARM_VOLUME, 5 - ProfileColumns.VOLUME_APPLY_FALSE);
 					cv.put(ProfileColumns.RINGER_MODE, AudioManager.RINGER_MODE_NORMAL);
 				
-					return Database.getInstance(ProfileList.this).getWritableDatabase()
-							.insert(ProfileColumns.TABLE_NAME, null, cv);
+					return WriteExecutor.await(Database.getInstance(ProfileList.this)
+							.insert(ProfileColumns.TABLE_NAME, cv));
 				}
 				
 				@Override
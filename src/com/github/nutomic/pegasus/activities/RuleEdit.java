@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.activities;
+
+import java.util.ArrayList;
+
+import android.app.AlertDialog;
+import android.content.ContentValues;
+import android.content.DialogInterface;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.EditTextPreference;
+import android.preference.ListPreference;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
+import android.preference.Preference.OnPreferenceClickListener;
+import android.preference.PreferenceActivity;
+
+import com.github.nutomic.pegasus.LocationService;
+import com.github.nutomic.pegasus.R;
+import com.github.nutomic.pegasus.content.AreaColumns;
+import com.github.nutomic.pegasus.content.Database;
+import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.RuleColumns;
+import com.github.nutomic.pegasus.location.RuleMatcher;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
+
+/**
+ * Allows editing the conditions and actions of a rule, uses Database 
+ * values to initialize, saves to Database.
+ * 
+ * Using deprecated methods because v4 support library does not have 
+ * PreferenceFragment implementation.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class RuleEdit extends PreferenceActivity implements 
+		OnPreferenceChangeListener, OnPreferenceClickListener {
+	
+	/** Key for the Intent extra to store the rule edited here. */
+	public static final String RULE_ID = "rule_id";
+	
+	private long mRule;
+	private Preference mArea;
+	private Preference mTime;
+	private ListPreference mCharging;
+	private ListPreference mHeadset;
+	private Preference mProfile;
+	private ListPreference mWifi;
+	private ListPreference mBluetooth;
+	private EditTextPreference mPriority;
+	
+	private int mDays;
+	private int mStart;
+	private int mEnd;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		mRule = getIntent().getExtras().getLong(RULE_ID);
+
+		addPreferencesFromResource(R.xml.rule_edit);
+		
+		new AsyncTask<Void, Void, Cursor>() {
+
+			@Override
+			protected Cursor doInBackground(Void... params) {
+				return Database.getInstance(RuleEdit.this).getReadable().rawQuery(
+						"SELECT r." + RuleColumns.AREA_ID + 
+						", r." + RuleColumns.DAYS + 
+						", r." + RuleColumns.START + 
+						", r." + RuleColumns.END + 
+						", r." + RuleColumns.CHARGING + 
+						", r." + RuleColumns.HEADSET + 
+						", r." + RuleColumns.PROFILE_ID + 
+						", r." + RuleColumns.WIFI + 
+						", r." + RuleColumns.BLUETOOTH + 
+						", r." + RuleColumns.PRIORITY + 
+						", a." + AreaColumns.NAME + 
+						", p." + ProfileColumns.NAME + 
+						" FROM " + RuleColumns.TABLE_NAME + " r" + 
+						" LEFT JOIN " + AreaColumns.TABLE_NAME + " a" + 
+						" ON r." + RuleColumns.AREA_ID + " = a." + AreaColumns._ID + 
+						" LEFT JOIN " + ProfileColumns.TABLE_NAME + " p" + 
+						" ON r." + RuleColumns.PROFILE_ID + " = p." + ProfileColumns._ID + 
+						" WHERE r." + RuleColumns._ID + " = ?", 
+						new String[] { Long.toString(mRule) });
+			}
+			
+			@Override
+			protected void onPostExecute(Cursor c) {
+				if (!c.moveToFirst()) {
+					c.close();
+					finish();
+					return;
+				}
+				
+				mArea = findPreference("area");
+				mArea.setSummary((c.getLong(0) == RuleMatcher.ANY || c.isNull(10))
+						? getString(R.string.rulelist_any_area)
+						: c.getString(10));
+				mArea.setOnPreferenceClickListener(RuleEdit.this);
+				
+				mDays = c.getInt(1);
+				mStart = c.getInt(2);
+				mEnd = c.getInt(3);
+				mTime = findPreference("time");
+				mTime.setOnPreferenceClickListener(RuleEdit.this);
+				updateTimeSummary();
+				
+				mCharging = initList("charging", c.getInt(4));
+				mHeadset = initList("headset", c.getInt(5));
+				
+				mProfile = findPreference("profile");
+				mProfile.setSummary((c.getLong(6) == Database.ROW_NONE || c.isNull(11))
+						? getString(R.string.ruleedit_profile_unchanged)
+						: c.getString(11));
+				mProfile.setOnPreferenceClickListener(RuleEdit.this);
+				
+				mWifi = initList("wifi", c.getInt(7));
+				mBluetooth = initList("bluetooth", c.getInt(8));
+				
+				mPriority = (EditTextPreference) findPreference("priority");
+				mPriority.setText(Integer.toString(c.getInt(9)));
+				mPriority.setSummary(mPriority.getText());
+				mPriority.setOnPreferenceChangeListener(RuleEdit.this);
+				c.close();
+			}
+		}.execute((Void) null);
+	}
+	
+	/**
+	 * Shows value in the list preference with the given key.
+	 */
+	private ListPreference initList(String key, int value) {
+		ListPreference p = (ListPreference) findPreference(key);
+		p.setValue(Integer.toString(value));
+		p.setSummary(p.getEntry());
+		p.setOnPreferenceChangeListener(this);
+		return p;
+	}
+	
+	private void updateTimeSummary() {
+		mTime.setSummary((mDays == ScheduleIndex.EVERY_DAY && mStart == mEnd)
+				? getString(R.string.rulelist_any_time)
+				: TimeWindowPicker.format(this, mDays, mStart, mEnd));
+	}
+	
+	@Override
+	public boolean onPreferenceChange(Preference preference, Object newValue) {
+		ContentValues cv = new ContentValues();
+		if (preference.equals(mPriority)) {
+			int priority;
+			try {
+				priority = Integer.parseInt((String) newValue);
+			}
+			catch (NumberFormatException e) {
+				return false;
+			}
+			cv.put(RuleColumns.PRIORITY, priority);
+			mPriority.setSummary(Integer.toString(priority));
+		}
+		else {
+			ListPreference list = (ListPreference) preference;
+			list.setSummary(list.getEntries()[list.findIndexOfValue((String) newValue)]);
+			int value = Integer.parseInt((String) newValue);
+			if (preference.equals(mCharging)) {
+				cv.put(RuleColumns.CHARGING, value);
+			}
+			else if (preference.equals(mHeadset)) {
+				cv.put(RuleColumns.HEADSET, value);
+			}
+			else if (preference.equals(mWifi)) {
+				cv.put(RuleColumns.WIFI, value);
+			}
+			else if (preference.equals(mBluetooth)) {
+				cv.put(RuleColumns.BLUETOOTH, value);
+			}
+		}
+		save(cv);
+		return true;
+	}
+	
+	/**
+	 * Writes cv to the rule, the service waits for queued writes before 
+	 * updating.
+	 */
+	private void save(ContentValues cv) {
+		Database.getInstance(this).update(RuleColumns.TABLE_NAME, 
+				cv,
+				RuleColumns._ID + " = ?", 
+				new String[] { Long.toString(mRule) });
+		LocationService.sendUpdateIntent(this);
+	}
+
+	/**
+	 * Show a dialog to choose area, time window or profile.
+	 */
+	@Override
+	public boolean onPreferenceClick(Preference preference) {
+		if (preference.equals(mTime)) {
+			pickTime();
+		}
+		else if (preference.equals(mArea)) {
+			pickRow(AreaColumns.TABLE_NAME, AreaColumns._ID, AreaColumns.NAME, 
+					R.string.ruleedit_area, R.string.rulelist_any_area, 
+					RuleColumns.AREA_ID, mArea);
+		}
+		else if (preference.equals(mProfile)) {
+			pickRow(ProfileColumns.TABLE_NAME, ProfileColumns._ID, ProfileColumns.NAME, 
+					R.string.ruleedit_profile, R.string.ruleedit_profile_unchanged, 
+					RuleColumns.PROFILE_ID, mProfile);
+		}
+		return true;
+	}
+	
+	/**
+	 * Lets the user choose between any time and a time window.
+	 */
+	private void pickTime() {
+		new AlertDialog.Builder(this).setTitle(R.string.ruleedit_time)
+				.setItems(R.array.ruleedit_time_strings, new DialogInterface.OnClickListener() {
+					
+					public void onClick(DialogInterface dialog, int which) {
+						if (which == 0) {
+							setTime(ScheduleIndex.EVERY_DAY, 0, 0);
+							return;
+						}
+						
+						TimeWindowPicker.show(RuleEdit.this, mDays, mStart, mEnd, 
+								new TimeWindowPicker.OnTimeWindowSetListener() {
+							
+							public void onTimeWindowSet(int days, int start, int end) {
+								setTime(days, start, end);
+							}
+						});
+					}
+				}).show();
+	}
+	
+	private void setTime(int days, int start, int end) {
+		mDays = days;
+		mStart = start;
+		mEnd = end;
+		updateTimeSummary();
+		ContentValues cv = new ContentValues();
+		cv.put(RuleColumns.DAYS, days);
+		cv.put(RuleColumns.START, start);
+		cv.put(RuleColumns.END, end);
+		save(cv);
+	}
+	
+	/**
+	 * Loads the names of all rows in table in the background, lets the 
+	 * user choose one of them (or none) and saves the choice to column.
+	 * 
+	 * @param none String resource for the entry that chooses no row.
+	 */
+	private void pickRow(final String table, final String idColumn, 
+			final String nameColumn, final int title, final int none, 
+			final String column, final Preference preference) {
+		new AsyncTask<Void, Void, Cursor>() {
+			
+			@Override
+			protected Cursor doInBackground(Void... params) {
+				return Database.getInstance(RuleEdit.this).getReadable().query(
+						table, new String[] { idColumn, nameColumn }, 
+						null, null, null, null, null);
+			}
+			
+			@Override
+			protected void onPostExecute(Cursor c) {
+				final ArrayList<Long> ids = new ArrayList<Long>();
+				final ArrayList<String> names = new ArrayList<String>();
+				ids.add(Database.ROW_NONE);
+				names.add(getString(none));
+				while (c.moveToNext()) {
+					ids.add(c.getLong(0));
+					names.add(c.getString(1));
+				}
+				c.close();
+				
+				new AlertDialog.Builder(RuleEdit.this).setTitle(title)
+						.setItems(names.toArray(new String[names.size()]), 
+								new DialogInterface.OnClickListener() {
+		
+							public void onClick(DialogInterface dialog, int which) {
+								preference.setSummary(names.get(which));
+								ContentValues cv = new ContentValues();
+								cv.put(column, ids.get(which));
+								save(cv);
+							}
+						}).show();
+			}
+		}.execute((Void) null);
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.activities;
+
+import android.app.AlertDialog.Builder;
+import android.app.ListActivity;
+import android.content.ContentValues;
+import android.content.DialogInterface;
+import android.content.DialogInterface.OnClickListener;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.widget.SimpleCursorAdapter;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.AdapterView.AdapterContextMenuInfo;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.github.nutomic.pegasus.LocationService;
+import com.github.nutomic.pegasus.R;
+import com.github.nutomic.pegasus.content.AreaColumns;
+import com.github.nutomic.pegasus.content.Database;
+import com.github.nutomic.pegasus.content.ProfileColumns;
+import com.github.nutomic.pegasus.content.RuleColumns;
+import com.github.nutomic.pegasus.content.WriteExecutor;
+import com.github.nutomic.pegasus.location.RuleMatcher;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
+
+/**
+ * Displays a list of rules, with their conditions and actions.
+ * 
+ * @author Felix Ableitner
+ * 
+ */
+public class RuleList extends ListActivity {
+
+	private static final String AREANAME = "areaname";
+	private static final String PROFILENAME = "profilename";
+	
+	SimpleCursorAdapter mAdapter;
+	
+	/**
+	 * AsyncTask that refreshes the ListView and LocationService after finishing.
+	 * 
+	 * @author Felix Ableitner
+	 *
+	 */
+	private abstract class UpdateTask extends AsyncTask<Void, Void, Long> {
+
+		@Override
+		protected void onPostExecute(Long result) {
+			updateCursor();
+			LocationService.sendUpdateIntent(RuleList.this);
+		}
+		
+	}
+	
+	/**
+	 * Initialize layout.
+	 */
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		registerForContextMenu(getListView());
+		mAdapter = new SimpleCursorAdapter(this,
+				android.R.layout.simple_list_item_2, 
+				null,
+				new String[] { AREANAME, PROFILENAME }, 
+				new int[] { android.R.id.text1, android.R.id.text2 },
+				0);
+		mAdapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+			
+			public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+				((TextView) view).setText((view.getId() == android.R.id.text1)
+						? getConditions(cursor)
+						: getActions(cursor));
+				return true;
+			}
+		});
+		setListAdapter(mAdapter);
+	}
+
+	/**
+	 * Open SQL cursor.
+	 */
+	@Override
+	protected void onStart() {
+		super.onStart();
+		updateCursor();
+	}
+
+	/**
+	 * Close SQL cursor.
+	 */
+	@Override
+	protected void onStop() {
+		super.onStop();
+		mAdapter.changeCursor(null);
+	}
+
+	/**
+	 * Replace the current list cursor with a new one.
+	 */
+	private void updateCursor() {
+		mAdapter.changeCursor(Database.getInstance(this).getReadable().rawQuery(
+				"SELECT r." + RuleColumns._ID + 
+				", r." + RuleColumns.AREA_ID + 
+				", r." + RuleColumns.DAYS + 
+				", r." + RuleColumns.START + 
+				", r." + RuleColumns.END + 
+				", r." + RuleColumns.CHARGING + 
+				", r." + RuleColumns.HEADSET + 
+				", r." + RuleColumns.PROFILE_ID + 
+				", r." + RuleColumns.WIFI + 
+				", r." + RuleColumns.BLUETOOTH + 
+				", a." + AreaColumns.NAME + " AS " + AREANAME + 
+				", p." + ProfileColumns.NAME + " AS " + PROFILENAME + 
+				" FROM " + RuleColumns.TABLE_NAME + " r" + 
+				" LEFT JOIN " + AreaColumns.TABLE_NAME + " a" + 
+				" ON r." + RuleColumns.AREA_ID + " = a." + AreaColumns._ID + 
+				" LEFT JOIN " + ProfileColumns.TABLE_NAME + " p" + 
+				" ON r." + RuleColumns.PROFILE_ID + " = p." + ProfileColumns._ID + 
+				" ORDER BY r." + RuleColumns.PRIORITY + " DESC, r." + RuleColumns._ID + " ASC", 
+				null));
+	}
+	
+	/**
+	 * Returns a description of the conditions of the rule at the cursor 
+	 * position, like "Home, every day 08:00 - 17:00, charging".
+	 */
+	private String getConditions(Cursor c) {
+		StringBuilder sb = new StringBuilder();
+		sb.append((c.getLong(1) == RuleMatcher.ANY || c.isNull(10))
+				? getString(R.string.rulelist_any_area)
+				: c.getString(10));
+		sb.append(", ");
+		int days = c.getInt(2);
+		int start = c.getInt(3);
+		int end = c.getInt(4);
+		sb.append((days == ScheduleIndex.EVERY_DAY && start == end)
+				? getString(R.string.rulelist_any_time)
+				: TimeWindowPicker.format(this, days, start, end));
+		appendState(sb, c.getInt(5), R.string.rulelist_charging, 
+				R.string.rulelist_not_charging);
+		appendState(sb, c.getInt(6), R.string.rulelist_headset, 
+				R.string.rulelist_no_headset);
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns a description of the actions of the rule at the cursor 
+	 * position, like "Silent, wifi off".
+	 */
+	private String getActions(Cursor c) {
+		StringBuilder sb = new StringBuilder();
+		if (c.getLong(7) != Database.ROW_NONE && !c.isNull(11)) {
+			sb.append(c.getString(11));
+		}
+		appendState(sb, c.getInt(8), R.string.rulelist_wifi_on, R.string.rulelist_wifi_off);
+		appendState(sb, c.getInt(9), R.string.rulelist_bluetooth_on, 
+				R.string.rulelist_bluetooth_off);
+		return (sb.length() > 0)
+				? sb.toString()
+				: getString(R.string.rulelist_no_actions);
+	}
+	
+	/**
+	 * Appends on or off to sb, depending on state (1, 0 or -1 for neither).
+	 */
+	private void appendState(StringBuilder sb, int state, int on, int off) {
+		if (state == RuleMatcher.ANY)
+			return;
+		
+		if (sb.length() > 0) {
+			sb.append(", ");
+		}
+		sb.append(getString((state == 1) ? on : off));
+	}
+	
+	/**
+	 * Open corresponding rule.
+	 */
+	@Override
+	protected void onListItemClick(ListView l, View v, int position, long id) {
+		startActivity(new Intent(this, RuleEdit.class)
+				.putExtra(RuleEdit.RULE_ID, id));
+	}
+
+	/**
+	 * Create context menu for ListView items.
+	 */
+	public void onCreateContextMenu(android.view.ContextMenu menu, View v,
+			android.view.ContextMenu.ContextMenuInfo menuInfo) {
+		getMenuInflater().inflate(R.menu.rule_list_context, menu);
+		final AdapterContextMenuInfo info = (AdapterContextMenuInfo) menuInfo;
+		
+		// Set conditions as menu title.
+		Cursor c = (Cursor) getListAdapter().getItem(info.position);
+		menu.setHeaderTitle(getConditions(c));
+	}
+
+	/**
+	 * Context menu selection, edit or delete rule.
+	 */
+	@Override
+	public boolean onContextItemSelected(MenuItem item) {
+		final AdapterContextMenuInfo info = (AdapterContextMenuInfo) item
+				.getMenuInfo();
+		switch (item.getItemId()) {
+		case R.id.edit:
+			startActivity(new Intent(this, RuleEdit.class)
+					.putExtra(RuleEdit.RULE_ID, info.id));
+			return true;
+		case R.id.delete:
+			new Builder(this)
+					.setTitle(R.string.rulelist_delete)
+					.setMessage(R.string.rulelist_delete_message)
+					.setPositiveButton(android.R.string.yes,
+							new OnClickListener() {
+
+								public void onClick(DialogInterface dialog,
+										int which) {
+									new UpdateTask() {
+										
+										@Override
+										protected Long doInBackground(Void... arg0) {
+											WriteExecutor.await(Database.getInstance(RuleList.this)
+													.delete(RuleColumns.TABLE_NAME, 
+															RuleColumns._ID + " = ?",
+															new String[] { Long.toString(info.id) }));
+											return null;
+										}
+									}.execute((Void) null);
+								}
+							}).setNegativeButton(android.R.string.no, null)
+					.show();
+			return true;
+		default:
+			return super.onContextItemSelected(item);
+		}
+	}
+
+	/**
+	 * Create ActionBar menu.
+	 */
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		MenuInflater inflater = getMenuInflater();
+		inflater.inflate(R.menu.rule_list, menu);
+		return true;
+	}
+
+	/**
+	 * Handle ActionBar item selections.
+	 */
+	@Override
+	public boolean onOptionsItemSelected(final MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.new_item:
+			new UpdateTask() {
+				
+				@Override
+				protected Long doInBackground(Void... params) {
+					// All other columns default to "any" and "unchanged".
+					ContentValues cv = new ContentValues();
+					cv.put(RuleColumns.PRIORITY, 0);
+					return WriteExecutor.await(Database.getInstance(RuleList.this)
+							.insert(RuleColumns.TABLE_NAME, cv));
+				}
+				
+				@Override
+				protected void onPostExecute(Long result) {
+					super.onPostExecute(result);
+					startActivity(new Intent(RuleList.this, RuleEdit.class)
+							.putExtra(RuleEdit.RULE_ID, result));
+				}
+			}.execute((Void) null);
+			return true;
+		default:
+			return super.onOptionsItemSelected(item);
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.activities;
+
+import java.text.DateFormatSymbols;
+
+import android.app.AlertDialog;
+import android.app.TimePickerDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.text.format.DateFormat;
+import android.widget.TimePicker;
+
+import com.github.nutomic.pegasus.R;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
+
+/**
+ * Lets the user choose weekdays and a daily time window, by showing a
+ * weekday dialog followed by start and end time pickers.
+ *
+ * @author Felix Ableitner
+ *
+ */
+public class TimeWindowPicker {
+
+	/**
+	 * Called when the user has chosen the last value.
+	 */
+	public interface OnTimeWindowSetListener {
+
+		/**
+		 * @param days Weekday mask, see ScheduleIndex.MONDAY.
+		 * @param start Start of the window in minutes after midnight.
+		 * @param end End of the window in minutes after midnight.
+		 */
+		void onTimeWindowSet(int days, int start, int end);
+
+	}
+
+	private TimeWindowPicker() {
+	}
+
+	/**
+	 * Shows the dialogs, initialized with the given window.
+	 */
+	public static void show(final Context context, int days, final int start,
+			final int end, final OnTimeWindowSetListener listener) {
+		final boolean[] checked = new boolean[7];
+		for (int day = 0; day < 7; day++) {
+			checked[day] = (days & (ScheduleIndex.MONDAY << day)) != 0;
+		}
+		new AlertDialog.Builder(context)
+				.setTitle(R.string.timewindow_days)
+				.setMultiChoiceItems(getWeekdays(false), checked,
+						new DialogInterface.OnMultiChoiceClickListener() {
+
+					public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+						checked[which] = isChecked;
+					}
+				})
+				.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+
+					public void onClick(DialogInterface dialog, int which) {
+						int days = 0;
+						for (int day = 0; day < 7; day++) {
+							if (checked[day]) {
+								days |= ScheduleIndex.MONDAY << day;
+							}
+						}
+						if (days == 0)
+							return;
+
+						showStart(context, days, start, end, listener);
+					}
+				})
+				.setNegativeButton(android.R.string.cancel, null)
+				.show();
+	}
+
+	private static void showStart(final Context context, final int days, int start,
+			final int end, final OnTimeWindowSetListener listener) {
+		TimePickerDialog d = new TimePickerDialog(context,
+				new TimePickerDialog.OnTimeSetListener() {
+
+			public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
+				showEnd(context, days, hourOfDay * 60 + minute, end, listener);
+			}
+		}, start / 60, start % 60, DateFormat.is24HourFormat(context));
+		d.setTitle(R.string.timewindow_start);
+		d.show();
+	}
+
+	private static void showEnd(Context context, final int days, final int start,
+			int end, final OnTimeWindowSetListener listener) {
+		TimePickerDialog d = new TimePickerDialog(context,
+				new TimePickerDialog.OnTimeSetListener() {
+
+			public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
+				listener.onTimeWindowSet(days, start, hourOfDay * 60 + minute);
+			}
+		}, end / 60, end % 60, DateFormat.is24HourFormat(context));
+		d.setTitle(R.string.timewindow_end);
+		d.show();
+	}
+
+	/**
+	 * Returns a short description of the window, like "Mon, Tue 09:00 - 17:00".
+	 */
+	public static String format(Context context, int days, int start, int end) {
+		StringBuilder sb = new StringBuilder();
+		if ((days & ScheduleIndex.EVERY_DAY) == ScheduleIndex.EVERY_DAY) {
+			sb.append(context.getString(R.string.timewindow_every_day));
+		}
+		else {
+			String[] names = getWeekdays(true);
+			for (int day = 0; day < 7; day++) {
+				if ((days & (ScheduleIndex.MONDAY << day)) == 0)
+					continue;
+
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(names[day]);
+			}
+		}
+		sb.append(String.format(" %02d:%02d - %02d:%02d",
+				start / 60, start % 60, end / 60, end % 60));
+		return sb.toString();
+	}
+
+	/**
+	 * Returns localized weekday names, starting with monday.
+	 */
+	private static String[] getWeekdays(boolean shortNames) {
+		DateFormatSymbols symbols = new DateFormatSymbols();
+		// Indexed by Calendar.SUNDAY (1) to Calendar.SATURDAY (7).
+		String[] calendar = (shortNames)
+				? symbols.getShortWeekdays()
+				: symbols.getWeekdays();
+		String[] names = new String[7];
+		for (int day = 0; day < 7; day++) {
+			names[day] = calendar[(day + 1) % 7 + 1];
+		}
+		return names;
+	}
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Area shape table columns, holds the geographic outline of areas that 
+ * are defined by shape instead of learned cells (see AreaShapes).
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaShapeColumns implements BaseColumns {
+	
+	public static final String TABLE_NAME = "area_shape";
+	
+	// Columns
+	public static final String AREA_ID = "area_id";
+	/** Shape as text, see AreaShape.parse(). */
+	public static final String SHAPE = "shape";
+
+	public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+			AREA_ID + " INTEGER UNIQUE," +
+			SHAPE + " TEXT" +
+			");";
+	
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.github.nutomic.pegasus.location.AreaShape;
+import com.github.nutomic.pegasus.location.PackedRTree;
+
+/**
+ * Assigns cells with a known position to areas by shape.
+ * 
+ * Tower positions are kept in a PackedRTree that is loaded on first use. 
+ * When a shape changes, only cells inside the bounding box of the old or 
+ * the new shape are looked at: cells inside the new shape are moved to 
+ * the area, cells that were only inside the old shape are moved to 
+ * another shape containing them, or else to the area with the highest 
+ * vote (or the default area).
+ * 
+ * Shapes are few, they are read from the database for every change, so 
+ * deleting an area needs no notification. All work runs on the writer.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaShapes {
+	
+	private static final String TAG = "AreaShapes";
+	
+	private final Database mDb;
+	
+	/** Tower positions, only accessed from the writer thread. */
+	private PackedRTree mCells;
+	
+	public AreaShapes(Database db) {
+		mDb = db;
+	}
+	
+	/**
+	 * Set or remove the shape of an area, and reassign cells accordingly.
+	 * 
+	 * @param shape The new shape, or null to remove it.
+	 */
+	public Future<Void> setShape(final long area, final AreaShape shape) {
+		return mDb.getWriter().submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				SQLiteDatabase db = mDb.getWritableDatabase();
+				Map<Long, AreaShape> shapes = loadShapes(db);
+				AreaShape old = shapes.remove(area);
+				if (shape != null) {
+					shapes.put(area, shape);
+					db.execSQL("INSERT OR REPLACE INTO " + AreaShapeColumns.TABLE_NAME + 
+							" (" + AreaShapeColumns.AREA_ID + ", " + AreaShapeColumns.SHAPE + 
+							") VALUES (?, ?)", new Object[] { area, shape.toString() });
+				}
+				else {
+					db.delete(AreaShapeColumns.TABLE_NAME, 
+							AreaShapeColumns.AREA_ID + " = ?", 
+							new String[] { Long.toString(area) });
+				}
+				int changed = reassign(db, area, old, shape, shapes);
+				Log.i(TAG, "Changed shape of area " + area + ", checked " + 
+						changed + " cells");
+			}
+		});
+	}
+	
+	/**
+	 * Reload tower positions and assign the cells in all shapes, after 
+	 * cells were added or moved.
+	 */
+	public Future<Void> reload() {
+		return mDb.getWriter().submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				mCells = null;
+				SQLiteDatabase db = mDb.getWritableDatabase();
+				Map<Long, AreaShape> shapes = loadShapes(db);
+				for (Map.Entry<Long, AreaShape> e : shapes.entrySet()) {
+					reassign(db, e.getKey(), null, e.getValue(), shapes);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the shapes of all areas.
+	 */
+	private Map<Long, AreaShape> loadShapes(SQLiteDatabase db) {
+		HashMap<Long, AreaShape> shapes = new HashMap<Long, AreaShape>();
+		Cursor c = db.query(AreaShapeColumns.TABLE_NAME, 
+				new String[] { AreaShapeColumns.AREA_ID, AreaShapeColumns.SHAPE }, 
+				null, null, null, null, null);
+		try {
+			while (c.moveToNext()) {
+				try {
+					shapes.put(c.getLong(0), AreaShape.parse(c.getString(1)));
+				}
+				catch (IllegalArgumentException e) {
+					Log.w(TAG, "Ignoring shape of area " + c.getLong(0), e);
+				}
+			}
+		}
+		finally {
+			c.close();
+		}
+		return shapes;
+	}
+	
+	/**
+	 * Returns an R-tree of all cells with a known position, with the cell 
+	 * row ID as ID.
+	 */
+	private PackedRTree getCells(SQLiteDatabase db) {
+		if (mCells == null) {
+			PackedRTree.Builder builder = new PackedRTree.Builder();
+			Cursor c = db.query(CellColumns.TABLE_NAME, 
+					new String[] { CellColumns._ID, CellColumns.LONGITUDE, 
+							CellColumns.LATITUDE }, 
+					CellColumns.LATITUDE + " IS NOT NULL", 
+					null, null, null, null);
+			try {
+				while (c.moveToNext()) {
+					builder.add(c.getLong(0), c.getDouble(1), c.getDouble(2));
+				}
+			}
+			finally {
+				c.close();
+			}
+			mCells = builder.build();
+		}
+		return mCells;
+	}
+	
+	/**
+	 * Moves the cells affected by changing the shape of area from old to 
+	 * shape.
+	 * 
+	 * @param shapes The shapes of all areas, after the change.
+	 * @return Number of cells that were checked.
+	 */
+	private int reassign(SQLiteDatabase db, final long area, final AreaShape old, 
+			final AreaShape shape, final Map<Long, AreaShape> shapes) {
+		if (old == null && shape == null)
+			return 0;
+		
+		PackedRTree.Builder builder = new PackedRTree.Builder();
+		for (Map.Entry<Long, AreaShape> e : shapes.entrySet()) {
+			AreaShape s = e.getValue();
+			builder.add(e.getKey(), s.getMinLongitude(), s.getMinLatitude(), 
+					s.getMaxLongitude(), s.getMaxLatitude());
+		}
+		final PackedRTree shapeTree = builder.build();
+		
+		final SQLiteStatement enter = db.compileStatement("UPDATE " + 
+				CellColumns.TABLE_NAME + " SET " + CellColumns.AREA_ID + " = ? " +
+				"WHERE " + CellColumns._ID + " = ? AND " + CellColumns.AREA_ID + " != ?");
+		final SQLiteStatement leave = db.compileStatement("UPDATE " + 
+				CellColumns.TABLE_NAME + " SET " + CellColumns.AREA_ID + " = ifnull(?, " +
+				"ifnull((SELECT " + CellAreaColumns.AREA_ID + " FROM " + 
+				CellAreaColumns.TABLE_NAME + " WHERE " + CellAreaColumns.CELL_ID + " = " + 
+				CellColumns.TABLE_NAME + "." + CellColumns._ID + " AND " + 
+				CellAreaColumns.AREA_ID + " != ? ORDER BY " + CellAreaColumns.SCORE + 
+				" DESC LIMIT 1), " + AreaColumns.AREA_DEFAULT + ")) " +
+				"WHERE " + CellColumns._ID + " = ? AND " + CellColumns.AREA_ID + " = ?");
+		try {
+			double minLatitude = Double.POSITIVE_INFINITY;
+			double minLongitude = Double.POSITIVE_INFINITY;
+			double maxLatitude = Double.NEGATIVE_INFINITY;
+			double maxLongitude = Double.NEGATIVE_INFINITY;
+			for (AreaShape s : new AreaShape[] { old, shape }) {
+				if (s != null) {
+					minLatitude = Math.min(minLatitude, s.getMinLatitude());
+					minLongitude = Math.min(minLongitude, s.getMinLongitude());
+					maxLatitude = Math.max(maxLatitude, s.getMaxLatitude());
+					maxLongitude = Math.max(maxLongitude, s.getMaxLongitude());
+				}
+			}
+			return getCells(db).search(minLongitude, minLatitude, maxLongitude, 
+					maxLatitude, new PackedRTree.Visitor() {
+				
+				@Override
+				public void visit(long cell, float longitude, float latitude, 
+						float maxX, float maxY) {
+					if (shape != null && shape.contains(latitude, longitude)) {
+						enter.bindLong(1, area);
+						enter.bindLong(2, cell);
+						enter.bindLong(3, area);
+						enter.execute();
+					}
+					else if (old != null && old.contains(latitude, longitude)) {
+						long other = findShape(shapeTree, shapes, area, latitude, longitude);
+						if (other == area) {
+							leave.bindNull(1);
+						}
+						else {
+							leave.bindLong(1, other);
+						}
+						leave.bindLong(2, area);
+						leave.bindLong(3, cell);
+						leave.bindLong(4, area);
+						leave.execute();
+					}
+				}
+			});
+		}
+		finally {
+			enter.close();
+			leave.close();
+		}
+	}
+	
+	/**
+	 * Returns an area other than exclude whose shape contains the 
+	 * position, or exclude if there is none.
+	 */
+	private static long findShape(PackedRTree shapeTree, final Map<Long, AreaShape> shapes, 
+			final long exclude, final double latitude, final double longitude) {
+		final long[] found = { exclude };
+		shapeTree.search(longitude, latitude, longitude, latitude, 
+				new PackedRTree.Visitor() {
+			
+			@Override
+			public void visit(long area, float minX, float minY, float maxX, float maxY) {
+				if (area != exclude && found[0] == exclude && 
+						shapes.get(area).contains(latitude, longitude)) {
+					found[0] = area;
+				}
+			}
+		});
+		return found[0];
+	}
+	
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Cell area table columns, holds the weighted association between 
+ * cells and areas (see AreaVotes). The area with the highest score 
+ * is also stored in CellColumns.AREA_ID.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class CellAreaColumns implements BaseColumns {
+	
+	public static final String TABLE_NAME = "cell_area";
+	
+	// Columns
+	public static final String CELL_ID = "cell_id";
+	public static final String AREA_ID = "area_id";
+	public static final String SCORE = "score";
+	public static final String LAST_SEEN = "last_seen";
+
+	public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+			CELL_ID + " INTEGER," +
+			AREA_ID + " INTEGER," +
+			SCORE + " REAL," +
+			LAST_SEEN + " INTEGER," +
+			"UNIQUE (" + CELL_ID + ", " + AREA_ID + ")" +
+			");";
+	
+	/** 
+	 * Index for finding the votes of an area, votes of a cell use the 
+	 * unique constraint. 
+	 */
+	public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + 
+			TABLE_NAME + "_" + AREA_ID + " ON " + TABLE_NAME + " (" + AREA_ID + ");";
+	
+}
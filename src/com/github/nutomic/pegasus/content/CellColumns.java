@@ -32,12 +32,29 @@ public class CellColumns implements BaseColumns {
 	  public static final String AREA_ID = "area_id";
 	  public static final String CELL_ID = "cell_id";
 	  public static final String CELL_TYPE = "cell_type";
+	  /** GSM location area code or CDMA network ID, -1 if unknown. */
+	  public static final String LAC = "lac";
+	  /** Tower position in degrees, null if unknown. */
+	  public static final String LATITUDE = "latitude";
+	  public static final String LONGITUDE = "longitude";
 	  
 	  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
 		      _ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
 			  AREA_ID + " INTEGER," +
 			  CELL_ID + " INTEGER," +
-			  CELL_TYPE + " INTEGER" +
+			  CELL_TYPE + " INTEGER," +
+			  LAC + " INTEGER DEFAULT -1," +
+			  LATITUDE + " REAL," +
+			  LONGITUDE + " REAL" +
 		      ");";
+	  
+	  /** Index for looking up cells by radio cell ID. */
+	  public static final String CREATE_INDEX_CELL = "CREATE INDEX IF NOT EXISTS " + 
+			  TABLE_NAME + "_" + CELL_ID + " ON " + TABLE_NAME + " (" + 
+			  CELL_ID + ", " + CELL_TYPE + ");";
+	  
+	  /** Index for finding the cells of an area. */
+	  public static final String CREATE_INDEX_AREA = "CREATE INDEX IF NOT EXISTS " + 
+			  TABLE_NAME + "_" + AREA_ID + " ON " + TABLE_NAME + " (" + AREA_ID + ");";
 
 }
@@ -39,4 +39,8 @@ public class CellLogColumns implements BaseColumns {
 			TIMESTAMP + " INTEGER" +
 			");";
 	
+	/** Index for finding the most recent entries. */
+	public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + 
+			TABLE_NAME + "_" + TIMESTAMP + " ON " + TABLE_NAME + " (" + TIMESTAMP + ");";
+	
 }
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.Future;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.telephony.TelephonyManager;
+
+/**
+ * Imports cell towers with their positions from an OpenCellID CSV file.
+ * 
+ * The file is read line by line, rows outside of the bounding box are 
+ * skipped. Rows are collected in chunks of fixed size, and each chunk is 
+ * written as one write on the WriteExecutor while the next chunk is read, 
+ * so memory use does not depend on the file size.
+ * 
+ * Existing cells get their position updated, new cells are added to the 
+ * default area.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class CellTowerImporter {
+	
+	/** Number of rows written in one transaction. */
+	private static final int CHUNK_SIZE = 2000;
+	
+	/**
+	 * Receives the progress of an import.
+	 */
+	public interface ProgressListener {
+		
+		/**
+		 * Called after each chunk.
+		 * 
+		 * @param bytesRead Number of bytes read from the file so far.
+		 * @param bytesTotal Size of the file, or -1 if unknown.
+		 * @param cells Number of cells written so far.
+		 */
+		public void onProgress(long bytesRead, long bytesTotal, long cells);
+		
+	}
+	
+	/**
+	 * Rows that are written together.
+	 */
+	private static class Chunk {
+		
+		final int[] types = new int[CHUNK_SIZE];
+		final int[] lacs = new int[CHUNK_SIZE];
+		final int[] cells = new int[CHUNK_SIZE];
+		final double[] latitudes = new double[CHUNK_SIZE];
+		final double[] longitudes = new double[CHUNK_SIZE];
+		int size;
+		
+	}
+	
+	/**
+	 * Counts the bytes read from the file.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		
+		volatile long count = 0;
+		
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+		
+	}
+	
+	private final Database mDb;
+	
+	private final double mMinLatitude;
+	private final double mMinLongitude;
+	private final double mMaxLatitude;
+	private final double mMaxLongitude;
+	
+	/**
+	 * Only towers inside the bounding box are imported.
+	 */
+	public CellTowerImporter(Database db, double minLatitude, double minLongitude, 
+			double maxLatitude, double maxLongitude) {
+		mDb = db;
+		mMinLatitude = minLatitude;
+		mMinLongitude = minLongitude;
+		mMaxLatitude = maxLatitude;
+		mMaxLongitude = maxLongitude;
+	}
+	
+	/**
+	 * Imports all towers in the bounding box from file.
+	 * 
+	 * The first line must be a header naming the columns. Required columns
+	 * are radio, area (or lac), cell (or cellid), lon and lat.
+	 * 
+	 * @param listener Receives progress, may be null.
+	 * @return Number of imported cells.
+	 */
+	public long importFile(File file, ProgressListener listener) throws IOException {
+		return importStream(new FileInputStream(file), file.length(), listener);
+	}
+	
+	/**
+	 * Imports all towers in the bounding box from stream, which is closed 
+	 * afterwards. The format is the same as for importFile().
+	 * 
+	 * @param bytesTotal Size of the stream for progress, or -1 if unknown.
+	 * @param listener Receives progress, may be null.
+	 * @return Number of imported cells.
+	 */
+	public long importStream(InputStream stream, long bytesTotal, ProgressListener listener) 
+			throws IOException {
+		CountingInputStream in = new CountingInputStream(stream);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"), 
+				64 * 1024);
+		try {
+			String line = reader.readLine();
+			if (line == null)
+				return 0;
+			
+			String[] header = line.split(",");
+			int radio = column(header, "radio", null);
+			int lac = column(header, "area", "lac");
+			int cell = column(header, "cell", "cellid");
+			int lon = column(header, "lon", null);
+			int lat = column(header, "lat", null);
+			int columns = Math.max(Math.max(radio, lac), Math.max(cell, Math.max(lon, lat))) + 1;
+			
+			// Two chunks, one is written while the other is filled.
+			Chunk[] chunks = { new Chunk(), new Chunk() };
+			Future<Void> pending = null;
+			int current = 0;
+			long imported = 0;
+			String[] fields = new String[columns];
+			while ((line = reader.readLine()) != null) {
+				if (split(line, fields) < columns)
+					continue;
+				
+				double latitude;
+				double longitude;
+				int cellId;
+				int lacId;
+				try {
+					latitude = Double.parseDouble(fields[lat]);
+					longitude = Double.parseDouble(fields[lon]);
+					if (latitude < mMinLatitude || latitude > mMaxLatitude ||
+							longitude < mMinLongitude || longitude > mMaxLongitude)
+						continue;
+					
+					cellId = (int) Long.parseLong(fields[cell]);
+					lacId = (int) Long.parseLong(fields[lac]);
+				}
+				catch (NumberFormatException e) {
+					continue;
+				}
+				
+				Chunk chunk = chunks[current];
+				chunk.types[chunk.size] = "CDMA".equals(fields[radio])
+						? TelephonyManager.PHONE_TYPE_CDMA
+						: TelephonyManager.PHONE_TYPE_GSM;
+				chunk.lacs[chunk.size] = lacId;
+				chunk.cells[chunk.size] = cellId;
+				chunk.latitudes[chunk.size] = latitude;
+				chunk.longitudes[chunk.size] = longitude;
+				chunk.size++;
+				
+				if (chunk.size == CHUNK_SIZE) {
+					if (pending != null) {
+						WriteExecutor.await(pending);
+					}
+					pending = write(chunk);
+					imported += chunk.size;
+					current = 1 - current;
+					chunks[current].size = 0;
+					if (listener != null) {
+						listener.onProgress(in.count, bytesTotal, imported);
+					}
+				}
+			}
+			
+			if (pending != null) {
+				WriteExecutor.await(pending);
+			}
+			Chunk last = chunks[current];
+			if (last.size > 0) {
+				WriteExecutor.await(write(last));
+				imported += last.size;
+			}
+			if (listener != null) {
+				listener.onProgress(in.count, bytesTotal, imported);
+			}
+			return imported;
+		}
+		finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Queues a write for the cells in chunk. The chunk must not be changed
+	 * until the write is completed.
+	 */
+	private Future<Void> write(final Chunk chunk) {
+		return mDb.getWriter().submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				SQLiteDatabase db = mDb.getWritableDatabase();
+				SQLiteStatement update = db.compileStatement("UPDATE " + 
+						CellColumns.TABLE_NAME + " SET " + 
+						CellColumns.LATITUDE + " = ?, " + CellColumns.LONGITUDE + " = ? " +
+						"WHERE " + CellColumns.CELL_ID + " = ? AND " + 
+						CellColumns.CELL_TYPE + " = ?");
+				SQLiteStatement insert = db.compileStatement("INSERT INTO " + 
+						CellColumns.TABLE_NAME + " (" + CellColumns.CELL_ID + ", " + 
+						CellColumns.CELL_TYPE + ", " + CellColumns.LAC + ", " + 
+						CellColumns.AREA_ID + ", " + CellColumns.LATITUDE + ", " + 
+						CellColumns.LONGITUDE + ") SELECT ?, ?, ?, ?, ?, ? " +
+						"WHERE NOT EXISTS (SELECT 1 FROM " + CellColumns.TABLE_NAME + 
+						" WHERE " + CellColumns.CELL_ID + " = ? AND " + 
+						CellColumns.CELL_TYPE + " = ?)");
+				try {
+					for (int i = 0; i < chunk.size; i++) {
+						update.bindDouble(1, chunk.latitudes[i]);
+						update.bindDouble(2, chunk.longitudes[i]);
+						update.bindLong(3, chunk.cells[i]);
+						update.bindLong(4, chunk.types[i]);
+						update.execute();
+						
+						insert.bindLong(1, chunk.cells[i]);
+						insert.bindLong(2, chunk.types[i]);
+						insert.bindLong(3, chunk.lacs[i]);
+						insert.bindLong(4, AreaColumns.AREA_DEFAULT);
+						insert.bindDouble(5, chunk.latitudes[i]);
+						insert.bindDouble(6, chunk.longitudes[i]);
+						insert.bindLong(7, chunk.cells[i]);
+						insert.bindLong(8, chunk.types[i]);
+						insert.execute();
+					}
+				}
+				finally {
+					update.close();
+					insert.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the index of the column called name or alternative.
+	 * 
+	 * @throws IOException If there is no such column.
+	 */
+	private static int column(String[] header, String name, String alternative) 
+			throws IOException {
+		for (int i = 0; i < header.length; i++) {
+			String h = header[i].trim().toLowerCase();
+			if (h.equals(name) || h.equals(alternative))
+				return i;
+		}
+		throw new IOException("Missing column " + name);
+	}
+	
+	/**
+	 * Splits line at commas into fields, ignoring fields beyond the 
+	 * array length.
+	 * 
+	 * @return The number of fields that were set.
+	 */
+	private static int split(String line, String[] fields) {
+		int start = 0;
+		int count = 0;
+		while (count < fields.length) {
+			int end = line.indexOf(',', start);
+			if (end < 0) {
+				fields[count++] = line.substring(start);
+				break;
+			}
+			fields[count++] = line.substring(start, end);
+			start = end + 1;
+		}
+		return count;
+	}
+	
+}
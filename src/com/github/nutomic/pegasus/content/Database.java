@@ -16,8 +16,12 @@
 
 package com.github.nutomic.pegasus.content;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.media.AudioManager;
@@ -38,11 +42,22 @@ public class Database extends SQLiteOpenHelper {
 	
 	private static final String TAG = "Database";
 	private static final String DATABASE_NAME = "pegasus.db";
-	private static final int DATABASE_VERSION = 2;
+	
+	/** Version of the newest step in Migrations. */
+	private static final int DATABASE_VERSION = 13;
 
 	private static Database mInstance = null;
 
 	private Context mContext;
+	
+	private final SqlProfiler mProfiler = new SqlProfiler();
+	
+	private final WriteExecutor mWriter = new WriteExecutor(this);
+	
+	private final Migrations mMigrations = new Migrations();
+	
+	/** True if the tables were just created, until the database is opened. */
+	private boolean mCreated = false;
 
 	/**
 	 * Return the database instance, creating it if it does not exist.
@@ -59,21 +74,154 @@ public class Database extends SQLiteOpenHelper {
 		return mInstance;
 	}
 
+	/**
+	 * Return a new database with the same schema in a separate file, that 
+	 * does not contain user data.
+	 * 
+	 * @param context The context to start in.
+	 * @param name File name of the database, must not be DATABASE_NAME.
+	 */
+	public static Database createScratch(Context context, String name) {
+		return new Database(context.getApplicationContext(), name);
+	}
+
 	private Database(Context context) {
-		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		this(context, DATABASE_NAME);
+	}
+
+	private Database(Context context, String name) {
+		super(context, name, null, DATABASE_VERSION);
 		mContext = context;
+		if (mMigrations.getVersion() != DATABASE_VERSION)
+			throw new IllegalStateException("DATABASE_VERSION does not match Migrations");
+	}
+	
+	/**
+	 * Return the readable database, profiling all statements.
+	 */
+	public ProfiledDatabase getReadable() {
+		return new ProfiledDatabase(getReadableDatabase(), mProfiler);
+	}
+	
+	/**
+	 * Return the writable database, profiling all statements.
+	 */
+	public ProfiledDatabase getWritable() {
+		return new ProfiledDatabase(getWritableDatabase(), mProfiler);
+	}
+	
+	public SqlProfiler getProfiler() {
+		return mProfiler;
+	}
+	
+	/**
+	 * Return the executor that all writes should go through.
+	 */
+	public WriteExecutor getWriter() {
+		return mWriter;
+	}
+	
+	public Migrations getMigrations() {
+		return mMigrations;
+	}
+	
+	/**
+	 * Queue an insert on the writer.
+	 * 
+	 * @return Future for the row ID of the new row.
+	 */
+	public Future<Long> insert(final String table, final ContentValues values) {
+		return mWriter.submit(new Callable<Long>() {
+			
+			@Override
+			public Long call() {
+				return getWritable().insert(table, null, values);
+			}
+		});
+	}
+	
+	/**
+	 * Queue an update on the writer.
+	 * 
+	 * @return Future for the number of changed rows.
+	 */
+	public Future<Integer> update(final String table, final ContentValues values, 
+			final String whereClause, final String[] whereArgs) {
+		return mWriter.submit(new Callable<Integer>() {
+			
+			@Override
+			public Integer call() {
+				return getWritable().update(table, values, whereClause, whereArgs);
+			}
+		});
+	}
+	
+	/**
+	 * Queue a delete on the writer.
+	 * 
+	 * @return Future for the number of deleted rows.
+	 */
+	public Future<Integer> delete(final String table, final String whereClause, 
+			final String[] whereArgs) {
+		return mWriter.submit(new Callable<Integer>() {
+			
+			@Override
+			public Integer call() {
+				return getWritable().delete(table, whereClause, whereArgs);
+			}
+		});
+	}
+	
+	/**
+	 * Return all areas with the name of their profile, ordered by ID. 
+	 * Names are in the columns Statements.AREA_LIST_AREA and 
+	 * Statements.AREA_LIST_PROFILE.
+	 * 
+	 * @param noProfile Profile name to use for areas without profile.
+	 */
+	public Cursor queryAreaList(String noProfile) {
+		return getReadable().rawQuery(Statements.AREA_LIST, new String[] { noProfile });
+	}
+	
+	/**
+	 * Delete an area with its votes, fingerprints, shape, schedules and 
+	 * rules. 
+	 * Cells of the area are reset to the area with the next highest score, 
+	 * or the default area.
+	 * The statements run as a single write on the writer.
+	 * 
+	 * @param area ID of the area, must not be AreaColumns.AREA_DEFAULT.
+	 */
+	public Future<Void> deleteArea(final long area) {
+		return mWriter.submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				ProfiledDatabase db = getWritable();
+				Object[] args = new Object[] { area };
+				db.execSQL(Statements.DELETE_AREA, args);
+				db.execSQL(Statements.DELETE_AREA_VOTES, args);
+				db.execSQL(Statements.RESET_AREA_CELLS, args);
+				db.execSQL(Statements.DELETE_AREA_FINGERPRINTS, args);
+				db.execSQL(Statements.DELETE_AREA_SHAPE, args);
+				db.execSQL(Statements.DELETE_AREA_SCHEDULES, args);
+				db.execSQL(Statements.DELETE_AREA_RULES, args);
+			}
+		});
 	}
 
 	/**
-	 * Create tables (area, profile, cell, cell_log).
+	 * Create tables (area, profile, cell, cell_log, fingerprint, cell_area,
+	 * area_shape, schedule, rule, migration) and indexes.
 	 */
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		Log.i(TAG, "Creating database tables.");
-		db.execSQL(AreaColumns.CREATE_TABLE);
-		db.execSQL(ProfileColumns.CREATE_TABLE);
-		db.execSQL(CellColumns.CREATE_TABLE);
-		db.execSQL(CellLogColumns.CREATE_TABLE);
+		mCreated = true;
+		for (String table : Statements.CREATE_TABLES) {
+			db.execSQL(table);
+		}
+		createIndexes(db);
 		
 		// Insert "Normal" profile. Does not change any settings by default.
 		ContentValues cv = new ContentValues();
@@ -126,23 +274,40 @@ public class Database extends SQLiteOpenHelper {
 		db.insert(AreaColumns.TABLE_NAME, null, cv);
 	}
 
+	/**
+	 * Run all steps after oldVersion, see Migrations.
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		if (oldVersion == 1) {
-			// Add wifi preference to area (Wifi reference in area will not 
-			// be used any more).
-			db.execSQL("ALTER TABLE area " +
-					"ADD COLUMN " + AreaColumns.WIFI_ENABLED + " INTEGER;");
-			ContentValues cv = new ContentValues();
-			cv.put(AreaColumns.WIFI_ENABLED, true);
-			db.update(AreaColumns.TABLE_NAME, cv, null, null);
-			
-			// Add bluetooth column to area.
-			db.execSQL("ALTER TABLE area " +
-					"ADD COLUMN " + AreaColumns.BLUETOOTH_ENABLED + " INTEGER;");
-			cv = new ContentValues();
-			cv.put(AreaColumns.BLUETOOTH_ENABLED, false);
-			db.update(AreaColumns.TABLE_NAME, cv, null, null);
+		mMigrations.upgrade(db, oldVersion, newVersion);
+	}
+	
+	/**
+	 * Create the indexes used by the statements in Statements.
+	 */
+	static void createIndexes(SQLiteDatabase db) {
+		for (String index : Statements.CREATE_INDEXES) {
+			db.execSQL(index);
+		}
+	}
+	
+	/**
+	 * Enable auto_vacuum for new databases and continue unfinished 
+	 * background migrations.
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		if (!db.isReadOnly()) {
+			// auto_vacuum can not be changed inside the transaction of 
+			// onCreate(), but vacuuming the new database takes no time.
+			if (mCreated) {
+				mCreated = false;
+				db.execSQL("PRAGMA auto_vacuum = " + 
+						DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL);
+				db.execSQL("VACUUM");
+			}
+			mMigrations.resume(this);
 		}
 	}
 
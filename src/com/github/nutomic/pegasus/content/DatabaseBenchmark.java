@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.github.nutomic.pegasus.R;
+import com.github.nutomic.pegasus.location.AreaVotes;
+import com.github.nutomic.pegasus.location.CellStore;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
+
+/**
+ * Times the queries issued by the app against a generated data set in a
+ * scratch database.
+ * 
+ * Timed operations are the cell and profile lookup of LocationService, 
+ * the area list join, learning of logged cells and area deletion.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class DatabaseBenchmark {
+	
+	private static final String TAG = "DatabaseBenchmark";
+	
+	/** File name of the scratch database. */
+	private static final String DATABASE_NAME = "benchmark.db";
+	
+	/** Size of the full data set. */
+	private static final int AREAS = 500;
+	private static final int CELLS = 200000;
+	private static final long LOG_ROWS = 20000000;
+	private static final int YEARS = 3;
+	
+	/** Learn logged cells of this time span. */
+	private static final long LEARN_SPAN = 60 * 60 * 1000;
+	
+	/**
+	 * Generate a data set and time all queries.
+	 * 
+	 * @param context Application context.
+	 * @param percent Size of the data set relative to the full size.
+	 * @param iterations Number of times each query is run.
+	 * @return Human readable results.
+	 */
+	public static String run(Context context, int percent, int iterations) {
+		context.deleteDatabase(DATABASE_NAME);
+		Database db = Database.createScratch(context, DATABASE_NAME);
+		try {
+			DatasetGenerator generator = new DatasetGenerator(db.getWritableDatabase(), 1);
+			int cells = Math.max(100, CELLS * percent / 100);
+			generator.generate(Math.max(2, AREAS * percent / 100), cells, 
+					LOG_ROWS * percent / 100, YEARS);
+			
+			StringBuilder report = new StringBuilder();
+			report.append("percent=").append(percent)
+					.append(" iterations=").append(iterations).append('\n');
+			report.append(timeService(context, db, cells, iterations)).append('\n');
+			report.append(timeAreaList(context, db, iterations)).append('\n');
+			report.append(timeLearn(context, db, generator.getFirstArea(), iterations))
+					.append('\n');
+			report.append(timeDelete(db, generator.getLastArea(), generator.getFirstArea(), 
+					iterations));
+			Log.i(TAG, report.toString());
+			return report.toString();
+		}
+		finally {
+			db.close();
+			context.deleteDatabase(DATABASE_NAME);
+		}
+	}
+	
+	/**
+	 * Cell lookup and profile resolution for random cells, as done by 
+	 * LocationService for every cell change.
+	 */
+	private static String timeService(Context context, Database db, int cells, 
+			int iterations) {
+		CellStore store = new DatabaseCellStore(context, db);
+		Random random = new Random(2);
+		long[] times = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			CellStore.Cell cell = store.findCell(1, 1 + random.nextInt(cells));
+			store.resolveProfile(cell.area, ScheduleIndex.PROFILE_NONE);
+			times[i] = System.nanoTime() - start;
+		}
+		return format("service", times);
+	}
+	
+	/**
+	 * Area list query with profile names, reading all rows.
+	 */
+	private static String timeAreaList(Context context, Database db, int iterations) {
+		String noProfile = context.getResources().getString(R.string.arealist_profile_none);
+		long[] times = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			Cursor c = db.queryAreaList(noProfile);
+			while (c.moveToNext()) {
+				c.getString(1);
+				c.getString(2);
+			}
+			c.close();
+			times[i] = System.nanoTime() - start;
+		}
+		return format("arealist", times);
+	}
+	
+	/**
+	 * Learn the cells of the most recent log entries, as done by 
+	 * LocationEngine.learnLogged().
+	 */
+	private static String timeLearn(Context context, Database db, long area, 
+			int iterations) {
+		final CellStore store = new DatabaseCellStore(context, db);
+		Cursor c = db.getReadable().query(CellLogColumns.TABLE_NAME, 
+				new String[] { "max(" + CellLogColumns.TIMESTAMP + ")" }, 
+				null, null, null, null, null);
+		c.moveToFirst();
+		final long since = c.getLong(0) - LEARN_SPAN;
+		c.close();
+		
+		long[] times = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			final long learnArea = area + i;
+			long start = System.nanoTime();
+			store.runInTransaction(new Runnable() {
+				
+				@Override
+				public void run() {
+					long now = System.currentTimeMillis();
+					for (long cell : store.findLoggedCells(since)) {
+						store.storeVote(cell, learnArea, AreaVotes.VOTE_LEARN, now);
+						store.updateCellArea(cell, learnArea);
+					}
+				}
+			});
+			times[i] = System.nanoTime() - start;
+		}
+		return format("learn", times);
+	}
+	
+	/**
+	 * Delete areas, starting with last and going down to first.
+	 */
+	private static String timeDelete(Database db, long last, long first, int iterations) {
+		int count = (int) Math.min(iterations, last - first + 1);
+		long[] times = new long[count];
+		for (int i = 0; i < count; i++) {
+			long start = System.nanoTime();
+			WriteExecutor.await(db.deleteArea(last - i));
+			times[i] = System.nanoTime() - start;
+		}
+		return format("delete", times);
+	}
+	
+	/**
+	 * Format median, 90th percentile and maximum in milliseconds.
+	 */
+	private static String format(String name, long[] times) {
+		if (times.length == 0)
+			return name + ": no samples";
+		
+		Arrays.sort(times);
+		return name + ": n=" + times.length + 
+				" p50=" + times[times.length / 2] / 1000000.0 + "ms" +
+				" p90=" + times[times.length * 9 / 10] / 1000000.0 + "ms" +
+				" max=" + times[times.length - 1] / 1000000.0 + "ms";
+	}
+	
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.github.nutomic.pegasus.R;
+import com.github.nutomic.pegasus.location.AreaProfile;
+import com.github.nutomic.pegasus.location.AreaVotes;
+import com.github.nutomic.pegasus.location.CellObservation;
+import com.github.nutomic.pegasus.location.CellStore;
+import com.github.nutomic.pegasus.location.FingerprintMatcher;
+import com.github.nutomic.pegasus.location.NeighbourhoodIndex;
+import com.github.nutomic.pegasus.location.ProfileTree;
+import com.github.nutomic.pegasus.location.RuleMatcher;
+import com.github.nutomic.pegasus.location.ScheduleIndex;
+
+/**
+ * CellStore backed by Database.
+ * 
+ * Writes go through the WriteExecutor of the database. Only inserting a 
+ * cell waits for the write, as the row ID is needed. Loading data waits 
+ * for all queued writes.
+ * 
+ * Profiles are kept in memory with their inherited settings, and only 
+ * reread when reloadProfile() or reloadProfiles() is called.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class DatabaseCellStore implements CellStore {
+	
+	private static final String TAG = "DatabaseCellStore";
+	
+	private final Context mContext;
+	
+	private final Database mDb;
+	
+	private final ProfileTree mProfiles = new ProfileTree();
+	
+	private boolean mProfilesLoaded = false;
+	
+	public DatabaseCellStore(Context context) {
+		this(context, Database.getInstance(context));
+	}
+	
+	public DatabaseCellStore(Context context, Database db) {
+		mContext = context;
+		mDb = db;
+	}
+
+	@Override
+	public Cell findCell(int type, int cell) {
+		Cursor c = mDb.getReadable().rawQuery(Statements.FIND_CELL, 
+				new String[] { Integer.toString(cell),
+						Integer.toString(type) });
+		Cell result = null;
+		if (c.moveToFirst()) {
+			result = new Cell();
+			result.row = c.getLong(0);
+			result.area = c.getLong(1);
+			result.lac = c.getInt(2);
+		}
+		c.close();
+		return result;
+	}
+
+	@Override
+	public long insertCell(int type, int cell, int lac, long area) {
+		ContentValues cv = new ContentValues();
+		cv.put(CellColumns.AREA_ID, area);
+		cv.put(CellColumns.CELL_ID, cell);
+		cv.put(CellColumns.CELL_TYPE, type);
+		cv.put(CellColumns.LAC, lac);
+		return WriteExecutor.await(mDb.insert(CellColumns.TABLE_NAME, cv));
+	}
+
+	@Override
+	public void updateCellLac(long row, int lac) {
+		ContentValues cv = new ContentValues();
+		cv.put(CellColumns.LAC, lac);
+		mDb.update(CellColumns.TABLE_NAME, 
+				cv, 
+				CellColumns._ID + " = ?", 
+				new String[] { Long.toString(row) });
+	}
+
+	@Override
+	public void updateCellArea(long row, long area) {
+		ContentValues cv = new ContentValues();
+		cv.put(CellColumns.AREA_ID, area);
+		mDb.update(CellColumns.TABLE_NAME, 
+				cv, 
+				CellColumns._ID + " = ?", 
+				new String[] { Long.toString(row) });
+	}
+
+	@Override
+	public void storeVote(long row, long area, double score, long lastSeen) {
+		final ContentValues cv = new ContentValues();
+		cv.put(CellAreaColumns.CELL_ID, row);
+		cv.put(CellAreaColumns.AREA_ID, area);
+		cv.put(CellAreaColumns.SCORE, score);
+		cv.put(CellAreaColumns.LAST_SEEN, lastSeen);
+		mDb.getWriter().submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				mDb.getWritable().replace(CellAreaColumns.TABLE_NAME, null, cv);
+			}
+		});
+	}
+
+	@Override
+	public void logCell(long row, long timestamp) {
+		ContentValues cv = new ContentValues();
+		cv.put(CellLogColumns.CELL_ID, row);
+		cv.put(CellLogColumns.TIMESTAMP, timestamp);
+		mDb.insert(CellLogColumns.TABLE_NAME, cv);
+	}
+
+	@Override
+	public void addFingerprint(final long area, final long timestamp, 
+			final CellObservation o) {
+		mDb.getWriter().submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				ProfiledDatabase db = mDb.getWritable();
+				long id = Database.ROW_NONE;
+				for (int i = 0; i < o.cells.length; i++) {
+					ContentValues cv = new ContentValues();
+					cv.put(FingerprintColumns.AREA_ID, area);
+					cv.put(FingerprintColumns.TIMESTAMP, timestamp);
+					cv.put(FingerprintColumns.CELL_ID, o.cells[i]);
+					cv.put(FingerprintColumns.CELL_TYPE, o.type);
+					cv.put(FingerprintColumns.SIGNAL, o.signals[i]);
+					if (id != Database.ROW_NONE) {
+						cv.put(FingerprintColumns.FINGERPRINT_ID, id);
+					}
+					long row = db.insert(FingerprintColumns.TABLE_NAME, null, cv);
+					// The first row gives the fingerprint its ID.
+					if (id == Database.ROW_NONE) {
+						id = row;
+						cv = new ContentValues();
+						cv.put(FingerprintColumns.FINGERPRINT_ID, id);
+						db.update(FingerprintColumns.TABLE_NAME, cv, 
+								FingerprintColumns._ID + " = ?", 
+								new String[] { Long.toString(id) });
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public long[] findLoggedCells(long since) {
+		mDb.getWriter().flush();
+		Cursor c = mDb.getReadable().rawQuery(Statements.FIND_LOGGED_CELLS, 
+				new String[] { Long.toString(since) });
+		long[] cells = new long[c.getCount()];
+		while (c.moveToNext()) {
+			cells[c.getPosition()] = c.getLong(0);
+		}
+		c.close();
+		return cells;
+	}
+
+	@Override
+	public AreaProfile resolveProfile(long area, long scheduled) {
+		ProfiledDatabase db = mDb.getReadable();
+		AreaProfile profile = new AreaProfile();
+		profile.area = area;
+		profile.scheduledProfile = scheduled;
+		
+		// Get area name and ID of the associated profile.
+		Cursor c = db.rawQuery(Statements.RESOLVE_AREA, 
+				new String[] { Long.toString(area) });
+		if (!c.moveToFirst() && area != AreaColumns.AREA_DEFAULT) {
+			c.close();
+			profile.area = AreaColumns.AREA_DEFAULT;
+			c = db.rawQuery(Statements.RESOLVE_AREA, 
+					new String[] { Long.toString(AreaColumns.AREA_DEFAULT) });
+		}
+
+		long profileId = Database.ROW_NONE;
+		if (c.moveToFirst()) {
+			profileId = c.getLong(c.getColumnIndex(AreaColumns.PROFILE_ID));
+			profile.hasArea = true;
+			profile.areaName = c.getString(c.getColumnIndex(AreaColumns.NAME));
+			profile.wifiEnabled = c.getInt(c.getColumnIndex(AreaColumns.WIFI_ENABLED)) == 1;
+			profile.bluetoothEnabled = 
+					c.getInt(c.getColumnIndex(AreaColumns.BLUETOOTH_ENABLED)) == 1;
+		}
+		else {
+			profile.areaName = mContext.getResources().getString(
+					R.string.locationservice_area_unknown);
+		}
+		c.close();
+		if (scheduled != ScheduleIndex.PROFILE_NONE) {
+			profileId = scheduled;
+		}
+
+		// Read profile if there is one and set the name for the notification.
+		ProfileTree.Profile p = getProfile(profileId);
+		if (p != null) {
+			profile.hasProfile = true;
+			profile.profileId = profileId;
+			profile.ringtoneVolume = p.get(ProfileTree.FIELD_RINGTONE_VOLUME);
+			profile.notificationVolume = p.get(ProfileTree.FIELD_NOTIFICATION_VOLUME);
+			profile.mediaVolume = p.get(ProfileTree.FIELD_MEDIA_VOLUME);
+			profile.alarmVolume = p.get(ProfileTree.FIELD_ALARM_VOLUME);
+			profile.ringerMode = p.get(ProfileTree.FIELD_RINGER_MODE);
+			profile.profileName = p.name;
+		}
+		else {
+			profile.profileName = mContext.getResources().getString(
+					R.string.arealist_profile_none);			
+		}
+		return profile;
+	}
+	
+	private synchronized ProfileTree.Profile getProfile(long id) {
+		if (!mProfilesLoaded) {
+			mDb.getWriter().flush();
+			ProfileLoader.loadAll(mDb.getReadable(), mProfiles);
+			mProfilesLoaded = true;
+		}
+		return mProfiles.get(id);
+	}
+
+	@Override
+	public synchronized Set<Long> reloadProfile(long id) {
+		mDb.getWriter().flush();
+		if (!mProfilesLoaded) {
+			ProfileLoader.loadAll(mDb.getReadable(), mProfiles);
+			mProfilesLoaded = true;
+		}
+		return ProfileLoader.load(mDb.getReadable(), mProfiles, id);
+	}
+
+	@Override
+	public synchronized void reloadProfiles() {
+		mProfilesLoaded = false;
+	}
+
+	@Override
+	public void loadFingerprints(FingerprintMatcher matcher) {
+		mDb.getWriter().flush();
+		Cursor c = mDb.getReadable().query(
+				FingerprintColumns.TABLE_NAME, 
+				new String[] { FingerprintColumns.AREA_ID, 
+						FingerprintColumns.FINGERPRINT_ID, 
+						FingerprintColumns.CELL_ID, 
+						FingerprintColumns.CELL_TYPE, 
+						FingerprintColumns.SIGNAL }, 
+				// IDs of old fingerprints may still be filled by a migration.
+				FingerprintColumns.FINGERPRINT_ID + " IS NOT NULL", null, null, null, 
+				FingerprintColumns.FINGERPRINT_ID);
+		long[] keys = new long[c.getCount()];
+		double[] weights = new double[c.getCount()];
+		int count = 0;
+		long area = Database.ROW_NONE;
+		long fingerprint = Database.ROW_NONE;
+		while (c.moveToNext()) {
+			// Rows with the same fingerprint ID form one fingerprint.
+			if (count > 0 && c.getLong(1) != fingerprint) {
+				addFingerprint(matcher, area, keys, weights, count);
+				count = 0;
+			}
+			area = c.getLong(0);
+			fingerprint = c.getLong(1);
+			keys[count] = FingerprintMatcher.cellKey(c.getInt(3), c.getInt(2));
+			weights[count] = FingerprintMatcher.weight(c.getInt(4));
+			count++;
+		}
+		if (count > 0) {
+			addFingerprint(matcher, area, keys, weights, count);
+		}
+		c.close();
+		Log.i(TAG, "Loaded " + Integer.toString(matcher.size()) + 
+				" fingerprints");
+	}
+	
+	/**
+	 * Adds the first count keys and weights as a fingerprint to matcher.
+	 */
+	private void addFingerprint(FingerprintMatcher matcher, long area, long[] keys, 
+			double[] weights, int count) {
+		long[] k = new long[count];
+		double[] w = new double[count];
+		System.arraycopy(keys, 0, k, 0, count);
+		System.arraycopy(weights, 0, w, 0, count);
+		matcher.add(area, k, w);
+	}
+
+	@Override
+	public void loadVotes(AreaVotes votes, long now) {
+		mDb.getWriter().flush();
+		Cursor c = mDb.getReadable().query(
+				CellAreaColumns.TABLE_NAME, 
+				new String[] { CellAreaColumns.CELL_ID, 
+						CellAreaColumns.AREA_ID, 
+						CellAreaColumns.SCORE, 
+						CellAreaColumns.LAST_SEEN }, 
+				null, null, null, null, null);
+		while (c.moveToNext()) {
+			votes.put(c.getLong(0), c.getLong(1), c.getDouble(2), c.getLong(3), now);
+		}
+		c.close();
+	}
+
+	@Override
+	public void loadNeighbourhood(NeighbourhoodIndex index) {
+		mDb.getWriter().flush();
+		Cursor c = mDb.getReadable().query(
+				CellColumns.TABLE_NAME, 
+				new String[] { CellColumns.CELL_TYPE, 
+						CellColumns.LAC, 
+						CellColumns.CELL_ID, 
+						CellColumns.AREA_ID }, 
+				CellColumns.AREA_ID + " != ?", 
+				new String[] { Long.toString(AreaColumns.AREA_DEFAULT) }, 
+				null, null, null);
+		while (c.moveToNext()) {
+			index.add(c.getInt(0), c.getInt(1), c.getInt(2), c.getLong(3));
+		}
+		c.close();
+	}
+
+	@Override
+	public void loadSchedules(ScheduleIndex index) {
+		mDb.getWriter().flush();
+		Cursor c = mDb.getReadable().query(
+				ScheduleColumns.TABLE_NAME, 
+				new String[] { ScheduleColumns._ID, 
+						ScheduleColumns.AREA_ID, 
+						ScheduleColumns.DAYS, 
+						ScheduleColumns.START, 
+						ScheduleColumns.END, 
+						ScheduleColumns.PROFILE_ID }, 
+				null, null, null, null, null);
+		while (c.moveToNext()) {
+			index.add(c.getLong(0), c.getLong(1), c.getInt(2), c.getInt(3), 
+					c.getInt(4), c.getLong(5));
+		}
+		c.close();
+	}
+
+	@Override
+	public void loadRules(RuleMatcher matcher) {
+		mDb.getWriter().flush();
+		Cursor c = mDb.getReadable().query(
+				RuleColumns.TABLE_NAME, 
+				new String[] { RuleColumns._ID, 
+						RuleColumns.PRIORITY, 
+						RuleColumns.AREA_ID, 
+						RuleColumns.DAYS, 
+						RuleColumns.START, 
+						RuleColumns.END, 
+						RuleColumns.CHARGING, 
+						RuleColumns.HEADSET, 
+						RuleColumns.PROFILE_ID, 
+						RuleColumns.WIFI, 
+						RuleColumns.BLUETOOTH }, 
+				null, null, null, null, null);
+		while (c.moveToNext()) {
+			matcher.add(c.getLong(0), c.getInt(1), c.getLong(2), c.getInt(3), 
+					c.getInt(4), c.getInt(5), c.getInt(6), c.getInt(7), c.getLong(8), 
+					c.getInt(9), c.getInt(10));
+		}
+		c.close();
+	}
+
+	@Override
+	public void runInTransaction(Runnable task) {
+		WriteExecutor.await(mDb.getWriter().submit(task));
+	}
+	
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.github.nutomic.pegasus.R;
+
+/**
+ * Keeps the database fast and compact: refreshes the query planner 
+ * statistics (ANALYZE) and frees unused pages (incremental vacuum).
+ * 
+ * Every step is a short write on the WriteExecutor, so writes of the 
+ * service are never delayed by more than one step. The condition is 
+ * checked before every step, and the run stops early if it is false.
+ * 
+ * New databases use incremental vacuum from the start (see 
+ * Database.onOpen()). Databases from older versions are converted by a 
+ * single full VACUUM, which is only attempted once, and only if the file 
+ * is small enough to not block the service for long.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class DatabaseMaintenance {
+	
+	private static final String TAG = "DatabaseMaintenance";
+	
+	/** Tables that are analyzed, one per step. */
+	private static final String[] TABLES = { 
+			AreaColumns.TABLE_NAME,
+			ProfileColumns.TABLE_NAME,
+			CellColumns.TABLE_NAME, 
+			CellLogColumns.TABLE_NAME, 
+			CellAreaColumns.TABLE_NAME, 
+			FingerprintColumns.TABLE_NAME };
+	
+	/** Number of pages freed per vacuum step. */
+	private static final int VACUUM_STEP_PAGES = 256;
+	
+	/** Maximum number of vacuum steps per run. */
+	private static final int VACUUM_MAX_STEPS = 64;
+	
+	/** Value of PRAGMA auto_vacuum for incremental vacuum. */
+	static final int AUTO_VACUUM_INCREMENTAL = 2;
+	
+	/** Databases larger than this (in bytes) are not converted. */
+	private static final long CONVERT_MAX_SIZE = 8 * 1024 * 1024;
+	
+	/** Set when the conversion to incremental vacuum was attempted. */
+	private static final String PREF_VACUUM_CONVERTED = "maintenance_vacuum_converted";
+	
+	/** Number of times each query is timed before and after. */
+	private static final int QUERY_ITERATIONS = 20;
+	
+	/**
+	 * Tells whether maintenance may continue.
+	 */
+	public interface Condition {
+		
+		boolean canContinue();
+		
+	}
+	
+	/**
+	 * Runs all maintenance steps as long as condition allows it.
+	 * 
+	 * @return Human readable report with file sizes and query times 
+	 *         before and after.
+	 */
+	public static String run(Context context, final Database db, Condition condition) {
+		File file = new File(db.getReadable().getDatabase().getPath());
+		long sizeBefore = getSize(file);
+		String timesBefore = timeQueries(context, db);
+		long start = System.currentTimeMillis();
+		
+		int analyzed = 0;
+		for (final String table : TABLES) {
+			if (!condition.canContinue())
+				break;
+			
+			WriteExecutor.await(db.getWriter().submit(new Runnable() {
+				
+				@Override
+				public void run() {
+					db.getWritable().execSQL("ANALYZE " + table);
+				}
+			}));
+			analyzed++;
+		}
+		
+		int freed = 0;
+		if (condition.canContinue()) {
+			enableIncrementalVacuum(context, db, file);
+		}
+		for (int i = 0; i < VACUUM_MAX_STEPS && condition.canContinue(); i++) {
+			int pages = WriteExecutor.await(db.getWriter().submit(new Callable<Integer>() {
+				
+				@Override
+				public Integer call() {
+					int before = getPragma(db.getWritable(), "freelist_count");
+					if (before == 0)
+						return 0;
+					
+					// Stepping the cursor runs the pragma to the end.
+					Cursor c = db.getWritable().rawQuery(
+							"PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")", null);
+					c.getCount();
+					c.close();
+					return before - getPragma(db.getWritable(), "freelist_count");
+				}
+			}));
+			if (pages == 0)
+				break;
+			
+			freed += pages;
+		}
+		
+		long sizeAfter = getSize(file);
+		String report = "Maintenance took " + (System.currentTimeMillis() - start) + 
+				" ms: analyzed " + analyzed + "/" + TABLES.length + " tables, freed " + 
+				freed + " pages\n" +
+				"Size before=" + sizeBefore + " after=" + sizeAfter + "\n" +
+				"Query times before: " + timesBefore + "\n" +
+				"Query times after: " + timeQueries(context, db);
+		Log.i(TAG, report);
+		return report;
+	}
+	
+	/**
+	 * Switches a database from an older version to incremental vacuum. 
+	 * This needs a full VACUUM, which can not run in a transaction and 
+	 * blocks the writer until it is finished, so it is only attempted 
+	 * once and only for small databases.
+	 */
+	private static void enableIncrementalVacuum(Context context, Database db, 
+			File file) {
+		ProfiledDatabase writable = db.getWritable();
+		if (getPragma(writable, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL)
+			return;
+		
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		if (prefs.getBoolean(PREF_VACUUM_CONVERTED, false))
+			return;
+		
+		if (file.length() > CONVERT_MAX_SIZE) {
+			Log.i(TAG, "Database too large to enable incremental vacuum");
+			return;
+		}
+		
+		Log.i(TAG, "Enabling incremental vacuum");
+		prefs.edit()
+				.putBoolean(PREF_VACUUM_CONVERTED, true)
+				.commit();
+		db.getWriter().flush();
+		writable.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+		writable.execSQL("VACUUM");
+	}
+	
+	private static int getPragma(ProfiledDatabase db, String pragma) {
+		Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+		int value = (c.moveToFirst()) 
+				? c.getInt(0) 
+				: 0;
+		c.close();
+		return value;
+	}
+	
+	/**
+	 * Returns the size of the database file and its journal.
+	 */
+	private static long getSize(File file) {
+		return file.length() + new File(file.getPath() + "-journal").length();
+	}
+	
+	/**
+	 * Returns the median times of the cell lookup, the area list and 
+	 * the recent cell log, in microseconds, including reading all rows.
+	 */
+	private static String timeQueries(Context context, Database db) {
+		ProfiledDatabase readable = db.getReadable();
+		String noProfile = context.getResources().getString(R.string.arealist_profile_none);
+		Cursor c = readable.query(false, CellColumns.TABLE_NAME, 
+				new String[] { CellColumns.CELL_ID, CellColumns.CELL_TYPE }, 
+				null, null, null, null, CellColumns._ID + " DESC", "1");
+		String[] cell = (c.moveToFirst()) 
+				? new String[] { c.getString(0), c.getString(1) }
+				: new String[] { "0", "0" };
+		c.close();
+		
+		long[] findCell = new long[QUERY_ITERATIONS];
+		long[] areaList = new long[QUERY_ITERATIONS];
+		long[] cellLog = new long[QUERY_ITERATIONS];
+		for (int i = 0; i < QUERY_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			c = readable.rawQuery(Statements.FIND_CELL, cell);
+			c.getCount();
+			c.close();
+			findCell[i] = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			c = db.queryAreaList(noProfile);
+			c.getCount();
+			c.close();
+			areaList[i] = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			c = readable.query(false, CellLogColumns.TABLE_NAME, 
+					new String[] { CellLogColumns.CELL_ID }, 
+					null, null, null, null, CellLogColumns.TIMESTAMP + " DESC", "100");
+			c.getCount();
+			c.close();
+			cellLog[i] = System.nanoTime() - start;
+		}
+		return "find cell=" + median(findCell) + "us area list=" + median(areaList) + 
+				"us cell log=" + median(cellLog) + "us";
+	}
+	
+	private static long median(long[] nanos) {
+		Arrays.sort(nanos);
+		return nanos[nanos.length / 2] / 1000;
+	}
+	
+}
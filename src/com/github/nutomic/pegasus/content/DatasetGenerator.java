@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.github.nutomic.pegasus.location.AreaVotes;
+
+/**
+ * Fills a database with a synthetic data set that resembles years of 
+ * usage, to find out how queries behave at scale.
+ * 
+ * Each area owns a block of neighbouring cells, the remaining cells are 
+ * only passed while travelling between areas. Areas are visited with a 
+ * Zipf distribution (a few areas like home and work get most visits), 
+ * and within an area a few cells are seen much more often than others.
+ * 
+ * Rows are inserted with precompiled statements in large transactions.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class DatasetGenerator {
+	
+	private static final String TAG = "DatasetGenerator";
+	
+	/** Cell type that is written for all cells. */
+	private static final int CELL_TYPE = 1;
+	
+	/** Number of cells that share a location area code. */
+	private static final int CELLS_PER_LAC = 64;
+	
+	/** Share of cells that belong to an area. */
+	private static final double AREA_CELL_SHARE = 0.6;
+	
+	/** Number of rows that are inserted in a single transaction. */
+	private static final int ROWS_PER_TRANSACTION = 10000;
+	
+	private static final long YEAR = 365L * 24 * 60 * 60 * 1000;
+	
+	private final SQLiteDatabase mDb;
+	
+	private final Random mRandom;
+	
+	/** First and last generated area ID. */
+	private long mFirstArea;
+	private long mLastArea;
+	
+	/** First cell row and number of cells, for each area. */
+	private long[] mBlockStart;
+	private int[] mBlockSize;
+	
+	/** Row IDs of cells that are not part of any area. */
+	private long mFirstTravelCell;
+	private int mTravelCells;
+	
+	/** Cumulative Zipf distribution over the areas. */
+	private double[] mAreaCdf;
+	
+	/**
+	 * @param db Database to fill. Must have the schema from Database, but 
+	 * 			no cells.
+	 * @param seed Seed for the random generator, the same seed always 
+	 * 			produces the same data.
+	 */
+	public DatasetGenerator(SQLiteDatabase db, long seed) {
+		mDb = db;
+		mRandom = new Random(seed);
+	}
+	
+	/**
+	 * Generate areas, cells with votes and the cell log.
+	 * 
+	 * @param areas Number of areas to create.
+	 * @param cells Number of cells to create.
+	 * @param logRows Number of cell log rows to create.
+	 * @param years Number of years that the cell log spans, ending now.
+	 */
+	public void generate(int areas, int cells, long logRows, int years) {
+		long start = System.currentTimeMillis();
+		insertAreas(areas);
+		insertCells(cells);
+		insertLog(logRows, start - years * YEAR, start);
+		Log.i(TAG, "Generated " + areas + " areas, " + cells + " cells and " + 
+				logRows + " log rows in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	/**
+	 * Returns the ID of the first generated area.
+	 */
+	public long getFirstArea() {
+		return mFirstArea;
+	}
+	
+	/**
+	 * Returns the ID of the last generated area.
+	 */
+	public long getLastArea() {
+		return mLastArea;
+	}
+	
+	/**
+	 * Create areas, alternating between the two default profiles.
+	 */
+	private void insertAreas(int areas) {
+		SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + 
+				AreaColumns.TABLE_NAME + " (" + AreaColumns.NAME + ", " + 
+				AreaColumns.PROFILE_ID + ", " + AreaColumns.WIFI_ENABLED + ", " + 
+				AreaColumns.BLUETOOTH_ENABLED + ") VALUES (?, ?, ?, 0)");
+		mDb.beginTransaction();
+		try {
+			for (int i = 0; i < areas; i++) {
+				insert.bindString(1, "Area " + i);
+				insert.bindLong(2, 1 + i % 2);
+				insert.bindLong(3, i % 3 == 0 ? 1 : 0);
+				long id = insert.executeInsert();
+				if (i == 0) {
+					mFirstArea = id;
+				}
+				mLastArea = id;
+			}
+			mDb.setTransactionSuccessful();
+		}
+		finally {
+			mDb.endTransaction();
+			insert.close();
+		}
+		
+		// Zipf distribution with exponent 1.
+		mAreaCdf = new double[areas];
+		double sum = 0;
+		for (int i = 0; i < areas; i++) {
+			sum += 1.0 / (i + 1);
+			mAreaCdf[i] = sum;
+		}
+		for (int i = 0; i < areas; i++) {
+			mAreaCdf[i] /= sum;
+		}
+	}
+	
+	/**
+	 * Create cells in blocks of random size for each area, followed by the 
+	 * travel cells. Every area cell gets a learn vote for its area.
+	 */
+	private void insertCells(int cells) {
+		int areas = (int) (mLastArea - mFirstArea + 1);
+		int areaCells = (int) (cells * AREA_CELL_SHARE);
+		
+		// Random block sizes between half and one and a half the average.
+		mBlockSize = new int[areas];
+		mBlockStart = new long[areas];
+		int average = Math.max(1, areaCells / areas);
+		int assigned = 0;
+		for (int i = 0; i < areas; i++) {
+			mBlockSize[i] = Math.max(1, average / 2 + mRandom.nextInt(average + 1));
+			assigned += mBlockSize[i];
+		}
+		
+		SQLiteStatement cell = mDb.compileStatement("INSERT INTO " + 
+				CellColumns.TABLE_NAME + " (" + CellColumns.CELL_ID + ", " + 
+				CellColumns.CELL_TYPE + ", " + CellColumns.LAC + ", " + 
+				CellColumns.AREA_ID + ") VALUES (?, ?, ?, ?)");
+		SQLiteStatement vote = mDb.compileStatement("INSERT INTO " + 
+				CellAreaColumns.TABLE_NAME + " (" + CellAreaColumns.CELL_ID + ", " + 
+				CellAreaColumns.AREA_ID + ", " + CellAreaColumns.SCORE + ", " + 
+				CellAreaColumns.LAST_SEEN + ") VALUES (?, ?, ?, ?)");
+		long now = System.currentTimeMillis();
+		int total = assigned + Math.max(1, cells - assigned);
+		mDb.beginTransaction();
+		try {
+			int area = 0;
+			int inBlock = 0;
+			for (int i = 0; i < total; i++) {
+				long areaId = AreaColumns.AREA_DEFAULT;
+				if (area < areas) {
+					areaId = mFirstArea + area;
+				}
+				
+				cell.bindLong(1, i + 1);
+				cell.bindLong(2, CELL_TYPE);
+				cell.bindLong(3, i / CELLS_PER_LAC);
+				cell.bindLong(4, areaId);
+				long row = cell.executeInsert();
+				
+				if (area < areas) {
+					if (inBlock == 0) {
+						mBlockStart[area] = row;
+					}
+					vote.bindLong(1, row);
+					vote.bindLong(2, areaId);
+					vote.bindDouble(3, AreaVotes.VOTE_LEARN);
+					vote.bindLong(4, now);
+					vote.executeInsert();
+					if (++inBlock == mBlockSize[area]) {
+						area++;
+						inBlock = 0;
+					}
+				}
+				else if (area == areas) {
+					mFirstTravelCell = row;
+					area++;
+				}
+				
+				if ((i + 1) % ROWS_PER_TRANSACTION == 0) {
+					mDb.setTransactionSuccessful();
+					mDb.endTransaction();
+					mDb.beginTransaction();
+				}
+			}
+			mTravelCells = total - assigned;
+			mDb.setTransactionSuccessful();
+		}
+		finally {
+			mDb.endTransaction();
+			cell.close();
+			vote.close();
+		}
+	}
+	
+	/**
+	 * Create the cell log as a sequence of area visits, with a few travel 
+	 * cells in between. Time between rows is exponentially distributed, 
+	 * so that the log spans from start to end.
+	 */
+	private void insertLog(long rows, long start, long end) {
+		SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + 
+				CellLogColumns.TABLE_NAME + " (" + CellLogColumns.CELL_ID + ", " + 
+				CellLogColumns.TIMESTAMP + ") VALUES (?, ?)");
+		double meanGap = (double) (end - start) / Math.max(1, rows);
+		double time = start;
+		long written = 0;
+		mDb.beginTransaction();
+		try {
+			while (written < rows) {
+				// Stay in an area for a while.
+				int area = Arrays.binarySearch(mAreaCdf, mRandom.nextDouble());
+				if (area < 0) {
+					area = Math.min(-area - 1, mAreaCdf.length - 1);
+				}
+				int visit = 1 + mRandom.nextInt(20);
+				for (int i = 0; i < visit && written < rows; i++) {
+					// Squaring prefers cells at the start of the block.
+					double r = mRandom.nextDouble();
+					long cell = mBlockStart[area] + (long) (r * r * mBlockSize[area]);
+					time += -Math.log(1 - mRandom.nextDouble()) * meanGap;
+					written = insertLogRow(insert, cell, (long) time, written);
+				}
+				
+				// Pass some travel cells.
+				int travel = mRandom.nextInt(10);
+				long cell = mFirstTravelCell + mRandom.nextInt(mTravelCells);
+				for (int i = 0; i < travel && written < rows; i++) {
+					time += -Math.log(1 - mRandom.nextDouble()) * meanGap;
+					written = insertLogRow(insert, cell, (long) time, written);
+					cell = mFirstTravelCell + Math.max(0, Math.min(mTravelCells - 1, 
+							cell - mFirstTravelCell + mRandom.nextInt(5) - 2));
+				}
+			}
+			mDb.setTransactionSuccessful();
+		}
+		finally {
+			mDb.endTransaction();
+			insert.close();
+		}
+	}
+	
+	/**
+	 * Insert a single log row, starting a new transaction when necessary.
+	 * 
+	 * @return The number of written rows, including this one.
+	 */
+	private long insertLogRow(SQLiteStatement insert, long cell, long timestamp, 
+			long written) {
+		insert.bindLong(1, cell);
+		insert.bindLong(2, timestamp);
+		insert.executeInsert();
+		written++;
+		if (written % ROWS_PER_TRANSACTION == 0) {
+			mDb.setTransactionSuccessful();
+			mDb.endTransaction();
+			mDb.beginTransaction();
+		}
+		if (written % 1000000 == 0) {
+			Log.i(TAG, "Inserted " + written + " log rows");
+		}
+		return written;
+	}
+	
+}
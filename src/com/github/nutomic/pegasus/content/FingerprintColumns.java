@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Fingerprint table columns. Each row is one cell that was visible 
+ * while learning an area, all rows with the same fingerprint ID form one 
+ * fingerprint. The fingerprint ID is the row ID of its first cell.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class FingerprintColumns implements BaseColumns {
+	
+	public static final String TABLE_NAME = "fingerprint";
+	
+	// Columns
+	public static final String AREA_ID = "area_id";
+	public static final String TIMESTAMP = "timestamp";
+	public static final String CELL_ID = "cell_id";
+	public static final String CELL_TYPE = "cell_type";
+	public static final String SIGNAL = "signal";
+	public static final String FINGERPRINT_ID = "fingerprint_id";
+
+	public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+			AREA_ID + " INTEGER," +
+			TIMESTAMP + " INTEGER," +
+			CELL_ID + " INTEGER," +
+			CELL_TYPE + " INTEGER," +
+			SIGNAL + " INTEGER," +
+			FINGERPRINT_ID + " INTEGER" +
+			");";
+	
+	/** Index for reading and deleting the fingerprints of an area. */
+	public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + 
+			TABLE_NAME + "_" + AREA_ID + " ON " + TABLE_NAME + " (" + 
+			AREA_ID + ", " + TIMESTAMP + ");";
+
+	/**
+	 * Signal value for cells where the signal level is unknown (same as 
+	 * NeighboringCellInfo.UNKNOWN_RSSI).
+	 */
+	public static final int SIGNAL_UNKNOWN = 99;
+	
+	/**
+	 * Signal value stored for the serving cell, which is always the 
+	 * strongest one.
+	 */
+	public static final int SIGNAL_SERVING = 31;
+	
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+
+/**
+ * A single step of the database schema, registered in Migrations.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public abstract class Migration {
+	
+	/** Database version that this step upgrades to. */
+	public final int version;
+	
+	/** Unique name, used in logs and to store the progress of copies. */
+	public final String name;
+	
+	public Migration(int version, String name) {
+		this.version = version;
+		this.name = name;
+	}
+	
+	/**
+	 * Changes the schema, runs in the upgrade transaction and must be 
+	 * fast.
+	 */
+	public abstract void upgrade(SQLiteDatabase db);
+	
+	/**
+	 * Migration that processes the rows of a table after the upgrade, in 
+	 * chunks ordered by row ID.
+	 * 
+	 * upgrade() only runs prepare() and stores the progress in 
+	 * MigrationColumns. The rows are processed in the background, each 
+	 * chunk commits together with its progress, so it continues where it 
+	 * stopped if the process is killed. Rows that are added meanwhile are 
+	 * processed as well, if they match the condition.
+	 * 
+	 * @author Felix Ableitner
+	 *
+	 */
+	public abstract static class Background extends Migration {
+		
+		/** 
+		 * Progress before the first chunk, row IDs start at 1 and 
+		 * Database.ROW_NONE means the step is finished. 
+		 */
+		static final long FIRST_ROW = 0;
+		
+		private final String mTable;
+		private final String mWhere;
+		
+		/**
+		 * @param table Table whose rows are processed.
+		 * @param where Condition for rows to process, or null for all.
+		 */
+		public Background(int version, String name, String table, String where) {
+			super(version, name);
+			mTable = table;
+			mWhere = (where != null) 
+					? " AND (" + where + ")" 
+					: "";
+		}
+		
+		/**
+		 * Changes the schema in the upgrade transaction, nothing by default.
+		 */
+		protected void prepare(SQLiteDatabase db) {
+		}
+		
+		/**
+		 * Returns a value that process() can use. Called once when the 
+		 * step starts and stored with the progress, so that a resumed step 
+		 * uses the same value.
+		 */
+		protected long createParameter() {
+			return 0;
+		}
+		
+		/**
+		 * Processes all rows with IDs in (lastRow, end] that match where.
+		 * 
+		 * @param where Condition of this step as " AND (...)", or an empty 
+		 *              string.
+		 */
+		protected abstract void process(ProfiledDatabase db, String where, 
+				long lastRow, long end, long parameter);
+		
+		/**
+		 * Called in the transaction of the last chunk, for example to 
+		 * replace a table. Nothing by default.
+		 */
+		protected void finish(SQLiteDatabase db) {
+		}
+		
+		/**
+		 * Checks the result after the last chunk and logs problems. 
+		 * Nothing by default.
+		 */
+		protected void verify(ProfiledDatabase db) {
+		}
+		
+		@Override
+		public final void upgrade(SQLiteDatabase db) {
+			prepare(db);
+			ContentValues cv = new ContentValues();
+			cv.put(MigrationColumns.NAME, name);
+			cv.put(MigrationColumns.LAST_ROW, FIRST_ROW);
+			cv.put(MigrationColumns.MILLIS, 0);
+			cv.put(MigrationColumns.PARAMETER, createParameter());
+			db.insert(MigrationColumns.TABLE_NAME, null, cv);
+		}
+		
+		/**
+		 * Processes the next chunk and stores the progress, must run in a 
+		 * transaction.
+		 * 
+		 * @param lastRow Highest row ID that was processed, FIRST_ROW at 
+		 *                the start.
+		 * @param chunk Maximum number of rows to process.
+		 * @param millis Time spent on the step before this chunk.
+		 * @param parameter Value stored by upgrade(), see createParameter().
+		 * @return The new highest processed row ID, or Database.ROW_NONE 
+		 *         if the step is finished.
+		 */
+		long runChunk(ProfiledDatabase db, long lastRow, int chunk, long millis, 
+				long parameter) {
+			long start = SystemClock.elapsedRealtime();
+			Cursor c = db.rawQuery("SELECT " + BaseColumns._ID + " FROM " + mTable + 
+					" WHERE " + BaseColumns._ID + " > ?" + mWhere + 
+					" ORDER BY " + BaseColumns._ID + " LIMIT 1 OFFSET " + (chunk - 1), 
+					new String[] { Long.toString(lastRow) });
+			boolean done = !c.moveToFirst();
+			long end = (done) 
+					? Long.MAX_VALUE 
+					: c.getLong(0);
+			c.close();
+			process(db, mWhere, lastRow, end, parameter);
+			
+			String[] whereArgs = new String[] { name };
+			if (done) {
+				finish(db.getDatabase());
+				verify(db);
+				db.delete(MigrationColumns.TABLE_NAME, 
+						MigrationColumns.NAME + " = ?", whereArgs);
+				return Database.ROW_NONE;
+			}
+			ContentValues cv = new ContentValues();
+			cv.put(MigrationColumns.LAST_ROW, end);
+			cv.put(MigrationColumns.MILLIS, 
+					millis + SystemClock.elapsedRealtime() - start);
+			db.update(MigrationColumns.TABLE_NAME, cv, 
+					MigrationColumns.NAME + " = ?", whereArgs);
+			return end;
+		}
+		
+	}
+	
+	/**
+	 * Migration that copies rows from one table into another after the 
+	 * upgrade, see Background.
+	 * 
+	 * Rows that are changed after being copied are not copied again, so 
+	 * this is meant for append-only data. Rows that conflict with rows 
+	 * written to the target meanwhile are skipped, the newer data is kept.
+	 * 
+	 * @author Felix Ableitner
+	 *
+	 */
+	public static class TableCopy extends Background {
+		
+		private final String mSource;
+		private final String mTarget;
+		private final String mTargetColumns;
+		private final String mSourceColumns;
+		
+		private final boolean mHasParameter;
+		
+		/**
+		 * @param targetColumns Comma separated target columns.
+		 * @param sourceColumns Comma separated expressions on the source 
+		 *                      row, one for each target column. May contain 
+		 *                      one ?, which is bound to createParameter().
+		 * @param where Condition for source rows to copy, or null for all.
+		 */
+		public TableCopy(int version, String name, String source, String target, 
+				String targetColumns, String sourceColumns, String where) {
+			super(version, name, source, where);
+			mSource = source;
+			mTarget = target;
+			mTargetColumns = targetColumns;
+			mSourceColumns = sourceColumns;
+			mHasParameter = sourceColumns.indexOf('?') >= 0;
+		}
+		
+		/**
+		 * Creates the target table, nothing by default.
+		 */
+		protected void createTarget(SQLiteDatabase db) {
+		}
+		
+		@Override
+		protected final void prepare(SQLiteDatabase db) {
+			createTarget(db);
+		}
+		
+		@Override
+		protected void process(ProfiledDatabase db, String where, long lastRow, 
+				long end, long parameter) {
+			db.execSQL("INSERT OR IGNORE INTO " + mTarget + " (" + mTargetColumns + ") " +
+					"SELECT " + mSourceColumns + " FROM " + mSource + 
+					" WHERE " + BaseColumns._ID + " > ? AND " + BaseColumns._ID + " <= ?" + 
+					where, 
+					(mHasParameter) 
+							? new Object[] { parameter, lastRow, end }
+							: new Object[] { lastRow, end });
+		}
+		
+	}
+	
+	/**
+	 * Migration that updates the rows of a table after the upgrade, see 
+	 * Background. Meant for updates that are too slow for the upgrade 
+	 * transaction, like filling a new column from a subquery.
+	 * 
+	 * @author Felix Ableitner
+	 *
+	 */
+	public static class TableUpdate extends Background {
+		
+		private final String mTable;
+		private final String mSet;
+		
+		/**
+		 * @param set Comma separated assignments, like "a = b + 1".
+		 * @param where Condition for rows to update, or null for all. 
+		 *              Should exclude rows that are already updated.
+		 */
+		public TableUpdate(int version, String name, String table, String set, 
+				String where) {
+			super(version, name, table, where);
+			mTable = table;
+			mSet = set;
+		}
+		
+		@Override
+		protected void process(ProfiledDatabase db, String where, long lastRow, 
+				long end, long parameter) {
+			db.execSQL("UPDATE " + mTable + " SET " + mSet + 
+					" WHERE " + BaseColumns._ID + " > ? AND " + BaseColumns._ID + " <= ?" + 
+					where, 
+					new Object[] { lastRow, end });
+		}
+		
+	}
+	
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Migration table columns, one row for every table copy that is not 
+ * finished yet.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class MigrationColumns implements BaseColumns {
+	
+	public static final String TABLE_NAME = "migration";
+	
+	// Columns
+	/** Name of the migration step. */
+	public static final String NAME = "name";
+	/** Highest source row ID that was copied. */
+	public static final String LAST_ROW = "last_row";
+	/** Time spent copying so far, in milliseconds. */
+	public static final String MILLIS = "millis";
+	/** Value bound in every chunk, fixed when the copy was started. */
+	public static final String PARAMETER = "parameter";
+
+	public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + 
+			TABLE_NAME + " (" +
+			_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+			NAME + " TEXT UNIQUE," +
+			LAST_ROW + " INTEGER," +
+			MILLIS + " INTEGER," +
+			PARAMETER + " INTEGER" +
+			");";
+	
+}
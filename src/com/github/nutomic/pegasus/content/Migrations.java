@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.nutomic.pegasus.location.AreaVotes;
+
+/**
+ * Ordered registry of all database schema steps.
+ * 
+ * upgrade() runs the schema part of every step after the old version in 
+ * the upgrade transaction. Table copies and updates (Migration.Background) 
+ * continue in the background after the database was opened, in chunks on 
+ * the WriteExecutor, so they neither block the first launch nor other 
+ * writes. The duration of each step is logged and shown by dump().
+ * 
+ * New steps are added at the end of the constructor, with the next 
+ * version.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class Migrations {
+	
+	private static final String TAG = "Migrations";
+	
+	/** Maximum number of rows copied or updated in one transaction. */
+	private static final int COPY_CHUNK = 2000;
+	
+	private final List<Migration> mSteps = new ArrayList<Migration>();
+	
+	/** Duration of each step run in this process, for dump(). */
+	private final List<String> mReport = new ArrayList<String>();
+	
+	private Thread mCopyThread = null;
+	
+	/** Background step that is currently running, or null. */
+	private volatile String mRunning = null;
+	private volatile long mRunningRow = Database.ROW_NONE;
+	
+	/** Called after a background step finished, or null. */
+	private volatile Runnable mOnCopied = null;
+	
+	Migrations() {
+		add(new Migration(2, "area radios") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				// Add wifi preference to area (Wifi reference in area will not 
+				// be used any more).
+				db.execSQL("ALTER TABLE area " +
+						"ADD COLUMN " + AreaColumns.WIFI_ENABLED + " INTEGER;");
+				ContentValues cv = new ContentValues();
+				cv.put(AreaColumns.WIFI_ENABLED, true);
+				db.update(AreaColumns.TABLE_NAME, cv, null, null);
+				
+				// Add bluetooth column to area.
+				db.execSQL("ALTER TABLE area " +
+						"ADD COLUMN " + AreaColumns.BLUETOOTH_ENABLED + " INTEGER;");
+				cv = new ContentValues();
+				cv.put(AreaColumns.BLUETOOTH_ENABLED, false);
+				db.update(AreaColumns.TABLE_NAME, cv, null, null);
+			}
+		});
+		add(new Migration(3, "fingerprints") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				db.execSQL(FingerprintColumns.CREATE_TABLE);
+			}
+		});
+		// Add cell area votes, with a learn vote for every assigned cell.
+		add(new Migration.TableCopy(4, "cell area votes", 
+				CellColumns.TABLE_NAME, 
+				CellAreaColumns.TABLE_NAME, 
+				CellAreaColumns.CELL_ID + ", " + CellAreaColumns.AREA_ID + ", " + 
+						CellAreaColumns.SCORE + ", " + CellAreaColumns.LAST_SEEN, 
+				CellColumns._ID + ", " + CellColumns.AREA_ID + ", " + 
+						AreaVotes.VOTE_LEARN + ", ?", 
+				CellColumns.AREA_ID + " != " + AreaColumns.AREA_DEFAULT) {
+			
+			@Override
+			protected void createTarget(SQLiteDatabase db) {
+				db.execSQL(CellAreaColumns.CREATE_TABLE);
+			}
+			
+			/**
+			 * Time of the votes.
+			 */
+			@Override
+			protected long createParameter() {
+				return System.currentTimeMillis();
+			}
+			
+			/**
+			 * Every assigned cell must have a vote for its area.
+			 */
+			@Override
+			protected void verify(ProfiledDatabase db) {
+				Cursor c = db.rawQuery("SELECT count(*) FROM " + CellColumns.TABLE_NAME + 
+						" WHERE " + CellColumns.AREA_ID + " != " + AreaColumns.AREA_DEFAULT + 
+						" AND NOT EXISTS (SELECT 1 FROM " + CellAreaColumns.TABLE_NAME + 
+						" WHERE " + CellAreaColumns.CELL_ID + " = " + CellColumns.TABLE_NAME + 
+						"." + CellColumns._ID + " AND " + CellAreaColumns.AREA_ID + " = " + 
+						CellColumns.TABLE_NAME + "." + CellColumns.AREA_ID + ")", null);
+				c.moveToFirst();
+				if (c.getLong(0) > 0) {
+					Log.w(TAG, c.getLong(0) + " assigned cells have no vote for their area");
+				}
+				c.close();
+			}
+		});
+		add(new Migration(5, "cell location area code") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				// Filled in when the cell is seen.
+				db.execSQL("ALTER TABLE " + CellColumns.TABLE_NAME + " " +
+						"ADD COLUMN " + CellColumns.LAC + " INTEGER DEFAULT -1;");
+			}
+		});
+		add(new Migration(6, "indexes") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				Database.createIndexes(db);
+			}
+		});
+		add(new Migration(7, "tower positions") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				// Filled in by CellTowerImporter.
+				db.execSQL("ALTER TABLE " + CellColumns.TABLE_NAME + " " +
+						"ADD COLUMN " + CellColumns.LATITUDE + " REAL;");
+				db.execSQL("ALTER TABLE " + CellColumns.TABLE_NAME + " " +
+						"ADD COLUMN " + CellColumns.LONGITUDE + " REAL;");
+			}
+		});
+		add(new Migration(8, "area shapes") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				db.execSQL(AreaShapeColumns.CREATE_TABLE);
+			}
+		});
+		add(new Migration(9, "schedules") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				db.execSQL(ScheduleColumns.CREATE_TABLE);
+			}
+		});
+		add(new Migration(10, "rules") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				db.execSQL(RuleColumns.CREATE_TABLE);
+			}
+		});
+		add(new Migration(11, "profile inheritance") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				db.execSQL("ALTER TABLE " + ProfileColumns.TABLE_NAME + " " +
+						"ADD COLUMN " + ProfileColumns.PARENT_ID + " INTEGER " +
+						"DEFAULT " + Database.ROW_NONE + ";");
+			}
+		});
+		add(new Migration(12, "migration parameter") {
+			
+			@Override
+			public void upgrade(SQLiteDatabase db) {
+				// Already there if the table was created by this upgrade.
+				if (!hasColumn(db, MigrationColumns.TABLE_NAME, MigrationColumns.PARAMETER)) {
+					db.execSQL("ALTER TABLE " + MigrationColumns.TABLE_NAME + " " +
+							"ADD COLUMN " + MigrationColumns.PARAMETER + " INTEGER;");
+				}
+			}
+		});
+		// Older fingerprints can only be told apart by area and time. The 
+		// IDs are filled in the background, as every row needs a lookup.
+		add(new Migration.TableUpdate(13, "fingerprint ids", 
+				FingerprintColumns.TABLE_NAME, 
+				FingerprintColumns.FINGERPRINT_ID + " = " +
+						"(SELECT min(f." + FingerprintColumns._ID + ") " +
+						"FROM " + FingerprintColumns.TABLE_NAME + " f " +
+						"WHERE f." + FingerprintColumns.AREA_ID + " = " + 
+						FingerprintColumns.TABLE_NAME + "." + FingerprintColumns.AREA_ID + " " +
+						"AND f." + FingerprintColumns.TIMESTAMP + " = " + 
+						FingerprintColumns.TABLE_NAME + "." + FingerprintColumns.TIMESTAMP + ")", 
+				FingerprintColumns.FINGERPRINT_ID + " IS NULL") {
+			
+			@Override
+			protected void prepare(SQLiteDatabase db) {
+				if (!hasColumn(db, FingerprintColumns.TABLE_NAME, 
+						FingerprintColumns.FINGERPRINT_ID)) {
+					db.execSQL("ALTER TABLE " + FingerprintColumns.TABLE_NAME + " " +
+							"ADD COLUMN " + FingerprintColumns.FINGERPRINT_ID + " INTEGER;");
+				}
+				// UMTS neighbours were stored in dBm instead of ASU.
+				db.execSQL("UPDATE " + FingerprintColumns.TABLE_NAME + " " +
+						"SET " + FingerprintColumns.SIGNAL + " = " +
+						"max(0, min(31, (" + FingerprintColumns.SIGNAL + " + 113) / 2)) " +
+						"WHERE " + FingerprintColumns.SIGNAL + " < 0;");
+			}
+		});
+	}
+	
+	/**
+	 * Returns true if table has a column with the given name.
+	 */
+	private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+		Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+		boolean exists = false;
+		while (c.moveToNext()) {
+			exists |= column.equals(c.getString(c.getColumnIndex("name")));
+		}
+		c.close();
+		return exists;
+	}
+	
+	private void add(Migration step) {
+		if (mSteps.size() > 0 && step.version <= getVersion())
+			throw new IllegalStateException("Migration " + step.name + " is out of order");
+		
+		mSteps.add(step);
+	}
+	
+	/**
+	 * Returns the version of the newest step, which is the database 
+	 * version.
+	 */
+	public int getVersion() {
+		return mSteps.get(mSteps.size() - 1).version;
+	}
+	
+	/**
+	 * Runs the schema part of all steps after oldVersion, in order.
+	 */
+	void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		db.execSQL(MigrationColumns.CREATE_TABLE);
+		for (Migration step : mSteps) {
+			if (step.version <= oldVersion || step.version > newVersion)
+				continue;
+			
+			long start = SystemClock.elapsedRealtime();
+			step.upgrade(db);
+			report(step, "upgrade", SystemClock.elapsedRealtime() - start);
+		}
+	}
+	
+	/**
+	 * Sets a task that runs after every finished background step, for 
+	 * example to reload data that was read before the step was complete.
+	 */
+	public void setOnCopied(Runnable onCopied) {
+		mOnCopied = onCopied;
+	}
+	
+	/**
+	 * Continues unfinished background steps, if there are any and they 
+	 * are not running yet.
+	 */
+	synchronized void resume(final Database db) {
+		if (mCopyThread != null)
+			return;
+		
+		mCopyThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					copyPending(db);
+				}
+				catch (RuntimeException e) {
+					// Continued when the database is opened next time.
+					Log.e(TAG, "Background migration failed", e);
+				}
+				finally {
+					mRunning = null;
+				}
+			}
+		});
+		mCopyThread.start();
+	}
+	
+	private void copyPending(final Database db) {
+		List<String> names = new ArrayList<String>();
+		List<long[]> progress = new ArrayList<long[]>();
+		Cursor c = db.getReadable().query(MigrationColumns.TABLE_NAME, 
+				new String[] { MigrationColumns.NAME, MigrationColumns.LAST_ROW, 
+						MigrationColumns.MILLIS, MigrationColumns.PARAMETER }, 
+				null, null, null, null, MigrationColumns._ID + " ASC");
+		while (c.moveToNext()) {
+			names.add(c.getString(0));
+			progress.add(new long[] { c.getLong(1), c.getLong(2), c.getLong(3) });
+		}
+		c.close();
+		
+		for (int i = 0; i < names.size(); i++) {
+			final Migration.Background step = findBackground(names.get(i));
+			if (step == null) {
+				Log.w(TAG, "Dropping progress of unknown migration " + names.get(i));
+				db.delete(MigrationColumns.TABLE_NAME, MigrationColumns.NAME + " = ?", 
+						new String[] { names.get(i) });
+				continue;
+			}
+			
+			long lastRow = progress.get(i)[0];
+			long millis = progress.get(i)[1];
+			final long parameter = progress.get(i)[2];
+			mRunning = step.name;
+			while (lastRow != Database.ROW_NONE) {
+				mRunningRow = lastRow;
+				final long from = lastRow;
+				final long before = millis;
+				long start = SystemClock.elapsedRealtime();
+				lastRow = WriteExecutor.await(db.getWriter().submit(new Callable<Long>() {
+					
+					@Override
+					public Long call() {
+						return step.runChunk(db.getWritable(), from, COPY_CHUNK, before, 
+								parameter);
+					}
+				}));
+				millis += SystemClock.elapsedRealtime() - start;
+			}
+			report(step, "background", millis);
+			Runnable onCopied = mOnCopied;
+			if (onCopied != null) {
+				onCopied.run();
+			}
+		}
+	}
+	
+	private Migration.Background findBackground(String name) {
+		for (Migration step : mSteps) {
+			if (step.name.equals(name) && step instanceof Migration.Background)
+				return (Migration.Background) step;
+		}
+		return null;
+	}
+	
+	private void report(Migration step, String part, long millis) {
+		String line = "Version " + step.version + " (" + step.name + ") " + 
+				part + ": " + millis + " ms";
+		Log.i(TAG, line);
+		synchronized (mReport) {
+			mReport.add(line);
+		}
+	}
+	
+	/**
+	 * Prints the duration of all steps run in this process, and the 
+	 * progress of a running background step.
+	 */
+	public void dump(PrintWriter pw) {
+		synchronized (mReport) {
+			for (String line : mReport) {
+				pw.println("Migration: " + line);
+			}
+		}
+		String running = mRunning;
+		if (running != null) {
+			pw.println("Migration: running " + running + ", row " + mRunningRow);
+		}
+	}
+	
+}
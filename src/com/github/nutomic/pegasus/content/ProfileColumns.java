@@ -21,6 +21,8 @@ import android.provider.BaseColumns;
 /**
  * Profile table columns.
  * 
+ * A profile with a parent inherits all settings that are NULL from it. 
+ * 
  * @author Felix Ableitner
  *
  */
@@ -35,6 +37,7 @@ public class ProfileColumns implements BaseColumns {
 	public static final String MEDIA_VOLUME = "media_volume";
 	public static final String ALARM_VOLUME = "alarm_volume";
 	public static final String RINGER_MODE = "ringer_mode";
+	public static final String PARENT_ID = "parent_id";
 	
 
 	public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
@@ -44,7 +47,8 @@ public class ProfileColumns implements BaseColumns {
 			NOTIFICATION_VOLUME + " INTEGER," +
 			MEDIA_VOLUME + " INTEGER," +
 			ALARM_VOLUME + " INTEGER," +
-			RINGER_MODE + " INTEGER" +
+			RINGER_MODE + " INTEGER," +
+			PARENT_ID + " INTEGER DEFAULT " + Database.ROW_NONE +
 		    ");";
 
 	/**
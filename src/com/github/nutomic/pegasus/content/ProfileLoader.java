@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.Set;
+
+import android.database.Cursor;
+
+import com.github.nutomic.pegasus.location.ProfileTree;
+
+/**
+ * Reads profiles from the database into a ProfileTree.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ProfileLoader {
+	
+	/** Columns by ProfileTree.FIELD_* index. */
+	private static final String[] FIELDS = new String[] { 
+			ProfileColumns.RINGTONE_VOLUME, 
+			ProfileColumns.NOTIFICATION_VOLUME,
+			ProfileColumns.MEDIA_VOLUME, 
+			ProfileColumns.ALARM_VOLUME, 
+			ProfileColumns.RINGER_MODE };
+	
+	private static final String[] COLUMNS = new String[] { 
+			ProfileColumns._ID, 
+			ProfileColumns.PARENT_ID, 
+			ProfileColumns.NAME, 
+			ProfileColumns.RINGTONE_VOLUME, 
+			ProfileColumns.NOTIFICATION_VOLUME,
+			ProfileColumns.MEDIA_VOLUME, 
+			ProfileColumns.ALARM_VOLUME, 
+			ProfileColumns.RINGER_MODE };
+	
+	/** Index of the first field in COLUMNS. */
+	private static final int FIELDS_OFFSET = 3;
+	
+	/**
+	 * Replaces the contents of tree with all profiles.
+	 */
+	public static void loadAll(ProfiledDatabase db, ProfileTree tree) {
+		tree.clear();
+		Cursor c = db.query(ProfileColumns.TABLE_NAME, COLUMNS, 
+				null, null, null, null, null);
+		while (c.moveToNext()) {
+			put(c, tree);
+		}
+		c.close();
+	}
+	
+	/**
+	 * Reads a single profile into tree, or removes it if it does not 
+	 * exist any more.
+	 * 
+	 * @return IDs of all profiles whose effective settings changed.
+	 */
+	public static Set<Long> load(ProfiledDatabase db, ProfileTree tree, long id) {
+		Cursor c = db.query(ProfileColumns.TABLE_NAME, COLUMNS, 
+				ProfileColumns._ID + " = ?", 
+				new String[] { Long.toString(id) }, 
+				null, null, null);
+		Set<Long> changed = (c.moveToFirst())
+				? put(c, tree)
+				: tree.remove(id);
+		c.close();
+		return changed;
+	}
+	
+	/**
+	 * Returns the database column for a ProfileTree.FIELD_* index.
+	 */
+	public static String getColumn(int field) {
+		return FIELDS[field];
+	}
+	
+	private static Set<Long> put(Cursor c, ProfileTree tree) {
+		int mask = 0;
+		int[] values = new int[ProfileTree.FIELD_COUNT];
+		for (int i = 0; i < ProfileTree.FIELD_COUNT; i++) {
+			if (!c.isNull(FIELDS_OFFSET + i)) {
+				mask |= 1 << i;
+				values[i] = c.getInt(FIELDS_OFFSET + i);
+			}
+		}
+		long parent = (c.isNull(1))
+				? ProfileTree.PARENT_NONE
+				: c.getLong(1);
+		return tree.put(c.getLong(0), parent, c.getString(2), mask, values);
+	}
+	
+}
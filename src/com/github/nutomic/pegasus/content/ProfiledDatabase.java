@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+/**
+ * Wraps SQLiteDatabase, timing every statement with SqlProfiler.
+ * 
+ * Methods have the same meaning as in SQLiteDatabase. Queries are 
+ * recorded when their cursor is closed, with the time spent creating and 
+ * moving the cursor, so only rows the caller actually reads are counted.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ProfiledDatabase {
+	
+	/**
+	 * Adds the time of every call that moves the cursor, and records the 
+	 * total on close.
+	 */
+	private class ProfiledCursor extends CursorWrapper {
+		
+		private final String mSql;
+		
+		private long mNanos;
+		
+		private boolean mRecorded = false;
+		
+		ProfiledCursor(Cursor cursor, String sql, long nanos) {
+			super(cursor);
+			mSql = sql;
+			mNanos = nanos;
+		}
+		
+		@Override
+		public int getCount() {
+			long start = System.nanoTime();
+			int count = super.getCount();
+			mNanos += System.nanoTime() - start;
+			return count;
+		}
+		
+		@Override
+		public boolean move(int offset) {
+			long start = System.nanoTime();
+			boolean moved = super.move(offset);
+			mNanos += System.nanoTime() - start;
+			return moved;
+		}
+		
+		@Override
+		public boolean moveToPosition(int position) {
+			long start = System.nanoTime();
+			boolean moved = super.moveToPosition(position);
+			mNanos += System.nanoTime() - start;
+			return moved;
+		}
+		
+		@Override
+		public boolean moveToFirst() {
+			long start = System.nanoTime();
+			boolean moved = super.moveToFirst();
+			mNanos += System.nanoTime() - start;
+			return moved;
+		}
+		
+		@Override
+		public boolean moveToLast() {
+			long start = System.nanoTime();
+			boolean moved = super.moveToLast();
+			mNanos += System.nanoTime() - start;
+			return moved;
+		}
+		
+		@Override
+		public boolean moveToNext() {
+			long start = System.nanoTime();
+			boolean moved = super.moveToNext();
+			mNanos += System.nanoTime() - start;
+			return moved;
+		}
+		
+		@Override
+		public boolean moveToPrevious() {
+			long start = System.nanoTime();
+			boolean moved = super.moveToPrevious();
+			mNanos += System.nanoTime() - start;
+			return moved;
+		}
+		
+		@Override
+		public void close() {
+			super.close();
+			if (!mRecorded) {
+				mRecorded = true;
+				mProfiler.record(mDb, mSql, mNanos);
+			}
+		}
+		
+	}
+	
+	private final SQLiteDatabase mDb;
+	
+	private final SqlProfiler mProfiler;
+	
+	ProfiledDatabase(SQLiteDatabase db, SqlProfiler profiler) {
+		mDb = db;
+		mProfiler = profiler;
+	}
+	
+	/**
+	 * Returns the wrapped database, statements on it are not profiled.
+	 */
+	public SQLiteDatabase getDatabase() {
+		return mDb;
+	}
+	
+	public Cursor query(String table, String[] columns, String selection, 
+			String[] selectionArgs, String groupBy, String having, String orderBy) {
+		return query(false, table, columns, selection, selectionArgs, groupBy, having, 
+				orderBy, null);
+	}
+	
+	public Cursor query(boolean distinct, String table, String[] columns, 
+			String selection, String[] selectionArgs, String groupBy, String having, 
+			String orderBy, String limit) {
+		long start = System.nanoTime();
+		Cursor c = mDb.query(distinct, table, columns, selection, selectionArgs, groupBy, 
+				having, orderBy, limit);
+		return new ProfiledCursor(c, SQLiteQueryBuilder.buildQueryString(distinct, 
+				table, columns, selection, groupBy, having, orderBy, limit), 
+				System.nanoTime() - start);
+	}
+	
+	public Cursor rawQuery(String sql, String[] selectionArgs) {
+		long start = System.nanoTime();
+		Cursor c = mDb.rawQuery(sql, selectionArgs);
+		return new ProfiledCursor(c, sql, System.nanoTime() - start);
+	}
+	
+	public long insert(String table, String nullColumnHack, ContentValues values) {
+		long start = System.nanoTime();
+		long row = mDb.insert(table, nullColumnHack, values);
+		mProfiler.record(mDb, insertShape("INSERT", table, values), 
+				System.nanoTime() - start);
+		return row;
+	}
+	
+	public long replace(String table, String nullColumnHack, ContentValues values) {
+		long start = System.nanoTime();
+		long row = mDb.replace(table, nullColumnHack, values);
+		mProfiler.record(mDb, insertShape("REPLACE", table, values), 
+				System.nanoTime() - start);
+		return row;
+	}
+	
+	public int update(String table, ContentValues values, String whereClause, 
+			String[] whereArgs) {
+		long start = System.nanoTime();
+		int rows = mDb.update(table, values, whereClause, whereArgs);
+		StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+		List<String> columns = columns(values);
+		for (int i = 0; i < columns.size(); i++) {
+			sql.append((i > 0) ? ", " : "").append(columns.get(i)).append(" = ?");
+		}
+		if (whereClause != null) {
+			sql.append(" WHERE ").append(whereClause);
+		}
+		mProfiler.record(mDb, sql.toString(), System.nanoTime() - start);
+		return rows;
+	}
+	
+	public int delete(String table, String whereClause, String[] whereArgs) {
+		long start = System.nanoTime();
+		int rows = mDb.delete(table, whereClause, whereArgs);
+		mProfiler.record(mDb, "DELETE FROM " + table + 
+				((whereClause != null) ? " WHERE " + whereClause : ""), 
+				System.nanoTime() - start);
+		return rows;
+	}
+	
+	public void execSQL(String sql) {
+		long start = System.nanoTime();
+		mDb.execSQL(sql);
+		mProfiler.record(mDb, sql, System.nanoTime() - start);
+	}
+	
+	public void execSQL(String sql, Object[] bindArgs) {
+		long start = System.nanoTime();
+		mDb.execSQL(sql, bindArgs);
+		mProfiler.record(mDb, sql, System.nanoTime() - start);
+	}
+	
+	public void beginTransaction() {
+		mDb.beginTransaction();
+	}
+	
+	public void setTransactionSuccessful() {
+		mDb.setTransactionSuccessful();
+	}
+	
+	public void endTransaction() {
+		mDb.endTransaction();
+	}
+	
+	/**
+	 * Returns the INSERT or REPLACE statement for values with placeholders.
+	 */
+	private static String insertShape(String verb, String table, ContentValues values) {
+		List<String> columns = columns(values);
+		StringBuilder sql = new StringBuilder(verb).append(" INTO ").append(table)
+				.append(" (");
+		for (int i = 0; i < columns.size(); i++) {
+			sql.append((i > 0) ? ", " : "").append(columns.get(i));
+		}
+		sql.append(") VALUES (");
+		for (int i = 0; i < columns.size(); i++) {
+			sql.append((i > 0) ? ", ?" : "?");
+		}
+		return sql.append(')').toString();
+	}
+	
+	/**
+	 * Returns the sorted column names of values.
+	 */
+	private static List<String> columns(ContentValues values) {
+		List<String> columns = new ArrayList<String>(values.size());
+		for (Map.Entry<String, Object> e : values.valueSet()) {
+			columns.add(e.getKey());
+		}
+		Collections.sort(columns);
+		return columns;
+	}
+	
+}
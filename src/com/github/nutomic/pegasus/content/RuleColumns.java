@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Rule table columns. A rule sets a profile and radio states if all of 
+ * its conditions match (see RuleMatcher). Conditions and actions that 
+ * are not used are RuleMatcher.ANY, RuleMatcher.RADIO_UNCHANGED or 
+ * Database.ROW_NONE for the profile.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class RuleColumns implements BaseColumns {
+	
+	public static final String TABLE_NAME = "rule";
+	
+	// Columns
+	/** Rules with higher priority win. */
+	public static final String PRIORITY = "priority";
+	
+	// Conditions
+	public static final String AREA_ID = "area_id";
+	/** 
+	 * Weekday mask and time window as in ScheduleColumns, EVERY_DAY from 
+	 * 0 to 0 for any time. 
+	 */
+	public static final String DAYS = "days";
+	public static final String START = "start";
+	public static final String END = "end";
+	/** 1 for charging, 0 for not charging. */
+	public static final String CHARGING = "charging";
+	/** 1 for headset plugged in, 0 for not. */
+	public static final String HEADSET = "headset";
+	
+	// Actions
+	public static final String PROFILE_ID = "profile_id";
+	/** One of RuleMatcher.RADIO_ON, RADIO_OFF, RADIO_UNCHANGED. */
+	public static final String WIFI = "wifi";
+	public static final String BLUETOOTH = "bluetooth";
+
+	public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+			PRIORITY + " INTEGER DEFAULT 0," +
+			AREA_ID + " INTEGER DEFAULT -1," +
+			DAYS + " INTEGER DEFAULT 127," +
+			START + " INTEGER DEFAULT 0," +
+			END + " INTEGER DEFAULT 0," +
+			CHARGING + " INTEGER DEFAULT -1," +
+			HEADSET + " INTEGER DEFAULT -1," +
+			PROFILE_ID + " INTEGER DEFAULT -1," +
+			WIFI + " INTEGER DEFAULT -1," +
+			BLUETOOTH + " INTEGER DEFAULT -1" +
+			");";
+	
+}
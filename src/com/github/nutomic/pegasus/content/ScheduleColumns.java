@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Schedule table columns. A schedule replaces the profile of an area 
+ * on some weekdays within a daily time window (see ScheduleIndex).
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ScheduleColumns implements BaseColumns {
+	
+	public static final String TABLE_NAME = "schedule";
+	
+	// Columns
+	public static final String AREA_ID = "area_id";
+	/** Weekday mask, see ScheduleIndex.MONDAY. */
+	public static final String DAYS = "days";
+	/** Start and end of the window in minutes after midnight. */
+	public static final String START = "start";
+	public static final String END = "end";
+	public static final String PROFILE_ID = "profile_id";
+
+	public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+			AREA_ID + " INTEGER," +
+			DAYS + " INTEGER," +
+			START + " INTEGER," +
+			END + " INTEGER," +
+			PROFILE_ID + " INTEGER" +
+			");";
+	
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Aggregates execution times of SQL statements by statement shape (the 
+ * SQL with placeholders instead of literals, and IN lists reduced to a 
+ * single placeholder), and keeps the most recent slow statements together 
+ * with their query plan. Only the most recently used shapes are kept.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class SqlProfiler {
+	
+	private static final String TAG = "SqlProfiler";
+	
+	/** Statements taking longer than this are added to the slow log. */
+	private static final long SLOW_NANOS = 20 * 1000 * 1000;
+	
+	/** Number of statements kept in the slow log. */
+	private static final int SLOW_LOG_SIZE = 32;
+	
+	/** Maximum number of statement shapes. */
+	private static final int MAX_SHAPES = 128;
+	
+	/** Matches an IN list of placeholders. */
+	private static final Pattern IN_LIST = 
+			Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+	
+	/**
+	 * Execution statistics of a statement shape.
+	 */
+	private static class Shape {
+		
+		final String sql;
+		long count;
+		long totalNanos;
+		long maxNanos;
+		
+		Shape(String sql) {
+			this.sql = sql;
+		}
+		
+	}
+	
+	/**
+	 * A statement that took longer than SLOW_NANOS.
+	 */
+	private static class SlowStatement {
+		
+		long timestamp;
+		String sql;
+		long nanos;
+		String plan;
+		
+	}
+	
+	/** Statement shapes in access order, the least recently used first. */
+	private final LinkedHashMap<String, Shape> mShapes = 
+			new LinkedHashMap<String, Shape>(16, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+			return size() > MAX_SHAPES;
+		}
+	};
+	
+	/** Ring buffer of slow statements, the oldest is at mSlowNext. */
+	private final SlowStatement[] mSlowLog = new SlowStatement[SLOW_LOG_SIZE];
+	
+	private int mSlowNext = 0;
+	
+	/**
+	 * Adds an executed statement. If it was slow, its query plan is 
+	 * determined with db.
+	 * 
+	 * @param sql Executed statement, literals are replaced for its shape.
+	 * @param nanos Execution time in nanoseconds.
+	 */
+	public void record(SQLiteDatabase db, String sql, long nanos) {
+		String key = getShape(sql);
+		synchronized (this) {
+			Shape shape = mShapes.get(key);
+			if (shape == null) {
+				shape = new Shape(key);
+				mShapes.put(key, shape);
+			}
+			shape.count++;
+			shape.totalNanos += nanos;
+			shape.maxNanos = Math.max(shape.maxNanos, nanos);
+		}
+		
+		if (nanos < SLOW_NANOS)
+			return;
+		
+		SlowStatement slow = new SlowStatement();
+		slow.timestamp = System.currentTimeMillis();
+		slow.sql = sql;
+		slow.nanos = nanos;
+		slow.plan = explain(db, sql);
+		Log.w(TAG, "Slow statement (" + nanos / 1000000 + "ms): " + sql + 
+				" [" + slow.plan + "]");
+		synchronized (this) {
+			mSlowLog[mSlowNext] = slow;
+			mSlowNext = (mSlowNext + 1) % SLOW_LOG_SIZE;
+		}
+	}
+	
+	/**
+	 * Returns sql with string and number literals replaced by placeholders, 
+	 * and lists of placeholders after IN replaced by a single one.
+	 */
+	static String getShape(String sql) {
+		StringBuilder shape = new StringBuilder(sql.length());
+		int i = 0;
+		while (i < sql.length()) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				// Skip to the closing quote, quotes inside are doubled.
+				i++;
+				while (i < sql.length()) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				shape.append('?');
+				i++;
+			}
+			else if (Character.isDigit(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+				while (i < sql.length() && (isIdentifierPart(sql.charAt(i)) || 
+						sql.charAt(i) == '.')) {
+					i++;
+				}
+				shape.append('?');
+			}
+			else {
+				shape.append(c);
+				i++;
+			}
+		}
+		return IN_LIST.matcher(shape).replaceAll("IN (?)");
+	}
+	
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+	
+	/**
+	 * Returns the query plan of a DML statement, with one step per line, or 
+	 * an empty string for other statements. Placeholders are left unbound.
+	 */
+	public static String explain(SQLiteDatabase db, String sql) {
+		String verb = sql.trim().toUpperCase();
+		if (!verb.startsWith("SELECT") && !verb.startsWith("UPDATE") && 
+				!verb.startsWith("DELETE") && !verb.startsWith("INSERT") && 
+				!verb.startsWith("REPLACE"))
+			return "";
+		
+		StringBuilder plan = new StringBuilder();
+		Cursor c = null;
+		try {
+			c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+			int detail = c.getColumnIndex("detail");
+			while (c.moveToNext()) {
+				if (plan.length() > 0) {
+					plan.append('\n');
+				}
+				plan.append(c.getString((detail >= 0) ? detail : c.getColumnCount() - 1));
+			}
+		}
+		catch (RuntimeException e) {
+			Log.w(TAG, "Failed to explain " + sql, e);
+		}
+		finally {
+			if (c != null) {
+				c.close();
+			}
+		}
+		return plan.toString();
+	}
+	
+	public synchronized void reset() {
+		mShapes.clear();
+		for (int i = 0; i < SLOW_LOG_SIZE; i++) {
+			mSlowLog[i] = null;
+		}
+		mSlowNext = 0;
+	}
+	
+	/**
+	 * Prints all statement shapes ordered by total time, and the slow log.
+	 */
+	public void dump(PrintWriter pw) {
+		List<Shape> shapes;
+		List<SlowStatement> slow = new ArrayList<SlowStatement>();
+		synchronized (this) {
+			shapes = new ArrayList<Shape>(mShapes.size());
+			for (Shape s : mShapes.values()) {
+				Shape copy = new Shape(s.sql);
+				copy.count = s.count;
+				copy.totalNanos = s.totalNanos;
+				copy.maxNanos = s.maxNanos;
+				shapes.add(copy);
+			}
+			for (int i = 0; i < SLOW_LOG_SIZE; i++) {
+				SlowStatement s = mSlowLog[(mSlowNext + i) % SLOW_LOG_SIZE];
+				if (s != null) {
+					slow.add(s);
+				}
+			}
+		}
+		Collections.sort(shapes, new Comparator<Shape>() {
+			
+			@Override
+			public int compare(Shape lhs, Shape rhs) {
+				return (lhs.totalNanos < rhs.totalNanos) ? 1 
+						: (lhs.totalNanos > rhs.totalNanos) ? -1 : 0;
+			}
+		});
+		
+		pw.println("SQL statements:");
+		for (Shape s : shapes) {
+			pw.println("  n=" + s.count + 
+					" total=" + s.totalNanos / 1000000 + "ms" +
+					" mean=" + s.totalNanos / s.count / 1000 + "us" +
+					" max=" + s.maxNanos / 1000 + "us: " + s.sql);
+		}
+		pw.println("Slow SQL statements:");
+		for (SlowStatement s : slow) {
+			pw.println("  " + s.timestamp + " " + s.nanos / 1000000 + "ms: " + s.sql);
+			if (s.plan.length() > 0) {
+				pw.println("    " + s.plan.replace("\n", "\n    "));
+			}
+		}
+	}
+	
+}
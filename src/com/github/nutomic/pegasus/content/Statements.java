@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+/**
+ * Schema and the statements on the hot paths, shared with the query
+ * plan test (QueryPlanTest) so that both always use the same SQL.
+ *
+ * @author Felix Ableitner
+ *
+ */
+public final class Statements {
+
+	/** Tables in the current schema. */
+	static final String[] CREATE_TABLES = {
+		AreaColumns.CREATE_TABLE,
+		ProfileColumns.CREATE_TABLE,
+		CellColumns.CREATE_TABLE,
+		CellLogColumns.CREATE_TABLE,
+		FingerprintColumns.CREATE_TABLE,
+		CellAreaColumns.CREATE_TABLE,
+		AreaShapeColumns.CREATE_TABLE,
+		ScheduleColumns.CREATE_TABLE,
+		RuleColumns.CREATE_TABLE,
+		MigrationColumns.CREATE_TABLE,
+	};
+
+	/** Indexes used by the statements below. */
+	static final String[] CREATE_INDEXES = {
+		CellColumns.CREATE_INDEX_CELL,
+		CellColumns.CREATE_INDEX_AREA,
+		CellLogColumns.CREATE_INDEX,
+		CellAreaColumns.CREATE_INDEX,
+		FingerprintColumns.CREATE_INDEX,
+	};
+
+	/** Row, area and lac of a cell. Arguments are cell ID and type. */
+	static final String FIND_CELL =
+			"SELECT " + CellColumns._ID + ", " + CellColumns.AREA_ID + ", " +
+			CellColumns.LAC + " FROM " + CellColumns.TABLE_NAME +
+			" WHERE " + CellColumns.CELL_ID + " = ? AND " +
+			CellColumns.CELL_TYPE + " = ?";
+
+	/**
+	 * Cells logged after a timestamp (the argument), and the last logged
+	 * cell.
+	 */
+	static final String FIND_LOGGED_CELLS =
+			"SELECT DISTINCT " + CellLogColumns.CELL_ID + " FROM " +
+			CellLogColumns.TABLE_NAME + " WHERE " + CellLogColumns._ID +
+			" = (SELECT " + CellLogColumns._ID + " FROM " + CellLogColumns.TABLE_NAME +
+			" ORDER BY " + CellLogColumns.TIMESTAMP + " DESC LIMIT 1) OR " +
+			CellLogColumns.TIMESTAMP + " > ?";
+
+	/** Profile, name and radio settings of the area with the given ID. */
+	static final String RESOLVE_AREA =
+			"SELECT " + AreaColumns.PROFILE_ID + ", " + AreaColumns.NAME + ", " +
+			AreaColumns.WIFI_ENABLED + ", " + AreaColumns.BLUETOOTH_ENABLED +
+			" FROM " + AreaColumns.TABLE_NAME + " WHERE " + AreaColumns._ID + " = ?";
+
+	/** Column of the area name in AREA_LIST. */
+	public static final String AREA_LIST_AREA = "areaname";
+
+	/** Column of the profile name in AREA_LIST. */
+	public static final String AREA_LIST_PROFILE = "profilename";
+
+	/**
+	 * All areas with the name of their profile, ordered by ID. The
+	 * argument is the profile name for areas without profile.
+	 */
+	static final String AREA_LIST =
+			"SELECT a." + AreaColumns._ID + ", a." + AreaColumns.NAME +
+			" AS " + AREA_LIST_AREA + ", ifnull(p." + ProfileColumns.NAME + ", ?)" +
+			" AS " + AREA_LIST_PROFILE +
+			" FROM " + AreaColumns.TABLE_NAME + " AS a" +
+			" LEFT JOIN " + ProfileColumns.TABLE_NAME + " AS p" +
+			" ON a." + AreaColumns.PROFILE_ID + " = p." + ProfileColumns._ID +
+			" ORDER BY a." + AreaColumns._ID + " ASC";
+
+	// Statements of Database.deleteArea(), the argument is the area ID.
+
+	static final String DELETE_AREA =
+			"DELETE FROM " + AreaColumns.TABLE_NAME +
+			" WHERE " + AreaColumns._ID + " = ?";
+
+	static final String DELETE_AREA_VOTES =
+			"DELETE FROM " + CellAreaColumns.TABLE_NAME +
+			" WHERE " + CellAreaColumns.AREA_ID + " = ?";
+
+	/**
+	 * Moves the cells of an area to the area with the next highest score,
+	 * or the default area.
+	 */
+	static final String RESET_AREA_CELLS =
+			"UPDATE " + CellColumns.TABLE_NAME + " SET " + CellColumns.AREA_ID +
+			" = ifnull((SELECT " + CellAreaColumns.AREA_ID + " FROM " +
+			CellAreaColumns.TABLE_NAME + " WHERE " + CellAreaColumns.CELL_ID + " = " +
+			CellColumns.TABLE_NAME + "." + CellColumns._ID + " ORDER BY " +
+			CellAreaColumns.SCORE + " DESC LIMIT 1), " + AreaColumns.AREA_DEFAULT + ")" +
+			" WHERE " + CellColumns.AREA_ID + " = ?";
+
+	static final String DELETE_AREA_FINGERPRINTS =
+			"DELETE FROM " + FingerprintColumns.TABLE_NAME +
+			" WHERE " + FingerprintColumns.AREA_ID + " = ?";
+
+	static final String DELETE_AREA_SHAPE =
+			"DELETE FROM " + AreaShapeColumns.TABLE_NAME +
+			" WHERE " + AreaShapeColumns.AREA_ID + " = ?";
+
+	/** Schedules are few, so the table has no index. */
+	static final String DELETE_AREA_SCHEDULES =
+			"DELETE FROM " + ScheduleColumns.TABLE_NAME +
+			" WHERE " + ScheduleColumns.AREA_ID + " = ?";
+
+	/** Rules are few, so the table has no index. */
+	static final String DELETE_AREA_RULES =
+			"DELETE FROM " + RuleColumns.TABLE_NAME +
+			" WHERE " + RuleColumns.AREA_ID + " = ?";
+
+	private Statements() {
+	}
+
+}
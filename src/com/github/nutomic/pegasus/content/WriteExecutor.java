@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Executes all database writes on a single thread.
+ * 
+ * Writes that are queued at the same time are merged into one 
+ * transaction. If one of them fails, the transaction is rolled back and 
+ * each write is run again in its own transaction, so that a failing write 
+ * does not affect the others. Writes may therefore run more than once, 
+ * they must not change anything but the database.
+ * 
+ * Writes submitted from the writer thread itself (from inside another 
+ * write) are executed immediately, but only completed when the outer 
+ * transaction is committed. Awaiting them from the writer thread returns 
+ * their result right away.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class WriteExecutor {
+	
+	/** Maximum number of writes merged into one transaction. */
+	private static final int MAX_BATCH = 64;
+	
+	/**
+	 * A queued write, completed after its transaction was committed.
+	 */
+	private static class Write<T> extends FutureTask<T> {
+		
+		private final Callable<T> mWrite;
+		
+		private T mResult;
+		
+		/** Thread that executed the write, set until it is completed. */
+		private volatile Thread mExecutedBy = null;
+		
+		Write(Callable<T> write) {
+			super(write);
+			mWrite = write;
+		}
+		
+		void execute() throws Exception {
+			mResult = mWrite.call();
+			mExecutedBy = Thread.currentThread();
+		}
+		
+		/**
+		 * Returns true if the write was executed by the current thread, but 
+		 * its transaction is not committed yet.
+		 */
+		boolean isExecutedByCurrentThread() {
+			return !isDone() && mExecutedBy == Thread.currentThread();
+		}
+		
+		T getResult() {
+			return mResult;
+		}
+		
+		void complete() {
+			set(mResult);
+		}
+		
+		void fail(Throwable t) {
+			setException(t);
+		}
+		
+	}
+	
+	private final Database mDatabase;
+	
+	private final LinkedBlockingQueue<Write<?>> mQueue = new LinkedBlockingQueue<Write<?>>();
+	
+	private volatile Thread mThread = null;
+	
+	/** 
+	 * Nested writes of the running transaction, only used by the writer 
+	 * thread.
+	 */
+	private final List<Write<?>> mNested = new ArrayList<Write<?>>();
+	
+	/** Number of executed transactions and writes. */
+	private final AtomicLong mTransactions = new AtomicLong();
+	private final AtomicLong mWrites = new AtomicLong();
+	
+	WriteExecutor(Database database) {
+		mDatabase = database;
+	}
+	
+	/**
+	 * Queues a write.
+	 * 
+	 * @return Future that is completed when the write was committed.
+	 */
+	public <T> Future<T> submit(Callable<T> write) {
+		Write<T> w = new Write<T>(write);
+		if (Thread.currentThread() == mThread) {
+			// Part of a running transaction.
+			try {
+				w.execute();
+				mNested.add(w);
+			}
+			catch (Throwable t) {
+				w.fail(t);
+			}
+			return w;
+		}
+		start();
+		mQueue.add(w);
+		return w;
+	}
+	
+	/**
+	 * Queues a write without result.
+	 */
+	public Future<Void> submit(final Runnable write) {
+		return submit(new Callable<Void>() {
+			
+			@Override
+			public Void call() {
+				write.run();
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Waits until all writes queued before have been committed.
+	 */
+	public void flush() {
+		await(submit(new Callable<Void>() {
+			
+			@Override
+			public Void call() {
+				return null;
+			}
+		}));
+	}
+	
+	/**
+	 * Waits for a write and returns its result. Runtime exceptions of the 
+	 * write are rethrown, others are wrapped in a RuntimeException.
+	 */
+	public static <T> T await(Future<T> future) {
+		if (future instanceof Write) {
+			// Nested write, completing it has to wait for this thread.
+			Write<T> w = (Write<T>) future;
+			if (w.isExecutedByCurrentThread())
+				return w.getResult();
+		}
+		
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	public int getQueueSize() {
+		return mQueue.size();
+	}
+	
+	public long getTransactionCount() {
+		return mTransactions.get();
+	}
+	
+	public long getWriteCount() {
+		return mWrites.get();
+	}
+	
+	/**
+	 * Start the writer thread if it is not running.
+	 */
+	private synchronized void start() {
+		if (mThread != null)
+			return;
+		
+		mThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				List<Write<?>> batch = new ArrayList<Write<?>>(MAX_BATCH);
+				while (true) {
+					try {
+						batch.add(mQueue.take());
+					}
+					catch (InterruptedException e) {
+						continue;
+					}
+					mQueue.drainTo(batch, MAX_BATCH - 1);
+					execute(batch);
+					batch.clear();
+				}
+			}
+		}, "DatabaseWriter");
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+	
+	/**
+	 * Executes writes in a single transaction, or one by one if any of 
+	 * them fails.
+	 */
+	private void execute(List<Write<?>> batch) {
+		mNested.clear();
+		Throwable error = null;
+		try {
+			SQLiteDatabase db = mDatabase.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				for (Write<?> w : batch) {
+					w.execute();
+				}
+				db.setTransactionSuccessful();
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+		catch (Throwable t) {
+			// Also catches failures to open or commit.
+			error = t;
+		}
+		mTransactions.incrementAndGet();
+		mWrites.addAndGet(batch.size());
+		List<Write<?>> nested = new ArrayList<Write<?>>(mNested);
+		mNested.clear();
+		
+		if (error == null) {
+			for (Write<?> w : batch) {
+				w.complete();
+			}
+			for (Write<?> w : nested) {
+				w.complete();
+			}
+			return;
+		}
+		
+		// Nested writes were rolled back, they are submitted again if 
+		// their outer write is run again.
+		for (Write<?> w : nested) {
+			w.fail(error);
+		}
+		if (batch.size() == 1) {
+			batch.get(0).fail(error);
+		}
+		else {
+			for (Write<?> w : batch) {
+				List<Write<?>> single = new ArrayList<Write<?>>(1);
+				single.add(w);
+				execute(single);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * A single change to the device when applying a profile, like setting a 
+ * volume or switching a radio. Run by ActionPipeline.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public interface Action {
+	
+	/**
+	 * Name for latency statistics, the same for all actions of a kind.
+	 */
+	String getName();
+	
+	/**
+	 * Actions with the same lane run one after another in submission order, 
+	 * actions in different lanes run in parallel.
+	 */
+	String getLane();
+	
+	/**
+	 * Time in milliseconds after which the action is considered stuck.
+	 */
+	long getTimeout();
+	
+	void run() throws Exception;
+	
+}
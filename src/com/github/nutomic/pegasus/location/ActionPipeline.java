@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs Actions on one background thread per lane, so a slow radio toggle 
+ * does not delay audio changes.
+ * 
+ * If an action does not finish within its timeout, its listener is called
+ * with a TimeoutException and the lane gets a new thread, so later actions 
+ * are not blocked by the stuck one. The time from submission to completion
+ * is recorded per action name.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ActionPipeline {
+	
+	/**
+	 * Called exactly once for each submitted action.
+	 */
+	public interface Listener {
+		
+		/**
+		 * @param nanos Time from submission to completion (or timeout).
+		 * @param error Exception thrown by the action, TimeoutException if 
+		 *              it timed out, or null.
+		 */
+		public void onComplete(Action action, long nanos, Throwable error);
+		
+	}
+	
+	/**
+	 * Runs an action and reports its completion, unless it timed out.
+	 */
+	private class Task implements Runnable {
+		
+		final Action action;
+		final Listener listener;
+		final long submitted = System.nanoTime();
+		final AtomicBoolean done = new AtomicBoolean();
+		
+		Task(Action action, Listener listener) {
+			this.action = action;
+			this.listener = listener;
+		}
+		
+		@Override
+		public void run() {
+			final Thread thread = Thread.currentThread();
+			ScheduledFuture<?> timeout = mTimeouts.schedule(new Runnable() {
+				
+				@Override
+				public void run() {
+					if (!done.compareAndSet(false, true))
+						return;
+					
+					mTimedOut.incrementAndGet();
+					abandonLane(action.getLane(), thread);
+					complete(new TimeoutException(action.getName() + " took longer than " + 
+							action.getTimeout() + "ms"));
+				}
+			}, action.getTimeout(), TimeUnit.MILLISECONDS);
+			
+			Throwable error = null;
+			try {
+				action.run();
+			}
+			catch (Throwable t) {
+				error = t;
+			}
+			timeout.cancel(false);
+			if (!done.compareAndSet(false, true))
+				return;
+			
+			if (error != null) {
+				mFailed.incrementAndGet();
+			}
+			complete(error);
+		}
+		
+		private void complete(Throwable error) {
+			long nanos = System.nanoTime() - submitted;
+			getHistogram(action.getName()).record(nanos);
+			if (listener != null) {
+				listener.onComplete(action, nanos, error);
+			}
+		}
+		
+	}
+	
+	/** Executor of each lane, by lane name. */
+	private final Map<String, ExecutorService> mLanes = 
+			new HashMap<String, ExecutorService>();
+	
+	/** Thread of each lane executor, to recognize stuck lanes. */
+	private final Map<String, Thread> mLaneThreads = new HashMap<String, Thread>();
+	
+	/** Latency by action name. */
+	private final Map<String, LatencyHistogram> mLatencies = 
+			new HashMap<String, LatencyHistogram>();
+	
+	private final ScheduledExecutorService mTimeouts = 
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ActionTimeout");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private final AtomicLong mSubmitted = new AtomicLong();
+	
+	private final AtomicLong mFailed = new AtomicLong();
+	
+	private final AtomicLong mTimedOut = new AtomicLong();
+	
+	/**
+	 * Queues action on its lane.
+	 * 
+	 * @param listener Notified on completion, may be null.
+	 */
+	public void submit(Action action, Listener listener) {
+		mSubmitted.incrementAndGet();
+		Task task = new Task(action, listener);
+		while (true) {
+			try {
+				getLane(action.getLane()).execute(task);
+				return;
+			}
+			catch (RejectedExecutionException e) {
+				// The lane was abandoned after getLane(), use the new one.
+			}
+		}
+	}
+	
+	private synchronized ExecutorService getLane(final String lane) {
+		ExecutorService executor = mLanes.get(lane);
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Action-" + lane);
+					t.setDaemon(true);
+					synchronized (ActionPipeline.this) {
+						mLaneThreads.put(lane, t);
+					}
+					return t;
+				}
+			});
+			mLanes.put(lane, executor);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Replaces the executor of lane if thread is still its thread, and 
+	 * moves the actions that were waiting behind the stuck one to the 
+	 * new executor.
+	 */
+	private synchronized void abandonLane(String lane, Thread thread) {
+		if (mLaneThreads.get(lane) != thread)
+			return;
+		
+		ExecutorService old = mLanes.remove(lane);
+		mLaneThreads.remove(lane);
+		List<Runnable> waiting = old.shutdownNow();
+		ExecutorService executor = getLane(lane);
+		for (Runnable r : waiting) {
+			executor.execute(r);
+		}
+	}
+	
+	private synchronized LatencyHistogram getHistogram(String name) {
+		LatencyHistogram h = mLatencies.get(name);
+		if (h == null) {
+			h = new LatencyHistogram();
+			mLatencies.put(name, h);
+		}
+		return h;
+	}
+	
+	public void reset() {
+		List<LatencyHistogram> histograms;
+		synchronized (this) {
+			histograms = new ArrayList<LatencyHistogram>(mLatencies.values());
+		}
+		for (LatencyHistogram h : histograms) {
+			h.reset();
+		}
+		mSubmitted.set(0);
+		mFailed.set(0);
+		mTimedOut.set(0);
+	}
+	
+	/**
+	 * Prints counters and count, mean, p50, p99 and max latency of each 
+	 * action in microseconds.
+	 */
+	public void dump(PrintWriter pw) {
+		pw.println("Actions: submitted=" + mSubmitted.get() + 
+				", failed=" + mFailed.get() + ", timed out=" + mTimedOut.get());
+		Map<String, LatencyHistogram> latencies;
+		synchronized (this) {
+			latencies = new HashMap<String, LatencyHistogram>(mLatencies);
+		}
+		for (Map.Entry<String, LatencyHistogram> e : latencies.entrySet()) {
+			LatencyHistogram h = e.getValue();
+			pw.println("  " + e.getKey() + 
+					": n=" + h.getCount() + 
+					" mean=" + h.getMean() / 1000 + 
+					"us p50=" + h.getPercentile(0.5) / 1000 + 
+					"us p99=" + h.getPercentile(0.99) / 1000 + 
+					"us max=" + h.getMax() / 1000 + "us");
+		}
+	}
+	
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.HashMap;
+
+/**
+ * First order Markov model over area transitions, used to predict the 
+ * next area.
+ * 
+ * Counts are kept per from -> to pair. Whenever an area is left, all 
+ * counts for that area are multiplied by DECAY before the new transition
+ * is added, so old habits fade out over time.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaPredictor {
+	
+	/** Factor applied to the counts of an area each time it is left. */
+	public static final double DECAY = 0.95;
+	
+	/**
+	 * Transition counts from a single area.
+	 */
+	private static class Row {
+		
+		long[] areas = new long[4];
+		double[] counts = new double[4];
+		int size = 0;
+		
+		void add(long area) {
+			for (int i = 0; i < size; i++) {
+				counts[i] *= DECAY;
+			}
+			for (int i = 0; i < size; i++) {
+				if (areas[i] == area) {
+					counts[i] += 1;
+					return;
+				}
+			}
+			if (size == areas.length) {
+				long[] a = new long[size * 2];
+				double[] c = new double[size * 2];
+				System.arraycopy(areas, 0, a, 0, size);
+				System.arraycopy(counts, 0, c, 0, size);
+				areas = a;
+				counts = c;
+			}
+			areas[size] = area;
+			counts[size] = 1;
+			size++;
+		}
+	}
+	
+	private final HashMap<Long, Row> mRows = new HashMap<Long, Row>();
+	
+	private final int mPredictionCount;
+	
+	/** Number of transitions where a prediction was available. */
+	private long mPredicted = 0;
+	
+	/** Number of transitions that went to one of the predicted areas. */
+	private long mHits = 0;
+	
+	/**
+	 * @param predictionCount Number of areas returned by predict(), 
+	 * 		  also used to decide if a transition was a hit.
+	 */
+	public AreaPredictor(int predictionCount) {
+		mPredictionCount = predictionCount;
+	}
+	
+	/**
+	 * Records a transition between two areas and updates the hit rate.
+	 */
+	public synchronized void transition(long from, long to) {
+		Row row = mRows.get(from);
+		if (row == null) {
+			row = new Row();
+			mRows.put(from, row);
+		}
+		else {
+			long[] predicted = predict(from);
+			if (predicted.length > 0) {
+				mPredicted++;
+				for (long area : predicted) {
+					if (area == to) {
+						mHits++;
+						break;
+					}
+				}
+			}
+		}
+		row.add(to);
+	}
+	
+	/**
+	 * Returns the most likely next areas after from, most likely first.
+	 */
+	public synchronized long[] predict(long from) {
+		Row row = mRows.get(from);
+		if (row == null)
+			return new long[0];
+		
+		long[] result = new long[Math.min(mPredictionCount, row.size)];
+		double[] best = new double[result.length];
+		for (int i = 0; i < row.size; i++) {
+			// Insertion into the sorted top list.
+			int j = result.length;
+			while (j > 0 && row.counts[i] > best[j - 1]) {
+				j--;
+			}
+			if (j == result.length)
+				continue;
+			
+			System.arraycopy(result, j, result, j + 1, result.length - j - 1);
+			System.arraycopy(best, j, best, j + 1, best.length - j - 1);
+			result[j] = row.areas[i];
+			best[j] = row.counts[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of transitions where a prediction was available.
+	 */
+	public synchronized long getPredictedCount() {
+		return mPredicted;
+	}
+	
+	/**
+	 * Returns the number of transitions that were correctly predicted.
+	 */
+	public synchronized long getHitCount() {
+		return mHits;
+	}
+	
+	/**
+	 * Returns the ratio of correctly predicted transitions, between 0 and 1.
+	 */
+	public synchronized double getHitRate() {
+		return (mPredicted > 0)
+				? (double) mHits / mPredicted
+				: 0;
+	}
+	
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * Everything needed to apply the profile of an area, read from the 
+ * CellStore in advance.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaProfile {
+	
+	/** ID of the area (may differ from the requested one). */
+	public long area;
+	
+	/** True if the area exists, otherwise radios are not changed. */
+	public boolean hasArea;
+	public String areaName;
+	public boolean wifiEnabled;
+	public boolean bluetoothEnabled;
+	
+	/** 
+	 * Radio settings of the area itself, wifiEnabled and bluetoothEnabled 
+	 * may be changed by rules. Set by LocationEngine.
+	 */
+	public boolean areaWifiEnabled;
+	public boolean areaBluetoothEnabled;
+
+	/** 
+	 * ID of the profile set by a schedule or rule instead of the area 
+	 * profile, or ScheduleIndex.PROFILE_NONE. 
+	 */
+	public long scheduledProfile = ScheduleIndex.PROFILE_NONE;
+	
+	/** 
+	 * Time at which a schedule or rule may change the profile of the area, 
+	 * or ScheduleIndex.CHANGE_NONE. Set by LocationEngine when applying.
+	 */
+	public long nextChange = ScheduleIndex.CHANGE_NONE;
+
+	/** True if the area has a profile, otherwise audio is not changed. */
+	public boolean hasProfile;
+	
+	/** ID of the applied profile, or ScheduleIndex.PROFILE_NONE. */
+	public long profileId = ScheduleIndex.PROFILE_NONE;
+	public String profileName;
+	
+	/** 
+	 * Effective volumes including inherited ones, values smaller zero mean 
+	 * the volume should not change. 
+	 */
+	public int ringtoneVolume;
+	public int notificationVolume;
+	public int mediaVolume;
+	public int alarmVolume;
+	public int ringerMode;
+	
+	/** Platform specific data set by DeviceActuator.prepare(). */
+	public Object prepared;
+	
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * Geographic outline of an area, either a circle or a polygon.
+ * 
+ * Coordinates are in degrees, with latitude as y and longitude as x. 
+ * Distances use an equirectangular projection, which is accurate enough 
+ * for areas of a few kilometers.
+ * 
+ * Shapes are stored as text, "circle:lat,lon,radius" with the radius in 
+ * meters, or "polygon:lat,lon;lat,lon;..." with at least three points.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public abstract class AreaShape {
+	
+	/** Meters per degree of latitude. */
+	private static final double METERS_PER_DEGREE = 111320;
+	
+	private static final String CIRCLE = "circle:";
+	private static final String POLYGON = "polygon:";
+	
+	/**
+	 * All points within radius meters of a center.
+	 */
+	public static class Circle extends AreaShape {
+		
+		private final double mLatitude;
+		private final double mLongitude;
+		private final double mRadius;
+		
+		public Circle(double latitude, double longitude, double radius) {
+			mLatitude = latitude;
+			mLongitude = longitude;
+			mRadius = radius;
+		}
+		
+		@Override
+		public boolean contains(double latitude, double longitude) {
+			double dy = (latitude - mLatitude) * METERS_PER_DEGREE;
+			double dx = (longitude - mLongitude) * METERS_PER_DEGREE * 
+					Math.cos(Math.toRadians(mLatitude));
+			return dx * dx + dy * dy <= mRadius * mRadius;
+		}
+		
+		@Override
+		public double getMinLatitude() {
+			return mLatitude - mRadius / METERS_PER_DEGREE;
+		}
+		
+		@Override
+		public double getMaxLatitude() {
+			return mLatitude + mRadius / METERS_PER_DEGREE;
+		}
+		
+		@Override
+		public double getMinLongitude() {
+			return mLongitude - longitudeRadius();
+		}
+		
+		@Override
+		public double getMaxLongitude() {
+			return mLongitude + longitudeRadius();
+		}
+		
+		private double longitudeRadius() {
+			return mRadius / (METERS_PER_DEGREE * 
+					Math.max(Math.cos(Math.toRadians(mLatitude)), 1e-6));
+		}
+		
+		@Override
+		public String toString() {
+			return CIRCLE + mLatitude + "," + mLongitude + "," + mRadius;
+		}
+		
+	}
+	
+	/**
+	 * All points inside a simple polygon.
+	 */
+	public static class Polygon extends AreaShape {
+		
+		private final double[] mLatitudes;
+		private final double[] mLongitudes;
+		private double mMinLatitude = Double.POSITIVE_INFINITY;
+		private double mMinLongitude = Double.POSITIVE_INFINITY;
+		private double mMaxLatitude = Double.NEGATIVE_INFINITY;
+		private double mMaxLongitude = Double.NEGATIVE_INFINITY;
+		
+		/**
+		 * @param latitudes Latitudes of the corners, in order.
+		 * @param longitudes Longitudes of the corners, same length as 
+		 *                   latitudes.
+		 */
+		public Polygon(double[] latitudes, double[] longitudes) {
+			if (latitudes.length < 3 || latitudes.length != longitudes.length)
+				throw new IllegalArgumentException("Polygon needs at least three points");
+			
+			mLatitudes = latitudes.clone();
+			mLongitudes = longitudes.clone();
+			for (int i = 0; i < mLatitudes.length; i++) {
+				mMinLatitude = Math.min(mMinLatitude, mLatitudes[i]);
+				mMaxLatitude = Math.max(mMaxLatitude, mLatitudes[i]);
+				mMinLongitude = Math.min(mMinLongitude, mLongitudes[i]);
+				mMaxLongitude = Math.max(mMaxLongitude, mLongitudes[i]);
+			}
+		}
+		
+		/**
+		 * Counts crossings of a ray from the point to the east.
+		 */
+		@Override
+		public boolean contains(double latitude, double longitude) {
+			if (latitude < mMinLatitude || latitude > mMaxLatitude || 
+					longitude < mMinLongitude || longitude > mMaxLongitude)
+				return false;
+			
+			boolean inside = false;
+			for (int i = 0, j = mLatitudes.length - 1; i < mLatitudes.length; j = i++) {
+				if ((mLatitudes[i] > latitude) != (mLatitudes[j] > latitude) &&
+						longitude < (mLongitudes[j] - mLongitudes[i]) * 
+						(latitude - mLatitudes[i]) / (mLatitudes[j] - mLatitudes[i]) + 
+						mLongitudes[i]) {
+					inside = !inside;
+				}
+			}
+			return inside;
+		}
+		
+		@Override
+		public double getMinLatitude() {
+			return mMinLatitude;
+		}
+		
+		@Override
+		public double getMaxLatitude() {
+			return mMaxLatitude;
+		}
+		
+		@Override
+		public double getMinLongitude() {
+			return mMinLongitude;
+		}
+		
+		@Override
+		public double getMaxLongitude() {
+			return mMaxLongitude;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(POLYGON);
+			for (int i = 0; i < mLatitudes.length; i++) {
+				if (i > 0) {
+					sb.append(';');
+				}
+				sb.append(mLatitudes[i]).append(',').append(mLongitudes[i]);
+			}
+			return sb.toString();
+		}
+		
+	}
+	
+	/**
+	 * Parses a shape from the text returned by toString().
+	 * 
+	 * @throws IllegalArgumentException If text is not a valid shape.
+	 */
+	public static AreaShape parse(String text) {
+		try {
+			if (text.startsWith(CIRCLE)) {
+				String[] v = text.substring(CIRCLE.length()).split(",");
+				if (v.length != 3)
+					throw new IllegalArgumentException("Invalid circle " + text);
+				
+				return new Circle(Double.parseDouble(v[0]), Double.parseDouble(v[1]), 
+						Double.parseDouble(v[2]));
+			}
+			if (text.startsWith(POLYGON)) {
+				String[] points = text.substring(POLYGON.length()).split(";");
+				double[] latitudes = new double[points.length];
+				double[] longitudes = new double[points.length];
+				for (int i = 0; i < points.length; i++) {
+					String[] v = points[i].split(",");
+					if (v.length != 2)
+						throw new IllegalArgumentException("Invalid polygon " + text);
+					
+					latitudes[i] = Double.parseDouble(v[0]);
+					longitudes[i] = Double.parseDouble(v[1]);
+				}
+				return new Polygon(latitudes, longitudes);
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid shape " + text, e);
+		}
+		throw new IllegalArgumentException("Unknown shape " + text);
+	}
+	
+	public abstract boolean contains(double latitude, double longitude);
+	
+	public abstract double getMinLatitude();
+	
+	public abstract double getMaxLatitude();
+	
+	public abstract double getMinLongitude();
+	
+	public abstract double getMaxLongitude();
+	
+}
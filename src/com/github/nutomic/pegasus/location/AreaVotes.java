@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.HashMap;
+
+/**
+ * Weighted association between cells and areas.
+ * 
+ * Every time a cell is seen while an area is active or being learned, 
+ * the score for that pair is increased. Scores decay exponentially with 
+ * HALF_LIFE, so a single mistaken learn is outvoted by regular visits 
+ * instead of overwriting them. The area with the highest score is cached
+ * per cell, so lookups do not need to compare scores.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaVotes {
+	
+	/** Returned by top() if there are no votes for a cell. */
+	public static final long AREA_NONE = -1;
+	
+	/** Weight of a vote while the cell is seen during learning. */
+	public static final double VOTE_LEARN = 10;
+	
+	/** Weight of a vote while the cell is seen with an area active. */
+	public static final double VOTE_ACTIVE = 1;
+	
+	/** Time after which a score has decayed to half its value. */
+	public static final long HALF_LIFE = 14L * 24 * 60 * 60 * 1000;
+	
+	/**
+	 * All votes for a single cell.
+	 */
+	private static class Votes {
+		
+		long[] areas = new long[2];
+		double[] scores = new double[2];
+		long[] lastSeen = new long[2];
+		int size = 0;
+		long top = AREA_NONE;
+		
+		int indexOf(long area) {
+			for (int i = 0; i < size; i++) {
+				if (areas[i] == area)
+					return i;
+			}
+			if (size == areas.length) {
+				long[] a = new long[size * 2];
+				double[] s = new double[size * 2];
+				long[] l = new long[size * 2];
+				System.arraycopy(areas, 0, a, 0, size);
+				System.arraycopy(scores, 0, s, 0, size);
+				System.arraycopy(lastSeen, 0, l, 0, size);
+				areas = a;
+				scores = s;
+				lastSeen = l;
+			}
+			areas[size] = area;
+			scores[size] = 0;
+			lastSeen[size] = 0;
+			return size++;
+		}
+		
+		void updateTop(long now) {
+			double best = -1;
+			for (int i = 0; i < size; i++) {
+				double score = decay(scores[i], lastSeen[i], now);
+				if (score > best) {
+					best = score;
+					top = areas[i];
+				}
+			}
+		}
+	}
+	
+	private final HashMap<Long, Votes> mCells = new HashMap<Long, Votes>();
+	
+	/**
+	 * Returns score decayed from lastSeen to now.
+	 */
+	public static double decay(double score, long lastSeen, long now) {
+		return (now > lastSeen)
+				? score * Math.pow(0.5, (double) (now - lastSeen) / HALF_LIFE)
+				: score;
+	}
+	
+	/**
+	 * Removes all votes.
+	 */
+	public synchronized void clear() {
+		mCells.clear();
+	}
+	
+	/**
+	 * Adds a stored score without decaying it, used to load votes from 
+	 * the database.
+	 * 
+	 * @param now Current time, used to compare scores for the top area.
+	 */
+	public synchronized void put(long cell, long area, double score, long lastSeen, 
+			long now) {
+		Votes v = mCells.get(cell);
+		if (v == null) {
+			v = new Votes();
+			mCells.put(cell, v);
+		}
+		int i = v.indexOf(area);
+		v.scores[i] = score;
+		v.lastSeen[i] = lastSeen;
+		v.updateTop(now);
+	}
+	
+	/**
+	 * Adds a vote for area to cell.
+	 * 
+	 * @return The new (decayed) score of the pair, to be stored with now 
+	 * 		   as last seen time.
+	 */
+	public synchronized double vote(long cell, long area, double weight, long now) {
+		Votes v = mCells.get(cell);
+		if (v == null) {
+			v = new Votes();
+			mCells.put(cell, v);
+		}
+		int i = v.indexOf(area);
+		v.scores[i] = decay(v.scores[i], v.lastSeen[i], now) + weight;
+		v.lastSeen[i] = now;
+		v.updateTop(now);
+		return v.scores[i];
+	}
+	
+	/**
+	 * Returns the area with the highest score for cell as of the last 
+	 * vote, or AREA_NONE if the cell has no votes.
+	 */
+	public synchronized long top(long cell) {
+		Votes v = mCells.get(cell);
+		return (v != null)
+				? v.top
+				: AREA_NONE;
+	}
+	
+}
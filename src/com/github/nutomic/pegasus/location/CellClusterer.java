@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Groups cells into proposed areas by analyzing the cell log.
+ * 
+ * Builds a weighted graph with an edge for each pair of cells that 
+ * were handed over between. An edge counts transitions (a directly 
+ * followed by b) and co-occurrences (a, b, a, meaning the phone kept 
+ * switching between both cells without moving). Cells passed while 
+ * travelling have many transitions but almost no co-occurrences, so 
+ * only edges where co-occurrences make up a large enough part are 
+ * used to join cells with union-find.
+ * 
+ * The log is either passed as arrays and split into chunks that are 
+ * counted in parallel, or passed entry by entry to add(), which only 
+ * keeps cells and edges in memory.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class CellClusterer {
+	
+	/** Maximum time between two log entries to count as a handover. */
+	public static final long MAX_TRANSITION_GAP = 10 * 60 * 1000;
+	
+	/** Minimum number of co-occurrences to join two cells. */
+	public static final int MIN_CO_OCCURRENCES = 3;
+	
+	/** Minimum ratio of co-occurrences to transitions to join two cells. */
+	public static final double MIN_CO_OCCURRENCE_RATIO = 0.2;
+	
+	/** Smallest number of log rows to hand to a single thread. */
+	private static final int MIN_CHUNK_SIZE = 50000;
+	
+	/**
+	 * Open addressing hash map from an edge (pair of dense cell indices)
+	 * to transition and co-occurrence counts.
+	 */
+	private static class EdgeMap {
+		
+		long[] keys = new long[1024];
+		int[] transitions = new int[1024];
+		int[] coOccurrences = new int[1024];
+		int size = 0;
+		
+		/**
+		 * Returns the key for the undirected edge between a and b. Never 
+		 * 0 as a != b.
+		 */
+		static long key(int a, int b) {
+			return (a < b)
+					? ((long) a << 32) | b
+					: ((long) b << 32) | a;
+		}
+		
+		/**
+		 * Returns the slot for key, inserting it if necessary.
+		 */
+		int slot(long key) {
+			if (size * 2 >= keys.length) {
+				grow();
+			}
+			int mask = keys.length - 1;
+			int i = (int) (key ^ (key >>> 29)) * 0x9e3779b9 & mask;
+			while (keys[i] != 0 && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == 0) {
+				keys[i] = key;
+				size++;
+			}
+			return i;
+		}
+		
+		void add(long key, int transitions, int coOccurrences) {
+			int i = slot(key);
+			this.transitions[i] += transitions;
+			this.coOccurrences[i] += coOccurrences;
+		}
+		
+		private void grow() {
+			long[] k = keys;
+			int[] t = transitions;
+			int[] c = coOccurrences;
+			keys = new long[k.length * 2];
+			transitions = new int[k.length * 2];
+			coOccurrences = new int[k.length * 2];
+			size = 0;
+			for (int i = 0; i < k.length; i++) {
+				if (k[i] != 0) {
+					add(k[i], t[i], c[i]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Counts edges for log entries that are added in order.
+	 */
+	private static class EdgeCounter {
+		
+		final EdgeMap edges = new EdgeMap();
+		
+		/** Dense indices and times of the last two entries, -1 if none. */
+		private int mLast = -1;
+		private long mLastTime;
+		private int mSecondLast = -1;
+		private long mSecondLastTime;
+		
+		/**
+		 * @param count False to only use the entry as context for the 
+		 * 				next ones.
+		 */
+		void add(int cell, long timestamp, boolean count) {
+			if (count && mLast != -1 && mLast != cell && 
+					timestamp - mLastTime <= MAX_TRANSITION_GAP) {
+				boolean returned = mSecondLast == cell && 
+						timestamp - mSecondLastTime <= MAX_TRANSITION_GAP;
+				edges.add(EdgeMap.key(mLast, cell), 1, returned ? 1 : 0);
+			}
+			mSecondLast = mLast;
+			mSecondLastTime = mLastTime;
+			mLast = cell;
+			mLastTime = timestamp;
+		}
+		
+	}
+	
+	/** Dense index of each cell ID passed to add(). */
+	private final HashMap<Long, Integer> mIndices = new HashMap<Long, Integer>();
+	
+	/** Cell ID for each dense index. */
+	private long[] mIds = new long[64];
+	
+	private final EdgeCounter mCounter = new EdgeCounter();
+	
+	/**
+	 * Counts the edges for log entries from start (inclusive) to end 
+	 * (exclusive).
+	 */
+	private static EdgeMap countEdges(int[] cells, long[] timestamps, 
+			int start, int end) {
+		EdgeCounter counter = new EdgeCounter();
+		for (int i = Math.max(start - 2, 0); i < end; i++) {
+			counter.add(cells[i], timestamps[i], i >= start);
+		}
+		return counter.edges;
+	}
+	
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+	
+	/**
+	 * Clusters the cells in a log.
+	 * 
+	 * @param cells Database IDs of the logged cells, ordered by time.
+	 * @param timestamps Time of each log entry.
+	 * @param threads Maximum number of threads to use.
+	 * @return Groups of at least two cell IDs that likely belong to the 
+	 * 		   same area.
+	 */
+	public static List<long[]> cluster(long[] cells, final long[] timestamps, 
+			int threads) {
+		// Map cell IDs to dense indices.
+		HashMap<Long, Integer> indices = new HashMap<Long, Integer>();
+		final int[] dense = new int[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			Integer index = indices.get(cells[i]);
+			if (index == null) {
+				index = indices.size();
+				indices.put(cells[i], index);
+			}
+			dense[i] = index;
+		}
+		long[] ids = new long[indices.size()];
+		for (int i = 0; i < cells.length; i++) {
+			ids[dense[i]] = cells[i];
+		}
+		
+		// Count edges in parallel, then merge the results.
+		int chunks = Math.max(1, Math.min(threads, cells.length / MIN_CHUNK_SIZE));
+		EdgeMap edges;
+		if (chunks == 1) {
+			edges = countEdges(dense, timestamps, 0, cells.length);
+		}
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool(chunks);
+			List<Future<EdgeMap>> results = new ArrayList<Future<EdgeMap>>(chunks);
+			for (int i = 0; i < chunks; i++) {
+				final int start = (int) ((long) cells.length * i / chunks);
+				final int end = (int) ((long) cells.length * (i + 1) / chunks);
+				results.add(executor.submit(new Callable<EdgeMap>() {
+					
+					@Override
+					public EdgeMap call() {
+						return countEdges(dense, timestamps, start, end);
+					}
+				}));
+			}
+			try {
+				edges = results.get(0).get();
+				for (int i = 1; i < chunks; i++) {
+					EdgeMap e = results.get(i).get();
+					for (int j = 0; j < e.keys.length; j++) {
+						if (e.keys[j] != 0) {
+							edges.add(e.keys[j], e.transitions[j], e.coOccurrences[j]);
+						}
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new ArrayList<long[]>();
+			}
+			catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+		
+		return join(edges, ids);
+	}
+	
+	/**
+	 * Adds the next log entry, entries must be added in time order. Only
+	 * the cells and edges are kept in memory, not the entries.
+	 * 
+	 * @param cell Database ID of the logged cell.
+	 */
+	public void add(long cell, long timestamp) {
+		Integer index = mIndices.get(cell);
+		if (index == null) {
+			index = mIndices.size();
+			mIndices.put(cell, index);
+			if (index == mIds.length) {
+				long[] ids = new long[mIds.length * 2];
+				System.arraycopy(mIds, 0, ids, 0, mIds.length);
+				mIds = ids;
+			}
+			mIds[index] = cell;
+		}
+		mCounter.add(index, timestamp, true);
+	}
+	
+	/**
+	 * Clusters the cells of all entries passed to add().
+	 * 
+	 * @return Groups of at least two cell IDs that likely belong to the 
+	 * 		   same area.
+	 */
+	public List<long[]> getClusters() {
+		long[] ids = new long[mIndices.size()];
+		System.arraycopy(mIds, 0, ids, 0, ids.length);
+		return join(mCounter.edges, ids);
+	}
+	
+	/**
+	 * Joins cells connected by strong edges and returns groups of at 
+	 * least two cell IDs.
+	 * 
+	 * @param ids Cell ID for each dense index used in edges.
+	 */
+	private static List<long[]> join(EdgeMap edges, long[] ids) {
+		int[] parents = new int[ids.length];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+		for (int i = 0; i < edges.keys.length; i++) {
+			if (edges.keys[i] == 0 || edges.coOccurrences[i] < MIN_CO_OCCURRENCES ||
+					edges.coOccurrences[i] < MIN_CO_OCCURRENCE_RATIO * edges.transitions[i])
+				continue;
+			
+			int a = find(parents, (int) (edges.keys[i] >>> 32));
+			int b = find(parents, (int) edges.keys[i]);
+			if (a != b) {
+				parents[a] = b;
+			}
+		}
+		
+		// Collect clusters with more than one cell.
+		int[] sizes = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			sizes[find(parents, i)]++;
+		}
+		HashMap<Integer, long[]> clusters = new HashMap<Integer, long[]>();
+		int[] filled = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			int root = find(parents, i);
+			if (sizes[root] < 2)
+				continue;
+			
+			long[] cluster = clusters.get(root);
+			if (cluster == null) {
+				cluster = new long[sizes[root]];
+				clusters.put(root, cluster);
+			}
+			cluster[filled[root]++] = ids[i];
+		}
+		return new ArrayList<long[]>(clusters.values());
+	}
+	
+}
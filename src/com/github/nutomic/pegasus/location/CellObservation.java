@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * A serving cell together with all visible neighbour cells, as reported 
+ * by a CellSource.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class CellObservation {
+	
+	/** Source of observations if there is only one. */
+	public static final int SOURCE_DEFAULT = 0;
+	
+	/** 
+	 * Radio or subscription that reported this observation, see 
+	 * CellSourceMerger. 
+	 */
+	public final int source;
+	
+	/** Network type as TelephonyManager.PHONE_TYPE_*. */
+	public final int type;
+	
+	/** ID of the serving cell. */
+	public final int cell;
+	
+	/** Location area code of the serving cell. */
+	public final int lac;
+	
+	/** Serving cell (at index 0) and neighbour cells. */
+	public final int[] cells;
+	
+	/** Signal level of each cell in ASU. */
+	public final int[] signals;
+	
+	/**
+	 * @param cells Serving cell (at index 0) and neighbour cells.
+	 * @param signals Signal level of each cell in ASU, same length as cells.
+	 */
+	public CellObservation(int type, int lac, int[] cells, int[] signals) {
+		this(SOURCE_DEFAULT, type, lac, cells, signals);
+	}
+	
+	/**
+	 * @param source Radio or subscription that reported the cells.
+	 * @param cells Serving cell (at index 0) and neighbour cells.
+	 * @param signals Signal level of each cell in ASU, same length as cells.
+	 */
+	public CellObservation(int source, int type, int lac, int[] cells, int[] signals) {
+		this.source = source;
+		this.type = type;
+		this.cell = cells[0];
+		this.lac = lac;
+		this.cells = cells;
+		this.signals = signals;
+	}
+	
+}
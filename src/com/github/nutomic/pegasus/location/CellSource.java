@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * Reports cell changes to LocationEngine.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public interface CellSource {
+	
+	/**
+	 * Receives cell changes.
+	 */
+	interface Listener {
+		
+		/**
+		 * Called when the serving cell or the visible cells change.
+		 */
+		void onCellObserved(CellObservation observation);
+		
+		/**
+		 * Called when a source has no signal, with the ID used in its 
+		 * observations.
+		 */
+		void onSignalLost(int source);
+		
+	}
+	
+	/**
+	 * Start reporting cell changes to listener, including the current cell.
+	 */
+	void start(Listener listener);
+	
+	/**
+	 * Stop reporting cell changes.
+	 */
+	void stop();
+	
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges the observations of several radios or subscriptions into one 
+ * ordered stream.
+ * 
+ * The latest observation of every source is kept until the source loses 
+ * signal. After each change, the most specific observation (most visible 
+ * cells, then known location area code) is chosen, the freshest one if 
+ * several are equally specific. Observations older than the stale age 
+ * only win if there is no newer one, as a source may stop reporting 
+ * without losing signal (for example when the radio switches to another 
+ * network type). It is only passed on if it differs from 
+ * the one passed on before, so two sources in the same cell cause the 
+ * work for that cell only once.
+ * 
+ * Sources are identified by CellObservation.source. All methods are 
+ * synchronized, the listener receives one observation at a time. dump() 
+ * only locks mSources, so it does not wait for the listener.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class CellSourceMerger implements CellSource, CellSource.Listener {
+	
+	/**
+	 * Latest observation and counters of a source.
+	 */
+	private static class Source {
+		
+		CellObservation observation;
+		
+		/** Value of mSequence when the observation was received. */
+		long sequence;
+		
+		/** Elapsed time when the observation was received. */
+		long time;
+		
+		long received;
+		long forwarded;
+		
+	}
+	
+	/** Default age after which observations are stale. */
+	public static final long DEFAULT_STALE_AGE = 2 * 60 * 1000;
+	
+	private final Clock mClock;
+	
+	private final long mStaleAge;
+	
+	private final List<CellSource> mInputs = new ArrayList<CellSource>();
+	
+	/** Sources by ID, including those without signal. Guards all state. */
+	private final Map<Integer, Source> mSources = new TreeMap<Integer, Source>();
+	
+	private Listener mListener;
+	
+	/** Last observation passed on, or null. */
+	private CellObservation mForwarded = null;
+	
+	private long mSequence = 0;
+	
+	private long mDuplicates = 0;
+	
+	public CellSourceMerger(Clock clock) {
+		this(clock, DEFAULT_STALE_AGE);
+	}
+	
+	/**
+	 * @param staleAge Age in milliseconds after which an observation 
+	 *                 loses against any newer one.
+	 */
+	public CellSourceMerger(Clock clock, long staleAge) {
+		mClock = clock;
+		mStaleAge = staleAge;
+	}
+	
+	/**
+	 * Adds a source, started and stopped together with this one.
+	 */
+	public synchronized void add(CellSource input) {
+		mInputs.add(input);
+	}
+
+	@Override
+	public synchronized void start(Listener listener) {
+		mListener = listener;
+		for (CellSource input : mInputs) {
+			input.start(this);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		for (CellSource input : mInputs) {
+			input.stop();
+		}
+	}
+
+	@Override
+	public synchronized void onCellObserved(CellObservation observation) {
+		CellObservation best;
+		synchronized (mSources) {
+			Source source = getSource(observation.source);
+			source.observation = observation;
+			source.sequence = ++mSequence;
+			source.time = mClock.elapsedRealtime();
+			source.received++;
+			best = choose();
+		}
+		if (best != null) {
+			mListener.onCellObserved(best);
+		}
+	}
+
+	@Override
+	public synchronized void onSignalLost(int source) {
+		CellObservation best = null;
+		boolean lost;
+		synchronized (mSources) {
+			getSource(source).observation = null;
+			if (mForwarded != null && mForwarded.source == source) {
+				// Another source may still have signal.
+				mForwarded = null;
+				best = choose();
+			}
+			lost = mForwarded == null;
+		}
+		if (best != null) {
+			mListener.onCellObserved(best);
+		}
+		if (lost) {
+			mListener.onSignalLost(source);
+		}
+	}
+	
+	private Source getSource(int id) {
+		Source source = mSources.get(id);
+		if (source == null) {
+			source = new Source();
+			mSources.put(id, source);
+		}
+		return source;
+	}
+	
+	/**
+	 * Returns the best observation if it changed since it was last 
+	 * returned, otherwise null.
+	 */
+	private CellObservation choose() {
+		long now = mClock.elapsedRealtime();
+		Source best = null;
+		for (Source s : mSources.values()) {
+			if (s.observation == null)
+				continue;
+			
+			if (best == null) {
+				best = s;
+				continue;
+			}
+			boolean stale = now - s.time > mStaleAge;
+			boolean bestStale = now - best.time > mStaleAge;
+			if (stale != bestStale) {
+				if (bestStale) {
+					best = s;
+				}
+				continue;
+			}
+			int diff = getSpecificity(s.observation) - getSpecificity(best.observation);
+			if (diff > 0 || (diff == 0 && s.sequence > best.sequence)) {
+				best = s;
+			}
+		}
+		if (best == null)
+			return null;
+		
+		if (isSame(best.observation, mForwarded)) {
+			mDuplicates++;
+			return null;
+		}
+		mForwarded = best.observation;
+		best.forwarded++;
+		return best.observation;
+	}
+	
+	private static int getSpecificity(CellObservation o) {
+		return o.cells.length * 2 + 
+				((o.lac != NeighbourhoodIndex.LAC_UNKNOWN) ? 1 : 0);
+	}
+	
+	/**
+	 * True if both observations have the same network type, location area 
+	 * and cells (signals may differ).
+	 */
+	private static boolean isSame(CellObservation a, CellObservation b) {
+		return a != null && b != null && a.type == b.type && a.lac == b.lac && 
+				Arrays.equals(a.cells, b.cells);
+	}
+	
+	/**
+	 * Prints the latest observation and counters of every source.
+	 */
+	public void dump(PrintWriter pw) {
+		long now = mClock.elapsedRealtime();
+		synchronized (mSources) {
+			pw.println("Cell sources: duplicates=" + mDuplicates);
+			for (Map.Entry<Integer, Source> e : mSources.entrySet()) {
+				Source s = e.getValue();
+				String cell = (s.observation != null) 
+						? "cell=" + s.observation.cell + " lac=" + s.observation.lac + 
+								" cells=" + s.observation.cells.length + 
+								" age=" + (now - s.time) + "ms" 
+						: "no signal";
+				pw.println("  source " + e.getKey() + ": " + cell + 
+						", received=" + s.received + ", forwarded=" + s.forwarded + 
+						((s.observation != null && s.observation == mForwarded) 
+								? " (active)" 
+								: ""));
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.Set;
+
+/**
+ * Persistent storage used by LocationEngine.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public interface CellStore {
+	
+	/**
+	 * A stored cell.
+	 */
+	class Cell {
+		
+		public long row;
+		
+		/** Area with the most votes (or assigned directly). */
+		public long area;
+		
+		public int lac;
+		
+	}
+	
+	/**
+	 * Returns the stored cell, or null if it does not exist.
+	 */
+	Cell findCell(int type, int cell);
+	
+	/**
+	 * Stores a new cell and returns its row ID.
+	 */
+	long insertCell(int type, int cell, int lac, long area);
+	
+	void updateCellLac(long row, int lac);
+	
+	void updateCellArea(long row, long area);
+	
+	/**
+	 * Stores the score of a cell/area pair, replacing the previous one.
+	 */
+	void storeVote(long row, long area, double score, long lastSeen);
+	
+	/**
+	 * Appends an entry to the cell log.
+	 */
+	void logCell(long row, long timestamp);
+	
+	/**
+	 * Stores all cells of an observation as a fingerprint for area.
+	 */
+	void addFingerprint(long area, long timestamp, CellObservation observation);
+	
+	/**
+	 * Returns the row IDs of the most recently logged cell and all cells 
+	 * logged after since.
+	 */
+	long[] findLoggedCells(long since);
+	
+	/**
+	 * Reads the area and its profile, falling back to the default area 
+	 * if it does not exist.
+	 * 
+	 * @param profile ID of a profile to use instead of the area profile 
+	 *                (from a schedule or rule), or ScheduleIndex.PROFILE_NONE.
+	 */
+	AreaProfile resolveProfile(long area, long profile);
+	
+	/**
+	 * Rereads a profile that was changed, added or deleted.
+	 * 
+	 * @return IDs of all profiles whose effective settings changed, 
+	 *         including those inheriting from id.
+	 */
+	Set<Long> reloadProfile(long id);
+	
+	/**
+	 * Rereads all profiles on the next resolveProfile() call.
+	 */
+	void reloadProfiles();
+	
+	void loadFingerprints(FingerprintMatcher matcher);
+	
+	void loadVotes(AreaVotes votes, long now);
+	
+	/**
+	 * Adds all cells that are not in the default area to index.
+	 */
+	void loadNeighbourhood(NeighbourhoodIndex index);
+	
+	/**
+	 * Adds all schedules to index.
+	 */
+	void loadSchedules(ScheduleIndex index);
+	
+	/**
+	 * Adds all rules to matcher.
+	 */
+	void loadRules(RuleMatcher matcher);
+	
+	/**
+	 * Runs task, storing all of its changes at once. The task may be run 
+	 * more than once, so it must only change the store.
+	 */
+	void runInTransaction(Runnable task);
+	
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * Source of time for LocationEngine, so that it can run under a virtual 
+ * clock.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public interface Clock {
+	
+	/**
+	 * Milliseconds since boot, including deep sleep (like 
+	 * SystemClock.elapsedRealtime()).
+	 */
+	long elapsedRealtime();
+	
+	/**
+	 * Wall clock time in milliseconds (like System.currentTimeMillis()).
+	 */
+	long currentTimeMillis();
+	
+}
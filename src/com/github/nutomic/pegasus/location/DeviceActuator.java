@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * Applies a resolved AreaProfile to the device.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public interface DeviceActuator {
+	
+	/**
+	 * Prepares everything that can be done before the profile is applied
+	 * (stored in AreaProfile.prepared). Called for every resolved profile.
+	 */
+	void prepare(AreaProfile profile);
+	
+	/**
+	 * Changes radios and audio settings and shows the current area.
+	 */
+	void apply(AreaProfile profile);
+	
+}
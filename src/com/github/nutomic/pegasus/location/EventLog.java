@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size ring buffer of diagnostic events, replacing log messages on 
+ * the hot path.
+ * 
+ * Each event is a type, the elapsed and wall clock time, and two values 
+ * whose meaning depends on the type. Adding an event does not lock or 
+ * allocate, the oldest events are overwritten when the buffer is full.
+ * 
+ * Usage: EventLog export-file
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class EventLog {
+	
+	public static final int MAGIC = 0x50474556;
+	
+	public static final int VERSION = 1;
+	
+	/** Cell observed, values are cell ID and location area code. */
+	public static final int EVENT_CELL = 1;
+	
+	/** Signal lost, no values. */
+	public static final int EVENT_NO_SIGNAL = 2;
+	
+	/** Profile applied, values are area ID and ringer mode. */
+	public static final int EVENT_APPLY = 3;
+	
+	/** Learning started, values are area ID and interval. */
+	public static final int EVENT_LEARN = 4;
+	
+	/** Areas or profiles changed, no values. */
+	public static final int EVENT_UPDATE = 5;
+	
+	private static final String[] EVENT_NAMES = { "?", "cell", "no signal", "apply", 
+			"learn", "update" };
+	
+	/** Number of longs per event: type, elapsed, wall, first and second value. */
+	private static final int FIELDS = 5;
+	
+	private final int mCapacity;
+	
+	private final AtomicLongArray mEvents;
+	
+	/** Total number of events added. */
+	private final AtomicLong mCount = new AtomicLong();
+	
+	private final Clock mClock;
+	
+	/**
+	 * @param capacity Maximum number of events kept.
+	 */
+	public EventLog(int capacity, Clock clock) {
+		mCapacity = capacity;
+		mEvents = new AtomicLongArray(capacity * FIELDS);
+		mClock = clock;
+	}
+	
+	/**
+	 * Adds an event with the current time.
+	 * 
+	 * @param type One of the EVENT_* constants.
+	 */
+	public void add(int type, long first, long second) {
+		int slot = (int) (mCount.getAndIncrement() % mCapacity) * FIELDS;
+		mEvents.set(slot, type);
+		mEvents.set(slot + 1, mClock.elapsedRealtime());
+		mEvents.set(slot + 2, mClock.currentTimeMillis());
+		mEvents.set(slot + 3, first);
+		mEvents.set(slot + 4, second);
+	}
+	
+	/**
+	 * Returns the total number of events added, including overwritten ones.
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+	
+	/**
+	 * Writes all buffered events, oldest first. Events added while 
+	 * exporting may be included partially.
+	 */
+	public void export(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		long count = mCount.get();
+		long first = Math.max(0, count - mCapacity);
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		data.writeInt((int) (count - first));
+		for (long i = first; i < count; i++) {
+			int slot = (int) (i % mCapacity) * FIELDS;
+			data.writeByte((int) mEvents.get(slot));
+			for (int f = 1; f < FIELDS; f++) {
+				data.writeLong(mEvents.get(slot + f));
+			}
+		}
+		data.flush();
+	}
+	
+	/**
+	 * Prints the newest events, oldest first.
+	 * 
+	 * @param max Maximum number of events to print.
+	 */
+	public void dump(PrintWriter pw, int max) {
+		long count = mCount.get();
+		long first = Math.max(0, count - Math.min(max, mCapacity));
+		for (long i = first; i < count; i++) {
+			int slot = (int) (i % mCapacity) * FIELDS;
+			pw.println(format((int) mEvents.get(slot), mEvents.get(slot + 1), 
+					mEvents.get(slot + 2), mEvents.get(slot + 3), mEvents.get(slot + 4)));
+		}
+	}
+	
+	/**
+	 * Prints all events of an export, one per line.
+	 */
+	public static void print(InputStream in, PrintWriter pw) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC)
+			throw new IOException("Not an event log");
+		
+		int version = data.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported event log version " + version);
+		
+		int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			pw.println(format(data.readUnsignedByte(), data.readLong(), data.readLong(), 
+					data.readLong(), data.readLong()));
+		}
+		pw.flush();
+	}
+	
+	private static String format(int type, long elapsed, long wall, long first, 
+			long second) {
+		String name = (type > 0 && type < EVENT_NAMES.length) 
+				? EVENT_NAMES[type] 
+				: EVENT_NAMES[0];
+		return wall + " (" + elapsed + ") " + name + " " + first + " " + second;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			print(in, new PrintWriter(System.out));
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+}
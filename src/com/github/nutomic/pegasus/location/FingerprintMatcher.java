@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.HashMap;
+
+/**
+ * Matches a set of visible cells against the fingerprints recorded while 
+ * learning areas.
+ * 
+ * Fingerprints are kept in an inverted index from cell key to the 
+ * fingerprints containing that cell, so matching only touches 
+ * fingerprints that share at least one cell with the observation. 
+ * Similarity is the weighted Jaccard index, sum(min) / sum(max), 
+ * which is computed from the sum of minimums and the total weights.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class FingerprintMatcher {
+	
+	/** Minimum similarity for a fingerprint to be used as a match. */
+	public static final double MIN_SCORE = 0.5;
+	
+	/** Weight used if the signal level of a cell is unknown. */
+	private static final double WEIGHT_UNKNOWN = 8;
+	
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The best matching area for an observation.
+	 */
+	public static class Match {
+		
+		public final long area;
+		
+		/** Weighted Jaccard index between 0 and 1. */
+		public final double score;
+		
+		Match(long area, double score) {
+			this.area = area;
+			this.score = score;
+		}
+	}
+	
+	/**
+	 * Fingerprints and weights that contain a certain cell.
+	 */
+	private static class Postings {
+		
+		int[] fingerprints = new int[4];
+		double[] weights = new double[4];
+		int size = 0;
+		
+		void add(int fingerprint, double weight) {
+			if (size == fingerprints.length) {
+				int[] f = new int[size * 2];
+				double[] w = new double[size * 2];
+				System.arraycopy(fingerprints, 0, f, 0, size);
+				System.arraycopy(weights, 0, w, 0, size);
+				fingerprints = f;
+				weights = w;
+			}
+			fingerprints[size] = fingerprint;
+			weights[size] = weight;
+			size++;
+		}
+	}
+	
+	private final HashMap<Long, Postings> mIndex = new HashMap<Long, Postings>();
+	
+	/** Area of each fingerprint. */
+	private long[] mAreas = new long[INITIAL_CAPACITY];
+	
+	/** Sum of all weights of each fingerprint. */
+	private double[] mTotals = new double[INITIAL_CAPACITY];
+	
+	/** Accumulated sum of minimum weights, only valid during match(). */
+	private double[] mMinSums = new double[INITIAL_CAPACITY];
+	
+	/** Fingerprints with a non-zero entry in mMinSums. */
+	private int[] mTouched = new int[INITIAL_CAPACITY];
+	
+	private int mCount = 0;
+	
+	/**
+	 * Combines cell type and cell ID into a single key.
+	 */
+	public static long cellKey(int type, int cell) {
+		return ((long) type << 32) | (cell & 0xffffffffL);
+	}
+	
+	/**
+	 * Converts a signal level in dBm, as reported for UMTS neighbours, to 
+	 * ASU (0 to 31).
+	 */
+	public static int asuFromDbm(int dbm) {
+		return Math.max(0, Math.min(31, (dbm + 113) / 2));
+	}
+	
+	/**
+	 * Converts a signal level in ASU (0 to 31) to a weight, unknown 
+	 * signal levels get a medium weight.
+	 */
+	public static double weight(int signal) {
+		return (signal >= 0 && signal <= 31)
+				? signal + 1
+				: WEIGHT_UNKNOWN;
+	}
+	
+	/**
+	 * Returns the number of fingerprints.
+	 */
+	public synchronized int size() {
+		return mCount;
+	}
+	
+	/**
+	 * Removes all fingerprints.
+	 */
+	public synchronized void clear() {
+		mIndex.clear();
+		mCount = 0;
+	}
+	
+	/**
+	 * Adds a fingerprint for an area.
+	 * 
+	 * @param area Database ID of the area.
+	 * @param keys Cell keys as returned by cellKey().
+	 * @param weights Weight of each cell, same length as keys.
+	 */
+	public synchronized void add(long area, long[] keys, double[] weights) {
+		if (mCount == mAreas.length) {
+			int capacity = mCount * 2;
+			long[] a = new long[capacity];
+			double[] t = new double[capacity];
+			System.arraycopy(mAreas, 0, a, 0, mCount);
+			System.arraycopy(mTotals, 0, t, 0, mCount);
+			mAreas = a;
+			mTotals = t;
+			mMinSums = new double[capacity];
+			mTouched = new int[capacity];
+		}
+		int fingerprint = mCount++;
+		mAreas[fingerprint] = area;
+		double total = 0;
+		for (int i = 0; i < keys.length; i++) {
+			Postings p = mIndex.get(keys[i]);
+			if (p == null) {
+				p = new Postings();
+				mIndex.put(keys[i], p);
+			}
+			p.add(fingerprint, weights[i]);
+			total += weights[i];
+		}
+		mTotals[fingerprint] = total;
+	}
+	
+	/**
+	 * Finds the area whose fingerprint is most similar to the observed 
+	 * cells.
+	 * 
+	 * @param keys Visible cell keys as returned by cellKey().
+	 * @param weights Weight of each cell, same length as keys.
+	 * @return The best match, or null if no fingerprint reaches MIN_SCORE.
+	 */
+	public synchronized Match match(long[] keys, double[] weights) {
+		int touched = 0;
+		double total = 0;
+		for (int i = 0; i < keys.length; i++) {
+			total += weights[i];
+			Postings p = mIndex.get(keys[i]);
+			if (p == null)
+				continue;
+			
+			for (int j = 0; j < p.size; j++) {
+				int f = p.fingerprints[j];
+				if (mMinSums[f] == 0) {
+					mTouched[touched++] = f;
+				}
+				mMinSums[f] += Math.min(weights[i], p.weights[j]);
+			}
+		}
+		
+		int best = -1;
+		double bestScore = 0;
+		for (int i = 0; i < touched; i++) {
+			int f = mTouched[i];
+			double min = mMinSums[f];
+			double score = min / (total + mTotals[f] - min);
+			if (score > bestScore) {
+				best = f;
+				bestScore = score;
+			}
+			mMinSums[f] = 0;
+		}
+		
+		return (best != -1 && bestScore >= MIN_SCORE)
+				? new Match(mAreas[best], bestScore)
+				: null;
+	}
+	
+}
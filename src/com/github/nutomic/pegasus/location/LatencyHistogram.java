@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with power of two buckets.
+ * 
+ * Recording does not lock or allocate, so it can be done on every event
+ * from any thread. Percentiles are accurate to a factor of two.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class LatencyHistogram {
+	
+	/** Bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0. */
+	private static final int BUCKETS = 65;
+	
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+	
+	private final AtomicLong mCount = new AtomicLong();
+	
+	private final AtomicLong mSum = new AtomicLong();
+	
+	private final AtomicLong mMax = new AtomicLong();
+	
+	/**
+	 * Adds a duration in nanoseconds, negative values count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		mCount.incrementAndGet();
+		mSum.addAndGet(nanos);
+		long max = mMax.get();
+		while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+			max = mMax.get();
+		}
+	}
+	
+	public long getCount() {
+		return mCount.get();
+	}
+	
+	/**
+	 * Returns the mean duration in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public long getMean() {
+		long count = mCount.get();
+		return (count > 0) ? mSum.get() / count : 0;
+	}
+	
+	public long getMax() {
+		return mMax.get();
+	}
+	
+	/**
+	 * Returns the upper bound in nanoseconds of the bucket containing the
+	 * percentile, but at most the maximum.
+	 * 
+	 * @param percentile Value between 0 and 1.
+	 */
+	public long getPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += mBuckets.get(i);
+		}
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += mBuckets.get(i);
+			if (seen >= rank && seen > 0) {
+				long bound = (i < 63) ? (1L << i) - 1 : Long.MAX_VALUE;
+				return Math.min(bound, mMax.get());
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Removes all recorded values. Values recorded concurrently may be 
+	 * partially kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+	
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.Arrays;
+
+/**
+ * Stress test for LocationEngine on a plain JVM.
+ * 
+ * Learns a number of areas over a synthetic cell population, then drives 
+ * the engine with a RandomWalkCellSource at a fixed event rate and 
+ * reports throughput, event to profile latency percentiles, thread count
+ * and heap growth.
+ * 
+ * Usage: LoadGenerator [cells] [areas] [events] [rate]
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class LoadGenerator {
+	
+	/** ID of the default area. */
+	private static final long AREA_DEFAULT = 1;
+	
+	/** Number of cells learned for each area. */
+	private static final int CELLS_PER_AREA = 20;
+	
+	/**
+	 * Results of a run.
+	 */
+	public static class Report {
+		
+		public long events;
+		public long profilesApplied;
+		public double seconds;
+		
+		/** Latency percentiles in microseconds. */
+		public long p50;
+		public long p99;
+		public long p999;
+		public long max;
+		
+		public int peakThreads;
+		public long heapGrowth;
+		
+		@Override
+		public String toString() {
+			return "events=" + events + 
+					" throughput=" + Math.round(events / seconds) + "/s" +
+					" applied=" + profilesApplied +
+					" p50=" + p50 + "us p99=" + p99 + "us p999=" + p999 + 
+					"us max=" + max + "us" +
+					" threads=" + peakThreads + 
+					" heapGrowth=" + (heapGrowth / 1024) + "KiB";
+		}
+	}
+	
+	/**
+	 * Clock based on System.nanoTime() and System.currentTimeMillis().
+	 */
+	private static final Clock CLOCK = new Clock() {
+		
+		@Override
+		public long elapsedRealtime() {
+			return System.nanoTime() / 1000000;
+		}
+		
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+	
+	/**
+	 * Runs the stress test.
+	 * 
+	 * @param cellCount Number of synthetic cells.
+	 * @param areaCount Number of areas to learn, spread over the cells.
+	 * @param eventCount Number of cell changes to generate.
+	 * @param rate Cell changes per second, 0 for as fast as possible.
+	 */
+	public static Report run(int cellCount, int areaCount, final long eventCount, 
+			int rate) throws InterruptedException {
+		MemoryCellStore store = new MemoryCellStore(AREA_DEFAULT);
+		for (long area = AREA_DEFAULT; area <= AREA_DEFAULT + areaCount; area++) {
+			AreaProfile p = new AreaProfile();
+			p.area = area;
+			p.hasArea = true;
+			p.areaName = "Area " + area;
+			p.hasProfile = true;
+			p.profileName = "Profile " + area;
+			p.ringerMode = -1;
+			store.putProfile(p);
+		}
+		final long[] applied = new long[1];
+		DeviceActuator actuator = new DeviceActuator() {
+			
+			@Override
+			public void prepare(AreaProfile profile) {
+			}
+			
+			@Override
+			public void apply(AreaProfile profile) {
+				applied[0]++;
+			}
+		};
+		final LocationEngine engine = new LocationEngine(store, actuator, CLOCK, 
+				AREA_DEFAULT);
+		
+		// Learn areas spread evenly over all cells.
+		final RandomWalkCellSource source = 
+				new RandomWalkCellSource(cellCount, eventCount, rate, 0);
+		int spacing = cellCount / Math.max(1, areaCount);
+		for (int a = 0; a < areaCount; a++) {
+			engine.learn(AREA_DEFAULT + 1 + a, 60 * 60 * 1000);
+			for (int c = a * spacing; c < Math.min(cellCount, a * spacing + CELLS_PER_AREA); c++) {
+				engine.onCell(source.observe(c));
+			}
+		}
+		engine.learn(AREA_DEFAULT, -1);
+		applied[0] = 0;
+		
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+		final long[] latencies = new long[(int) eventCount];
+		final int[] count = new int[1];
+		final int[] peakThreads = { Thread.activeCount() };
+		long start = System.nanoTime();
+		source.start(new CellSource.Listener() {
+			
+			@Override
+			public void onCellObserved(CellObservation observation) {
+				engine.onCell(observation);
+				latencies[count[0]++] = System.nanoTime() - source.getScheduledTime();
+				if ((count[0] & 1023) == 0) {
+					peakThreads[0] = Math.max(peakThreads[0], Thread.activeCount());
+				}
+			}
+			
+			@Override
+			public void onSignalLost(int source) {
+			}
+		});
+		source.join();
+		
+		Report report = new Report();
+		report.seconds = (System.nanoTime() - start) / 1e9;
+		report.events = count[0];
+		report.profilesApplied = applied[0];
+		report.peakThreads = peakThreads[0];
+		report.heapGrowth = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+		long[] sorted = new long[count[0]];
+		System.arraycopy(latencies, 0, sorted, 0, count[0]);
+		Arrays.sort(sorted);
+		if (sorted.length > 0) {
+			report.p50 = sorted[(int) (sorted.length * 0.5)] / 1000;
+			report.p99 = sorted[(int) (sorted.length * 0.99)] / 1000;
+			report.p999 = sorted[(int) (sorted.length * 0.999)] / 1000;
+			report.max = sorted[sorted.length - 1] / 1000;
+		}
+		return report;
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		int cells = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int areas = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		long events = (args.length > 2) ? Long.parseLong(args[2]) : 100000;
+		int rate = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+		System.out.println(run(cells, areas, events, rate));
+	}
+	
+}
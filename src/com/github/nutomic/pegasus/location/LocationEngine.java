@@ -0,0 +1,724 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides which area the device is in and applies its profile.
+ * 
+ * For every observed cell, the engine resolves the area (from votes, 
+ * fingerprints and the neighbourhood of unknown cells), adds learn votes 
+ * and activity votes for confirmed areas, logs the cell and applies the 
+ * area profile if the area changed. Schedules and rules may replace the area profile and radio 
+ * settings depending on time and device state, onTime() and 
+ * setDeviceState() reapply the profile when they do. onProfileChanged() 
+ * only reapplies if the effective settings of the applied profile 
+ * changed. It only depends on the interfaces CellStore, DeviceActuator 
+ * and Clock, so it can run outside of Android.
+ * 
+ * All methods are synchronized, events are processed one at a time.
+ * Time spent in each stage is recorded in PipelineStats. dump() only 
+ * reads volatile and atomic fields, so it never waits for an event.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class LocationEngine {
+	
+	/** Returned by getCurrentArea() before the first cell was observed. */
+	public static final long AREA_NONE = -1;
+	
+	/**
+	 * Fingerprints that match the learned area at least this well are not 
+	 * recorded again.
+	 */
+	private static final double FINGERPRINT_DUPLICATE_SCORE = 0.9;
+	
+	/**
+	 * Fingerprints that match an area at least this well confirm it for 
+	 * an activity vote.
+	 */
+	private static final double FINGERPRINT_CONFIRM_SCORE = 0.8;
+	
+	/** Number of likely next areas to prepare profiles for. */
+	private static final int PREWARM_COUNT = 2;
+	
+	/** Number of area transitions kept for dump(). */
+	private static final int TRANSITION_HISTORY = 16;
+	
+	private final CellStore mStore;
+	
+	private final DeviceActuator mActuator;
+	
+	private final Clock mClock;
+	
+	/** ID of the area for cells that were not learned. */
+	private final long mDefaultArea;
+	
+	/** Fingerprints of all areas, loaded on first use. */
+	private final FingerprintMatcher mMatcher = new FingerprintMatcher();
+	
+	private boolean mFingerprintsLoaded = false;
+	
+	/** Votes associating cells with areas, loaded on first use. */
+	private final AreaVotes mVotes = new AreaVotes();
+	
+	private boolean mVotesLoaded = false;
+	
+	/** Areas of learned cells by location area, loaded on first use. */
+	private final NeighbourhoodIndex mNeighbourhood = new NeighbourhoodIndex();
+	
+	private boolean mNeighbourhoodLoaded = false;
+	
+	/** Profiles set by schedules, loaded on first use. */
+	private final ScheduleIndex mSchedules = new ScheduleIndex();
+	
+	private boolean mSchedulesLoaded = false;
+	
+	/** Rules for area, time and device state, loaded on first use. */
+	private final RuleMatcher mRules = new RuleMatcher();
+	
+	private boolean mRulesLoaded = false;
+	
+	/** Device state for rules. */
+	private volatile boolean mCharging = false;
+	private volatile boolean mHeadset = false;
+	
+	/** 
+	 * Area and location area of cells written in this session, by row. 
+	 * Writes are queued, so findCell() may still return the old values.
+	 * Cleared by update(), as the cells may have been changed elsewhere.
+	 */
+	private final HashMap<Long, Long> mCellAreas = new HashMap<Long, Long>();
+	private final HashMap<Long, Integer> mCellLacs = new HashMap<Long, Integer>();
+	
+	/** Predicts the next area from area transitions. */
+	private final AreaPredictor mPredictor = new AreaPredictor(PREWARM_COUNT);
+	
+	/** Profiles prepared for the most likely next areas, by area ID. */
+	private final HashMap<Long, AreaProfile> mPrewarmed = new HashMap<Long, AreaProfile>();
+	
+	/** Stage latencies and event counters. */
+	private final PipelineStats mStats = new PipelineStats();
+	
+	/** Number of times a prepared profile was applied. */
+	private volatile long mPrewarmHits = 0;
+	
+	/** Sizes of the caches, updated after each event for dump(). */
+	private volatile int mFingerprintCount = 0;
+	private volatile int mPrewarmedCount = 0;
+	private volatile long mPredictedCount = 0;
+	private volatile long mPredictionHits = 0;
+	
+	/** 
+	 * Time, previous and new area of the last applied profiles, written 
+	 * as a ring buffer. 
+	 */
+	private final AtomicLongArray mTransitions = new AtomicLongArray(3 * TRANSITION_HISTORY);
+	
+	/** Area of the last applied profile. */
+	private long mAppliedArea = AREA_NONE;
+	
+	/** ID of the last applied profile. */
+	private long mAppliedProfile = ScheduleIndex.PROFILE_NONE;
+	
+	/** Schedule and rule decision of the last applied profile. */
+	private RuleMatcher.Result mAppliedDecision = null;
+	
+	/** Time at which a schedule changes the applied profile. */
+	private volatile long mNextChange = ScheduleIndex.CHANGE_NONE;
+	
+	/** Total number of entries written to mTransitions. */
+	private final AtomicLong mTransitionCount = new AtomicLong();
+	
+	/** Number of calls to learn(). */
+	private final AtomicLong mLearnSessions = new AtomicLong();
+	
+	/** Number of cells in the last call to learnLogged(). */
+	private volatile int mLastLearnedCells = 0;
+	
+	/** ID of the current area. */
+	private volatile long mCurrentArea = AREA_NONE;
+	
+	/** The current cell, null before the first observation. */
+	private volatile CellObservation mCurrentCell = null;
+	
+	/** Row ID of the current cell. */
+	private volatile long mCurrentCellRow = AREA_NONE;
+	
+	/** The ID of the area to assign new cells to. */
+	private volatile long mLearnArea = AREA_NONE;
+	
+	/** Time limit after which to stop learning mLearnArea. */
+	private volatile long mLearnUntil = 0;
+	
+	/**
+	 * @param defaultArea ID of the area for cells that were not learned.
+	 */
+	public LocationEngine(CellStore store, DeviceActuator actuator, Clock clock, 
+			long defaultArea) {
+		mStore = store;
+		mActuator = actuator;
+		mClock = clock;
+		mDefaultArea = defaultArea;
+	}
+	
+	/**
+	 * Resolves the area of an observed cell, adds votes and fingerprints,
+	 * logs the cell and applies the area profile if the area changed.
+	 */
+	public synchronized void onCell(CellObservation o) {
+		long start = System.nanoTime();
+		mStats.increment(PipelineStats.COUNTER_EVENTS);
+		boolean learning = mClock.elapsedRealtime() <= mLearnUntil;
+		long now = mClock.currentTimeMillis();
+		loadVotes();
+		loadNeighbourhood();
+		loadFingerprints();
+		
+		long[] keys = new long[o.cells.length];
+		double[] weights = new double[o.cells.length];
+		for (int i = 0; i < o.cells.length; i++) {
+			keys[i] = FingerprintMatcher.cellKey(o.type, o.cells[i]);
+			weights[i] = FingerprintMatcher.weight(o.signals[i]);
+		}
+		
+		// If cell is stored, use the area with the most votes.
+		CellStore.Cell stored = mStore.findCell(o.type, o.cell);
+		long cellRow;
+		long storedArea;
+		long newArea;
+		if (stored != null) {
+			cellRow = stored.row;
+			Long area = mCellAreas.get(cellRow);
+			storedArea = (area != null) ? area : stored.area;
+			Integer lac = mCellLacs.get(cellRow);
+			int storedLac = (lac != null) ? lac : stored.lac;
+			newArea = mVotes.top(cellRow);
+			if (newArea == AreaVotes.AREA_NONE) {
+				newArea = storedArea;
+			}
+			// Location area is missing for cells from older versions.
+			if (storedLac != o.lac) {
+				mStore.updateCellLac(cellRow, o.lac);
+				mCellLacs.put(cellRow, o.lac);
+				updateNeighbourhood(o.type, storedLac, o.cell, storedArea, mDefaultArea);
+				updateNeighbourhood(o.type, o.lac, o.cell, mDefaultArea, storedArea);
+			}
+		}
+		// Create cell if it does not exist, in the default area until it 
+		// is learned.
+		else {
+			newArea = mDefaultArea;
+			storedArea = mDefaultArea;
+			cellRow = mStore.insertCell(o.type, o.cell, o.lac, mDefaultArea);
+			mStats.increment(PipelineStats.COUNTER_INSERTS);
+		}
+		
+		// Guess the area of unlearned cells from learned cells nearby. The 
+		// guess is not stored, voted for or indexed, so it can not 
+		// confirm itself.
+		if (newArea == mDefaultArea) {
+			long guess = mNeighbourhood.resolve(o.type, o.lac, o.cell);
+			if (guess != NeighbourhoodIndex.AREA_NONE) {
+				newArea = guess;
+			}
+		}
+		long resolved = System.nanoTime();
+		mStats.record(PipelineStats.STAGE_RESOLVED, resolved - start);
+		
+		// Vote for the learned area.
+		if (learning) {
+			newArea = vote(cellRow, mLearnArea, AreaVotes.VOTE_LEARN, now);
+		}
+		
+		// Use fingerprints to tell apart areas sharing the same serving 
+		// cell, record a new one while learning.
+		FingerprintMatcher.Match match = mMatcher.match(keys, weights);
+		if (learning) {
+			if (match == null || match.area != mLearnArea || 
+					match.score < FINGERPRINT_DUPLICATE_SCORE) {
+				mStore.addFingerprint(mLearnArea, now, o);
+				mMatcher.add(mLearnArea, keys, weights);
+			}
+		}
+		else if (match != null) {
+			newArea = match.area;
+		}
+		
+		// Vote for the active area only if it is confirmed independently 
+		// of the votes: a learned fingerprint matches it closely, and it 
+		// is the current area or one the predictor expected next. 
+		if (!learning && isConfirmed(match) && match.area != mDefaultArea) {
+			vote(cellRow, match.area, AreaVotes.VOTE_ACTIVE, now);
+		}
+		long top = mVotes.top(cellRow);
+		if (top != AreaVotes.AREA_NONE) {
+			updateNeighbourhood(o.type, o.lac, o.cell, storedArea, top);
+		}
+		
+		mStore.logCell(cellRow, now);
+		mCurrentCell = o;
+		mCurrentCellRow = cellRow;
+		long written = System.nanoTime();
+		mStats.record(PipelineStats.STAGE_WRITTEN, written - resolved);
+		
+		// Only apply profile if we weren't in the same area before.
+		if (mCurrentArea != newArea) {
+			mStats.record(PipelineStats.STAGE_DECIDED, System.nanoTime() - written);
+			mStats.increment(PipelineStats.COUNTER_APPLIES);
+			apply(newArea);
+		}
+		else {
+			mStats.record(PipelineStats.STAGE_DECIDED, System.nanoTime() - written);
+			mStats.increment(PipelineStats.COUNTER_SKIPS);
+		}
+	}
+	
+	/**
+	 * Assigns all cells observed during the next interval milliseconds 
+	 * to area.
+	 */
+	public void learn(long area, long interval) {
+		mLearnUntil = mClock.elapsedRealtime() + interval;
+		mLearnArea = area;
+		mLearnSessions.incrementAndGet();
+	}
+	
+	/**
+	 * Adds learn votes for area to the most recently logged cell and 
+	 * all cells logged after since, then reapplies the profile if the 
+	 * current area changed.
+	 */
+	public synchronized void learnLogged(final long area, long since) {
+		loadVotes();
+		final long[] cells = mStore.findLoggedCells(since);
+		final long now = mClock.currentTimeMillis();
+		mLastLearnedCells = cells.length;
+		
+		// Votes are counted before the transaction, as it may run again 
+		// if it fails.
+		final double[] scores = new double[cells.length];
+		final long[] tops = new long[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			long previousTop = mVotes.top(cells[i]);
+			scores[i] = mVotes.vote(cells[i], area, AreaVotes.VOTE_LEARN, now);
+			tops[i] = mVotes.top(cells[i]);
+			if (tops[i] == previousTop) {
+				tops[i] = AreaVotes.AREA_NONE;
+			}
+		}
+		try {
+			mStore.runInTransaction(new Runnable() {
+				
+				@Override
+				public void run() {
+					for (int i = 0; i < cells.length; i++) {
+						mStore.storeVote(cells[i], area, scores[i], now);
+						if (tops[i] != AreaVotes.AREA_NONE) {
+							mStore.updateCellArea(cells[i], tops[i]);
+						}
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			// Votes were not stored, reload them on the next event.
+			mVotesLoaded = false;
+			throw e;
+		}
+		for (int i = 0; i < cells.length; i++) {
+			if (tops[i] != AreaVotes.AREA_NONE) {
+				mCellAreas.put(cells[i], tops[i]);
+			}
+		}
+		
+		long current = mVotes.top(mCurrentCellRow);
+		if (current != AreaVotes.AREA_NONE && current != mCurrentArea) {
+			mStats.increment(PipelineStats.COUNTER_REAPPLIES);
+			apply(current);
+		}
+	}
+	
+	/**
+	 * Areas or profiles changed, reload everything from the store and 
+	 * reapply the current profile.
+	 */
+	public synchronized void update() {
+		mFingerprintsLoaded = false;
+		mVotesLoaded = false;
+		mNeighbourhoodLoaded = false;
+		mSchedulesLoaded = false;
+		mRulesLoaded = false;
+		mCellAreas.clear();
+		mCellLacs.clear();
+		mStore.reloadProfiles();
+		mPrewarmed.clear();
+		if (mCurrentArea != AREA_NONE) {
+			mStats.increment(PipelineStats.COUNTER_REAPPLIES);
+			apply(mCurrentArea);
+		}
+	}
+	
+	/**
+	 * A single profile was changed, reapplies the current profile only if 
+	 * its effective settings changed (including inherited ones).
+	 */
+	public synchronized void onProfileChanged(long id) {
+		Set<Long> changed = mStore.reloadProfile(id);
+		Iterator<AreaProfile> it = mPrewarmed.values().iterator();
+		while (it.hasNext()) {
+			if (changed.contains(it.next().profileId)) {
+				it.remove();
+			}
+		}
+		mPrewarmedCount = mPrewarmed.size();
+		if (mCurrentArea != AREA_NONE && changed.contains(mAppliedProfile)) {
+			mStats.increment(PipelineStats.COUNTER_REAPPLIES);
+			apply(mCurrentArea);
+		}
+	}
+	
+	/**
+	 * Reapplies the profile if a schedule or rule changed it, should be 
+	 * called at the time returned by getNextChange().
+	 * 
+	 * @return The time of the next scheduled change, see getNextChange().
+	 */
+	public synchronized long onTime() {
+		reapplyIfChanged();
+		return mNextChange;
+	}
+	
+	/**
+	 * Sets the device state used by rules, and reapplies the profile if 
+	 * a rule changes it.
+	 */
+	public synchronized void setDeviceState(boolean charging, boolean headset) {
+		if (charging == mCharging && headset == mHeadset)
+			return;
+		
+		mCharging = charging;
+		mHeadset = headset;
+		reapplyIfChanged();
+	}
+	
+	/**
+	 * Applies the profile for the current area again if the decision of 
+	 * schedules and rules changed since it was applied.
+	 */
+	private void reapplyIfChanged() {
+		if (mCurrentArea == AREA_NONE)
+			return;
+		
+		RuleMatcher.Result decision = decide(mCurrentArea, mClock.currentTimeMillis());
+		if (!decision.sameActions(mAppliedDecision)) {
+			apply(mCurrentArea);
+		}
+		else {
+			mNextChange = decision.nextChange;
+		}
+	}
+	
+	/**
+	 * Returns the profile and radio settings that rules and schedules set 
+	 * for area at time. Rules take precedence over schedules.
+	 */
+	private RuleMatcher.Result decide(long area, long time) {
+		loadSchedules();
+		loadRules();
+		RuleMatcher.Result decision = mRules.evaluate(area, time, mCharging, mHeadset);
+		if (decision.profile == ScheduleIndex.PROFILE_NONE) {
+			decision.profile = mSchedules.getProfile(area, time);
+		}
+		long change = mSchedules.getNextChange(area, time);
+		if (decision.nextChange == ScheduleIndex.CHANGE_NONE || 
+				(change != ScheduleIndex.CHANGE_NONE && change < decision.nextChange)) {
+			decision.nextChange = change;
+		}
+		return decision;
+	}
+	
+	/**
+	 * Applies the profile for an area (or the profile set by a schedule or 
+	 * rule) and makes it the current area, falls back to the default area 
+	 * if it does not exist (any more). Area changes are recorded in the 
+	 * predictor. Afterwards, the profiles for the most likely next areas 
+	 * are prepared.
+	 */
+	private void apply(long area) {
+		RuleMatcher.Result decision = decide(area, mClock.currentTimeMillis());
+		AreaProfile profile = mPrewarmed.get(area);
+		if (profile != null && profile.scheduledProfile == decision.profile) {
+			mPrewarmHits++;
+		}
+		else {
+			profile = resolve(area, decision.profile);
+		}
+		profile.wifiEnabled = (decision.wifi != RuleMatcher.RADIO_UNCHANGED) 
+				? decision.wifi == RuleMatcher.RADIO_ON 
+				: profile.areaWifiEnabled;
+		profile.bluetoothEnabled = (decision.bluetooth != RuleMatcher.RADIO_UNCHANGED) 
+				? decision.bluetooth == RuleMatcher.RADIO_ON 
+				: profile.areaBluetoothEnabled;
+		profile.nextChange = decision.nextChange;
+		long previous = mAppliedArea;
+		mAppliedArea = profile.area;
+		mAppliedProfile = profile.profileId;
+		mAppliedDecision = decision;
+		// Every change of the current area is a transition, including 
+		// learning and falling back to the default area.
+		if (mCurrentArea != AREA_NONE && mCurrentArea != profile.area) {
+			mPredictor.transition(mCurrentArea, profile.area);
+		}
+		mCurrentArea = profile.area;
+		mNextChange = profile.nextChange;
+		mActuator.apply(profile);
+		prewarm(profile.area);
+		
+		int slot = (int) (mTransitionCount.get() % TRANSITION_HISTORY) * 3;
+		mTransitions.set(slot, mClock.currentTimeMillis());
+		mTransitions.set(slot + 1, previous);
+		mTransitions.set(slot + 2, profile.area);
+		mTransitionCount.incrementAndGet();
+		mFingerprintCount = mMatcher.size();
+		mPrewarmedCount = mPrewarmed.size();
+		mPredictedCount = mPredictor.getPredictedCount();
+		mPredictionHits = mPredictor.getHitCount();
+	}
+	
+	private AreaProfile resolve(long area, long scheduled) {
+		AreaProfile profile = mStore.resolveProfile(area, scheduled);
+		profile.areaWifiEnabled = profile.wifiEnabled;
+		profile.areaBluetoothEnabled = profile.bluetoothEnabled;
+		mActuator.prepare(profile);
+		return profile;
+	}
+	
+	/**
+	 * Resolves the profiles of the areas most likely to be entered 
+	 * after area, and drops all other prepared profiles.
+	 */
+	private void prewarm(long area) {
+		long[] next = mPredictor.predict(area);
+		long now = mClock.currentTimeMillis();
+		HashMap<Long, AreaProfile> prewarmed = new HashMap<Long, AreaProfile>();
+		for (long n : next) {
+			long scheduled = decide(n, now).profile;
+			AreaProfile profile = mPrewarmed.get(n);
+			prewarmed.put(n, (profile != null && profile.scheduledProfile == scheduled) 
+					? profile 
+					: resolve(n, scheduled));
+		}
+		mPrewarmed.clear();
+		mPrewarmed.putAll(prewarmed);
+	}
+	
+	/**
+	 * Returns true if match is close enough to confirm its area, and the 
+	 * area is the current one or predicted to follow it.
+	 */
+	private boolean isConfirmed(FingerprintMatcher.Match match) {
+		if (match == null || match.score < FINGERPRINT_CONFIRM_SCORE)
+			return false;
+		
+		if (match.area == mCurrentArea)
+			return true;
+		
+		for (long area : mPredictor.predict(mCurrentArea)) {
+			if (area == match.area)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds a vote for area to cellRow and stores it. If the area with 
+	 * the most votes changes, it is stored as the cell area.
+	 * 
+	 * @return The area with the most votes for cellRow.
+	 */
+	private long vote(long cellRow, long area, double weight, long now) {
+		long previousTop = mVotes.top(cellRow);
+		double score = mVotes.vote(cellRow, area, weight, now);
+		long top = mVotes.top(cellRow);
+		mStore.storeVote(cellRow, area, score, now);
+		if (top != previousTop) {
+			mStore.updateCellArea(cellRow, top);
+			mCellAreas.put(cellRow, top);
+		}
+		return top;
+	}
+	
+	/**
+	 * Moves a cell from oldArea to newArea in mNeighbourhood, the 
+	 * default area is not counted.
+	 */
+	private void updateNeighbourhood(int type, int lac, int cell, long oldArea, 
+			long newArea) {
+		if (oldArea == newArea)
+			return;
+		
+		if (oldArea != mDefaultArea) {
+			mNeighbourhood.remove(type, lac, cell, oldArea);
+		}
+		if (newArea != mDefaultArea) {
+			mNeighbourhood.add(type, lac, cell, newArea);
+		}
+	}
+	
+	private void loadFingerprints() {
+		if (mFingerprintsLoaded)
+			return;
+		
+		mMatcher.clear();
+		mStore.loadFingerprints(mMatcher);
+		mFingerprintsLoaded = true;
+	}
+	
+	private void loadVotes() {
+		if (mVotesLoaded)
+			return;
+		
+		mVotes.clear();
+		mStore.loadVotes(mVotes, mClock.currentTimeMillis());
+		mVotesLoaded = true;
+	}
+	
+	private void loadNeighbourhood() {
+		if (mNeighbourhoodLoaded)
+			return;
+		
+		mNeighbourhood.clear();
+		mStore.loadNeighbourhood(mNeighbourhood);
+		mNeighbourhoodLoaded = true;
+	}
+	
+	private void loadSchedules() {
+		if (mSchedulesLoaded)
+			return;
+		
+		mSchedules.clear();
+		mStore.loadSchedules(mSchedules);
+		mSchedulesLoaded = true;
+	}
+	
+	private void loadRules() {
+		if (mRulesLoaded)
+			return;
+		
+		mRules.clear();
+		mStore.loadRules(mRules);
+		mRulesLoaded = true;
+	}
+	
+	/**
+	 * Returns the ID of the current area, or AREA_NONE.
+	 */
+	public long getCurrentArea() {
+		return mCurrentArea;
+	}
+	
+	/**
+	 * Returns the time at which a schedule changes the current profile, 
+	 * or ScheduleIndex.CHANGE_NONE.
+	 */
+	public long getNextChange() {
+		return mNextChange;
+	}
+	
+	/**
+	 * Returns the most recently observed cell, or null.
+	 */
+	public CellObservation getCurrentCell() {
+		return mCurrentCell;
+	}
+	
+	public AreaPredictor getPredictor() {
+		return mPredictor;
+	}
+	
+	/**
+	 * Returns stage latencies and event counters. The stages outside of 
+	 * the engine are recorded by the caller.
+	 */
+	public PipelineStats getStats() {
+		return mStats;
+	}
+	
+	/**
+	 * Returns the number of times a prepared profile was applied.
+	 */
+	public long getPrewarmHits() {
+		return mPrewarmHits;
+	}
+	
+	/**
+	 * Prints current state, cache sizes, hit rates, stage latencies, 
+	 * learning state and recent area transitions. 
+	 * 
+	 * Does not wait for events being processed, so values may be from 
+	 * different events.
+	 */
+	public void dump(PrintWriter pw) {
+		CellObservation cell = mCurrentCell;
+		pw.println("Current area: " + mCurrentArea);
+		pw.println("Current cell: " + ((cell != null) 
+				? cell.type + "/" + cell.lac + "/" + cell.cell + 
+						" (" + cell.cells.length + " visible)"
+				: "none"));
+		
+		long remaining = mLearnUntil - mClock.elapsedRealtime();
+		pw.println("Learning: " + ((remaining >= 0)
+				? "area " + mLearnArea + " for " + remaining / 1000 + "s"
+				: "no") + 
+				", sessions=" + mLearnSessions.get() + 
+				", last logged cells=" + mLastLearnedCells);
+		
+		long change = mNextChange;
+		pw.println("Next scheduled change: " + ((change != ScheduleIndex.CHANGE_NONE)
+				? (change - mClock.currentTimeMillis()) / 1000 + "s"
+				: "none") + 
+				", charging=" + mCharging + ", headset=" + mHeadset);
+		
+		long applies = mStats.getCounter(PipelineStats.COUNTER_APPLIES) + 
+				mStats.getCounter(PipelineStats.COUNTER_REAPPLIES);
+		long predicted = mPredictedCount;
+		pw.println("Caches: fingerprints=" + mFingerprintCount + 
+				", prepared profiles=" + mPrewarmedCount + 
+				", prepared hits=" + mPrewarmHits + "/" + applies + 
+				", prediction hits=" + mPredictionHits + "/" + predicted);
+		
+		pw.println("Pipeline:");
+		pw.print(mStats);
+		
+		pw.println("Recent transitions:");
+		long count = mTransitionCount.get();
+		for (long i = Math.max(0, count - TRANSITION_HISTORY); i < count; i++) {
+			int slot = (int) (i % TRANSITION_HISTORY) * 3;
+			pw.println("  " + mTransitions.get(slot) + ": " + 
+					mTransitions.get(slot + 1) + " -> " + mTransitions.get(slot + 2));
+		}
+	}
+	
+}
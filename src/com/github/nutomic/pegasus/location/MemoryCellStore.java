@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CellStore that keeps everything in memory, for running LocationEngine 
+ * on a plain JVM.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class MemoryCellStore implements CellStore {
+	
+	/**
+	 * A stored cell including its identity.
+	 */
+	private static class Row extends Cell {
+		
+		int type;
+		int cell;
+		
+	}
+	
+	/**
+	 * A stored fingerprint.
+	 */
+	private static class Fingerprint {
+		
+		long area;
+		long[] keys;
+		double[] weights;
+		
+	}
+	
+	private final long mDefaultArea;
+	
+	private final HashMap<Long, Row> mCells = new HashMap<Long, Row>();
+	
+	private final List<Row> mRows = new ArrayList<Row>();
+	
+	/** Score and last seen time by cell row and area. */
+	private final HashMap<Long, HashMap<Long, double[]>> mVotes = 
+			new HashMap<Long, HashMap<Long, double[]>>();
+	
+	private final List<Fingerprint> mFingerprints = new ArrayList<Fingerprint>();
+	
+	private final HashMap<Long, AreaProfile> mProfiles = new HashMap<Long, AreaProfile>();
+	
+	/** Audio settings of profiles used by schedules, by profile ID. */
+	private final HashMap<Long, AreaProfile> mScheduledProfiles = 
+			new HashMap<Long, AreaProfile>();
+	
+	/** Schedules as ID, area, days, start, end and profile. */
+	private final List<long[]> mSchedules = new ArrayList<long[]>();
+	
+	/** Rules in the order of the RuleMatcher.add() parameters. */
+	private final List<long[]> mRules = new ArrayList<long[]>();
+	
+	private long[] mLogCells = new long[1024];
+	
+	private long[] mLogTimestamps = new long[1024];
+	
+	private int mLogSize = 0;
+	
+	/**
+	 * @param defaultArea ID of the area resolveProfile() falls back to.
+	 */
+	public MemoryCellStore(long defaultArea) {
+		mDefaultArea = defaultArea;
+	}
+	
+	/**
+	 * Sets the profile returned by resolveProfile() for profile.area, 
+	 * with the effective settings of profile.profileId.
+	 */
+	public synchronized void putProfile(AreaProfile profile) {
+		mProfiles.put(profile.area, profile);
+	}
+	
+	/**
+	 * Sets the audio settings resolveProfile() uses for a profile ID set 
+	 * by a schedule.
+	 */
+	public synchronized void putScheduledProfile(long id, AreaProfile profile) {
+		mScheduledProfiles.put(id, profile);
+	}
+	
+	/**
+	 * Adds a schedule, see ScheduleIndex.add().
+	 */
+	public synchronized void addSchedule(long id, long area, int days, int start, 
+			int end, long profile) {
+		mSchedules.add(new long[] { id, area, days, start, end, profile });
+	}
+	
+	/**
+	 * Adds a rule, see RuleMatcher.add().
+	 */
+	public synchronized void addRule(long id, int priority, long area, int days, 
+			int start, int end, int charging, int headset, long profile, int wifi, 
+			int bluetooth) {
+		mRules.add(new long[] { id, priority, area, days, start, end, charging, 
+				headset, profile, wifi, bluetooth });
+	}
+	
+	/**
+	 * Returns the number of cell log entries.
+	 */
+	public synchronized int getLogSize() {
+		return mLogSize;
+	}
+	
+	/**
+	 * Returns the number of stored cells.
+	 */
+	public synchronized int getCellCount() {
+		return mRows.size();
+	}
+
+	@Override
+	public synchronized Cell findCell(int type, int cell) {
+		return mCells.get(FingerprintMatcher.cellKey(type, cell));
+	}
+
+	@Override
+	public synchronized long insertCell(int type, int cell, int lac, long area) {
+		Row row = new Row();
+		row.row = mRows.size() + 1;
+		row.area = area;
+		row.lac = lac;
+		row.type = type;
+		row.cell = cell;
+		mRows.add(row);
+		mCells.put(FingerprintMatcher.cellKey(type, cell), row);
+		return row.row;
+	}
+
+	@Override
+	public synchronized void updateCellLac(long row, int lac) {
+		mRows.get((int) row - 1).lac = lac;
+	}
+
+	@Override
+	public synchronized void updateCellArea(long row, long area) {
+		mRows.get((int) row - 1).area = area;
+	}
+
+	@Override
+	public synchronized void storeVote(long row, long area, double score, long lastSeen) {
+		HashMap<Long, double[]> votes = mVotes.get(row);
+		if (votes == null) {
+			votes = new HashMap<Long, double[]>();
+			mVotes.put(row, votes);
+		}
+		votes.put(area, new double[] { score, lastSeen });
+	}
+
+	@Override
+	public synchronized void logCell(long row, long timestamp) {
+		if (mLogSize == mLogCells.length) {
+			long[] c = new long[mLogSize * 2];
+			long[] t = new long[mLogSize * 2];
+			System.arraycopy(mLogCells, 0, c, 0, mLogSize);
+			System.arraycopy(mLogTimestamps, 0, t, 0, mLogSize);
+			mLogCells = c;
+			mLogTimestamps = t;
+		}
+		mLogCells[mLogSize] = row;
+		mLogTimestamps[mLogSize] = timestamp;
+		mLogSize++;
+	}
+
+	@Override
+	public synchronized void addFingerprint(long area, long timestamp, 
+			CellObservation o) {
+		Fingerprint f = new Fingerprint();
+		f.area = area;
+		f.keys = new long[o.cells.length];
+		f.weights = new double[o.cells.length];
+		for (int i = 0; i < o.cells.length; i++) {
+			f.keys[i] = FingerprintMatcher.cellKey(o.type, o.cells[i]);
+			f.weights[i] = FingerprintMatcher.weight(o.signals[i]);
+		}
+		mFingerprints.add(f);
+	}
+
+	@Override
+	public synchronized long[] findLoggedCells(long since) {
+		LinkedHashSet<Long> cells = new LinkedHashSet<Long>();
+		if (mLogSize > 0) {
+			cells.add(mLogCells[mLogSize - 1]);
+		}
+		for (int i = 0; i < mLogSize; i++) {
+			if (mLogTimestamps[i] > since) {
+				cells.add(mLogCells[i]);
+			}
+		}
+		long[] result = new long[cells.size()];
+		int i = 0;
+		for (long cell : cells) {
+			result[i++] = cell;
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized AreaProfile resolveProfile(long area, long scheduled) {
+		AreaProfile stored = mProfiles.get(area);
+		if (stored == null) {
+			stored = mProfiles.get(mDefaultArea);
+		}
+		AreaProfile profile = new AreaProfile();
+		if (stored == null) {
+			profile.area = mDefaultArea;
+			return profile;
+		}
+		profile.area = stored.area;
+		profile.hasArea = stored.hasArea;
+		profile.areaName = stored.areaName;
+		profile.wifiEnabled = stored.wifiEnabled;
+		profile.bluetoothEnabled = stored.bluetoothEnabled;
+		if (scheduled != ScheduleIndex.PROFILE_NONE) {
+			profile.scheduledProfile = scheduled;
+			stored = mScheduledProfiles.get(scheduled);
+			if (stored == null)
+				return profile;
+		}
+		profile.hasProfile = stored.hasProfile;
+		profile.profileId = (scheduled != ScheduleIndex.PROFILE_NONE) 
+				? scheduled 
+				: stored.profileId;
+		profile.profileName = stored.profileName;
+		profile.ringtoneVolume = stored.ringtoneVolume;
+		profile.notificationVolume = stored.notificationVolume;
+		profile.mediaVolume = stored.mediaVolume;
+		profile.alarmVolume = stored.alarmVolume;
+		profile.ringerMode = stored.ringerMode;
+		return profile;
+	}
+
+	/**
+	 * Profiles are stored with their effective settings, so only id 
+	 * changes.
+	 */
+	@Override
+	public synchronized Set<Long> reloadProfile(long id) {
+		Set<Long> changed = new HashSet<Long>();
+		changed.add(id);
+		return changed;
+	}
+
+	@Override
+	public void reloadProfiles() {
+	}
+
+	@Override
+	public synchronized void loadFingerprints(FingerprintMatcher matcher) {
+		for (Fingerprint f : mFingerprints) {
+			matcher.add(f.area, f.keys, f.weights);
+		}
+	}
+
+	@Override
+	public synchronized void loadVotes(AreaVotes votes, long now) {
+		for (Map.Entry<Long, HashMap<Long, double[]>> cell : mVotes.entrySet()) {
+			for (Map.Entry<Long, double[]> vote : cell.getValue().entrySet()) {
+				votes.put(cell.getKey(), vote.getKey(), vote.getValue()[0], 
+						(long) vote.getValue()[1], now);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void loadNeighbourhood(NeighbourhoodIndex index) {
+		for (Row row : mRows) {
+			if (row.area != mDefaultArea) {
+				index.add(row.type, row.lac, row.cell, row.area);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void loadSchedules(ScheduleIndex index) {
+		for (long[] s : mSchedules) {
+			index.add(s[0], s[1], (int) s[2], (int) s[3], (int) s[4], s[5]);
+		}
+	}
+
+	@Override
+	public synchronized void loadRules(RuleMatcher matcher) {
+		for (long[] r : mRules) {
+			matcher.add(r[0], (int) r[1], r[2], (int) r[3], (int) r[4], (int) r[5], 
+					(int) r[6], (int) r[7], r[8], (int) r[9], (int) r[10]);
+		}
+	}
+
+	@Override
+	public synchronized void runInTransaction(Runnable task) {
+		task.run();
+	}
+	
+}
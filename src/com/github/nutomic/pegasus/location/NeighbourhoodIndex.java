@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.HashMap;
+
+/**
+ * Guesses the area of unknown cells from learned cells nearby.
+ * 
+ * Learned cells are counted per area on two levels: cells with the same 
+ * cell ID prefix in the same location area (usually sectors of the same 
+ * site), and all cells in the same location area. An unknown cell is 
+ * assigned the dominant area of the most specific level that has enough 
+ * cells and a clear majority.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class NeighbourhoodIndex {
+	
+	/** Returned by resolve() if there is no confident guess. */
+	public static final long AREA_NONE = -1;
+	
+	/** Number of low cell ID bits ignored to get the prefix. */
+	public static final int PREFIX_SHIFT = 4;
+	
+	/** Location area code for cells where it is not known. */
+	public static final int LAC_UNKNOWN = -1;
+	
+	/** Minimum number of learned cells with the same prefix. */
+	private static final int PREFIX_MIN_CELLS = 2;
+	
+	/** Minimum share of the dominant area among cells with the same prefix. */
+	private static final double PREFIX_MIN_SHARE = 0.8;
+	
+	/** Minimum number of learned cells in the same location area. */
+	private static final int LAC_MIN_CELLS = 5;
+	
+	/** Minimum share of the dominant area in the same location area. */
+	private static final double LAC_MIN_SHARE = 0.9;
+	
+	/**
+	 * Number of learned cells per area.
+	 */
+	private static class Counts {
+		
+		long[] areas = new long[2];
+		int[] counts = new int[2];
+		int size = 0;
+		int total = 0;
+		
+		void add(long area, int delta) {
+			for (int i = 0; i < size; i++) {
+				if (areas[i] == area) {
+					counts[i] += delta;
+					total += delta;
+					return;
+				}
+			}
+			if (delta < 0)
+				return;
+			
+			if (size == areas.length) {
+				long[] a = new long[size * 2];
+				int[] c = new int[size * 2];
+				System.arraycopy(areas, 0, a, 0, size);
+				System.arraycopy(counts, 0, c, 0, size);
+				areas = a;
+				counts = c;
+			}
+			areas[size] = area;
+			counts[size] = delta;
+			size++;
+			total += delta;
+		}
+		
+		/**
+		 * Returns the dominant area if there are at least minCells cells
+		 * and it has at least minShare of them.
+		 */
+		long dominant(int minCells, double minShare) {
+			if (total < minCells)
+				return AREA_NONE;
+			
+			int best = 0;
+			for (int i = 1; i < size; i++) {
+				if (counts[i] > counts[best]) {
+					best = i;
+				}
+			}
+			return (size > 0 && counts[best] >= minShare * total)
+					? areas[best]
+					: AREA_NONE;
+		}
+	}
+	
+	private final HashMap<Long, Counts> mLacs = new HashMap<Long, Counts>();
+	
+	private final HashMap<Long, Counts> mPrefixes = new HashMap<Long, Counts>();
+	
+	private static long lacKey(int type, int lac) {
+		return ((long) type << 32) | (lac & 0xffffffffL);
+	}
+	
+	private static long prefixKey(int type, int lac, int cell) {
+		return ((long) (type & 0xff) << 56) | ((long) (lac & 0xffffff) << 32) | 
+				((cell & 0xffffffffL) >>> PREFIX_SHIFT);
+	}
+	
+	private static void add(HashMap<Long, Counts> map, long key, long area, int delta) {
+		Counts c = map.get(key);
+		if (c == null) {
+			if (delta < 0)
+				return;
+			
+			c = new Counts();
+			map.put(key, c);
+		}
+		c.add(area, delta);
+	}
+	
+	/**
+	 * Removes all cells.
+	 */
+	public synchronized void clear() {
+		mLacs.clear();
+		mPrefixes.clear();
+	}
+	
+	/**
+	 * Adds a learned cell. Cells with unknown location area are ignored.
+	 */
+	public synchronized void add(int type, int lac, int cell, long area) {
+		if (lac == LAC_UNKNOWN)
+			return;
+		
+		add(mLacs, lacKey(type, lac), area, 1);
+		add(mPrefixes, prefixKey(type, lac, cell), area, 1);
+	}
+	
+	/**
+	 * Removes a cell that was previously added with the same values.
+	 */
+	public synchronized void remove(int type, int lac, int cell, long area) {
+		if (lac == LAC_UNKNOWN)
+			return;
+		
+		add(mLacs, lacKey(type, lac), area, -1);
+		add(mPrefixes, prefixKey(type, lac, cell), area, -1);
+	}
+	
+	/**
+	 * Returns the dominant area around an unknown cell, or AREA_NONE if 
+	 * there is no confident guess.
+	 */
+	public synchronized long resolve(int type, int lac, int cell) {
+		if (lac == LAC_UNKNOWN)
+			return AREA_NONE;
+		
+		Counts c = mPrefixes.get(prefixKey(type, lac, cell));
+		if (c != null) {
+			long area = c.dominant(PREFIX_MIN_CELLS, PREFIX_MIN_SHARE);
+			if (area != AREA_NONE)
+				return area;
+		}
+		c = mLacs.get(lacKey(type, lac));
+		return (c != null)
+				? c.dominant(LAC_MIN_CELLS, LAC_MIN_SHARE)
+				: AREA_NONE;
+	}
+	
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+/**
+ * Static R-tree over rectangles (or points, where min equals max), 
+ * bulk loaded with the Sort-Tile-Recursive algorithm.
+ * 
+ * Entries are sorted into leaves of NODE_SIZE spatially close entries, 
+ * each upper level groups NODE_SIZE consecutive nodes of the level below.
+ * All nodes are kept in flat arrays, so the tree can hold hundreds of 
+ * thousands of entries without an object per entry. Coordinates are 
+ * stored as float, which is precise to about one meter for degrees.
+ * 
+ * The tree can not be changed after building, build a new one instead.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class PackedRTree {
+	
+	/** Maximum number of children per node. */
+	private static final int NODE_SIZE = 16;
+	
+	/**
+	 * Receives the entries found by search().
+	 */
+	public interface Visitor {
+		
+		public void visit(long id, float minX, float minY, float maxX, float maxY);
+		
+	}
+	
+	/**
+	 * Collects entries before building the tree.
+	 */
+	public static class Builder {
+		
+		private long[] mIds = new long[16];
+		private float[] mBoxes = new float[64];
+		private int mSize = 0;
+		
+		public Builder add(long id, double x, double y) {
+			return add(id, x, y, x, y);
+		}
+		
+		public Builder add(long id, double minX, double minY, double maxX, double maxY) {
+			if (mSize == mIds.length) {
+				long[] ids = new long[mSize * 2];
+				System.arraycopy(mIds, 0, ids, 0, mSize);
+				mIds = ids;
+				float[] boxes = new float[mSize * 8];
+				System.arraycopy(mBoxes, 0, boxes, 0, mSize * 4);
+				mBoxes = boxes;
+			}
+			mIds[mSize] = id;
+			mBoxes[mSize * 4] = (float) minX;
+			mBoxes[mSize * 4 + 1] = (float) minY;
+			mBoxes[mSize * 4 + 2] = (float) maxX;
+			mBoxes[mSize * 4 + 3] = (float) maxY;
+			mSize++;
+			return this;
+		}
+		
+		public PackedRTree build() {
+			return new PackedRTree(mIds, mBoxes, mSize);
+		}
+		
+	}
+	
+	/** Entry IDs in leaf order. */
+	private final long[] mIds;
+	
+	/** 
+	 * Bounding boxes per level as minX, minY, maxX, maxY, level 0 are 
+	 * the entries, the last level is the root. 
+	 */
+	private final float[][] mLevels;
+	
+	/** Number of nodes per level. */
+	private final int[] mCounts;
+	
+	private PackedRTree(long[] ids, float[] boxes, int size) {
+		int[] order = sortTileRecursive(boxes, size);
+		mIds = new long[size];
+		float[] entries = new float[size * 4];
+		for (int i = 0; i < size; i++) {
+			mIds[i] = ids[order[i]];
+			System.arraycopy(boxes, order[i] * 4, entries, i * 4, 4);
+		}
+		
+		int depth = 1;
+		for (int n = size; n > 1; n = (n + NODE_SIZE - 1) / NODE_SIZE) {
+			depth++;
+		}
+		mLevels = new float[depth][];
+		mCounts = new int[depth];
+		mLevels[0] = entries;
+		mCounts[0] = size;
+		for (int level = 1; level < depth; level++) {
+			float[] children = mLevels[level - 1];
+			int childCount = mCounts[level - 1];
+			int count = (childCount + NODE_SIZE - 1) / NODE_SIZE;
+			float[] nodes = new float[count * 4];
+			for (int i = 0; i < count; i++) {
+				nodes[i * 4] = Float.POSITIVE_INFINITY;
+				nodes[i * 4 + 1] = Float.POSITIVE_INFINITY;
+				nodes[i * 4 + 2] = Float.NEGATIVE_INFINITY;
+				nodes[i * 4 + 3] = Float.NEGATIVE_INFINITY;
+				int end = Math.min((i + 1) * NODE_SIZE, childCount);
+				for (int c = i * NODE_SIZE; c < end; c++) {
+					nodes[i * 4] = Math.min(nodes[i * 4], children[c * 4]);
+					nodes[i * 4 + 1] = Math.min(nodes[i * 4 + 1], children[c * 4 + 1]);
+					nodes[i * 4 + 2] = Math.max(nodes[i * 4 + 2], children[c * 4 + 2]);
+					nodes[i * 4 + 3] = Math.max(nodes[i * 4 + 3], children[c * 4 + 3]);
+				}
+			}
+			mLevels[level] = nodes;
+			mCounts[level] = count;
+		}
+	}
+	
+	public int size() {
+		return mCounts[0];
+	}
+	
+	/**
+	 * Passes every entry intersecting the given box to visitor.
+	 * 
+	 * @return Number of entries found.
+	 */
+	public int search(double minX, double minY, double maxX, double maxY, 
+			Visitor visitor) {
+		if (mCounts[0] == 0)
+			return 0;
+		
+		return search(mLevels.length - 1, 0, (float) minX, (float) minY, 
+				(float) maxX, (float) maxY, visitor);
+	}
+	
+	private int search(int level, int node, float minX, float minY, float maxX, 
+			float maxY, Visitor visitor) {
+		float[] boxes = mLevels[level];
+		if (boxes[node * 4] > maxX || boxes[node * 4 + 1] > maxY || 
+				boxes[node * 4 + 2] < minX || boxes[node * 4 + 3] < minY)
+			return 0;
+		
+		if (level == 0) {
+			visitor.visit(mIds[node], boxes[node * 4], boxes[node * 4 + 1], 
+					boxes[node * 4 + 2], boxes[node * 4 + 3]);
+			return 1;
+		}
+		int found = 0;
+		int end = Math.min((node + 1) * NODE_SIZE, mCounts[level - 1]);
+		for (int c = node * NODE_SIZE; c < end; c++) {
+			found += search(level - 1, c, minX, minY, maxX, maxY, visitor);
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns the entry indices in leaf order: sorted by x center into 
+	 * vertical slices of about sqrt(leaves) leaves each, and sorted by 
+	 * y center within each slice.
+	 */
+	private static int[] sortTileRecursive(float[] boxes, int size) {
+		int[] order = new int[size];
+		float[] x = new float[size];
+		float[] y = new float[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+			x[i] = boxes[i * 4] + boxes[i * 4 + 2];
+			y[i] = boxes[i * 4 + 1] + boxes[i * 4 + 3];
+		}
+		sort(order, x, 0, size - 1);
+		int leaves = (size + NODE_SIZE - 1) / NODE_SIZE;
+		int slice = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+		for (int start = 0; start < size; start += slice) {
+			sort(order, y, start, Math.min(start + slice, size) - 1);
+		}
+		return order;
+	}
+	
+	/**
+	 * Sorts order[from..to] by the key of each element (quicksort, 
+	 * avoids boxing every index).
+	 */
+	private static void sort(int[] order, float[] key, int from, int to) {
+		while (to - from > 8) {
+			float pivot = key[order[(from + to) >>> 1]];
+			int i = from;
+			int j = to;
+			while (i <= j) {
+				while (key[order[i]] < pivot) {
+					i++;
+				}
+				while (key[order[j]] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int t = order[i];
+					order[i] = order[j];
+					order[j] = t;
+					i++;
+					j--;
+				}
+			}
+			// Recurse into the smaller half to bound stack depth.
+			if (j - from < to - i) {
+				sort(order, key, from, j);
+				from = i;
+			}
+			else {
+				sort(order, key, i, to);
+				to = j;
+			}
+		}
+		for (int i = from + 1; i <= to; i++) {
+			int o = order[i];
+			int j = i - 1;
+			while (j >= from && key[order[j]] > key[o]) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = o;
+		}
+	}
+	
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms for each stage of processing a cell change, and 
+ * event counters.
+ * 
+ * Stages are recorded by LocationEngine and by the code connecting it 
+ * to the platform, durations are in nanoseconds from System.nanoTime().
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class PipelineStats {
+	
+	/** From the platform callback until processing starts. */
+	public static final int STAGE_RECEIVED = 0;
+	
+	/** Reading cell identity and neighbours. */
+	public static final int STAGE_PARSED = 1;
+	
+	/** Finding or inserting the cell. */
+	public static final int STAGE_RESOLVED = 2;
+	
+	/** Storing votes, fingerprints and the log entry. */
+	public static final int STAGE_WRITTEN = 3;
+	
+	/** Deciding if the area changed. */
+	public static final int STAGE_DECIDED = 4;
+	
+	/** Applying radio and audio settings. */
+	public static final int STAGE_APPLIED = 5;
+	
+	/** Posting the notification. */
+	public static final int STAGE_NOTIFIED = 6;
+	
+	private static final String[] STAGE_NAMES = { "received", "parsed", "resolved", 
+			"written", "decided", "applied", "notified" };
+	
+	/** Observed cells. */
+	public static final int COUNTER_EVENTS = 0;
+	
+	/** Cells seen for the first time. */
+	public static final int COUNTER_INSERTS = 1;
+	
+	/** Profiles applied because the area changed. */
+	public static final int COUNTER_APPLIES = 2;
+	
+	/** Profiles applied again after learning or changes to areas/profiles. */
+	public static final int COUNTER_REAPPLIES = 3;
+	
+	/** Observed cells that did not change the area. */
+	public static final int COUNTER_SKIPS = 4;
+	
+	private static final String[] COUNTER_NAMES = { "events", "inserts", "applies", 
+			"reapplies", "skips" };
+	
+	private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_NAMES.length];
+	
+	private final AtomicLongArray mCounters = new AtomicLongArray(COUNTER_NAMES.length);
+	
+	public PipelineStats() {
+		for (int i = 0; i < mStages.length; i++) {
+			mStages[i] = new LatencyHistogram();
+		}
+	}
+	
+	/**
+	 * Adds the duration of a stage.
+	 * 
+	 * @param stage One of the STAGE_* constants.
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public void record(int stage, long nanos) {
+		mStages[stage].record(nanos);
+	}
+	
+	/**
+	 * @param counter One of the COUNTER_* constants.
+	 */
+	public void increment(int counter) {
+		mCounters.incrementAndGet(counter);
+	}
+	
+	public LatencyHistogram getStage(int stage) {
+		return mStages[stage];
+	}
+	
+	public long getCounter(int counter) {
+		return mCounters.get(counter);
+	}
+	
+	public int getStageCount() {
+		return mStages.length;
+	}
+	
+	public String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+	
+	public void reset() {
+		for (LatencyHistogram h : mStages) {
+			h.reset();
+		}
+		for (int i = 0; i < COUNTER_NAMES.length; i++) {
+			mCounters.set(i, 0);
+		}
+	}
+	
+	/**
+	 * Returns counters and count, mean, p50, p99 and max of each stage in 
+	 * microseconds, one line each.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < COUNTER_NAMES.length; i++) {
+			sb.append(COUNTER_NAMES[i]).append('=').append(mCounters.get(i))
+					.append((i < COUNTER_NAMES.length - 1) ? " " : "\n");
+		}
+		for (int i = 0; i < mStages.length; i++) {
+			LatencyHistogram h = mStages[i];
+			sb.append(STAGE_NAMES[i])
+					.append(": n=").append(h.getCount())
+					.append(" mean=").append(h.getMean() / 1000)
+					.append("us p50=").append(h.getPercentile(0.5) / 1000)
+					.append("us p99=").append(h.getPercentile(0.99) / 1000)
+					.append("us max=").append(h.getMax() / 1000).append("us\n");
+		}
+		return sb.toString();
+	}
+	
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ * Profiles that inherit the audio settings they do not set from a parent 
+ * profile.
+ * 
+ * The effective settings of every profile are computed when a profile is 
+ * added or changed, and cached. A change only recomputes the descendants 
+ * of the changed profile, and stops at descendants whose effective 
+ * settings did not change.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ProfileTree {
+	
+	public static final int FIELD_RINGTONE_VOLUME = 0;
+	public static final int FIELD_NOTIFICATION_VOLUME = 1;
+	public static final int FIELD_MEDIA_VOLUME = 2;
+	public static final int FIELD_ALARM_VOLUME = 3;
+	public static final int FIELD_RINGER_MODE = 4;
+	public static final int FIELD_COUNT = 5;
+	
+	/** Parent ID of profiles without parent. */
+	public static final long PARENT_NONE = -1;
+	
+	/** 
+	 * Effective value of fields that no profile in the chain sets, means 
+	 * that the setting is not changed. 
+	 */
+	public static final int VALUE_UNCHANGED = -1;
+	
+	/**
+	 * Effective settings of a profile.
+	 */
+	public static class Profile {
+		
+		public final long id;
+		public final String name;
+		
+		/** Effective value of each field, by FIELD_* index. */
+		private final int[] mValues;
+		
+		Profile(long id, String name, int[] values) {
+			this.id = id;
+			this.name = name;
+			mValues = values;
+		}
+		
+		public int get(int field) {
+			return mValues[field];
+		}
+		
+		boolean sameValues(Profile other) {
+			return other != null && Arrays.equals(mValues, other.mValues);
+		}
+		
+	}
+	
+	/**
+	 * A profile as stored.
+	 */
+	private static class Node {
+		
+		long parent;
+		String name;
+		
+		/** Bit i is set if field i is set by this profile. */
+		int mask;
+		
+		int[] values;
+		
+	}
+	
+	private final HashMap<Long, Node> mNodes = new HashMap<Long, Node>();
+	
+	/** Child IDs by parent ID, also for parents that do not exist. */
+	private final HashMap<Long, ArrayList<Long>> mChildren = 
+			new HashMap<Long, ArrayList<Long>>();
+	
+	private final HashMap<Long, Profile> mEffective = new HashMap<Long, Profile>();
+	
+	/**
+	 * Adds or replaces a profile.
+	 * 
+	 * @param mask Bit i is set if the profile sets field i, otherwise it 
+	 *             is inherited.
+	 * @param values Value of each field, ignored for inherited fields.
+	 * @return IDs of all profiles whose effective settings or name changed.
+	 */
+	public Set<Long> put(long id, long parent, String name, int mask, int[] values) {
+		Node old = mNodes.get(id);
+		if (old != null) {
+			removeChild(old.parent, id);
+		}
+		Node node = new Node();
+		node.parent = parent;
+		node.name = name;
+		node.mask = mask;
+		node.values = values.clone();
+		mNodes.put(id, node);
+		ArrayList<Long> children = mChildren.get(parent);
+		if (children == null) {
+			children = new ArrayList<Long>();
+			mChildren.put(parent, children);
+		}
+		children.add(id);
+		return recompute(id);
+	}
+	
+	/**
+	 * Removes a profile, its children keep only the fields they set.
+	 * 
+	 * @return IDs of all profiles whose effective settings changed, 
+	 *         including id.
+	 */
+	public Set<Long> remove(long id) {
+		Node node = mNodes.remove(id);
+		if (node == null)
+			return new HashSet<Long>();
+		
+		removeChild(node.parent, id);
+		return recompute(id);
+	}
+	
+	/**
+	 * Returns the effective settings of a profile, or null if it does not 
+	 * exist.
+	 */
+	public Profile get(long id) {
+		return mEffective.get(id);
+	}
+	
+	/**
+	 * Returns the parent ID of a profile, or PARENT_NONE if it does not 
+	 * exist.
+	 */
+	public long getParent(long id) {
+		Node node = mNodes.get(id);
+		return (node != null) 
+				? node.parent 
+				: PARENT_NONE;
+	}
+	
+	/**
+	 * Returns true if ancestor is id or one of its (transitive) parents.
+	 */
+	public boolean inheritsFrom(long id, long ancestor) {
+		Set<Long> visited = new HashSet<Long>();
+		while (id != PARENT_NONE && visited.add(id)) {
+			if (id == ancestor)
+				return true;
+			
+			id = getParent(id);
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the IDs of all profiles in ascending order.
+	 */
+	public long[] getIds() {
+		long[] ids = new long[mNodes.size()];
+		int i = 0;
+		for (long id : mNodes.keySet()) {
+			ids[i++] = id;
+		}
+		Arrays.sort(ids);
+		return ids;
+	}
+	
+	public int size() {
+		return mNodes.size();
+	}
+	
+	public void clear() {
+		mNodes.clear();
+		mChildren.clear();
+		mEffective.clear();
+	}
+	
+	private void removeChild(long parent, long id) {
+		ArrayList<Long> children = mChildren.get(parent);
+		if (children != null) {
+			children.remove(id);
+			if (children.size() == 0) {
+				mChildren.remove(parent);
+			}
+		}
+	}
+	
+	/**
+	 * Recomputes the effective settings of id, and of its descendants as 
+	 * long as they change.
+	 */
+	private Set<Long> recompute(long id) {
+		Set<Long> changed = new HashSet<Long>();
+		Set<Long> visited = new HashSet<Long>();
+		LinkedList<Long> queue = new LinkedList<Long>();
+		queue.add(id);
+		while (queue.size() > 0) {
+			long current = queue.removeFirst();
+			// Guards against parent cycles.
+			if (!visited.add(current))
+				continue;
+			
+			Profile before = mEffective.get(current);
+			Profile after = flatten(current);
+			if (after != null) {
+				mEffective.put(current, after);
+			}
+			else {
+				mEffective.remove(current);
+			}
+			boolean valuesChanged = (after == null) 
+					? before != null 
+					: !after.sameValues(before);
+			if (valuesChanged || (after != null && !after.name.equals(before.name))) {
+				changed.add(current);
+			}
+			if (valuesChanged) {
+				ArrayList<Long> children = mChildren.get(current);
+				if (children != null) {
+					queue.addAll(children);
+				}
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Computes the effective settings of id from its own fields and the 
+	 * cached effective settings of its parent.
+	 */
+	private Profile flatten(long id) {
+		Node node = mNodes.get(id);
+		if (node == null)
+			return null;
+		
+		Profile parent = mEffective.get(node.parent);
+		int[] values = new int[FIELD_COUNT];
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			if ((node.mask & (1 << i)) != 0) {
+				values[i] = node.values[i];
+			}
+			else {
+				values[i] = (parent != null) ? parent.get(i) : VALUE_UNCHANGED;
+			}
+		}
+		return new Profile(id, node.name, values);
+	}
+	
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.PrintWriter;
+
+/**
+ * Switches a radio to the most recently requested state, without toggling 
+ * it while a previous toggle is still in progress.
+ * 
+ * The radio state is reported by onState() (from the platform state 
+ * broadcasts). A request while the radio is turning on or off only 
+ * replaces the desired state, which is applied once the transition 
+ * finished. After a toggle, no further toggle is issued until a state 
+ * change arrives, or SETTLE_TIMEOUT passed without one. If the radio 
+ * settles in the other state right after a toggle, the toggle failed 
+ * (e.g. in airplane mode) and is not retried until the next request.
+ * 
+ * While a request waits for a toggle or transition, a check is scheduled 
+ * for the time it would time out, so the request is applied even if no 
+ * further state change or request arrives.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class RadioController {
+	
+	public static final int STATE_UNKNOWN = 0;
+	public static final int STATE_OFF = 1;
+	public static final int STATE_TURNING_ON = 2;
+	public static final int STATE_ON = 3;
+	public static final int STATE_TURNING_OFF = 4;
+	
+	private static final String[] STATE_NAMES = 
+			{ "unknown", "off", "turning on", "on", "turning off" };
+	
+	/** 
+	 * Time in milliseconds after which a toggle or transition without a 
+	 * state change is considered lost.
+	 */
+	private static final long SETTLE_TIMEOUT = 30000;
+	
+	/**
+	 * Turns the radio on or off.
+	 */
+	public interface Switch {
+		
+		public void setEnabled(boolean enabled);
+		
+	}
+	
+	/**
+	 * Runs a task after a delay, on any thread.
+	 */
+	public interface Scheduler {
+		
+		public void schedule(Runnable task, long delay);
+		
+	}
+	
+	private final String mName;
+	
+	private final Switch mSwitch;
+	
+	private final Scheduler mScheduler;
+	
+	private final Clock mClock;
+	
+	/** Calls check() when scheduled. */
+	private final Runnable mCheck = new Runnable() {
+		
+		@Override
+		public void run() {
+			check();
+		}
+	};
+	
+	/** True while mCheck is scheduled. */
+	private boolean mCheckPending = false;
+	
+	private int mState = STATE_UNKNOWN;
+	
+	/** Time of the last state change. */
+	private long mStateSince;
+	
+	private boolean mHasDesired = false;
+	
+	private boolean mDesired;
+	
+	/** True after a toggle until the next state change. */
+	private boolean mInFlight = false;
+	
+	private long mInFlightSince;
+	
+	private long mRequests = 0;
+	private long mCollapsed = 0;
+	private long mToggles = 0;
+	private long mFailures = 0;
+	
+	/**
+	 * @param name Name of the radio for dump().
+	 */
+	public RadioController(String name, Switch s, Scheduler scheduler, Clock clock) {
+		mName = name;
+		mSwitch = s;
+		mScheduler = scheduler;
+		mClock = clock;
+		mStateSince = clock.elapsedRealtime();
+	}
+	
+	/**
+	 * Switches the radio to enabled as soon as no transition is in progress.
+	 */
+	public synchronized void request(boolean enabled) {
+		mRequests++;
+		if (mHasDesired && mDesired != enabled && isBusy()) {
+			mCollapsed++;
+		}
+		mDesired = enabled;
+		mHasDesired = true;
+		update();
+	}
+	
+	/**
+	 * Sets the current state of the radio, one of the STATE_* constants.
+	 */
+	public synchronized void onState(int state) {
+		boolean failed = mInFlight && mHasDesired && 
+				((state == STATE_OFF && mDesired) || (state == STATE_ON && !mDesired));
+		mState = state;
+		mStateSince = mClock.elapsedRealtime();
+		mInFlight = false;
+		if (failed) {
+			mFailures++;
+			mHasDesired = false;
+			return;
+		}
+		update();
+	}
+	
+	/**
+	 * Applies a deferred request if the toggle or transition it waits for 
+	 * has timed out.
+	 */
+	public synchronized void check() {
+		mCheckPending = false;
+		update();
+	}
+	
+	/**
+	 * Toggles the radio if it is settled in the wrong state.
+	 */
+	private void update() {
+		if (!mHasDesired)
+			return;
+		
+		if (isBusy()) {
+			scheduleCheck();
+			return;
+		}
+		
+		if ((mState == STATE_ON && mDesired) || (mState == STATE_OFF && !mDesired)) {
+			mHasDesired = false;
+			return;
+		}
+		mInFlight = true;
+		mInFlightSince = mClock.elapsedRealtime();
+		mToggles++;
+		mSwitch.setEnabled(mDesired);
+		scheduleCheck();
+	}
+	
+	/**
+	 * Schedules check() for the time the current toggle or transition 
+	 * times out. Timeouts only move forward, so a check that is already 
+	 * scheduled is never late, and reschedules itself if it is early.
+	 */
+	private void scheduleCheck() {
+		if (mCheckPending)
+			return;
+		
+		long timeout = mInFlightSince + SETTLE_TIMEOUT;
+		if (mState == STATE_TURNING_ON || mState == STATE_TURNING_OFF) {
+			timeout = Math.max(timeout, mStateSince + SETTLE_TIMEOUT);
+		}
+		mCheckPending = true;
+		mScheduler.schedule(mCheck, 
+				Math.max(0, timeout - mClock.elapsedRealtime()));
+	}
+	
+	/**
+	 * Returns true if a toggle or transition is in progress and has not 
+	 * timed out.
+	 */
+	private boolean isBusy() {
+		long now = mClock.elapsedRealtime();
+		if (mInFlight && now - mInFlightSince < SETTLE_TIMEOUT)
+			return true;
+		
+		return (mState == STATE_TURNING_ON || mState == STATE_TURNING_OFF) && 
+				now - mStateSince < SETTLE_TIMEOUT;
+	}
+	
+	public synchronized int getState() {
+		return mState;
+	}
+	
+	public synchronized void dump(PrintWriter pw) {
+		pw.println(mName + ": state=" + STATE_NAMES[mState] + 
+				", pending=" + (mHasDesired ? (mDesired ? "on" : "off") : "none") + 
+				(mInFlight ? " (toggled)" : "") + 
+				", requests=" + mRequests + ", collapsed=" + mCollapsed + 
+				", toggles=" + mToggles + ", failures=" + mFailures);
+	}
+	
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.Random;
+
+/**
+ * CellSource that generates a random walk over a line of synthetic 
+ * cells, for load testing LocationEngine.
+ * 
+ * Cells are numbered from 0 to cellCount - 1, neighbours of a cell are 
+ * the cells next to it on the line. Each location area contains 
+ * CELLS_PER_LAC consecutive cells.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class RandomWalkCellSource implements CellSource {
+	
+	/** Network type reported for all cells (TelephonyManager.PHONE_TYPE_GSM). */
+	public static final int TYPE = 1;
+	
+	/** Number of consecutive cells in each location area. */
+	public static final int CELLS_PER_LAC = 64;
+	
+	/** Number of neighbours reported on each side of the serving cell. */
+	private static final int NEIGHBOURS = 3;
+	
+	private final int mCellCount;
+	
+	private final long mEventCount;
+	
+	private final int mRate;
+	
+	private final Random mRandom;
+	
+	private volatile boolean mRunning;
+	
+	/** Time each event was scheduled for, in System.nanoTime(). */
+	private volatile long mScheduledTime;
+	
+	private Thread mThread;
+	
+	/**
+	 * @param cellCount Number of cells to walk over.
+	 * @param eventCount Number of events to generate before stopping.
+	 * @param rate Events per second, 0 to generate them as fast as possible.
+	 * @param seed Seed for the random walk.
+	 */
+	public RandomWalkCellSource(int cellCount, long eventCount, int rate, long seed) {
+		mCellCount = cellCount;
+		mEventCount = eventCount;
+		mRate = rate;
+		mRandom = new Random(seed);
+	}
+	
+	/**
+	 * Returns an observation of cell with its neighbours.
+	 */
+	public CellObservation observe(int cell) {
+		int first = Math.max(0, cell - NEIGHBOURS);
+		int last = Math.min(mCellCount - 1, cell + NEIGHBOURS);
+		int[] cells = new int[last - first + 1];
+		int[] signals = new int[cells.length];
+		cells[0] = cell;
+		signals[0] = 31;
+		int i = 1;
+		for (int n = first; n <= last; n++) {
+			if (n == cell)
+				continue;
+			
+			cells[i] = n;
+			signals[i] = Math.max(0, 31 - 8 * Math.abs(n - cell) - mRandom.nextInt(4));
+			i++;
+		}
+		return new CellObservation(TYPE, cell / CELLS_PER_LAC, cells, signals);
+	}
+
+	/**
+	 * Generates events on a new thread until eventCount events were 
+	 * generated or stop() is called.
+	 */
+	@Override
+	public void start(final Listener listener) {
+		mRunning = true;
+		mThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				int cell = mRandom.nextInt(mCellCount);
+				long interval = (mRate > 0) 
+						? 1000000000L / mRate 
+						: 0;
+				long next = System.nanoTime();
+				for (long i = 0; i < mEventCount && mRunning; i++) {
+					// Mostly move to a neighbouring cell, sometimes jump.
+					int r = mRandom.nextInt(100);
+					if (r < 45) {
+						cell = Math.max(0, cell - 1);
+					}
+					else if (r < 90) {
+						cell = Math.min(mCellCount - 1, cell + 1);
+					}
+					else if (r < 91) {
+						cell = mRandom.nextInt(mCellCount);
+					}
+					CellObservation o = observe(cell);
+					
+					if (interval > 0) {
+						long wait = next - System.nanoTime();
+						if (wait > 0) {
+							try {
+								Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+							}
+							catch (InterruptedException e) {
+								return;
+							}
+						}
+						mScheduledTime = next;
+						next += interval;
+					}
+					else {
+						mScheduledTime = System.nanoTime();
+					}
+					listener.onCellObserved(o);
+				}
+				mRunning = false;
+			}
+		});
+		mThread.start();
+	}
+	
+	/**
+	 * Returns the time (in System.nanoTime()) the current event was 
+	 * scheduled for. Measuring from this instead of the actual send 
+	 * time includes any backlog in the latency.
+	 */
+	public long getScheduledTime() {
+		return mScheduledTime;
+	}
+	
+	/**
+	 * Waits until all events were generated.
+	 */
+	public void join() throws InterruptedException {
+		mThread.join();
+	}
+
+	@Override
+	public void stop() {
+		mRunning = false;
+	}
+	
+}
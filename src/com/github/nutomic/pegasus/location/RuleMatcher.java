@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Decides which rules apply in a context of area, time, charging and 
+ * headset state.
+ * 
+ * A rule has optional conditions on each of these, and optional actions 
+ * setting the profile, wifi and bluetooth. For each action, the matching 
+ * rule with the highest priority (then the highest ID) that has the 
+ * action wins.
+ * 
+ * Rules are compiled into one bitset per condition value: per area, per 
+ * charging and headset state, and per segment of the week (split at every
+ * time window boundary, like ScheduleIndex). Evaluation ANDs the bitsets 
+ * of the context, and only looks at the matching rules, in priority 
+ * order. Compiling happens on the first evaluation after rules were added.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class RuleMatcher {
+	
+	/** Condition value that matches any area, charging or headset state. */
+	public static final int ANY = -1;
+	
+	/** Radio action that leaves the radio unchanged. */
+	public static final int RADIO_UNCHANGED = -1;
+	public static final int RADIO_OFF = 0;
+	public static final int RADIO_ON = 1;
+	
+	/**
+	 * Actions of the matching rules.
+	 */
+	public static class Result {
+		
+		/** ID of the profile to apply, or ScheduleIndex.PROFILE_NONE. */
+		public long profile = ScheduleIndex.PROFILE_NONE;
+		
+		public int wifi = RADIO_UNCHANGED;
+		
+		public int bluetooth = RADIO_UNCHANGED;
+		
+		/** 
+		 * Time at which rules with a time condition may change the result, 
+		 * or ScheduleIndex.CHANGE_NONE.
+		 */
+		public long nextChange = ScheduleIndex.CHANGE_NONE;
+		
+		/**
+		 * Returns true if other has the same actions.
+		 */
+		public boolean sameActions(Result other) {
+			return other != null && profile == other.profile && 
+					wifi == other.wifi && bluetooth == other.bluetooth;
+		}
+		
+	}
+	
+	private static class Rule {
+		
+		long id;
+		int priority;
+		long area;
+		int days;
+		int start;
+		int end;
+		int charging;
+		int headset;
+		long profile;
+		int wifi;
+		int bluetooth;
+		
+	}
+	
+	private final ArrayList<Rule> mRules = new ArrayList<Rule>();
+	
+	private boolean mDirty = false;
+	
+	/** Rules in priority order, bit i of each bitset is mSorted[i]. */
+	private Rule[] mSorted = new Rule[0];
+	
+	/** Rules matching areas without an area condition. */
+	private long[] mAnyArea = new long[0];
+	
+	/** Rules matching each area with an area condition. */
+	private final HashMap<Long, long[]> mAreas = new HashMap<Long, long[]>();
+	
+	/** Rules matching not charging (0) and charging (1). */
+	private long[][] mCharging = new long[2][0];
+	
+	/** Rules matching no headset (0) and headset (1). */
+	private long[][] mHeadset = new long[2][0];
+	
+	/** Start of each week segment in minutes since monday 00:00. */
+	private int[] mSegmentStarts = new int[] { 0 };
+	
+	/** Rules matching during each week segment. */
+	private long[][] mSegments = new long[][] { new long[0] };
+	
+	/** Scratch bitset for evaluate(). */
+	private long[] mMatch = new long[0];
+	
+	/**
+	 * Adds a rule.
+	 * 
+	 * @param priority Rules with higher priority win.
+	 * @param area Area condition, or ANY.
+	 * @param days Weekday mask (see ScheduleIndex.MONDAY), 
+	 *             ScheduleIndex.EVERY_DAY and start == end for any time.
+	 * @param start Start of the time window in minutes after midnight.
+	 * @param end End of the time window in minutes after midnight.
+	 * @param charging 1 for charging, 0 for not charging, or ANY.
+	 * @param headset 1 for headset plugged in, 0 for not, or ANY.
+	 * @param profile Profile to apply, or ScheduleIndex.PROFILE_NONE.
+	 * @param wifi RADIO_ON, RADIO_OFF or RADIO_UNCHANGED.
+	 * @param bluetooth RADIO_ON, RADIO_OFF or RADIO_UNCHANGED.
+	 */
+	public void add(long id, int priority, long area, int days, int start, int end, 
+			int charging, int headset, long profile, int wifi, int bluetooth) {
+		Rule r = new Rule();
+		r.id = id;
+		r.priority = priority;
+		r.area = area;
+		r.days = days;
+		r.start = start;
+		r.end = end;
+		r.charging = charging;
+		r.headset = headset;
+		r.profile = profile;
+		r.wifi = wifi;
+		r.bluetooth = bluetooth;
+		mRules.add(r);
+		mDirty = true;
+	}
+	
+	public void clear() {
+		mRules.clear();
+		mDirty = true;
+	}
+	
+	/**
+	 * Returns the number of rules.
+	 */
+	public int size() {
+		return mRules.size();
+	}
+	
+	/**
+	 * Returns the actions of the rules matching the context.
+	 */
+	public Result evaluate(long area, long time, boolean charging, boolean headset) {
+		if (mDirty) {
+			compile();
+		}
+		Result result = new Result();
+		if (mSorted.length == 0)
+			return result;
+		
+		int minute = ScheduleIndex.weekMinute(time);
+		int segment = findSegment(minute);
+		long[] areas = mAreas.get(area);
+		if (areas == null) {
+			areas = mAnyArea;
+		}
+		long[] c = mCharging[charging ? 1 : 0];
+		long[] h = mHeadset[headset ? 1 : 0];
+		long[] t = mSegments[segment];
+		for (int w = 0; w < mMatch.length; w++) {
+			mMatch[w] = areas[w] & c[w] & h[w] & t[w];
+		}
+		
+		boolean profileSet = false;
+		boolean done = false;
+		for (int w = 0; w < mMatch.length && !done; w++) {
+			long bits = mMatch[w];
+			while (bits != 0 && !done) {
+				Rule r = mSorted[w * 64 + Long.numberOfTrailingZeros(bits)];
+				bits &= bits - 1;
+				if (!profileSet && r.profile != ScheduleIndex.PROFILE_NONE) {
+					result.profile = r.profile;
+					profileSet = true;
+				}
+				if (result.wifi == RADIO_UNCHANGED) {
+					result.wifi = r.wifi;
+				}
+				if (result.bluetooth == RADIO_UNCHANGED) {
+					result.bluetooth = r.bluetooth;
+				}
+				done = profileSet && result.wifi != RADIO_UNCHANGED && 
+						result.bluetooth != RADIO_UNCHANGED;
+			}
+		}
+		
+		if (mSegmentStarts.length > 1) {
+			int next = (segment + 1 < mSegmentStarts.length) 
+					? mSegmentStarts[segment + 1] 
+					: ScheduleIndex.MINUTES_PER_WEEK;
+			result.nextChange = ScheduleIndex.getTime(time, next);
+		}
+		return result;
+	}
+	
+	private int findSegment(int minute) {
+		int i = Arrays.binarySearch(mSegmentStarts, minute);
+		return (i >= 0) ? i : -i - 2;
+	}
+	
+	/**
+	 * Sorts rules by priority and builds the bitsets.
+	 */
+	private void compile() {
+		mSorted = mRules.toArray(new Rule[mRules.size()]);
+		Arrays.sort(mSorted, new Comparator<Rule>() {
+			
+			@Override
+			public int compare(Rule a, Rule b) {
+				if (a.priority != b.priority)
+					return (a.priority > b.priority) ? -1 : 1;
+				
+				return (a.id > b.id) ? -1 : (a.id == b.id) ? 0 : 1;
+			}
+		});
+		int words = (mSorted.length + 63) / 64;
+		mMatch = new long[words];
+		mAnyArea = new long[words];
+		mAreas.clear();
+		mCharging = new long[2][words];
+		mHeadset = new long[2][words];
+		for (int i = 0; i < mSorted.length; i++) {
+			Rule r = mSorted[i];
+			if (r.area == ANY) {
+				set(mAnyArea, i);
+			}
+			else if (!mAreas.containsKey(r.area)) {
+				mAreas.put(r.area, new long[words]);
+			}
+			for (int state = 0; state < 2; state++) {
+				if (r.charging == ANY || r.charging == state) {
+					set(mCharging[state], i);
+				}
+				if (r.headset == ANY || r.headset == state) {
+					set(mHeadset[state], i);
+				}
+			}
+		}
+		for (int i = 0; i < mSorted.length; i++) {
+			Rule r = mSorted[i];
+			for (Long area : mAreas.keySet()) {
+				if (r.area == ANY || r.area == area) {
+					set(mAreas.get(area), i);
+				}
+			}
+		}
+		compileTime(words);
+		mDirty = false;
+	}
+	
+	/**
+	 * Splits the week at every time window boundary, and sets the rules 
+	 * active in each segment. Adjacent segments with the same rules are 
+	 * merged.
+	 */
+	private void compileTime(int words) {
+		// Week intervals of each rule, as start and end minute.
+		ArrayList<int[]> intervals = new ArrayList<int[]>();
+		ArrayList<Integer> bounds = new ArrayList<Integer>();
+		bounds.add(0);
+		for (int i = 0; i < mSorted.length; i++) {
+			Rule r = mSorted[i];
+			for (int day = 0; day < 7; day++) {
+				if ((r.days & (ScheduleIndex.MONDAY << day)) == 0)
+					continue;
+				
+				int s = day * ScheduleIndex.MINUTES_PER_DAY + r.start;
+				int e = (r.end > r.start) 
+						? day * ScheduleIndex.MINUTES_PER_DAY + r.end 
+						: (day + 1) * ScheduleIndex.MINUTES_PER_DAY + r.end;
+				intervals.add(new int[] { i, s, Math.min(e, ScheduleIndex.MINUTES_PER_WEEK) });
+				bounds.add(s);
+				bounds.add(Math.min(e, ScheduleIndex.MINUTES_PER_WEEK));
+				if (e > ScheduleIndex.MINUTES_PER_WEEK) {
+					intervals.add(new int[] { i, 0, e - ScheduleIndex.MINUTES_PER_WEEK });
+					bounds.add(e - ScheduleIndex.MINUTES_PER_WEEK);
+				}
+			}
+		}
+		Collections.sort(bounds);
+		
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		ArrayList<long[]> segments = new ArrayList<long[]>();
+		int previous = -1;
+		for (int start : bounds) {
+			if (start == previous || start >= ScheduleIndex.MINUTES_PER_WEEK)
+				continue;
+			
+			previous = start;
+			long[] bits = new long[words];
+			for (int[] interval : intervals) {
+				if (interval[1] <= start && start < interval[2]) {
+					set(bits, interval[0]);
+				}
+			}
+			if (segments.size() > 0 && 
+					Arrays.equals(segments.get(segments.size() - 1), bits))
+				continue;
+			
+			starts.add(start);
+			segments.add(bits);
+		}
+		
+		mSegmentStarts = new int[starts.size()];
+		for (int i = 0; i < mSegmentStarts.length; i++) {
+			mSegmentStarts[i] = starts.get(i);
+		}
+		mSegments = segments.toArray(new long[segments.size()][]);
+	}
+	
+	private static void set(long[] bits, int i) {
+		bits[i / 64] |= 1L << (i % 64);
+	}
+	
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * Finds the profile that a schedule sets for an area at a given time.
+ * 
+ * A schedule sets a profile for an area on some weekdays within a daily
+ * time window. Windows ending before they start continue on the next day. 
+ * If schedules overlap, the one with the highest ID is used.
+ * 
+ * The week is split into segments per area, at every schedule start and 
+ * end. Each segment stores the profile that applies during it, so a 
+ * lookup is a binary search over the segments of the area. Segments are 
+ * rebuilt on the first lookup after schedules were added.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ScheduleIndex {
+	
+	/** Returned by getProfile() if no schedule applies. */
+	public static final long PROFILE_NONE = -1;
+	
+	/** Returned by getNextChange() if the profile never changes. */
+	public static final long CHANGE_NONE = 0;
+	
+	public static final int MINUTES_PER_DAY = 24 * 60;
+	
+	public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+	
+	/** Bit for monday in the weekday mask, the next bits are the next days. */
+	public static final int MONDAY = 1;
+	
+	/** Weekday mask for all days. */
+	public static final int EVERY_DAY = 0x7f;
+	
+	/**
+	 * A time interval within the week in which a profile applies.
+	 */
+	private static class Interval {
+		
+		final long id;
+		final int start;
+		final int end;
+		final long profile;
+		
+		Interval(long id, int start, int end, long profile) {
+			this.id = id;
+			this.start = start;
+			this.end = end;
+			this.profile = profile;
+		}
+		
+	}
+	
+	/**
+	 * Segments of the week for one area.
+	 */
+	private static class Segments {
+		
+		/** Start of each segment in minutes since monday 00:00, the first is 0. */
+		int[] starts;
+		
+		/** Profile during each segment. */
+		long[] profiles;
+		
+	}
+	
+	/** Intervals of all schedules, by area. */
+	private final HashMap<Long, ArrayList<Interval>> mIntervals = 
+			new HashMap<Long, ArrayList<Interval>>();
+	
+	/** Segments by area, built from mIntervals when needed. */
+	private final HashMap<Long, Segments> mSegments = new HashMap<Long, Segments>();
+	
+	private boolean mDirty = false;
+	
+	private int mSize = 0;
+	
+	/**
+	 * Adds a schedule.
+	 * 
+	 * @param id Unique ID, the highest ID wins if schedules overlap.
+	 * @param days Weekday mask, see MONDAY.
+	 * @param start Start of the window in minutes after midnight.
+	 * @param end End of the window in minutes after midnight (exclusive).
+	 */
+	public void add(long id, long area, int days, int start, int end, long profile) {
+		ArrayList<Interval> intervals = mIntervals.get(area);
+		if (intervals == null) {
+			intervals = new ArrayList<Interval>();
+			mIntervals.put(area, intervals);
+		}
+		for (int day = 0; day < 7; day++) {
+			if ((days & (MONDAY << day)) == 0)
+				continue;
+			
+			int s = day * MINUTES_PER_DAY + start;
+			if (end > start) {
+				intervals.add(new Interval(id, s, day * MINUTES_PER_DAY + end, profile));
+			}
+			else {
+				// Continues on the next day, wrapping around at the end of the week.
+				int e = (day + 1) * MINUTES_PER_DAY + end;
+				intervals.add(new Interval(id, s, Math.min(e, MINUTES_PER_WEEK), profile));
+				if (e > MINUTES_PER_WEEK) {
+					intervals.add(new Interval(id, 0, e - MINUTES_PER_WEEK, profile));
+				}
+			}
+		}
+		mSize++;
+		mDirty = true;
+	}
+	
+	public void clear() {
+		mIntervals.clear();
+		mSegments.clear();
+		mSize = 0;
+		mDirty = false;
+	}
+	
+	/**
+	 * Returns the number of schedules.
+	 */
+	public int size() {
+		return mSize;
+	}
+	
+	/**
+	 * Returns the profile set by schedules for area at time, or 
+	 * PROFILE_NONE.
+	 */
+	public long getProfile(long area, long time) {
+		Segments segments = getSegments(area);
+		if (segments == null)
+			return PROFILE_NONE;
+		
+		return segments.profiles[find(segments, weekMinute(time))];
+	}
+	
+	/**
+	 * Returns the time at which the profile returned by getProfile() 
+	 * next changes, or CHANGE_NONE.
+	 */
+	public long getNextChange(long area, long time) {
+		Segments segments = getSegments(area);
+		if (segments == null || segments.starts.length == 1)
+			return CHANGE_NONE;
+		
+		int minute = weekMinute(time);
+		int next = find(segments, minute) + 1;
+		int last = segments.starts.length - 1;
+		int start;
+		if (next <= last) {
+			start = segments.starts[next];
+		}
+		else if (segments.profiles[last] == segments.profiles[0]) {
+			// The first segment of the next week continues the last one.
+			start = MINUTES_PER_WEEK + segments.starts[1];
+		}
+		else {
+			start = MINUTES_PER_WEEK;
+		}
+		return getTime(time, start);
+	}
+	
+	/**
+	 * Returns the time at a minute of the week that time is in.
+	 * 
+	 * @param weekMinute Minutes since monday 00:00, values of 
+	 *                   MINUTES_PER_WEEK and more are in the next week.
+	 */
+	public static long getTime(long time, int weekMinute) {
+		// Days are not always 24 hours long (daylight saving time), so 
+		// the calendar finds the wall clock time.
+		Calendar c = Calendar.getInstance(TimeZone.getDefault());
+		c.setTimeInMillis(time);
+		c.add(Calendar.DAY_OF_MONTH, 
+				weekMinute / MINUTES_PER_DAY - weekMinute(time) / MINUTES_PER_DAY);
+		c.set(Calendar.HOUR_OF_DAY, (weekMinute % MINUTES_PER_DAY) / 60);
+		c.set(Calendar.MINUTE, weekMinute % 60);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTimeInMillis();
+	}
+	
+	/**
+	 * Returns the index of the segment containing minute.
+	 */
+	private int find(Segments segments, int minute) {
+		int i = Arrays.binarySearch(segments.starts, minute);
+		return (i >= 0) ? i : -i - 2;
+	}
+	
+	private Segments getSegments(long area) {
+		if (mDirty) {
+			mSegments.clear();
+			for (Long a : mIntervals.keySet()) {
+				mSegments.put(a, build(mIntervals.get(a)));
+			}
+			mDirty = false;
+		}
+		return mSegments.get(area);
+	}
+	
+	/**
+	 * Splits the week at every interval boundary and finds the profile for 
+	 * each segment. Adjacent segments with the same profile are merged.
+	 */
+	private static Segments build(ArrayList<Interval> intervals) {
+		int[] bounds = new int[intervals.size() * 2 + 1];
+		int n = 0;
+		bounds[n++] = 0;
+		for (Interval i : intervals) {
+			bounds[n++] = i.start;
+			bounds[n++] = i.end;
+		}
+		Arrays.sort(bounds, 0, n);
+		
+		int[] starts = new int[n];
+		long[] profiles = new long[n];
+		int size = 0;
+		for (int b = 0; b < n; b++) {
+			int start = bounds[b];
+			if (start >= MINUTES_PER_WEEK || (b > 0 && start == bounds[b - 1]))
+				continue;
+			
+			long profile = PROFILE_NONE;
+			long id = Long.MIN_VALUE;
+			for (Interval i : intervals) {
+				if (i.start <= start && start < i.end && i.id >= id) {
+					id = i.id;
+					profile = i.profile;
+				}
+			}
+			if (size > 0 && profiles[size - 1] == profile)
+				continue;
+			
+			starts[size] = start;
+			profiles[size] = profile;
+			size++;
+		}
+		
+		Segments segments = new Segments();
+		segments.starts = new int[size];
+		segments.profiles = new long[size];
+		System.arraycopy(starts, 0, segments.starts, 0, size);
+		System.arraycopy(profiles, 0, segments.profiles, 0, size);
+		return segments;
+	}
+	
+	/**
+	 * Returns the minutes since monday 00:00 in the default time zone.
+	 */
+	public static int weekMinute(long time) {
+		Calendar c = Calendar.getInstance(TimeZone.getDefault());
+		c.setTimeInMillis(time);
+		int day = (c.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+		return day * MINUTES_PER_DAY + c.get(Calendar.HOUR_OF_DAY) * 60 + 
+				c.get(Calendar.MINUTE);
+	}
+	
+}
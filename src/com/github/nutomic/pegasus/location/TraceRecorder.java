@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the input of LocationEngine into a compact binary trace, which 
+ * can be fed back with TraceReplayer.
+ * 
+ * A trace starts with MAGIC and VERSION, followed by records. Each 
+ * record is a kind byte, the elapsed and wall clock time as deltas to 
+ * the previous record, and the arguments of the event. Numbers are 
+ * written as variable length integers, signed ones zigzag encoded.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class TraceRecorder {
+	
+	public static final int MAGIC = 0x50475452;
+	
+	public static final int VERSION = 1;
+	
+	/** LocationEngine.onCell() */
+	public static final int KIND_CELL = 1;
+	
+	/** LocationEngine.learn() */
+	public static final int KIND_LEARN = 2;
+	
+	/** LocationEngine.learnLogged() */
+	public static final int KIND_LEARN_LOGGED = 3;
+	
+	/** LocationEngine.update() */
+	public static final int KIND_UPDATE = 4;
+	
+	/** Number of records after which the output is flushed. */
+	private static final int FLUSH_INTERVAL = 32;
+	
+	private final DataOutputStream mOut;
+	
+	private final Clock mClock;
+	
+	private long mElapsed = 0;
+	
+	private long mWall = 0;
+	
+	private int mUnflushed = 0;
+	
+	/**
+	 * Writes the trace header to out.
+	 */
+	public TraceRecorder(OutputStream out, Clock clock) throws IOException {
+		mOut = new DataOutputStream(new BufferedOutputStream(out));
+		mClock = clock;
+		mOut.writeInt(MAGIC);
+		mOut.writeByte(VERSION);
+	}
+	
+	public synchronized void cell(CellObservation o) throws IOException {
+		begin(KIND_CELL);
+		writeVarLong(mOut, o.type);
+		writeVarLong(mOut, zigzag(o.lac));
+		writeVarLong(mOut, o.cells.length);
+		for (int i = 0; i < o.cells.length; i++) {
+			writeVarLong(mOut, zigzag(o.cells[i]));
+			mOut.writeByte(o.signals[i]);
+		}
+		end();
+	}
+	
+	public synchronized void learn(long area, long interval) throws IOException {
+		begin(KIND_LEARN);
+		writeVarLong(mOut, zigzag(area));
+		writeVarLong(mOut, zigzag(interval));
+		end();
+	}
+	
+	public synchronized void learnLogged(long area, long since) throws IOException {
+		begin(KIND_LEARN_LOGGED);
+		writeVarLong(mOut, zigzag(area));
+		writeVarLong(mOut, zigzag(since - mWall));
+		end();
+	}
+	
+	public synchronized void update() throws IOException {
+		begin(KIND_UPDATE);
+		end();
+	}
+	
+	/**
+	 * Writes all buffered records and closes the output.
+	 */
+	public synchronized void close() throws IOException {
+		mOut.close();
+	}
+	
+	private void begin(int kind) throws IOException {
+		long elapsed = mClock.elapsedRealtime();
+		long wall = mClock.currentTimeMillis();
+		mOut.writeByte(kind);
+		writeVarLong(mOut, zigzag(elapsed - mElapsed));
+		writeVarLong(mOut, zigzag(wall - mWall));
+		mElapsed = elapsed;
+		mWall = wall;
+	}
+	
+	private void end() throws IOException {
+		if (++mUnflushed >= FLUSH_INTERVAL) {
+			mOut.flush();
+			mUnflushed = 0;
+		}
+	}
+	
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+	
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feeds a trace written by TraceRecorder into a LocationEngine.
+ * 
+ * The engine must use the VirtualClock passed to replay(), which is set 
+ * to the recorded time of each event before it is replayed. Replaying 
+ * therefore does not wait, and the results only depend on the trace.
+ * 
+ * Usage: TraceReplayer trace-file
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class TraceReplayer {
+	
+	/**
+	 * Clock that only changes when set.
+	 */
+	public static class VirtualClock implements Clock {
+		
+		private volatile long mElapsed;
+		
+		private volatile long mWall;
+		
+		public void set(long elapsed, long wall) {
+			mElapsed = elapsed;
+			mWall = wall;
+		}
+
+		@Override
+		public long elapsedRealtime() {
+			return mElapsed;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return mWall;
+		}
+		
+	}
+	
+	/**
+	 * Replays all records in the trace.
+	 * 
+	 * @param in Trace as written by TraceRecorder.
+	 * @param engine Engine to feed, must use clock.
+	 * @param clock Clock used by engine.
+	 * @return The number of replayed records.
+	 */
+	public static long replay(InputStream in, LocationEngine engine, VirtualClock clock) 
+			throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != TraceRecorder.MAGIC)
+			throw new IOException("Not a trace file");
+		
+		int version = data.readUnsignedByte();
+		if (version != TraceRecorder.VERSION)
+			throw new IOException("Unsupported trace version " + version);
+		
+		long elapsed = 0;
+		long wall = 0;
+		long records = 0;
+		while (true) {
+			int kind;
+			try {
+				kind = data.readUnsignedByte();
+			}
+			catch (EOFException e) {
+				break;
+			}
+			elapsed += readSigned(data);
+			wall += readSigned(data);
+			clock.set(elapsed, wall);
+			
+			switch (kind) {
+			case TraceRecorder.KIND_CELL:
+				int type = (int) readVarLong(data);
+				int lac = (int) readSigned(data);
+				int[] cells = new int[(int) readVarLong(data)];
+				int[] signals = new int[cells.length];
+				for (int i = 0; i < cells.length; i++) {
+					cells[i] = (int) readSigned(data);
+					signals[i] = data.readUnsignedByte();
+				}
+				engine.onCell(new CellObservation(type, lac, cells, signals));
+				break;
+			case TraceRecorder.KIND_LEARN:
+				engine.learn(readSigned(data), readSigned(data));
+				break;
+			case TraceRecorder.KIND_LEARN_LOGGED:
+				long area = readSigned(data);
+				engine.learnLogged(area, wall + readSigned(data));
+				break;
+			case TraceRecorder.KIND_UPDATE:
+				engine.update();
+				break;
+			default:
+				throw new IOException("Unknown record " + kind);
+			}
+			records++;
+		}
+		return records;
+	}
+	
+	private static long readSigned(DataInputStream in) throws IOException {
+		return TraceRecorder.unzigzag(readVarLong(in));
+	}
+	
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+	
+	/**
+	 * Replays a trace file into an engine with an empty MemoryCellStore 
+	 * and prints the resulting area transitions.
+	 */
+	public static void main(String[] args) throws IOException {
+		final VirtualClock clock = new VirtualClock();
+		MemoryCellStore store = new MemoryCellStore(1);
+		final long[] applied = new long[1];
+		LocationEngine engine = new LocationEngine(store, new DeviceActuator() {
+			
+			@Override
+			public void prepare(AreaProfile profile) {
+			}
+			
+			@Override
+			public void apply(AreaProfile profile) {
+				applied[0]++;
+				System.out.println(clock.currentTimeMillis() + " area " + profile.area);
+			}
+		}, clock, 1);
+		
+		long start = System.nanoTime();
+		InputStream in = new FileInputStream(args[0]);
+		long records;
+		try {
+			records = replay(in, engine, clock);
+		}
+		finally {
+			in.close();
+		}
+		System.out.println(records + " records, " + applied[0] + " profiles applied, " +
+				store.getCellCount() + " cells in " + 
+				(System.nanoTime() - start) / 1000000 + "ms");
+	}
+	
+}
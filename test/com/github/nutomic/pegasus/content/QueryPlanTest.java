@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.content;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Fails if a statement on a hot path does a full table scan, for example 
+ * because a schema change dropped an index.
+ * 
+ * Runs on the JVM with sqlite-jdbc, the schema is created from the same 
+ * constants as in Database.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class QueryPlanTest {
+	
+	/**
+	 * SQL and the table alias that may be scanned (or null).
+	 */
+	private static final String[][] STATEMENTS = {
+		{ Statements.FIND_CELL, null },
+		{ Statements.FIND_LOGGED_CELLS, null },
+		{ Statements.RESOLVE_AREA, null },
+		// All areas are listed, but profiles must be joined by key.
+		{ Statements.AREA_LIST, "a" },
+		{ Statements.DELETE_AREA, null },
+		{ Statements.DELETE_AREA_VOTES, null },
+		{ Statements.RESET_AREA_CELLS, null },
+		{ Statements.DELETE_AREA_FINGERPRINTS, null },
+		{ Statements.DELETE_AREA_SHAPE, null },
+		{ Statements.DELETE_AREA_SCHEDULES, ScheduleColumns.TABLE_NAME },
+		{ Statements.DELETE_AREA_RULES, RuleColumns.TABLE_NAME },
+	};
+	
+	private Connection mDb;
+	
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		mDb = DriverManager.getConnection("jdbc:sqlite::memory:");
+		Statement s = mDb.createStatement();
+		for (String sql : Statements.CREATE_TABLES) {
+			s.execute(sql);
+		}
+		for (String sql : Statements.CREATE_INDEXES) {
+			s.execute(sql);
+		}
+		s.close();
+	}
+	
+	@After
+	public void tearDown() throws SQLException {
+		mDb.close();
+	}
+	
+	@Test
+	public void testHotStatementsUseIndexes() throws SQLException {
+		List<String> problems = new ArrayList<String>();
+		for (String[] statement : STATEMENTS) {
+			for (String step : explain(statement[0])) {
+				if (isFullScan(step, statement[1])) {
+					problems.add(step + " in " + statement[0]);
+				}
+			}
+		}
+		if (problems.size() > 0) {
+			fail("Full table scans: " + problems);
+		}
+	}
+	
+	@Test
+	public void testIsFullScan() {
+		// Newer SQLite versions.
+		assertTrue(isFullScan("SCAN cell", null));
+		assertTrue(isFullScan("SCAN cell", "a"));
+		assertFalse(isFullScan("SCAN a", "a"));
+		assertFalse(isFullScan("SCAN cell_log USING COVERING INDEX cell_log_timestamp", null));
+		assertFalse(isFullScan("SEARCH cell USING INDEX cell_cell_id (cell_id=? AND cell_type=?)", 
+				null));
+		// Older SQLite versions.
+		assertTrue(isFullScan("SCAN TABLE cell (~100000 rows)", null));
+		assertFalse(isFullScan("SCAN TABLE area AS a (~1000000 rows)", "a"));
+		assertTrue(isFullScan("SCAN TABLE profile AS p (~1000000 rows)", "a"));
+		assertFalse(isFullScan("SCAN TABLE cell_log USING COVERING INDEX cell_log_timestamp", null));
+	}
+	
+	/**
+	 * Returns the steps of the query plan of sql.
+	 */
+	private List<String> explain(String sql) throws SQLException {
+		PreparedStatement s = mDb.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+		List<String> steps = new ArrayList<String>();
+		try {
+			ResultSet r = s.executeQuery();
+			while (r.next()) {
+				// Columns are id, parent, notused and detail.
+				steps.add(r.getString(4));
+			}
+			r.close();
+		}
+		finally {
+			s.close();
+		}
+		return steps;
+	}
+	
+	/**
+	 * Returns true if step is a table scan without index. Formats are 
+	 * "SCAN TABLE cell AS c (~100 rows)" in older and "SCAN c" in newer 
+	 * SQLite versions.
+	 * 
+	 * @param allowed Table or alias that may be scanned, or null.
+	 */
+	private static boolean isFullScan(String step, String allowed) {
+		if (!step.startsWith("SCAN ") || step.contains(" USING "))
+			return false;
+		
+		String[] words = step.split(" ");
+		int table = (words.length > 2 && words[1].equals("TABLE")) 
+				? 2 
+				: 1;
+		String name = (words.length > table + 2 && words[table + 1].equals("AS"))
+				? words[table + 2]
+				: words[table];
+		return !name.equals(allowed);
+	}
+	
+}
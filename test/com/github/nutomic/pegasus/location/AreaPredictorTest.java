@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests predictions and hit counting of AreaPredictor.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaPredictorTest {
+	
+	private static final double DELTA = 1e-9;
+	
+	@Test
+	public void testUnknownArea() {
+		AreaPredictor predictor = new AreaPredictor(2);
+		assertEquals(0, predictor.predict(1).length);
+		assertEquals(0, predictor.getHitRate(), DELTA);
+	}
+	
+	@Test
+	public void testMostLikelyFirst() {
+		AreaPredictor predictor = new AreaPredictor(2);
+		predictor.transition(1, 2);
+		predictor.transition(1, 3);
+		predictor.transition(1, 3);
+		predictor.transition(1, 4);
+		predictor.transition(1, 3);
+		assertArrayEquals(new long[] { 3, 4 }, predictor.predict(1));
+	}
+	
+	@Test
+	public void testFewerAreasThanPredictions() {
+		AreaPredictor predictor = new AreaPredictor(3);
+		predictor.transition(1, 2);
+		assertArrayEquals(new long[] { 2 }, predictor.predict(1));
+		assertEquals(0, predictor.predict(2).length);
+	}
+	
+	@Test
+	public void testOldTransitionsDecay() {
+		AreaPredictor predictor = new AreaPredictor(1);
+		for (int i = 0; i < 3; i++) {
+			predictor.transition(1, 2);
+		}
+		// Each later transition decays the earlier counts.
+		for (int i = 0; i < 3; i++) {
+			predictor.transition(1, 3);
+		}
+		assertArrayEquals(new long[] { 3 }, predictor.predict(1));
+	}
+	
+	@Test
+	public void testHitRate() {
+		AreaPredictor predictor = new AreaPredictor(1);
+		// No prediction for the first transition from an area.
+		predictor.transition(1, 2);
+		assertEquals(0, predictor.getPredictedCount());
+		predictor.transition(1, 2);
+		predictor.transition(1, 3);
+		assertEquals(2, predictor.getPredictedCount());
+		assertEquals(1, predictor.getHitCount());
+		assertEquals(0.5, predictor.getHitRate(), DELTA);
+	}
+	
+}
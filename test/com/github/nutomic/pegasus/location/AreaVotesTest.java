@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests voting, decay and the cached top area of AreaVotes.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class AreaVotesTest {
+	
+	private static final long CELL = 7;
+	
+	private static final double DELTA = 1e-9;
+	
+	@Test
+	public void testNoVotes() {
+		AreaVotes votes = new AreaVotes();
+		assertEquals(AreaVotes.AREA_NONE, votes.top(CELL));
+	}
+	
+	@Test
+	public void testDecay() {
+		assertEquals(10, AreaVotes.decay(10, 0, 0), DELTA);
+		assertEquals(5, AreaVotes.decay(10, 0, AreaVotes.HALF_LIFE), DELTA);
+		assertEquals(2.5, AreaVotes.decay(10, 0, 2 * AreaVotes.HALF_LIFE), DELTA);
+		// Times before lastSeen do not increase the score.
+		assertEquals(10, AreaVotes.decay(10, AreaVotes.HALF_LIFE, 0), DELTA);
+	}
+	
+	@Test
+	public void testVoteAddsToDecayedScore() {
+		AreaVotes votes = new AreaVotes();
+		assertEquals(AreaVotes.VOTE_LEARN, 
+				votes.vote(CELL, 2, AreaVotes.VOTE_LEARN, 0), DELTA);
+		assertEquals(AreaVotes.VOTE_LEARN / 2 + AreaVotes.VOTE_ACTIVE, 
+				votes.vote(CELL, 2, AreaVotes.VOTE_ACTIVE, AreaVotes.HALF_LIFE), DELTA);
+		assertEquals(2, votes.top(CELL));
+	}
+	
+	@Test
+	public void testSingleLearnIsOutvoted() {
+		AreaVotes votes = new AreaVotes();
+		long now = 0;
+		for (int i = 0; i < 20; i++) {
+			votes.vote(CELL, 2, AreaVotes.VOTE_ACTIVE, now++);
+		}
+		votes.vote(CELL, 3, AreaVotes.VOTE_LEARN, now++);
+		assertEquals(2, votes.top(CELL));
+	}
+	
+	@Test
+	public void testOldVotesFadeOut() {
+		AreaVotes votes = new AreaVotes();
+		votes.vote(CELL, 2, AreaVotes.VOTE_LEARN, 0);
+		votes.vote(CELL, 3, AreaVotes.VOTE_ACTIVE, 0);
+		assertEquals(2, votes.top(CELL));
+		// After four half lives the learn vote is below a fresh vote.
+		votes.vote(CELL, 3, AreaVotes.VOTE_ACTIVE, 4 * AreaVotes.HALF_LIFE);
+		assertEquals(3, votes.top(CELL));
+	}
+	
+	@Test
+	public void testPutComparesDecayedScores() {
+		AreaVotes votes = new AreaVotes();
+		long now = 2 * AreaVotes.HALF_LIFE;
+		votes.put(CELL, 2, 10, 0, now);
+		votes.put(CELL, 3, 4, now, now);
+		assertEquals(3, votes.top(CELL));
+	}
+	
+	@Test
+	public void testManyAreas() {
+		AreaVotes votes = new AreaVotes();
+		for (long area = 1; area <= 10; area++) {
+			votes.vote(CELL, area, area, 0);
+		}
+		assertEquals(10, votes.top(CELL));
+		votes.vote(CELL, 5, 10, 0);
+		assertEquals(5, votes.top(CELL));
+	}
+	
+	@Test
+	public void testClear() {
+		AreaVotes votes = new AreaVotes();
+		votes.vote(CELL, 2, AreaVotes.VOTE_LEARN, 0);
+		votes.clear();
+		assertEquals(AreaVotes.AREA_NONE, votes.top(CELL));
+	}
+	
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests the weighted Jaccard matching of FingerprintMatcher.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class FingerprintMatcherTest {
+	
+	private static final int TYPE = 1;
+	
+	private static final double DELTA = 1e-9;
+	
+	private static long[] keys(int... cells) {
+		long[] keys = new long[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			keys[i] = FingerprintMatcher.cellKey(TYPE, cells[i]);
+		}
+		return keys;
+	}
+	
+	private static double[] weights(double weight, int count) {
+		double[] weights = new double[count];
+		for (int i = 0; i < count; i++) {
+			weights[i] = weight;
+		}
+		return weights;
+	}
+	
+	@Test
+	public void testCellKey() {
+		assertEquals((1L << 32) | 5, FingerprintMatcher.cellKey(1, 5));
+		// Negative cell IDs do not overwrite the type.
+		assertEquals((2L << 32) | 0xffffffffL, FingerprintMatcher.cellKey(2, -1));
+	}
+	
+	@Test
+	public void testAsuFromDbm() {
+		assertEquals(0, FingerprintMatcher.asuFromDbm(-120));
+		assertEquals(0, FingerprintMatcher.asuFromDbm(-113));
+		assertEquals(20, FingerprintMatcher.asuFromDbm(-73));
+		assertEquals(31, FingerprintMatcher.asuFromDbm(-40));
+	}
+	
+	@Test
+	public void testWeight() {
+		assertEquals(1, FingerprintMatcher.weight(0), DELTA);
+		assertEquals(32, FingerprintMatcher.weight(31), DELTA);
+		assertEquals(FingerprintMatcher.weight(99), FingerprintMatcher.weight(-1), DELTA);
+	}
+	
+	@Test
+	public void testEmpty() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		assertNull(matcher.match(keys(1, 2, 3), weights(1, 3)));
+	}
+	
+	@Test
+	public void testExactMatch() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2, 3), weights(10, 3));
+		FingerprintMatcher.Match match = matcher.match(keys(1, 2, 3), weights(10, 3));
+		assertNotNull(match);
+		assertEquals(2, match.area);
+		assertEquals(1, match.score, DELTA);
+	}
+	
+	@Test
+	public void testPartialMatch() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2, 3, 4), weights(1, 4));
+		// Three shared cells out of five: 3 / 5.
+		FingerprintMatcher.Match match = matcher.match(keys(1, 2, 3, 5), weights(1, 4));
+		assertNotNull(match);
+		assertEquals(0.6, match.score, DELTA);
+	}
+	
+	@Test
+	public void testWeightsUseMinimumAndMaximum() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2), new double[] { 10, 10 });
+		// sum(min) = 10 + 5, sum(max) = 10 + 10.
+		FingerprintMatcher.Match match = 
+				matcher.match(keys(1, 2), new double[] { 10, 5 });
+		assertEquals(0.75, match.score, DELTA);
+	}
+	
+	@Test
+	public void testBelowMinScore() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2, 3, 4), weights(1, 4));
+		assertNull(matcher.match(keys(1, 5, 6, 7), weights(1, 4)));
+	}
+	
+	@Test
+	public void testBestAreaWins() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2, 3, 4), weights(1, 4));
+		matcher.add(3, keys(1, 2, 3, 5), weights(1, 4));
+		assertEquals(3, matcher.match(keys(1, 2, 3, 5), weights(1, 4)).area);
+		assertEquals(2, matcher.match(keys(1, 2, 3, 4), weights(1, 4)).area);
+	}
+	
+	@Test
+	public void testMatchDoesNotKeepState() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2), weights(1, 2));
+		double first = matcher.match(keys(1, 2), weights(1, 2)).score;
+		assertEquals(first, matcher.match(keys(1, 2), weights(1, 2)).score, DELTA);
+	}
+	
+	@Test
+	public void testGrowsBeyondInitialCapacity() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		for (int i = 0; i < 200; i++) {
+			matcher.add(i, keys(i * 2, i * 2 + 1), weights(1, 2));
+		}
+		assertEquals(200, matcher.size());
+		assertEquals(150, matcher.match(keys(300, 301), weights(1, 2)).area);
+	}
+	
+	@Test
+	public void testClear() {
+		FingerprintMatcher matcher = new FingerprintMatcher();
+		matcher.add(2, keys(1, 2), weights(1, 2));
+		matcher.clear();
+		assertEquals(0, matcher.size());
+		assertNull(matcher.match(keys(1, 2), weights(1, 2)));
+	}
+	
+}
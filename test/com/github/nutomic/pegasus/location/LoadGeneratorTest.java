@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Runs LoadGenerator and RandomWalkCellSource on a small population.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class LoadGeneratorTest {
+	
+	@Test
+	public void testObserve() {
+		RandomWalkCellSource source = new RandomWalkCellSource(100, 0, 0, 0);
+		CellObservation o = source.observe(0);
+		assertEquals(0, o.cell);
+		assertEquals(RandomWalkCellSource.TYPE, o.type);
+		assertEquals(o.cells.length, o.signals.length);
+		// No neighbours below the first cell.
+		assertTrue(o.cells.length < source.observe(50).cells.length);
+		assertEquals(o.lac, source.observe(RandomWalkCellSource.CELLS_PER_LAC - 1).lac);
+	}
+	
+	@Test
+	public void testRun() throws InterruptedException {
+		LoadGenerator.Report report = LoadGenerator.run(1000, 10, 5000, 0);
+		assertEquals(5000, report.events);
+		assertTrue(report.profilesApplied > 0);
+		assertTrue(report.p50 <= report.p99);
+		assertTrue(report.p99 <= report.max);
+	}
+	
+}
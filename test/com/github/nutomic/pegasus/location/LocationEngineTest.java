@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests LocationEngine over a MemoryCellStore, with a manual clock.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class LocationEngineTest {
+	
+	private static final long DEFAULT = 1;
+	private static final long HOME = 2;
+	private static final long WORK = 3;
+	
+	private static final int TYPE = 1;
+	
+	private static final int LAC = 100;
+	
+	/** Length of a learn session. */
+	private static final long LEARN = 60 * 1000;
+	
+	/** Cells with the same ID prefix, see NeighbourhoodIndex. */
+	private static final int SITE = 0x1230;
+	
+	/** Wall clock time at the start, 2012-01-02 00:00 UTC. */
+	private static final long START = 1325462400000L;
+	
+	/** Time since boot, never 0 on a device. */
+	private long mElapsed = 1000000;
+	
+	private long mTime = START;
+	
+	private final Clock mClock = new Clock() {
+		
+		@Override
+		public long elapsedRealtime() {
+			return mElapsed;
+		}
+		
+		@Override
+		public long currentTimeMillis() {
+			return mTime;
+		}
+	};
+	
+	/** Profiles passed to DeviceActuator.apply(). */
+	private final List<AreaProfile> mApplied = new ArrayList<AreaProfile>();
+	
+	private final DeviceActuator mActuator = new DeviceActuator() {
+		
+		@Override
+		public void prepare(AreaProfile profile) {
+		}
+		
+		@Override
+		public void apply(AreaProfile profile) {
+			mApplied.add(profile);
+		}
+	};
+	
+	private MemoryCellStore mStore;
+	
+	private LocationEngine mEngine;
+	
+	@Before
+	public void setUp() {
+		mStore = new MemoryCellStore(DEFAULT);
+		putProfile(mStore, DEFAULT);
+		putProfile(mStore, HOME);
+		putProfile(mStore, WORK);
+		mEngine = new LocationEngine(mStore, mActuator, mClock, DEFAULT);
+	}
+	
+	private static void putProfile(MemoryCellStore store, long area) {
+		AreaProfile p = new AreaProfile();
+		p.area = area;
+		p.hasArea = true;
+		p.areaName = "Area " + area;
+		p.hasProfile = true;
+		p.profileId = 100 + area;
+		p.profileName = "Profile " + area;
+		p.ringerMode = -1;
+		store.putProfile(p);
+	}
+	
+	/**
+	 * Returns an observation of the serving cell and its neighbours, all 
+	 * with the same signal.
+	 */
+	private static CellObservation observe(int lac, int... cells) {
+		int[] signals = new int[cells.length];
+		for (int i = 0; i < signals.length; i++) {
+			signals[i] = 20;
+		}
+		return new CellObservation(TYPE, lac, cells, signals);
+	}
+	
+	/**
+	 * Lets time pass, so that learning stops after LEARN.
+	 */
+	private void advance(long millis) {
+		mElapsed += millis;
+		mTime += millis;
+	}
+	
+	private AreaProfile lastApplied() {
+		return mApplied.get(mApplied.size() - 1);
+	}
+	
+	@Test
+	public void testUnknownCellIsDefaultArea() {
+		mEngine.onCell(observe(LAC, 5));
+		assertEquals(DEFAULT, mEngine.getCurrentArea());
+		assertEquals(1, mApplied.size());
+		assertEquals(100 + DEFAULT, lastApplied().profileId);
+		assertEquals(1, mStore.getCellCount());
+		assertEquals(1, mStore.getLogSize());
+	}
+	
+	@Test
+	public void testProfileAppliedOnlyOnChange() {
+		mEngine.onCell(observe(LAC, 5));
+		mEngine.onCell(observe(LAC, 6));
+		mEngine.onCell(observe(LAC, 5));
+		assertEquals(1, mApplied.size());
+		assertEquals(2, mEngine.getStats().getCounter(PipelineStats.COUNTER_SKIPS));
+		assertEquals(3, mStore.getLogSize());
+	}
+	
+	@Test
+	public void testLearn() {
+		mEngine.learn(HOME, LEARN);
+		mEngine.onCell(observe(LAC, 5));
+		assertEquals(HOME, mEngine.getCurrentArea());
+		advance(LEARN + 1);
+		mEngine.onCell(observe(LAC + 1, 6));
+		assertEquals(DEFAULT, mEngine.getCurrentArea());
+		mEngine.onCell(observe(LAC, 5));
+		assertEquals(HOME, mEngine.getCurrentArea());
+		assertEquals(HOME, mStore.findCell(TYPE, 5).area);
+	}
+	
+	@Test
+	public void testLearnLogged() {
+		mEngine.onCell(observe(LAC, 5));
+		advance(1000);
+		mEngine.onCell(observe(LAC, 6));
+		mEngine.learnLogged(HOME, START - 1);
+		assertEquals(HOME, mEngine.getCurrentArea());
+		assertEquals(HOME, mStore.findCell(TYPE, 5).area);
+		assertEquals(HOME, mStore.findCell(TYPE, 6).area);
+	}
+	
+	@Test
+	public void testNeighbourhoodGuessIsNotStored() {
+		mEngine.learn(HOME, LEARN);
+		mEngine.onCell(observe(LAC, SITE + 1));
+		mEngine.onCell(observe(LAC, SITE + 2));
+		advance(LEARN + 1);
+		mEngine.onCell(observe(LAC, SITE + 3));
+		assertEquals(HOME, mEngine.getCurrentArea());
+		assertEquals(DEFAULT, mStore.findCell(TYPE, SITE + 3).area);
+	}
+	
+	/**
+	 * Cell areas written by the engine must be used even if the store 
+	 * still returns the old area, like a database with queued writes.
+	 */
+	@Test
+	public void testQueuedCellAreaWrites() {
+		MemoryCellStore store = new MemoryCellStore(DEFAULT) {
+			
+			@Override
+			public synchronized void updateCellArea(long row, long area) {
+			}
+		};
+		putProfile(store, DEFAULT);
+		putProfile(store, HOME);
+		LocationEngine engine = new LocationEngine(store, mActuator, mClock, DEFAULT);
+		engine.learn(HOME, LEARN);
+		engine.onCell(observe(LAC, SITE + 1));
+		// Counted only once in the neighbourhood, which is too few for a guess.
+		engine.onCell(observe(LAC, SITE + 1));
+		advance(LEARN + 1);
+		engine.onCell(observe(LAC, SITE + 3));
+		assertEquals(DEFAULT, engine.getCurrentArea());
+	}
+	
+	@Test
+	public void testFingerprintsSeparateAreasWithSameCell() {
+		mEngine.learn(HOME, LEARN);
+		mEngine.onCell(observe(LAC, 5, 11, 12));
+		advance(LEARN + 1);
+		mEngine.learn(WORK, LEARN);
+		mEngine.onCell(observe(LAC, 5, 13, 14));
+		advance(LEARN + 1);
+		mEngine.onCell(observe(LAC, 5, 11, 12));
+		assertEquals(HOME, mEngine.getCurrentArea());
+		mEngine.onCell(observe(LAC, 5, 13, 14));
+		assertEquals(WORK, mEngine.getCurrentArea());
+	}
+	
+	@Test
+	public void testScheduleOverridesAreaProfile() {
+		AreaProfile scheduled = new AreaProfile();
+		scheduled.hasProfile = true;
+		scheduled.profileName = "Scheduled";
+		mStore.putScheduledProfile(10, scheduled);
+		mStore.addSchedule(1, HOME, ScheduleIndex.EVERY_DAY, 0, 0, 10);
+		mEngine.learn(HOME, LEARN);
+		mEngine.onCell(observe(LAC, 5));
+		assertEquals(10, lastApplied().profileId);
+		assertEquals(HOME, lastApplied().area);
+		assertEquals(ScheduleIndex.CHANGE_NONE, mEngine.getNextChange());
+	}
+	
+	@Test
+	public void testRuleOnDeviceState() {
+		AreaProfile charging = new AreaProfile();
+		charging.hasProfile = true;
+		charging.profileName = "Charging";
+		mStore.putScheduledProfile(11, charging);
+		mStore.addRule(1, 0, RuleMatcher.ANY, ScheduleIndex.EVERY_DAY, 0, 0, 1, 
+				RuleMatcher.ANY, 11, RuleMatcher.RADIO_ON, RuleMatcher.RADIO_UNCHANGED);
+		mEngine.onCell(observe(LAC, 5));
+		assertEquals(100 + DEFAULT, lastApplied().profileId);
+		
+		mEngine.setDeviceState(true, false);
+		assertEquals(2, mApplied.size());
+		assertEquals(11, lastApplied().profileId);
+		assertTrue(lastApplied().wifiEnabled);
+		
+		// Headset does not change the decision.
+		mEngine.setDeviceState(true, true);
+		assertEquals(2, mApplied.size());
+		
+		mEngine.setDeviceState(false, true);
+		assertEquals(100 + DEFAULT, lastApplied().profileId);
+	}
+	
+	@Test
+	public void testPredictorRecordsTransitions() {
+		mEngine.learn(HOME, LEARN);
+		mEngine.onCell(observe(LAC, 5));
+		advance(LEARN + 1);
+		mEngine.learn(WORK, LEARN);
+		mEngine.onCell(observe(LAC + 1, 6));
+		advance(LEARN + 1);
+		for (int i = 0; i < 3; i++) {
+			mEngine.onCell(observe(LAC, 5));
+			mEngine.onCell(observe(LAC + 1, 6));
+		}
+		assertEquals(WORK, mEngine.getPredictor().predict(HOME)[0]);
+		assertEquals(HOME, mEngine.getPredictor().predict(WORK)[0]);
+		assertTrue(mEngine.getPrewarmHits() > 0);
+	}
+	
+	@Test
+	public void testDump() {
+		mEngine.learn(HOME, LEARN);
+		mEngine.onCell(observe(LAC, 5, 6));
+		StringWriter out = new StringWriter();
+		mEngine.dump(new PrintWriter(out));
+		String dump = out.toString();
+		assertTrue(dump.contains("Current area: " + HOME));
+		assertTrue(dump.contains("Current cell: " + TYPE + "/" + LAC + "/5 (2 visible)"));
+		assertTrue(dump.contains("Learning: area " + HOME));
+		assertTrue(dump.contains("fingerprints=1"));
+		assertTrue(dump.contains(START + ": " + LocationEngine.AREA_NONE + " -> " + HOME));
+	}
+	
+}
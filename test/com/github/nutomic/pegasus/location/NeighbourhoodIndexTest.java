@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests the prefix and location area levels of NeighbourhoodIndex.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class NeighbourhoodIndexTest {
+	
+	private static final int TYPE = 1;
+	
+	private static final int LAC = 100;
+	
+	/** First cell of a prefix, the next 15 cell IDs share it. */
+	private static final int SITE = 0x1230;
+	
+	@Test
+	public void testEmpty() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC, SITE));
+	}
+	
+	@Test
+	public void testPrefix() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		index.add(TYPE, LAC, SITE + 1, 2);
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC, SITE + 3));
+		index.add(TYPE, LAC, SITE + 2, 2);
+		assertEquals(2, index.resolve(TYPE, LAC, SITE + 3));
+		// Other prefix in the same location area, too few cells there.
+		assertEquals(NeighbourhoodIndex.AREA_NONE, 
+				index.resolve(TYPE, LAC, SITE + (1 << NeighbourhoodIndex.PREFIX_SHIFT)));
+	}
+	
+	@Test
+	public void testPrefixWithoutMajority() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		index.add(TYPE, LAC, SITE + 1, 2);
+		index.add(TYPE, LAC, SITE + 2, 3);
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC, SITE + 3));
+	}
+	
+	@Test
+	public void testLocationArea() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		// One cell in each of five prefixes.
+		for (int i = 0; i < 5; i++) {
+			index.add(TYPE, LAC, (i + 1) << NeighbourhoodIndex.PREFIX_SHIFT, 2);
+		}
+		assertEquals(2, index.resolve(TYPE, LAC, SITE));
+		// Location areas of other types are separate.
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE + 1, LAC, SITE));
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC + 1, SITE));
+	}
+	
+	@Test
+	public void testLocationAreaNeedsClearMajority() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		for (int i = 0; i < 8; i++) {
+			index.add(TYPE, LAC, (i + 1) << NeighbourhoodIndex.PREFIX_SHIFT, 2);
+		}
+		index.add(TYPE, LAC, 10 << NeighbourhoodIndex.PREFIX_SHIFT, 3);
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC, SITE));
+	}
+	
+	@Test
+	public void testPrefixBeforeLocationArea() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		for (int i = 0; i < 5; i++) {
+			index.add(TYPE, LAC, (i + 1) << NeighbourhoodIndex.PREFIX_SHIFT, 2);
+		}
+		index.add(TYPE, LAC, SITE + 1, 3);
+		index.add(TYPE, LAC, SITE + 2, 3);
+		assertEquals(3, index.resolve(TYPE, LAC, SITE + 3));
+	}
+	
+	@Test
+	public void testRemove() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		index.add(TYPE, LAC, SITE + 1, 2);
+		index.add(TYPE, LAC, SITE + 2, 2);
+		index.remove(TYPE, LAC, SITE + 2, 2);
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC, SITE + 3));
+		// Removing cells that were never added changes nothing.
+		index.remove(TYPE, LAC, SITE + 5, 3);
+		index.remove(TYPE, LAC + 1, SITE, 2);
+		index.add(TYPE, LAC, SITE + 2, 2);
+		assertEquals(2, index.resolve(TYPE, LAC, SITE + 3));
+	}
+	
+	@Test
+	public void testUnknownLocationArea() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		index.add(TYPE, NeighbourhoodIndex.LAC_UNKNOWN, SITE + 1, 2);
+		index.add(TYPE, NeighbourhoodIndex.LAC_UNKNOWN, SITE + 2, 2);
+		assertEquals(NeighbourhoodIndex.AREA_NONE, 
+				index.resolve(TYPE, NeighbourhoodIndex.LAC_UNKNOWN, SITE + 3));
+	}
+	
+	@Test
+	public void testClear() {
+		NeighbourhoodIndex index = new NeighbourhoodIndex();
+		index.add(TYPE, LAC, SITE + 1, 2);
+		index.add(TYPE, LAC, SITE + 2, 2);
+		index.clear();
+		assertEquals(NeighbourhoodIndex.AREA_NONE, index.resolve(TYPE, LAC, SITE + 3));
+	}
+	
+}
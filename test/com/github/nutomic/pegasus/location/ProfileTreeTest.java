@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests inheritance and change reporting of ProfileTree.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ProfileTreeTest {
+	
+	private static final int ALL = (1 << ProfileTree.FIELD_COUNT) - 1;
+	
+	private static final int RINGTONE = 1 << ProfileTree.FIELD_RINGTONE_VOLUME;
+	
+	private static int[] values(int value) {
+		int[] values = new int[ProfileTree.FIELD_COUNT];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = value;
+		}
+		return values;
+	}
+	
+	@Test
+	public void testWithoutParent() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", RINGTONE, values(5));
+		ProfileTree.Profile p = tree.get(1);
+		assertEquals("Base", p.name);
+		assertEquals(5, p.get(ProfileTree.FIELD_RINGTONE_VOLUME));
+		assertEquals(ProfileTree.VALUE_UNCHANGED, p.get(ProfileTree.FIELD_ALARM_VOLUME));
+		assertNull(tree.get(2));
+	}
+	
+	@Test
+	public void testInheritsUnsetFields() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(5));
+		tree.put(2, 1, "Quiet", RINGTONE, values(1));
+		tree.put(3, 2, "Quieter", 0, values(0));
+		assertEquals(1, tree.get(3).get(ProfileTree.FIELD_RINGTONE_VOLUME));
+		assertEquals(5, tree.get(3).get(ProfileTree.FIELD_MEDIA_VOLUME));
+		assertEquals(2, tree.getParent(3));
+		assertEquals(ProfileTree.PARENT_NONE, tree.getParent(4));
+	}
+	
+	@Test
+	public void testParentChangeReachesDescendants() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(5));
+		tree.put(2, 1, "Quiet", RINGTONE, values(1));
+		tree.put(3, 2, "Quieter", 0, values(0));
+		Set<Long> changed = tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(7));
+		assertEquals(3, changed.size());
+		assertEquals(7, tree.get(3).get(ProfileTree.FIELD_MEDIA_VOLUME));
+	}
+	
+	@Test
+	public void testOverriddenFieldStopsChange() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", RINGTONE, values(5));
+		tree.put(2, 1, "Quiet", RINGTONE, values(1));
+		Set<Long> changed = tree.put(1, ProfileTree.PARENT_NONE, "Base", RINGTONE, 
+				values(7));
+		assertTrue(changed.contains(1L));
+		assertFalse(changed.contains(2L));
+	}
+	
+	@Test
+	public void testRename() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(5));
+		tree.put(2, 1, "Quiet", 0, values(0));
+		Set<Long> changed = tree.put(1, ProfileTree.PARENT_NONE, "Home", ALL, values(5));
+		assertEquals(1, changed.size());
+		assertEquals("Home", tree.get(1).name);
+	}
+	
+	@Test
+	public void testChildBeforeParent() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(2, 1, "Quiet", 0, values(0));
+		assertEquals(ProfileTree.VALUE_UNCHANGED, 
+				tree.get(2).get(ProfileTree.FIELD_RINGTONE_VOLUME));
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(5));
+		assertEquals(5, tree.get(2).get(ProfileTree.FIELD_RINGTONE_VOLUME));
+	}
+	
+	@Test
+	public void testRemoveParent() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(5));
+		tree.put(2, 1, "Quiet", RINGTONE, values(1));
+		Set<Long> changed = tree.remove(1);
+		assertTrue(changed.contains(1L));
+		assertTrue(changed.contains(2L));
+		assertNull(tree.get(1));
+		assertEquals(1, tree.get(2).get(ProfileTree.FIELD_RINGTONE_VOLUME));
+		assertEquals(ProfileTree.VALUE_UNCHANGED, 
+				tree.get(2).get(ProfileTree.FIELD_MEDIA_VOLUME));
+		assertEquals(0, tree.remove(1).size());
+	}
+	
+	@Test
+	public void testInheritsFrom() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, ProfileTree.PARENT_NONE, "Base", ALL, values(5));
+		tree.put(2, 1, "Quiet", 0, values(0));
+		tree.put(3, 2, "Quieter", 0, values(0));
+		assertTrue(tree.inheritsFrom(3, 1));
+		assertTrue(tree.inheritsFrom(3, 3));
+		assertFalse(tree.inheritsFrom(1, 3));
+	}
+	
+	@Test
+	public void testCycle() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(1, 2, "A", RINGTONE, values(5));
+		tree.put(2, 1, "B", 0, values(0));
+		assertEquals(5, tree.get(2).get(ProfileTree.FIELD_RINGTONE_VOLUME));
+		assertFalse(tree.inheritsFrom(1, 3));
+		// Changes stop after going around the cycle once.
+		tree.put(1, 2, "A", RINGTONE, values(6));
+		assertEquals(6, tree.get(2).get(ProfileTree.FIELD_RINGTONE_VOLUME));
+	}
+	
+	@Test
+	public void testIds() {
+		ProfileTree tree = new ProfileTree();
+		tree.put(3, ProfileTree.PARENT_NONE, "C", 0, values(0));
+		tree.put(1, ProfileTree.PARENT_NONE, "A", 0, values(0));
+		tree.put(2, 1, "B", 0, values(0));
+		assertArrayEquals(new long[] { 1, 2, 3 }, tree.getIds());
+		assertEquals(3, tree.size());
+		tree.clear();
+		assertEquals(0, tree.getIds().length);
+	}
+	
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests conditions, priorities and next changes of RuleMatcher.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class RuleMatcherTest {
+	
+	private static final long HOME = 2;
+	private static final long WORK = 3;
+	
+	private static final long SILENT = 10;
+	private static final long LOUD = 11;
+	
+	private static final int ANY = RuleMatcher.ANY;
+	private static final int UNCHANGED = RuleMatcher.RADIO_UNCHANGED;
+	private static final int EVERY_DAY = ScheduleIndex.EVERY_DAY;
+	private static final long NO_PROFILE = ScheduleIndex.PROFILE_NONE;
+	
+	private TimeZone mDefault;
+	
+	/** Monday 2012-01-02 12:00. */
+	private long mNoon;
+	
+	@Before
+	public void setUp() {
+		mDefault = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+		mNoon = time(2012, 1, 2, 12, 0);
+	}
+	
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(mDefault);
+	}
+	
+	private static long time(int year, int month, int day, int hour, int minute) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(year, month - 1, day, hour, minute);
+		return c.getTimeInMillis();
+	}
+	
+	@Test
+	public void testNoRules() {
+		RuleMatcher rules = new RuleMatcher();
+		RuleMatcher.Result r = rules.evaluate(HOME, mNoon, false, false);
+		assertEquals(NO_PROFILE, r.profile);
+		assertEquals(UNCHANGED, r.wifi);
+		assertEquals(UNCHANGED, r.bluetooth);
+		assertEquals(ScheduleIndex.CHANGE_NONE, r.nextChange);
+	}
+	
+	@Test
+	public void testAreaCondition() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(1, 0, HOME, EVERY_DAY, 0, 0, ANY, ANY, SILENT, UNCHANGED, UNCHANGED);
+		assertEquals(SILENT, rules.evaluate(HOME, mNoon, false, false).profile);
+		assertEquals(NO_PROFILE, rules.evaluate(WORK, mNoon, false, false).profile);
+	}
+	
+	@Test
+	public void testDeviceConditions() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(1, 0, ANY, EVERY_DAY, 0, 0, 1, ANY, LOUD, UNCHANGED, UNCHANGED);
+		rules.add(2, 0, ANY, EVERY_DAY, 0, 0, ANY, 0, NO_PROFILE, RuleMatcher.RADIO_ON, 
+				UNCHANGED);
+		RuleMatcher.Result r = rules.evaluate(HOME, mNoon, true, false);
+		assertEquals(LOUD, r.profile);
+		assertEquals(RuleMatcher.RADIO_ON, r.wifi);
+		r = rules.evaluate(HOME, mNoon, false, true);
+		assertEquals(NO_PROFILE, r.profile);
+		assertEquals(UNCHANGED, r.wifi);
+	}
+	
+	@Test
+	public void testPriorityPerAction() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(1, 5, HOME, EVERY_DAY, 0, 0, ANY, ANY, SILENT, UNCHANGED, 
+				RuleMatcher.RADIO_OFF);
+		rules.add(2, 1, ANY, EVERY_DAY, 0, 0, ANY, ANY, LOUD, RuleMatcher.RADIO_ON, 
+				RuleMatcher.RADIO_ON);
+		RuleMatcher.Result r = rules.evaluate(HOME, mNoon, false, false);
+		assertEquals(SILENT, r.profile);
+		// Not set by the higher priority rule.
+		assertEquals(RuleMatcher.RADIO_ON, r.wifi);
+		assertEquals(RuleMatcher.RADIO_OFF, r.bluetooth);
+		assertEquals(LOUD, rules.evaluate(WORK, mNoon, false, false).profile);
+	}
+	
+	@Test
+	public void testHigherIdWinsTies() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(2, 0, ANY, EVERY_DAY, 0, 0, ANY, ANY, LOUD, UNCHANGED, UNCHANGED);
+		rules.add(1, 0, ANY, EVERY_DAY, 0, 0, ANY, ANY, SILENT, UNCHANGED, UNCHANGED);
+		assertEquals(LOUD, rules.evaluate(HOME, mNoon, false, false).profile);
+	}
+	
+	@Test
+	public void testTimeCondition() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(1, 0, ANY, ScheduleIndex.MONDAY, 9 * 60, 17 * 60, ANY, ANY, SILENT, 
+				UNCHANGED, UNCHANGED);
+		RuleMatcher.Result r = rules.evaluate(HOME, mNoon, false, false);
+		assertEquals(SILENT, r.profile);
+		assertEquals(time(2012, 1, 2, 17, 0), r.nextChange);
+		r = rules.evaluate(HOME, time(2012, 1, 3, 12, 0), false, false);
+		assertEquals(NO_PROFILE, r.profile);
+		// End of the week.
+		assertEquals(time(2012, 1, 9, 0, 0), r.nextChange);
+	}
+	
+	@Test
+	public void testManyRules() {
+		RuleMatcher rules = new RuleMatcher();
+		for (int i = 0; i < 100; i++) {
+			rules.add(i, i, HOME + i, EVERY_DAY, 0, 0, ANY, ANY, 100 + i, UNCHANGED, 
+					UNCHANGED);
+		}
+		assertEquals(100, rules.size());
+		assertEquals(170, rules.evaluate(HOME + 70, mNoon, false, false).profile);
+		assertEquals(101, rules.evaluate(HOME + 1, mNoon, false, false).profile);
+	}
+	
+	/**
+	 * Daylight saving time ends on 2012-10-28 at 03:00, so that day has 
+	 * 25 hours.
+	 */
+	@Test
+	public void testNextChangeOverDaylightSavingTime() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(1, 0, ANY, EVERY_DAY, 9 * 60, 17 * 60, ANY, ANY, SILENT, 
+				UNCHANGED, UNCHANGED);
+		assertEquals(time(2012, 10, 28, 9, 0), 
+				rules.evaluate(HOME, time(2012, 10, 27, 20, 0), false, false).nextChange);
+	}
+	
+	@Test
+	public void testSameActions() {
+		RuleMatcher.Result a = new RuleMatcher.Result();
+		RuleMatcher.Result b = new RuleMatcher.Result();
+		assertTrue(a.sameActions(b));
+		b.nextChange = 1;
+		assertTrue(a.sameActions(b));
+		b.wifi = RuleMatcher.RADIO_ON;
+		assertFalse(a.sameActions(b));
+		assertFalse(a.sameActions(null));
+	}
+	
+	@Test
+	public void testClear() {
+		RuleMatcher rules = new RuleMatcher();
+		rules.add(1, 0, ANY, EVERY_DAY, 0, 0, ANY, ANY, SILENT, UNCHANGED, UNCHANGED);
+		rules.clear();
+		assertEquals(0, rules.size());
+		assertEquals(NO_PROFILE, rules.evaluate(HOME, mNoon, false, false).profile);
+	}
+	
+}
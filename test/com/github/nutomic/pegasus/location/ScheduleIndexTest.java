@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Felix Ableitner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nutomic.pegasus.location;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests lookups and next changes of ScheduleIndex, in a time zone with 
+ * daylight saving time.
+ * 
+ * @author Felix Ableitner
+ *
+ */
+public class ScheduleIndexTest {
+	
+	private static final long AREA = 2;
+	
+	private static final long WORK = 10;
+	private static final long NIGHT = 11;
+	
+	private static final int FRIDAY = ScheduleIndex.MONDAY << 4;
+	private static final int SUNDAY = ScheduleIndex.MONDAY << 6;
+	
+	private TimeZone mDefault;
+	
+	@Before
+	public void setUp() {
+		mDefault = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+	}
+	
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(mDefault);
+	}
+	
+	/**
+	 * Returns the time at the given wall clock time, 2012-01-02 is a 
+	 * monday.
+	 */
+	private static long time(int year, int month, int day, int hour, int minute) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(year, month - 1, day, hour, minute);
+		return c.getTimeInMillis();
+	}
+	
+	private static int minutes(int hour, int minute) {
+		return hour * 60 + minute;
+	}
+	
+	@Test
+	public void testWeekMinute() {
+		assertEquals(0, ScheduleIndex.weekMinute(time(2012, 1, 2, 0, 0)));
+		assertEquals(ScheduleIndex.MINUTES_PER_DAY + 90, 
+				ScheduleIndex.weekMinute(time(2012, 1, 3, 1, 30)));
+		assertEquals(ScheduleIndex.MINUTES_PER_WEEK - 1, 
+				ScheduleIndex.weekMinute(time(2012, 1, 8, 23, 59)));
+	}
+	
+	@Test
+	public void testEmpty() {
+		ScheduleIndex index = new ScheduleIndex();
+		long now = time(2012, 1, 2, 12, 0);
+		assertEquals(ScheduleIndex.PROFILE_NONE, index.getProfile(AREA, now));
+		assertEquals(ScheduleIndex.CHANGE_NONE, index.getNextChange(AREA, now));
+	}
+	
+	@Test
+	public void testTimeWindow() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, ScheduleIndex.MONDAY | FRIDAY, minutes(9, 0), minutes(17, 0), 
+				WORK);
+		assertEquals(1, index.size());
+		assertEquals(WORK, index.getProfile(AREA, time(2012, 1, 2, 9, 0)));
+		assertEquals(WORK, index.getProfile(AREA, time(2012, 1, 6, 16, 59)));
+		assertEquals(ScheduleIndex.PROFILE_NONE, index.getProfile(AREA, time(2012, 1, 2, 17, 0)));
+		assertEquals(ScheduleIndex.PROFILE_NONE, index.getProfile(AREA, time(2012, 1, 3, 12, 0)));
+		assertEquals(ScheduleIndex.PROFILE_NONE, index.getProfile(AREA + 1, time(2012, 1, 2, 12, 0)));
+	}
+	
+	@Test
+	public void testOvernightWrapsToNextWeek() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, SUNDAY, minutes(22, 0), minutes(6, 0), NIGHT);
+		assertEquals(NIGHT, index.getProfile(AREA, time(2012, 1, 8, 23, 0)));
+		assertEquals(NIGHT, index.getProfile(AREA, time(2012, 1, 9, 5, 59)));
+		assertEquals(ScheduleIndex.PROFILE_NONE, index.getProfile(AREA, time(2012, 1, 9, 6, 0)));
+	}
+	
+	@Test
+	public void testHighestIdWins() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(2, AREA, ScheduleIndex.EVERY_DAY, minutes(12, 0), minutes(13, 0), NIGHT);
+		index.add(1, AREA, ScheduleIndex.EVERY_DAY, minutes(9, 0), minutes(17, 0), WORK);
+		assertEquals(WORK, index.getProfile(AREA, time(2012, 1, 4, 11, 59)));
+		assertEquals(NIGHT, index.getProfile(AREA, time(2012, 1, 4, 12, 30)));
+		assertEquals(WORK, index.getProfile(AREA, time(2012, 1, 4, 13, 0)));
+	}
+	
+	@Test
+	public void testNextChange() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, ScheduleIndex.MONDAY, minutes(9, 0), minutes(17, 0), WORK);
+		assertEquals(time(2012, 1, 2, 9, 0), 
+				index.getNextChange(AREA, time(2012, 1, 2, 8, 30)));
+		assertEquals(time(2012, 1, 2, 17, 0), 
+				index.getNextChange(AREA, time(2012, 1, 2, 9, 0)));
+		// Next monday, after the end of the week.
+		assertEquals(time(2012, 1, 9, 9, 0), 
+				index.getNextChange(AREA, time(2012, 1, 6, 12, 0)));
+	}
+	
+	@Test
+	public void testNextChangeSkipsWeekBoundary() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, SUNDAY, minutes(22, 0), minutes(6, 0), NIGHT);
+		// The window continues over monday 00:00.
+		assertEquals(time(2012, 1, 9, 6, 0), 
+				index.getNextChange(AREA, time(2012, 1, 8, 23, 0)));
+	}
+	
+	@Test
+	public void testAlwaysSameProfile() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, ScheduleIndex.EVERY_DAY, 0, 0, WORK);
+		assertEquals(WORK, index.getProfile(AREA, time(2012, 1, 5, 3, 0)));
+		assertEquals(ScheduleIndex.CHANGE_NONE, 
+				index.getNextChange(AREA, time(2012, 1, 5, 3, 0)));
+	}
+	
+	/**
+	 * Daylight saving time starts on 2012-03-25 at 02:00, so that day 
+	 * has 23 hours.
+	 */
+	@Test
+	public void testNextChangeOverDaylightSavingTime() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, ScheduleIndex.EVERY_DAY, minutes(9, 0), minutes(17, 0), WORK);
+		long change = index.getNextChange(AREA, time(2012, 3, 24, 20, 0));
+		assertEquals(time(2012, 3, 25, 9, 0), change);
+		// 13 hours on the wall clock, but only 12 pass.
+		assertEquals(12 * 60 * 60 * 1000, change - time(2012, 3, 24, 20, 0));
+		assertEquals(time(2012, 10, 28, 9, 0), 
+				index.getNextChange(AREA, time(2012, 10, 27, 20, 0)));
+	}
+	
+	@Test
+	public void testClear() {
+		ScheduleIndex index = new ScheduleIndex();
+		index.add(1, AREA, ScheduleIndex.EVERY_DAY, minutes(9, 0), minutes(17, 0), WORK);
+		index.clear();
+		assertEquals(0, index.size());
+		assertEquals(ScheduleIndex.PROFILE_NONE, index.getProfile(AREA, time(2012, 1, 2, 12, 0)));
+	}
+	
+}